@@ -0,0 +1,112 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import no.entur.uttu.export.netex.DataSetCompressor.CompressedEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Zipping of a marshalled data set, compressing the files concurrently as the exporter does,
+ * or one after the other.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DataSetZipBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class MarshalledDataSet {
+
+    /**
+     * Deflate compression level, where -1 is the default level and 0 stores files uncompressed.
+     */
+    @Param({ "-1", "1", "0" })
+    public int compressionLevel;
+
+    List<Path> files;
+
+    Path compressedFolder;
+
+    Path archive;
+
+    @Setup(Level.Trial)
+    public void setUp(ExportBenchmarkState state) throws Exception {
+      Path contentFolder = state.createFolder("content");
+      files = new ArrayList<>();
+      for (NetexFile file : state.produceDataSet()) {
+        files.add(state.marshal(file, contentFolder, false));
+      }
+      compressedFolder = state.createFolder("compressed");
+      archive = state.createFolder("archive").resolve("dataset.zip");
+    }
+  }
+
+  @Benchmark
+  public Path zipConcurrently(ExportBenchmarkState state, MarshalledDataSet dataSet)
+    throws IOException {
+    List<CompletableFuture<CompressedEntry>> compressedFiles = dataSet.files
+      .stream()
+      .map(file ->
+        state.compressor.compressAsync(
+          file,
+          dataSet.compressedFolder,
+          dataSet.compressionLevel
+        )
+      )
+      .toList();
+    List<CompressedEntry> entries = compressedFiles
+      .stream()
+      .map(CompletableFuture::join)
+      .toList();
+    DataSetCompressor.writeArchive(entries, dataSet.archive);
+    return dataSet.archive;
+  }
+
+  @Benchmark
+  public Path zipSequentially(MarshalledDataSet dataSet) throws IOException {
+    List<CompressedEntry> entries = new ArrayList<>(dataSet.files.size());
+    for (Path file : dataSet.files) {
+      entries.add(
+        DataSetCompressor.compress(
+          file,
+          dataSet.compressedFolder,
+          dataSet.compressionLevel
+        )
+      );
+    }
+    DataSetCompressor.writeArchive(entries, dataSet.archive);
+    return dataSet.archive;
+  }
+}
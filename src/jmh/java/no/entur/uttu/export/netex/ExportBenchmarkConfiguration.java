@@ -0,0 +1,222 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import no.entur.uttu.config.AdditionalCodespacesConfig;
+import no.entur.uttu.config.ClockConfig;
+import no.entur.uttu.config.ExportTimeZone;
+import no.entur.uttu.export.netex.producer.NetexObjectFactory;
+import no.entur.uttu.export.netex.producer.common.BrandingProducer;
+import no.entur.uttu.export.netex.producer.common.FlexibleStopPlaceProducer;
+import no.entur.uttu.export.netex.producer.common.NetexCommonFileProducer;
+import no.entur.uttu.export.netex.producer.common.NetworkProducer;
+import no.entur.uttu.export.netex.producer.common.OrganisationProducer;
+import no.entur.uttu.export.netex.producer.common.ServiceCalendarFrameProducer;
+import no.entur.uttu.export.netex.producer.common.ServiceLinkProducer;
+import no.entur.uttu.export.netex.producer.common.ServiceLinkRouter;
+import no.entur.uttu.export.netex.producer.line.ContactStructureProducer;
+import no.entur.uttu.export.netex.producer.line.DatedServiceJourneyProducer;
+import no.entur.uttu.export.netex.producer.line.JourneyPatternProducer;
+import no.entur.uttu.export.netex.producer.line.LineProducer;
+import no.entur.uttu.export.netex.producer.line.NetexLineFileProducer;
+import no.entur.uttu.export.netex.producer.line.RouteProducer;
+import no.entur.uttu.export.netex.producer.line.ServiceJourneyProducer;
+import no.entur.uttu.organisation.spi.OrganisationRegistry;
+import no.entur.uttu.routing.DefaultRoutingService;
+import no.entur.uttu.routing.RouteGeometryCache;
+import no.entur.uttu.routing.RoutingService;
+import no.entur.uttu.service.FlexibleAreaValidationService;
+import no.entur.uttu.stopplace.filter.params.StopPlaceFilterParams;
+import no.entur.uttu.stopplace.spi.StopPlaceRegistry;
+import no.entur.uttu.util.DateUtils;
+import org.locationtech.jts.geom.Polygon;
+import org.rutebanken.netex.model.Authority;
+import org.rutebanken.netex.model.ContactStructure;
+import org.rutebanken.netex.model.LocationStructure;
+import org.rutebanken.netex.model.MultilingualString;
+import org.rutebanken.netex.model.ObjectFactory;
+import org.rutebanken.netex.model.Operator;
+import org.rutebanken.netex.model.Quay;
+import org.rutebanken.netex.model.Quays_RelStructure;
+import org.rutebanken.netex.model.SimplePoint_VersionStructure;
+import org.rutebanken.netex.model.StopPlace;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * The export beans needed to produce, marshal, validate and zip data sets, without a database
+ * or external registries. Every quay and organisation ref is known to the stub registries, and
+ * routing is disabled.
+ */
+@Configuration
+@Import(
+  {
+    ClockConfig.class,
+    DateUtils.class,
+    ExportTimeZone.class,
+    AdditionalCodespacesConfig.class,
+    NetexObjectFactory.class,
+    ContactStructureProducer.class,
+    LineProducer.class,
+    RouteProducer.class,
+    JourneyPatternProducer.class,
+    ServiceJourneyProducer.class,
+    DatedServiceJourneyProducer.class,
+    NetexLineFileProducer.class,
+    OrganisationProducer.class,
+    FlexibleStopPlaceProducer.class,
+    ServiceCalendarFrameProducer.class,
+    NetworkProducer.class,
+    ServiceLinkProducer.class,
+    BrandingProducer.class,
+    NetexCommonFileProducer.class,
+    FlexibleAreaValidationService.class,
+    NetexMarshallerPool.class,
+    NetexSchemaValidator.class,
+    DataSetCompressor.class,
+  }
+)
+public class ExportBenchmarkConfiguration {
+
+  @Bean
+  public MeterRegistry meterRegistry() {
+    return new SimpleMeterRegistry();
+  }
+
+  @Bean
+  public RoutingService routingService() {
+    return new DefaultRoutingService();
+  }
+
+  @Bean
+  public ServiceLinkRouter serviceLinkRouter(
+    RoutingService routingService,
+    MeterRegistry meterRegistry
+  ) {
+    // routing is disabled, so routes are neither requested nor cached
+    return new ServiceLinkRouter(
+      new RouteGeometryCache(routingService, null, meterRegistry, 0, false),
+      1,
+      60
+    );
+  }
+
+  @Bean
+  public StopPlaceRegistry stopPlaceRegistry() {
+    return new SyntheticStopPlaceRegistry();
+  }
+
+  @Bean
+  public OrganisationRegistry organisationRegistry() {
+    return new SyntheticOrganisationRegistry();
+  }
+
+  /**
+   * Every quay belongs to the same stop place.
+   */
+  static class SyntheticStopPlaceRegistry implements StopPlaceRegistry {
+
+    private final Quay quay = new Quay()
+      .withId("NSR:Quay:1")
+      .withVersion("1")
+      .withCentroid(
+        new SimplePoint_VersionStructure()
+          .withLocation(
+            new LocationStructure()
+              .withLongitude(BigDecimal.valueOf(10.75))
+              .withLatitude(BigDecimal.valueOf(59.91))
+          )
+      );
+
+    private final StopPlace stopPlace = new StopPlace()
+      .withId("NSR:StopPlace:1")
+      .withVersion("1")
+      .withName(new MultilingualString().withValue("Benchmark stop"))
+      .withQuays(
+        new Quays_RelStructure().withQuayRefOrQuay(new ObjectFactory().createQuay(quay))
+      );
+
+    @Override
+    public Optional<StopPlace> getStopPlaceByQuayRef(String quayRef) {
+      return Optional.of(stopPlace);
+    }
+
+    @Override
+    public List<StopPlace> getStopPlaces(List<StopPlaceFilterParams> filters) {
+      return List.of(stopPlace);
+    }
+
+    @Override
+    public Optional<Quay> getQuayById(String id) {
+      return Optional.of(quay);
+    }
+
+    @Override
+    public List<StopPlace> getStopPlacesWithinPolygon(Polygon polygon) {
+      return List.of();
+    }
+  }
+
+  static class SyntheticOrganisationRegistry implements OrganisationRegistry {
+
+    private final ContactStructure contactDetails = new ContactStructure()
+      .withUrl("https://www.example.com");
+
+    @Override
+    public List<Authority> getAuthorities() {
+      return List.of(getAuthority(SyntheticDataSet.AUTHORITY_REF).orElseThrow());
+    }
+
+    @Override
+    public Optional<Authority> getAuthority(String id) {
+      return Optional.of(
+        new Authority()
+          .withId(id)
+          .withVersion("1")
+          .withName(new MultilingualString().withValue("Benchmark authority"))
+          .withContactDetails(contactDetails)
+      );
+    }
+
+    @Override
+    public List<Operator> getOperators() {
+      return List.of(getOperator(SyntheticDataSet.OPERATOR_REF).orElseThrow());
+    }
+
+    @Override
+    public Optional<Operator> getOperator(String id) {
+      return Optional.of(
+        new Operator()
+          .withId(id)
+          .withVersion("1")
+          .withName(new MultilingualString().withValue("Benchmark operator"))
+          .withContactDetails(contactDetails)
+      );
+    }
+
+    @Override
+    public void validateOperatorRef(String operatorRef) {}
+
+    @Override
+    public void validateAuthorityRef(String authorityRef) {}
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import no.entur.uttu.export.netex.producer.common.NetexCommonFileProducer;
+import no.entur.uttu.export.netex.producer.line.NetexLineFileProducer;
+import no.entur.uttu.model.Line;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+/**
+ * The export beans and the synthetic data set shared by the export benchmarks. The size of the
+ * data set is set with JMH parameters, e.g. -p lines=100 -p serviceJourneys=50.
+ */
+@State(Scope.Benchmark)
+public class ExportBenchmarkState {
+
+  @Param("20")
+  public int lines;
+
+  @Param("4")
+  public int journeyPatterns;
+
+  @Param("30")
+  public int serviceJourneys;
+
+  @Param("20")
+  public int stops;
+
+  @Param("3")
+  public int dayTypes;
+
+  @Param("20")
+  public int flexibleLinePercent;
+
+  @Param("false")
+  public boolean includeDatedServiceJourneys;
+
+  private AnnotationConfigApplicationContext applicationContext;
+
+  private SyntheticDataSet dataSet;
+
+  NetexLineFileProducer lineFileProducer;
+
+  NetexCommonFileProducer commonFileProducer;
+
+  NetexMarshallerPool marshallerPool;
+
+  NetexSchemaValidator schemaValidator;
+
+  DataSetCompressor compressor;
+
+  private Path workingFolder;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    applicationContext = new AnnotationConfigApplicationContext(
+      ExportBenchmarkConfiguration.class
+    );
+    lineFileProducer = applicationContext.getBean(NetexLineFileProducer.class);
+    commonFileProducer = applicationContext.getBean(NetexCommonFileProducer.class);
+    marshallerPool = applicationContext.getBean(NetexMarshallerPool.class);
+    schemaValidator = applicationContext.getBean(NetexSchemaValidator.class);
+    compressor = applicationContext.getBean(DataSetCompressor.class);
+
+    // the schema is compiled in the background when the pool is created
+    marshallerPool.getSchema();
+
+    dataSet = new SyntheticDataSet(
+      lines,
+      journeyPatterns,
+      serviceJourneys,
+      stops,
+      dayTypes,
+      flexibleLinePercent,
+      LocalDate.now()
+    );
+    workingFolder = Files.createTempDirectory("uttu-benchmark");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    applicationContext.close();
+    FileUtils.deleteDirectory(workingFolder.toFile());
+  }
+
+  public List<Line> getLines() {
+    return dataSet.getLines();
+  }
+
+  public NetexExportContext newExportContext() {
+    return new NetexExportContext(dataSet.createExport(includeDatedServiceJourneys));
+  }
+
+  /**
+   * Produce the line files and the common file of a new export, in the same order as the
+   * exporter does.
+   */
+  public List<NetexFile> produceDataSet() {
+    NetexExportContext context = newExportContext();
+    List<NetexFile> files = new ArrayList<>(lines + 1);
+    for (Line line : dataSet.getLines()) {
+      files.add(lineFileProducer.toNetexFile(line, context));
+    }
+    files.add(commonFileProducer.toCommonFile(context));
+    return files;
+  }
+
+  public Path createFolder(String name) throws IOException {
+    return Files.createDirectories(workingFolder.resolve(name));
+  }
+
+  /**
+   * Marshal the file into the folder, the same way the exporter does.
+   */
+  public Path marshal(NetexFile file, Path folder, boolean validateAgainstSchema)
+    throws Exception {
+    Path target = folder.resolve(file.getFileName());
+    try (OutputStream outputStream = Files.newOutputStream(target)) {
+      marshallerPool.marshal(
+        file.getPublicationDeliveryStructure(),
+        outputStream,
+        validateAgainstSchema
+      );
+    }
+    return target;
+  }
+}
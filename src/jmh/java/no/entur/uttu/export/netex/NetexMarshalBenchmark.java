@@ -0,0 +1,96 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Marshalling of a produced data set to files, one file at a time, with and without schema
+ * validation while marshalling, and schema validation of the marshalled files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class NetexMarshalBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class ProducedDataSet {
+
+    List<NetexFile> files;
+
+    List<Path> marshalledFiles;
+
+    Path folder;
+
+    @Setup(Level.Trial)
+    public void setUp(ExportBenchmarkState state) throws Exception {
+      files = state.produceDataSet();
+      folder = state.createFolder("marshal");
+      Path validationFolder = state.createFolder("validate");
+      marshalledFiles = new ArrayList<>(files.size());
+      for (NetexFile file : files) {
+        marshalledFiles.add(state.marshal(file, validationFolder, false));
+      }
+    }
+  }
+
+  @Benchmark
+  public void marshal(ExportBenchmarkState state, ProducedDataSet dataSet)
+    throws Exception {
+    for (NetexFile file : dataSet.files) {
+      state.marshal(file, dataSet.folder, false);
+    }
+  }
+
+  @Benchmark
+  public void marshalWithSchemaValidation(
+    ExportBenchmarkState state,
+    ProducedDataSet dataSet
+  ) throws Exception {
+    for (NetexFile file : dataSet.files) {
+      state.marshal(file, dataSet.folder, true);
+    }
+  }
+
+  @Benchmark
+  public void validateMarshalledFiles(
+    ExportBenchmarkState state,
+    ProducedDataSet dataSet,
+    Blackhole blackhole
+  ) {
+    NetexExportContext context = state.newExportContext();
+    for (Path file : dataSet.marshalledFiles) {
+      blackhole.consume(state.schemaValidator.validate(file, context));
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.entur.uttu.model.Line;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Production of the NeTEx object graphs of a data set, without marshalling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class NetexProductionBenchmark {
+
+  @Benchmark
+  public void produceLineFiles(ExportBenchmarkState state, Blackhole blackhole) {
+    NetexExportContext context = state.newExportContext();
+    for (Line line : state.getLines()) {
+      blackhole.consume(state.lineFileProducer.toNetexFile(line, context));
+    }
+  }
+
+  @Benchmark
+  public List<NetexFile> produceDataSet(ExportBenchmarkState state) {
+    return state.produceDataSet();
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import no.entur.uttu.model.Codespace;
+import no.entur.uttu.model.DayType;
+import no.entur.uttu.model.DayTypeAssignment;
+import no.entur.uttu.model.DestinationDisplay;
+import no.entur.uttu.model.FixedLine;
+import no.entur.uttu.model.FlexibleLine;
+import no.entur.uttu.model.FlexibleLineTypeEnumeration;
+import no.entur.uttu.model.JourneyPattern;
+import no.entur.uttu.model.Line;
+import no.entur.uttu.model.Network;
+import no.entur.uttu.model.OperatingPeriod;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.ProviderEntity;
+import no.entur.uttu.model.ServiceJourney;
+import no.entur.uttu.model.StopPointInJourneyPattern;
+import no.entur.uttu.model.TimetabledPassingTime;
+import no.entur.uttu.model.VehicleModeEnumeration;
+import no.entur.uttu.model.VehicleSubmodeEnumeration;
+import no.entur.uttu.model.job.Export;
+
+/**
+ * In-memory data set of a synthetic provider, for benchmarking exports without a database.
+ *
+ * <p>
+ *   Every line has the given number of journey patterns, alternating between the two
+ *   directions over the same stops, and every journey pattern has the given number of service
+ *   journeys spread over the day. Service journeys are assigned to the shared day types round
+ *   robin. The generated data set is deterministic for the given sizes and date.
+ * </p>
+ */
+public class SyntheticDataSet {
+
+  static final String XMLNS = "BNC";
+
+  static final String AUTHORITY_REF = "BNC:Authority:1";
+
+  static final String OPERATOR_REF = "BNC:Operator:1";
+
+  private static final LocalTime FIRST_DEPARTURE = LocalTime.of(5, 30);
+
+  private static final int MINUTES_BETWEEN_JOURNEYS = 12;
+
+  private static final int MINUTES_BETWEEN_STOPS = 3;
+
+  private static final Long VERSION = 1L;
+
+  private final Provider provider;
+
+  private final Network network;
+
+  private final List<DayType> dayTypes;
+
+  private final List<Line> lines;
+
+  /**
+   * @param lines number of lines
+   * @param journeyPatterns number of journey patterns per line
+   * @param serviceJourneys number of service journeys per journey pattern
+   * @param stops number of stop points per journey pattern
+   * @param dayTypes number of day types shared by all service journeys
+   * @param flexibleLinePercent share of the lines produced as flexible lines
+   * @param today the date the operating periods of the day types are relative to
+   */
+  public SyntheticDataSet(
+    int lines,
+    int journeyPatterns,
+    int serviceJourneys,
+    int stops,
+    int dayTypes,
+    int flexibleLinePercent,
+    LocalDate today
+  ) {
+    this.provider = createProvider();
+    this.network = createNetwork();
+    this.dayTypes = new ArrayList<>(dayTypes);
+    for (int i = 0; i < dayTypes; i++) {
+      this.dayTypes.add(createDayType(i, today));
+    }
+    this.lines = new ArrayList<>(lines);
+    for (int i = 0; i < lines; i++) {
+      boolean flexible = i * 100 < lines * flexibleLinePercent;
+      this.lines.add(createLine(i, flexible, journeyPatterns, serviceJourneys, stops));
+    }
+  }
+
+  public Provider getProvider() {
+    return provider;
+  }
+
+  public List<Line> getLines() {
+    return lines;
+  }
+
+  /**
+   * A new export of the data set, as every export collects its own messages.
+   */
+  public Export createExport(boolean includeDatedServiceJourneys) {
+    Export export = new Export();
+    export.setName("benchmark");
+    export.setProvider(provider);
+    export.setDryRun(true);
+    export.setIncludeDatedServiceJourneys(includeDatedServiceJourneys);
+    return export;
+  }
+
+  private Provider createProvider() {
+    Codespace codespace = new Codespace();
+    codespace.setXmlns(XMLNS);
+    codespace.setXmlnsUrl("http://www.rutebanken.org/ns/bnc");
+    Provider provider = new Provider();
+    provider.setCode("bnc");
+    provider.setName("Benchmark");
+    provider.setCodespace(codespace);
+    return provider;
+  }
+
+  private Network createNetwork() {
+    Network network = init(new Network(), "Network", 1);
+    network.setName("Benchmark network");
+    network.setAuthorityRef(AUTHORITY_REF);
+    return network;
+  }
+
+  private DayType createDayType(int index, LocalDate today) {
+    DayType dayType = init(new DayType(), "DayType", index);
+    dayType.setName("Day type " + index);
+    dayType.setDaysOfWeek(new ArrayList<>(daysOfWeek(index)));
+
+    OperatingPeriod operatingPeriod = new OperatingPeriod();
+    operatingPeriod.setFromDate(today.minusDays(30L + index));
+    operatingPeriod.setToDate(today.plusDays(180L + index * 30L));
+    DayTypeAssignment period = new DayTypeAssignment();
+    period.setAvailable(true);
+    period.setOperatingPeriod(operatingPeriod);
+
+    DayTypeAssignment excludedDate = new DayTypeAssignment();
+    excludedDate.setAvailable(false);
+    excludedDate.setDate(today.plusDays(7L + index));
+
+    dayType.setDayTypeAssignments(new ArrayList<>(List.of(period, excludedDate)));
+    return dayType;
+  }
+
+  private static EnumSet<DayOfWeek> daysOfWeek(int index) {
+    return switch (index % 3) {
+      case 0 -> EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY);
+      case 1 -> EnumSet.of(DayOfWeek.SATURDAY);
+      default -> EnumSet.of(DayOfWeek.SUNDAY);
+    };
+  }
+
+  private Line createLine(
+    int index,
+    boolean flexible,
+    int journeyPatterns,
+    int serviceJourneys,
+    int stops
+  ) {
+    Line line;
+    if (flexible) {
+      FlexibleLine flexibleLine = init(new FlexibleLine(), "FlexibleLine", index);
+      flexibleLine.setFlexibleLineType(FlexibleLineTypeEnumeration.FIXED_STOP_AREA_WIDE);
+      line = flexibleLine;
+    } else {
+      line = init(new FixedLine(), "Line", index);
+    }
+    line.setName("Line " + index);
+    line.setPublicCode(String.valueOf(index + 1));
+    line.setTransportMode(VehicleModeEnumeration.BUS);
+    line.setTransportSubmode(VehicleSubmodeEnumeration.LOCAL_BUS);
+    line.setNetwork(network);
+    line.setOperatorRef(OPERATOR_REF);
+    line.setNotices(new ArrayList<>());
+
+    List<JourneyPattern> patterns = new ArrayList<>(journeyPatterns);
+    for (int i = 0; i < journeyPatterns; i++) {
+      int patternIndex = index * journeyPatterns + i;
+      patterns.add(
+        createJourneyPattern(line, patternIndex, i % 2 == 1, serviceJourneys, stops)
+      );
+    }
+    line.setJourneyPatterns(patterns);
+    return line;
+  }
+
+  private JourneyPattern createJourneyPattern(
+    Line line,
+    int index,
+    boolean inbound,
+    int serviceJourneys,
+    int stops
+  ) {
+    JourneyPattern journeyPattern = init(new JourneyPattern(), "JourneyPattern", index);
+    journeyPattern.setName(line.getName() + (inbound ? " inbound" : " outbound"));
+    journeyPattern.setNotices(new ArrayList<>());
+
+    DestinationDisplay destinationDisplay = init(
+      new DestinationDisplay(),
+      "DestinationDisplay",
+      index
+    );
+    destinationDisplay.setFrontText(journeyPattern.getName());
+
+    // both directions of a line serve the same quays
+    List<StopPointInJourneyPattern> stopPoints = new ArrayList<>(stops);
+    for (int i = 0; i < stops; i++) {
+      int quay = inbound ? stops - 1 - i : i;
+      StopPointInJourneyPattern stopPoint = init(
+        new StopPointInJourneyPattern(),
+        "StopPointInJourneyPattern",
+        index * stops + i
+      );
+      stopPoint.setQuayRef("NSR:Quay:" + (lineQuayOffset(line) + quay));
+      stopPoint.setForBoarding(i < stops - 1);
+      stopPoint.setForAlighting(i > 0);
+      stopPoint.setNotices(new ArrayList<>());
+      if (i == 0) {
+        stopPoint.setDestinationDisplay(destinationDisplay);
+      }
+      stopPoints.add(stopPoint);
+    }
+    journeyPattern.setPointsInSequence(stopPoints);
+
+    List<ServiceJourney> journeys = new ArrayList<>(serviceJourneys);
+    for (int i = 0; i < serviceJourneys; i++) {
+      journeys.add(createServiceJourney(index * serviceJourneys + i, i, stops));
+    }
+    journeyPattern.setServiceJourneys(journeys);
+    return journeyPattern;
+  }
+
+  private ServiceJourney createServiceJourney(int index, int departureIndex, int stops) {
+    ServiceJourney serviceJourney = init(new ServiceJourney(), "ServiceJourney", index);
+    serviceJourney.setName("Service journey " + index);
+    serviceJourney.setPublicCode(String.valueOf(index));
+    serviceJourney.setNotices(new ArrayList<>());
+    if (!dayTypes.isEmpty()) {
+      serviceJourney.updateDayTypes(List.of(dayTypes.get(index % dayTypes.size())));
+    }
+
+    int departureMinutes =
+      FIRST_DEPARTURE.getHour() * 60 +
+      FIRST_DEPARTURE.getMinute() +
+      departureIndex * MINUTES_BETWEEN_JOURNEYS;
+    List<TimetabledPassingTime> passingTimes = new ArrayList<>(stops);
+    for (int i = 0; i < stops; i++) {
+      int minutes = departureMinutes + i * MINUTES_BETWEEN_STOPS;
+      LocalTime time = LocalTime.of((minutes / 60) % 24, minutes % 60);
+      int dayOffset = minutes / (24 * 60);
+      TimetabledPassingTime passingTime = init(
+        new TimetabledPassingTime(),
+        "TimetabledPassingTime",
+        index * stops + i
+      );
+      passingTime.setNotices(new ArrayList<>());
+      if (i > 0) {
+        passingTime.setArrivalTime(time);
+        passingTime.setArrivalDayOffset(dayOffset);
+      }
+      if (i < stops - 1) {
+        passingTime.setDepartureTime(time);
+        passingTime.setDepartureDayOffset(dayOffset);
+      }
+      passingTimes.add(passingTime);
+    }
+    serviceJourney.setPassingTimes(passingTimes);
+    return serviceJourney;
+  }
+
+  private int lineQuayOffset(Line line) {
+    return Integer.parseInt(line.getPublicCode()) * 10_000;
+  }
+
+  private <E extends ProviderEntity> E init(E entity, String type, int index) {
+    entity.setProvider(provider);
+    entity.setNetexId(XMLNS + ":" + type + ":" + index);
+    entity.setVersion(VERSION);
+    return entity;
+  }
+}
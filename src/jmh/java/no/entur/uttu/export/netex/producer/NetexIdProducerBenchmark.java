@@ -0,0 +1,190 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex.producer;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import java.util.concurrent.TimeUnit;
+import no.entur.uttu.export.netex.NetexExportContext;
+import no.entur.uttu.model.Codespace;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.Ref;
+import no.entur.uttu.model.job.Export;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rutebanken.netex.model.JourneyPatternRefStructure;
+import org.rutebanken.netex.model.StopPointInJourneyPattern;
+
+/**
+ * Id production of {@link NetexIdProducer}, compared with the previous implementation
+ * splitting ids with Guava and replacing prefixes and suffixes with regular expressions.
+ * Run with -prof gc to compare allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NetexIdProducerBenchmark {
+
+  private static final String[] IDS = {
+    "TST:FlexibleLine:1",
+    "TST:JourneyPattern:a1b2c3d4-e5f6-4a7b-8c9d-0e1f2a3b4c5d",
+    "TST:StopPointInJourneyPattern:1234",
+    "TST:ServiceJourney:42",
+  };
+
+  private final StopPointInJourneyPattern stopPoint = new StopPointInJourneyPattern();
+
+  private final JourneyPatternRefStructure journeyPatternRef =
+    new JourneyPatternRefStructure();
+
+  private Ref[] refs;
+
+  private NetexExportContext context;
+
+  @Setup
+  public void setUp() {
+    refs = new Ref[IDS.length];
+    for (int i = 0; i < IDS.length; i++) {
+      refs[i] = new Ref(IDS[i], "1");
+    }
+    Codespace codespace = new Codespace();
+    codespace.setXmlns("ENT");
+    Provider provider = new Provider();
+    provider.setCode("ent");
+    provider.setCodespace(codespace);
+    Export export = new Export();
+    export.setProvider(provider);
+    context = new NetexExportContext(export);
+  }
+
+  @Benchmark
+  public void getId(Blackhole blackhole) {
+    for (Ref ref : refs) {
+      blackhole.consume(NetexIdProducer.getId(stopPoint, ref));
+      blackhole.consume(NetexIdProducer.getReference(journeyPatternRef, ref));
+    }
+  }
+
+  @Benchmark
+  public void getIdLegacy(Blackhole blackhole) {
+    for (Ref ref : refs) {
+      blackhole.consume(LegacyNetexIdProducer.getId(stopPoint, ref));
+      blackhole.consume(LegacyNetexIdProducer.getReference(journeyPatternRef, ref));
+    }
+  }
+
+  @Benchmark
+  public void updateId(Blackhole blackhole) {
+    for (String id : IDS) {
+      blackhole.consume(NetexIdProducer.updateIdPrefix(id, context));
+      blackhole.consume(NetexIdProducer.updateIdSuffix(id, "2"));
+    }
+  }
+
+  @Benchmark
+  public void updateIdLegacy(Blackhole blackhole) {
+    for (String id : IDS) {
+      blackhole.consume(LegacyNetexIdProducer.updateIdPrefix(id, context));
+      blackhole.consume(LegacyNetexIdProducer.updateIdSuffix(id, "2"));
+    }
+  }
+
+  @Benchmark
+  public void generateId(Blackhole blackhole) {
+    for (int i = 0; i < IDS.length; i++) {
+      blackhole.consume(
+        NetexIdProducer.generateId(StopPointInJourneyPattern.class, context)
+      );
+    }
+  }
+
+  @Benchmark
+  public void generateIdLegacy(Blackhole blackhole) {
+    for (int i = 0; i < IDS.length; i++) {
+      blackhole.consume(
+        LegacyNetexIdProducer.generateId(StopPointInJourneyPattern.class, context)
+      );
+    }
+  }
+
+  /**
+   * The id production replaced by span parsing, kept for comparison.
+   */
+  static class LegacyNetexIdProducer {
+
+    private static final String SEPARATOR = ":";
+
+    static String getId(StopPointInJourneyPattern netex, Ref ref) {
+      return getId(
+        getObjectIdPrefix(ref.id),
+        netex.getClass().getSimpleName(),
+        getObjectIdSuffix(ref.id)
+      );
+    }
+
+    static String getReference(JourneyPatternRefStructure netex, Ref ref) {
+      String localPart = netex.getClass().getSimpleName();
+      localPart = localPart.substring(0, localPart.lastIndexOf("RefStructure"));
+      return getId(getObjectIdPrefix(ref.id), localPart, getObjectIdSuffix(ref.id));
+    }
+
+    static String generateId(Class<?> netexEntityClass, NetexExportContext context) {
+      String entityName = netexEntityClass.getSimpleName();
+      return getId(
+        getIdPrefix(context),
+        entityName,
+        String.valueOf(context.getAndIncrementIdSequence(entityName))
+      );
+    }
+
+    static String getId(String prefix, String entityName, String suffix) {
+      return Joiner.on(SEPARATOR).join(prefix, entityName, suffix);
+    }
+
+    static String updateIdPrefix(String objectId, NetexExportContext context) {
+      return objectId.replaceFirst(getObjectIdPrefix(objectId), getIdPrefix(context));
+    }
+
+    static String updateIdSuffix(String objectId, String newSuffix) {
+      return objectId.replaceFirst(getObjectIdSuffix(objectId), newSuffix);
+    }
+
+    static String getObjectIdPrefix(String objectId) {
+      return objectId.split(SEPARATOR)[0];
+    }
+
+    static String getObjectIdSuffix(String objectId) {
+      return Iterables.getLast(Splitter.on(SEPARATOR).trimResults().split(objectId));
+    }
+
+    private static String getIdPrefix(NetexExportContext context) {
+      return context.provider.getCodespace().getXmlns();
+    }
+  }
+}
@@ -0,0 +1,409 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.job.Export;
+import no.entur.uttu.model.job.ExportBatch;
+import no.entur.uttu.model.job.ExportBatchResult;
+import no.entur.uttu.model.job.ExportBatchStatusEnumeration;
+import no.entur.uttu.repository.ExportBatchRepository;
+import no.entur.uttu.repository.ProviderRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Exports every provider, or a configured subset, on a schedule and stores a summary of
+ * the batch.
+ *
+ * <p>
+ *   Providers are exported concurrently up to a limit, on threads of their own, so a
+ *   batch does not fill the queue of the workers running exports requested by clients.
+ *   An attempt that throws, e.g. because the database is unavailable, is retried after
+ *   a back-off that doubles for every attempt. Exports finishing as failed are not
+ *   retried, as they fail on the data. An attempt running longer than the timeout is
+ *   interrupted and the provider is reported as timed out. The provider thread waits for
+ *   an interrupted attempt to stop before moving on, so no more exports run at once than
+ *   the parallelism allows. The export of an interrupted attempt is marked as failed.
+ * </p>
+ *
+ * <p>
+ *   Every instance of the application fires the schedule, so a scheduled run first
+ *   claims the batch in the {@code export_batch} table. An instance finding a batch
+ *   started less than half the time to the next run ago skips the run, as another
+ *   instance runs it.
+ * </p>
+ *
+ * To enable batch exports set a cron expression
+ *    export.batch.cron=0 0 1 * * *
+ * To export a subset of the providers set property
+ *    export.batch.providers=rut,atb
+ */
+@Component
+@EnableScheduling
+@ConditionalOnProperty(name = "export.batch.cron")
+public class ExportBatchRunner {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExportBatchRunner.class);
+
+  static final String BATCH_USER_NAME = "export-batch";
+
+  private final ExportJobExecutor exportJobExecutor;
+
+  private final ProviderRepository providerRepository;
+
+  private final ExportBatchRepository exportBatchRepository;
+
+  private final Set<String> providerCodes;
+
+  private final long timeoutMillis;
+
+  private final int maxAttempts;
+
+  private final long backoffMillis;
+
+  private final ExecutorService providerExecutor;
+
+  private final ExecutorService attemptExecutor;
+
+  @Value("${export.batch.cron}")
+  private String cron;
+
+  @Value("${export.batch.dryRun:false}")
+  private boolean dryRun;
+
+  @Value("${export.batch.generateServiceLinks:true}")
+  private boolean generateServiceLinks;
+
+  @Value("${export.batch.includeDatedServiceJourneys:false}")
+  private boolean includeDatedServiceJourneys;
+
+  public ExportBatchRunner(
+    ExportJobExecutor exportJobExecutor,
+    ProviderRepository providerRepository,
+    ExportBatchRepository exportBatchRepository,
+    @Value("${export.batch.providers:}") String providerCodes,
+    @Value("${export.batch.parallelism:2}") int parallelism,
+    @Value("${export.batch.timeout.seconds:3600}") long timeoutSeconds,
+    @Value("${export.batch.maxAttempts:3}") int maxAttempts,
+    @Value("${export.batch.backoff.seconds:60}") long backoffSeconds
+  ) {
+    this.exportJobExecutor = exportJobExecutor;
+    this.providerRepository = providerRepository;
+    this.exportBatchRepository = exportBatchRepository;
+    this.providerCodes = StringUtils.commaDelimitedListToSet(
+      StringUtils.trimAllWhitespace(providerCodes)
+    );
+    this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.backoffMillis = TimeUnit.SECONDS.toMillis(backoffSeconds);
+    this.providerExecutor = Executors.newFixedThreadPool(
+      Math.max(1, parallelism),
+      daemonThreadFactory("export-batch-")
+    );
+    // attempts run apart from the provider threads, which can interrupt a stuck attempt
+    this.attemptExecutor = Executors.newFixedThreadPool(
+      Math.max(1, parallelism),
+      daemonThreadFactory("export-batch-attempt-")
+    );
+  }
+
+  @Scheduled(cron = "${export.batch.cron}")
+  public void scheduledRun() {
+    Instant now = Instant.now();
+    Instant nextRun = CronExpression.parse(cron)
+      .next(now.atZone(ZoneId.systemDefault()))
+      .toInstant();
+    Duration sinceOtherRun = Duration.between(now, nextRun).dividedBy(2);
+    exportBatchRepository
+      .claim(now, now.minus(sinceOtherRun))
+      .ifPresentOrElse(this::run, () ->
+        logger.info("Batch export started by another instance, skipping this run")
+      );
+  }
+
+  /**
+   * Export the providers and wait for every export to finish or time out.
+   */
+  public ExportBatch run() {
+    ExportBatch batch = new ExportBatch();
+    batch.setStarted(Instant.now());
+    return run(batch);
+  }
+
+  private ExportBatch run(ExportBatch batch) {
+    List<String> providersToExport = findProvidersToExport();
+    logger.info("Starting batch export of {} providers", providersToExport.size());
+
+    List<Future<ExportBatchResult>> results = new ArrayList<>(providersToExport.size());
+    for (String providerCode : providersToExport) {
+      results.add(providerExecutor.submit(() -> exportProvider(providerCode)));
+    }
+    for (int i = 0; i < results.size(); i++) {
+      batch.addResult(awaitResult(providersToExport.get(i), results.get(i)));
+    }
+
+    batch.setFinished(Instant.now());
+    ExportBatch storedBatch = exportBatchRepository.store(batch);
+    logger.info(
+      "Completed batch export in {} ms: {} succeeded, {} failed, {} timed out. {}",
+      batch.getFinished().toEpochMilli() - batch.getStarted().toEpochMilli(),
+      batch.count(ExportBatchStatusEnumeration.SUCCESS),
+      batch.count(ExportBatchStatusEnumeration.FAILED),
+      batch.count(ExportBatchStatusEnumeration.TIMED_OUT),
+      batch.getResults()
+    );
+    return storedBatch;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    providerExecutor.shutdownNow();
+    attemptExecutor.shutdownNow();
+  }
+
+  private List<String> findProvidersToExport() {
+    List<String> existingProviderCodes = providerRepository
+      .findAll()
+      .stream()
+      .map(Provider::getCode)
+      .sorted()
+      .toList();
+    if (providerCodes.isEmpty()) {
+      return existingProviderCodes;
+    }
+    providerCodes
+      .stream()
+      .filter(code -> !existingProviderCodes.contains(code))
+      .forEach(code -> logger.warn("Provider {} not found, skipping batch export", code));
+    return existingProviderCodes.stream().filter(providerCodes::contains).toList();
+  }
+
+  ExportBatchResult exportProvider(String providerCode) {
+    long start = System.nanoTime();
+    String exportId = null;
+    String message = null;
+    int attempt = 0;
+    while (attempt < maxAttempts) {
+      if (attempt > 0 && !backOff(attempt)) {
+        message = "Interrupted while backing off";
+        break;
+      }
+      attempt++;
+      Attempt exportAttempt = new Attempt(providerCode);
+      Future<Export> future = attemptExecutor.submit(exportAttempt);
+      try {
+        Export export = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        exportId = export.getNetexId();
+        ExportBatchStatusEnumeration status = export.isSuccess()
+          ? ExportBatchStatusEnumeration.SUCCESS
+          : ExportBatchStatusEnumeration.FAILED;
+        return result(
+          providerCode,
+          status,
+          exportId,
+          attempt,
+          start,
+          export.isSuccess() ? null : "Export failed, see the messages of the export"
+        );
+      } catch (TimeoutException e) {
+        logger.warn("Batch export of {} timed out, interrupting it", providerCode);
+        exportAttempt.stop(future);
+        return result(
+          providerCode,
+          ExportBatchStatusEnumeration.TIMED_OUT,
+          exportId,
+          attempt,
+          start,
+          "Timed out after " + timeoutMillis + " ms"
+        );
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        message = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        // the attempt has stopped, and its export is marked as failed
+        logger.warn(
+          "Batch export of {} failed in attempt {} of {}",
+          providerCode,
+          attempt,
+          maxAttempts,
+          cause
+        );
+      } catch (InterruptedException e) {
+        exportAttempt.stop(future);
+        Thread.currentThread().interrupt();
+        message = "Interrupted while waiting for the export";
+        break;
+      }
+    }
+    return result(
+      providerCode,
+      ExportBatchStatusEnumeration.FAILED,
+      exportId,
+      attempt,
+      start,
+      message
+    );
+  }
+
+  private void configure(Export export) {
+    export.setName("Batch export " + Instant.now());
+    export.setDryRun(dryRun);
+    export.setGenerateServiceLinks(generateServiceLinks);
+    export.setIncludeDatedServiceJourneys(includeDatedServiceJourneys);
+  }
+
+  /**
+   * Wait before the next attempt, twice as long as before the previous one.
+   *
+   * @return false if interrupted while waiting
+   */
+  private boolean backOff(int failedAttempts) {
+    try {
+      Thread.sleep(backoffMillis << Math.min(failedAttempts - 1, 10));
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private ExportBatchResult awaitResult(
+    String providerCode,
+    Future<ExportBatchResult> result
+  ) {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      logger.error("Batch export of {} failed unexpectedly", providerCode, e.getCause());
+      return new ExportBatchResult(
+        providerCode,
+        ExportBatchStatusEnumeration.FAILED,
+        null,
+        0,
+        0,
+        e.getCause().getMessage()
+      );
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.cancel(true);
+      return new ExportBatchResult(
+        providerCode,
+        ExportBatchStatusEnumeration.FAILED,
+        null,
+        0,
+        0,
+        "Batch export interrupted"
+      );
+    }
+  }
+
+  private static ExportBatchResult result(
+    String providerCode,
+    ExportBatchStatusEnumeration status,
+    String exportId,
+    int attempts,
+    long startNanos,
+    String message
+  ) {
+    return new ExportBatchResult(
+      providerCode,
+      status,
+      exportId,
+      attempts,
+      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+      message
+    );
+  }
+
+  /**
+   * An attempt to export a provider, which can be stopped and waited for.
+   */
+  private final class Attempt implements Callable<Export> {
+
+    private final String providerCode;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private Attempt(String providerCode) {
+      this.providerCode = providerCode;
+    }
+
+    @Override
+    public Export call() {
+      if (!started.compareAndSet(false, true)) {
+        return null;
+      }
+      try {
+        return exportJobExecutor.runExport(
+          providerCode,
+          BATCH_USER_NAME,
+          ExportBatchRunner.this::configure
+        );
+      } finally {
+        stopped.countDown();
+      }
+    }
+
+    /**
+     * Interrupt the attempt and wait for it to stop, or prevent it from starting. Waits
+     * uninterruptibly, as a running attempt must not outlive the provider thread.
+     */
+    private void stop(Future<Export> future) {
+      future.cancel(true);
+      if (started.compareAndSet(false, true)) {
+        return;
+      }
+      Uninterruptibles.awaitUninterruptibly(stopped);
+    }
+  }
+
+  private static ThreadFactory daemonThreadFactory(String namePrefix) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
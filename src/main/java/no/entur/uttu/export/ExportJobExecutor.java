@@ -0,0 +1,311 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import no.entur.uttu.config.Context;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.job.Export;
+import no.entur.uttu.model.job.ExportStatusEnumeration;
+import no.entur.uttu.repository.ProviderRepository;
+import no.entur.uttu.util.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs exports in the background on a bounded pool of worker threads.
+ *
+ * <p>
+ *   An export is submitted once the transaction persisting it has committed. The worker
+ *   reloads the export in its own transaction, runs it and stores the final status, so
+ *   clients poll the export until it leaves {@code IN_PROGRESS}.
+ * </p>
+ *
+ * <p>
+ *   An export failing outside of the export service, e.g. when committing, is marked as
+ *   failed in a transaction of its own. Exports still queued or running when the
+ *   application stops are lost with the queue. Exports left in progress can be marked as
+ *   failed when the application starts, but only when a single instance runs exports, as
+ *   otherwise the exports of instances still running would be failed as well.
+ * </p>
+ *
+ * To change the number of concurrent exports set property
+ *    export.worker.pool.size=2
+ * To change the number of exports allowed to wait for a worker set property
+ *    export.worker.queue.capacity=100
+ * To mark exports left in progress as failed at startup set property
+ *    export.worker.failInterruptedOnStartup=true
+ */
+@Component
+public class ExportJobExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExportJobExecutor.class);
+
+  static final String RECOVERY_USER_NAME = "export-recovery";
+
+  private final ExportService exportService;
+
+  private final ProviderRepository providerRepository;
+
+  private final TransactionTemplate transactionTemplate;
+
+  private final TransactionTemplate failureTransactionTemplate;
+
+  private final ThreadPoolExecutor executor;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Value("${export.worker.failInterruptedOnStartup:false}")
+  private boolean failInterruptedOnStartup;
+
+  public ExportJobExecutor(
+    ExportService exportService,
+    ProviderRepository providerRepository,
+    PlatformTransactionManager transactionManager,
+    @Value("${export.worker.pool.size:2}") int poolSize,
+    @Value("${export.worker.queue.capacity:100}") int queueCapacity
+  ) {
+    this.exportService = exportService;
+    this.providerRepository = providerRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.failureTransactionTemplate = new TransactionTemplate(transactionManager);
+    failureTransactionTemplate.setPropagationBehavior(
+      TransactionDefinition.PROPAGATION_REQUIRES_NEW
+    );
+
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(
+      poolSize,
+      poolSize,
+      0L,
+      TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(queueCapacity),
+      runnable -> {
+        Thread thread = new Thread(
+          runnable,
+          "export-worker-" + threadCount.incrementAndGet()
+        );
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+  }
+
+  /**
+   * Schedule the export to be run by a worker as soon as the current transaction has
+   * committed, or immediately if there is no transaction.
+   */
+  public void submit(Export export) {
+    ExportJob job = new ExportJob(
+      export.getPk(),
+      export.getProvider().getCode(),
+      Context.getVerifiedUsername()
+    );
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            enqueue(job);
+          }
+        }
+      );
+    } else {
+      enqueue(job);
+    }
+  }
+
+  /**
+   * Create an export of the provider and run it on the calling thread, for exports that
+   * are not requested by a client. The export is stored before it is run, so it can be
+   * polled. If running it throws, or the calling thread is interrupted, the export is
+   * marked as failed.
+   *
+   * @param configurer sets the options of the new export
+   * @return the finished export, detached
+   */
+  public Export runExport(
+    String providerCode,
+    String userName,
+    Consumer<Export> configurer
+  ) {
+    try {
+      Context.setProvider(providerCode);
+      Context.setUserName(userName);
+      Long exportPk = transactionTemplate.execute(status -> {
+        Provider provider = providerRepository.getOne(providerCode);
+        Preconditions.checkArgument(
+          provider != null,
+          "Provider not found [code=%s]",
+          providerCode
+        );
+        Export export = new Export();
+        export.setProvider(provider);
+        configurer.accept(export);
+        entityManager.persist(export);
+        return export.getPk();
+      });
+      if (Thread.currentThread().isInterrupted()) {
+        failExport(exportPk, "Export interrupted before it started");
+        throw new CancellationException("Export interrupted before it started");
+      }
+      Export finishedExport;
+      try {
+        finishedExport = transactionTemplate.execute(status -> {
+          Export export = entityManager.find(Export.class, exportPk);
+          exportService.exportDataSet(export);
+          return export;
+        });
+      } catch (RuntimeException e) {
+        failExport(exportPk, "Export failed unexpectedly: " + e.getMessage());
+        throw e;
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        failExport(exportPk, "Export interrupted before it finished");
+      }
+      return finishedExport;
+    } finally {
+      Context.clear();
+    }
+  }
+
+  /**
+   * Mark exports left in progress by a previous run of the application as failed, as
+   * their jobs were lost with the queue.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void failInterruptedExports() {
+    if (!failInterruptedOnStartup) {
+      return;
+    }
+    List<ExportJob> interruptedJobs = transactionTemplate.execute(status ->
+      entityManager
+        .createQuery("from Export e where e.exportStatus = :status", Export.class)
+        .setParameter("status", ExportStatusEnumeration.IN_PROGRESS)
+        .getResultList()
+        .stream()
+        .map(export ->
+          new ExportJob(
+            export.getPk(),
+            export.getProvider().getCode(),
+            RECOVERY_USER_NAME
+          )
+        )
+        .toList()
+    );
+    for (ExportJob job : interruptedJobs) {
+      runInContext(job, () ->
+        failExport(job.exportPk(), "Export interrupted by a restart, try again")
+      );
+    }
+    if (!interruptedJobs.isEmpty()) {
+      logger.warn("Marked {} interrupted exports as failed", interruptedJobs.size());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Mark the export as failed in a transaction of its own, unless it has finished. The
+   * provider and user of the export must be set in the context.
+   */
+  void failExport(Long exportPk, String message) {
+    // an interrupt would otherwise fail the transaction marking the export as failed
+    boolean interrupted = Thread.interrupted();
+    try {
+      failureTransactionTemplate.executeWithoutResult(status -> {
+        Export export = entityManager.find(Export.class, exportPk);
+        if (export != null && export.isInProgress()) {
+          export.markAsFailed(message);
+        }
+      });
+    } catch (RuntimeException e) {
+      logger.error("Failed to mark export with pk {} as failed", exportPk, e);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void enqueue(ExportJob job) {
+    try {
+      executor.execute(() -> run(job));
+    } catch (RejectedExecutionException e) {
+      logger.warn("Export queue is full, rejecting export with pk {}", job.exportPk());
+      runInContext(job, () ->
+        failExport(
+          job.exportPk(),
+          "Export rejected because too many exports are in progress, try again later"
+        )
+      );
+    }
+  }
+
+  private void run(ExportJob job) {
+    runInContext(job, () -> {
+      try {
+        transactionTemplate.executeWithoutResult(status -> {
+          Export export = entityManager.find(Export.class, job.exportPk());
+          if (export == null) {
+            logger.warn("Export with pk {} not found, skipping", job.exportPk());
+            return;
+          }
+          exportService.exportDataSet(export);
+        });
+      } catch (Exception e) {
+        logger.error("Export with pk {} failed unexpectedly", job.exportPk(), e);
+        failExport(job.exportPk(), "Export failed unexpectedly: " + e.getMessage());
+      }
+    });
+  }
+
+  private void runInContext(ExportJob job, Runnable runnable) {
+    try {
+      Context.setProvider(job.providerCode());
+      Context.setUserName(job.userName());
+      runnable.run();
+    } finally {
+      Context.clear();
+    }
+  }
+
+  private record ExportJob(Long exportPk, String providerCode, String userName) {}
+}
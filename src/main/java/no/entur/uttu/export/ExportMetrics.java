@@ -0,0 +1,78 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import no.entur.uttu.model.job.Export;
+import no.entur.uttu.model.job.ExportPhaseEnumeration;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the duration of exports and of their phases, tagged by provider and dry run.
+ *
+ * <ul>
+ *   <li>uttu.export.duration: wall clock time of the export, also tagged by status</li>
+ *   <li>uttu.export.phase.duration: time spent in a phase of an export</li>
+ *   <li>uttu.export.phase.operations: number of timed operations in a phase, e.g. files</li>
+ * </ul>
+ */
+@Component
+public class ExportMetrics {
+
+  private final MeterRegistry meterRegistry;
+
+  public ExportMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  public void record(Export export, ExportPhaseTimer phaseTimer, Duration duration) {
+    Tags tags = Tags.of(
+      "provider",
+      export.getProvider().getCode(),
+      "dryRun",
+      String.valueOf(export.isDryRun())
+    );
+
+    Timer.builder("uttu.export.duration")
+      .description("Time spent on exports")
+      .tags(tags)
+      .tag("status", export.isSuccess() ? "success" : "failed")
+      .register(meterRegistry)
+      .record(duration);
+
+    for (ExportPhaseEnumeration phase : ExportPhaseEnumeration.values()) {
+      long operations = phaseTimer.getOperations(phase);
+      if (operations == 0) {
+        continue;
+      }
+      Tags phaseTags = tags.and("phase", phase.value());
+      Timer.builder("uttu.export.phase.duration")
+        .description("Time spent in a phase of an export")
+        .tags(phaseTags)
+        .register(meterRegistry)
+        .record(Duration.ofNanos(phaseTimer.getDurationNanos(phase)));
+      Counter.builder("uttu.export.phase.operations")
+        .description("Operations timed in a phase of an export")
+        .tags(phaseTags)
+        .register(meterRegistry)
+        .increment(operations);
+    }
+  }
+}
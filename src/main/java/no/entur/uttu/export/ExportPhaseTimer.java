@@ -0,0 +1,103 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import no.entur.uttu.model.job.ExportPhaseEnumeration;
+import no.entur.uttu.model.job.ExportPhaseTiming;
+
+/**
+ * Accumulates the time spent in each phase of an export.
+ *
+ * Safe for concurrent use, as files are marshalled, validated and compressed on several threads.
+ * The time of operations running concurrently in the same phase is summed.
+ */
+public class ExportPhaseTimer {
+
+  private final Map<ExportPhaseEnumeration, LongAdder> durations = new EnumMap<>(
+    ExportPhaseEnumeration.class
+  );
+
+  private final Map<ExportPhaseEnumeration, LongAdder> operations = new EnumMap<>(
+    ExportPhaseEnumeration.class
+  );
+
+  public ExportPhaseTimer() {
+    // filled up front, so the maps are only read concurrently
+    for (ExportPhaseEnumeration phase : ExportPhaseEnumeration.values()) {
+      durations.put(phase, new LongAdder());
+      operations.put(phase, new LongAdder());
+    }
+  }
+
+  /**
+   * Run the operation and add its duration to the phase, also if it fails.
+   */
+  public <T> T time(ExportPhaseEnumeration phase, Supplier<T> operation) {
+    long start = System.nanoTime();
+    try {
+      return operation.get();
+    } finally {
+      recordSince(phase, start);
+    }
+  }
+
+  /**
+   * Add the time since the start, as given by {@link System#nanoTime()}, to the phase.
+   */
+  public void recordSince(ExportPhaseEnumeration phase, long startNanos) {
+    record(phase, System.nanoTime() - startNanos);
+  }
+
+  public void record(ExportPhaseEnumeration phase, long durationNanos) {
+    durations.get(phase).add(durationNanos);
+    operations.get(phase).increment();
+  }
+
+  public long getDurationNanos(ExportPhaseEnumeration phase) {
+    return durations.get(phase).sum();
+  }
+
+  public long getOperations(ExportPhaseEnumeration phase) {
+    return operations.get(phase).sum();
+  }
+
+  /**
+   * The timings of the phases that have been timed, in phase order.
+   */
+  public List<ExportPhaseTiming> getPhaseTimings() {
+    List<ExportPhaseTiming> phaseTimings = new ArrayList<>();
+    for (ExportPhaseEnumeration phase : ExportPhaseEnumeration.values()) {
+      long phaseOperations = getOperations(phase);
+      if (phaseOperations > 0) {
+        phaseTimings.add(
+          new ExportPhaseTiming(
+            phase,
+            TimeUnit.NANOSECONDS.toMillis(getDurationNanos(phase)),
+            phaseOperations
+          )
+        );
+      }
+    }
+    return phaseTimings;
+  }
+}
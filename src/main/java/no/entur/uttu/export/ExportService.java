@@ -15,19 +15,23 @@
 
 package no.entur.uttu.export;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
 import no.entur.uttu.error.codedexception.CodedIllegalArgumentException;
 import no.entur.uttu.export.messaging.spi.MessagingService;
+import no.entur.uttu.export.netex.DataSetCompressor;
 import no.entur.uttu.export.netex.DataSetProducer;
 import no.entur.uttu.export.netex.NetexExporter;
 import no.entur.uttu.model.job.Export;
 import no.entur.uttu.model.job.ExportMessage;
+import no.entur.uttu.model.job.ExportPhaseEnumeration;
+import no.entur.uttu.model.job.ExportStatusEnumeration;
 import no.entur.uttu.model.job.SeverityEnumeration;
+import no.entur.uttu.repository.ExportRepository;
 import no.entur.uttu.util.ExportUtil;
-import org.apache.commons.io.IOUtils;
 import org.rutebanken.helper.storage.model.BlobDescriptor;
 import org.rutebanken.helper.storage.repository.BlobStoreRepository;
 import org.slf4j.Logger;
@@ -51,9 +55,28 @@ public class ExportService {
 
   private final MessagingService messagingService;
 
+  private final DataSetCompressor dataSetCompressor;
+
+  private final ExportRepository exportRepository;
+
+  private final ExportMetrics exportMetrics;
+
   @Value("${export.validateAgainstSchema:true}")
   private boolean validateAgainstSchema;
 
+  /**
+   * Do not upload or notify about data sets with the same content as the last published one.
+   */
+  @Value("${export.skipUnchangedDataSets:true}")
+  private boolean skipUnchangedDataSets;
+
+  /**
+   * Zip dry runs and upload them as backup blobs, so they can be downloaded. Dry runs are
+   * otherwise only validated.
+   */
+  @Value("${export.dryRun.uploadDataSet:false}")
+  private boolean uploadDryRunDataSets;
+
   @Value("${export.working.folder:tmp}")
   private String workingFolder;
 
@@ -63,58 +86,68 @@ public class ExportService {
   @Value("${export.blob.filenameSuffix:-flexible-lines}")
   private String exportedFilenameSuffix;
 
+  /**
+   * Container holding the exports, used for server side copies between exported and backup blobs.
+   */
+  @Value("${export.blob.container.name:${blobstore.gcs.container.name:${blobstore.s3.bucket:}}}")
+  private String exportContainerName;
+
   public ExportService(
     NetexExporter exporter,
     BlobStoreRepository blobStoreRepository,
-    MessagingService messagingService
+    MessagingService messagingService,
+    DataSetCompressor dataSetCompressor,
+    ExportRepository exportRepository,
+    ExportMetrics exportMetrics
   ) {
     this.exporter = exporter;
     this.blobStoreRepository = blobStoreRepository;
     this.messagingService = messagingService;
+    this.dataSetCompressor = dataSetCompressor;
+    this.exportRepository = exportRepository;
+    this.exportMetrics = exportMetrics;
   }
 
   public void exportDataSet(Export export) {
     export.checkPersistable();
 
     logger.info("Starting {}", export);
+    long start = System.nanoTime();
+    ExportPhaseTimer phaseTimer = new ExportPhaseTimer();
 
-    try (DataSetProducer dataSetProducer = new DataSetProducer(workingFolder)) {
-      exporter.exportDataSet(export, dataSetProducer, validateAgainstSchema);
-
-      InputStream dataSetStream = dataSetProducer.buildDataSet();
-      byte[] bytes = IOUtils.toByteArray(dataSetStream);
-      ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+    boolean validateOnly = export.isDryRun() && !uploadDryRunDataSets;
 
-      Map<String, String> metadata = Map.of(
-        EXPORT_METADATA_PREFIX + "name",
-        export.getName()
-      );
+    try (
+      DataSetProducer dataSetProducer = new DataSetProducer(
+        workingFolder,
+        // files of a data set that is not zipped need not be compressed
+        validateOnly ? null : dataSetCompressor,
+        dataSetCompressor.getCompressionLevel(export.isDryRun())
+      )
+    ) {
+      exporter.exportDataSet(export, dataSetProducer, validateAgainstSchema, phaseTimer);
 
-      if (!export.isDryRun() && !exportHasErrors(export)) {
-        String exportedDataSetFilename = ExportUtil.createExportedDataSetFilename(
-          export.getProvider(),
-          exportedFilenameSuffix
-        );
-        String blobName = exportFolder + exportedDataSetFilename;
-        blobStoreRepository.uploadBlob(
-          new BlobDescriptor(blobName, bis, Optional.empty(), Optional.of(metadata))
+      Export unchangedExport = findExportWithSameContent(export);
+      if (validateOnly) {
+        logger.info("{} is a dry run, skipped zipping and upload", export.identity());
+      } else if (unchangedExport != null) {
+        // re-publishing an identical data set would only make downstream reprocess it
+        export.addMessage(
+          new ExportMessage(
+            SeverityEnumeration.INFO,
+            "Data set is unchanged since export {0}, skipped upload and notification",
+            unchangedExport.getNetexId()
+          )
         );
-        bis.reset();
-        // notify Marduk that a new export is available
-        messagingService.notifyExport(
-          export.getProvider().getCode().toLowerCase(),
-          exportedDataSetFilename
+        export.setFileName(unchangedExport.getFileName());
+        logger.info(
+          "{} has the same content as {}, skipped upload",
+          export.identity(),
+          unchangedExport.identity()
         );
+      } else {
+        uploadDataSet(export, dataSetProducer, phaseTimer);
       }
-      export.setFileName(exportFolder + ExportUtil.createBackupDataSetFilename(export));
-      blobStoreRepository.uploadBlob(
-        new BlobDescriptor(
-          export.getFileName(),
-          bis,
-          Optional.empty(),
-          Optional.of(metadata)
-        )
-      );
     } catch (CodedIllegalArgumentException iae) {
       ExportMessage msg = new ExportMessage(SeverityEnumeration.ERROR, iae.getCode());
       export.addMessage(msg);
@@ -145,7 +178,103 @@ public class ExportService {
     }
 
     export.markAsFinished();
-    logger.info("Completed {}", export);
+    export.setPhaseTimings(phaseTimer.getPhaseTimings());
+    exportMetrics.record(export, phaseTimer, Duration.ofNanos(System.nanoTime() - start));
+    logger.info("Completed {} in phases {}", export, export.getPhaseTimings());
+  }
+
+  private void uploadDataSet(
+    Export export,
+    DataSetProducer dataSetProducer,
+    ExportPhaseTimer phaseTimer
+  ) throws IOException {
+    Map<String, String> metadata = Map.of(
+      EXPORT_METADATA_PREFIX + "name",
+      export.getName()
+    );
+    String backupFileName = exportFolder + ExportUtil.createBackupDataSetFilename(export);
+
+    // the data set is streamed from the zip file on disk, the backup is a server side copy
+    try (
+      InputStream dataSetStream = phaseTimer.time(
+        ExportPhaseEnumeration.ZIPPING,
+        dataSetProducer::buildDataSet
+      )
+    ) {
+      if (!export.isDryRun() && !exportHasErrors(export)) {
+        String exportedDataSetFilename = ExportUtil.createExportedDataSetFilename(
+          export.getProvider(),
+          exportedFilenameSuffix
+        );
+        String blobName = exportFolder + exportedDataSetFilename;
+        long uploadStart = System.nanoTime();
+        blobStoreRepository.uploadBlob(
+          new BlobDescriptor(
+            blobName,
+            dataSetStream,
+            Optional.empty(),
+            Optional.of(metadata)
+          )
+        );
+        phaseTimer.recordSince(ExportPhaseEnumeration.UPLOADING, uploadStart);
+
+        // notify Marduk that a new export is available
+        long notifyStart = System.nanoTime();
+        messagingService.notifyExport(
+          export.getProvider().getCode().toLowerCase(),
+          exportedDataSetFilename
+        );
+        phaseTimer.recordSince(ExportPhaseEnumeration.NOTIFYING, notifyStart);
+
+        long copyStart = System.nanoTime();
+        blobStoreRepository.copyBlob(
+          exportContainerName,
+          blobName,
+          exportContainerName,
+          backupFileName
+        );
+        phaseTimer.recordSince(ExportPhaseEnumeration.UPLOADING, copyStart);
+      } else {
+        long uploadStart = System.nanoTime();
+        blobStoreRepository.uploadBlob(
+          new BlobDescriptor(
+            backupFileName,
+            dataSetStream,
+            Optional.empty(),
+            Optional.of(metadata)
+          )
+        );
+        phaseTimer.recordSince(ExportPhaseEnumeration.UPLOADING, uploadStart);
+      }
+    }
+    export.setFileName(backupFileName);
+  }
+
+  /**
+   * Find the provider's last published export if it has the same content as the export.
+   */
+  private Export findExportWithSameContent(Export export) {
+    if (
+      !skipUnchangedDataSets ||
+      export.isDryRun() ||
+      export.getContentHash() == null ||
+      exportHasErrors(export)
+    ) {
+      return null;
+    }
+    Export previousExport =
+      exportRepository.findFirstByProviderCodeAndDryRunFalseAndExportStatusAndCreatedBeforeOrderByCreatedDesc(
+        export.getProvider().getCode(),
+        ExportStatusEnumeration.SUCCESS,
+        export.getCreated()
+      );
+    if (
+      previousExport != null &&
+      export.getContentHash().equals(previousExport.getContentHash())
+    ) {
+      return previousExport;
+    }
+    return null;
   }
 
   private boolean exportHasErrors(Export export) {
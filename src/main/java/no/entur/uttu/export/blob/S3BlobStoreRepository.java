@@ -18,10 +18,12 @@ import org.rutebanken.helper.storage.repository.BlobStoreRepository;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
 
 /**
@@ -38,6 +40,12 @@ public class S3BlobStoreRepository implements BlobStoreRepository {
    */
   private static final long UNKNOWN_LATEST_VERSION = 0;
 
+  /**
+   * Streams larger than this are uploaded as multipart uploads, buffering one part at a time instead of the whole
+   * stream. Must be at least 5 MiB, which is the minimum part size accepted by AWS S3.
+   */
+  static final int MULTIPART_PART_SIZE = 8 * 1024 * 1024;
+
   private final S3Client s3Client;
 
   private String containerName;
@@ -56,22 +64,65 @@ public class S3BlobStoreRepository implements BlobStoreRepository {
 
   @Override
   public long uploadBlob(BlobDescriptor blobDescriptor) {
-    RequestBody body = null;
+    byte[] firstPart;
     try {
-      body = RequestBody.fromBytes(blobDescriptor.inputStream().readAllBytes());
+      firstPart = blobDescriptor.inputStream().readNBytes(MULTIPART_PART_SIZE);
     } catch (IOException e) {
-      throw new BlobStoreException("Failed to read all bytes from given InputStream", e);
+      throw new BlobStoreException("Failed to read bytes from given InputStream", e);
     }
 
-    s3Client.putObject(
-      r -> {
-        r.bucket(containerName).key(blobDescriptor.name());
+    if (firstPart.length < MULTIPART_PART_SIZE) {
+      s3Client.putObject(
+        r -> {
+          r.bucket(containerName).key(blobDescriptor.name());
+          blobDescriptor.contentType().ifPresent(r::contentType);
+          blobDescriptor.metadata().map(this::mimeEncodeValues).ifPresent(r::metadata);
+        },
+        RequestBody.fromBytes(firstPart)
+      );
+    } else {
+      multipartUpload(blobDescriptor, firstPart);
+    }
+    return UNKNOWN_LATEST_VERSION;
+  }
+
+  private void multipartUpload(BlobDescriptor blobDescriptor, byte[] firstPart) {
+    String key = blobDescriptor.name();
+    String uploadId = s3Client
+      .createMultipartUpload(r -> {
+        r.bucket(containerName).key(key);
         blobDescriptor.contentType().ifPresent(r::contentType);
         blobDescriptor.metadata().map(this::mimeEncodeValues).ifPresent(r::metadata);
-      },
-      body
-    );
-    return UNKNOWN_LATEST_VERSION;
+      })
+      .uploadId();
+
+    try {
+      List<CompletedPart> completedParts = new ArrayList<>();
+      byte[] part = firstPart;
+      while (part.length > 0) {
+        int partNumber = completedParts.size() + 1;
+        UploadPartResponse response = s3Client.uploadPart(
+          r -> r.bucket(containerName).key(key).uploadId(uploadId).partNumber(partNumber),
+          RequestBody.fromBytes(part)
+        );
+        completedParts.add(
+          CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build()
+        );
+        part = blobDescriptor.inputStream().readNBytes(MULTIPART_PART_SIZE);
+      }
+      s3Client.completeMultipartUpload(r ->
+        r
+          .bucket(containerName)
+          .key(key)
+          .uploadId(uploadId)
+          .multipartUpload(upload -> upload.parts(completedParts))
+      );
+    } catch (IOException | RuntimeException e) {
+      s3Client.abortMultipartUpload(r ->
+        r.bucket(containerName).key(key).uploadId(uploadId)
+      );
+      throw new BlobStoreException("Failed multipart upload of " + key, e);
+    }
   }
 
   /**
@@ -0,0 +1,223 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import no.entur.uttu.model.DayType;
+import no.entur.uttu.model.DayTypeAssignment;
+import no.entur.uttu.model.OperatingPeriod;
+
+/**
+ * The days a day type operates on, expanded once and kept as a bitset indexed by epoch day,
+ * relative to the first operating day.
+ *
+ * <p>
+ *   Only available assignments add operating days. Explicit dates are always included, while
+ *   operating periods are restricted to the day type's days of week, or include every day if
+ *   no days of week are set. The availability period covers every assignment, available or
+ *   not.
+ * </p>
+ */
+public final class DayTypeCalendar {
+
+  private static final int ALL_DAYS_OF_WEEK = 0x7F;
+
+  /**
+   * Epoch day 0, 1970-01-01, is a Thursday.
+   */
+  private static final int EPOCH_DAY_OF_WEEK = DayOfWeek.THURSDAY.ordinal();
+
+  private final long firstEpochDay;
+
+  private final BitSet days;
+
+  private final AvailabilityPeriod availabilityPeriod;
+
+  private DayTypeCalendar(
+    long firstEpochDay,
+    BitSet days,
+    AvailabilityPeriod availabilityPeriod
+  ) {
+    this.firstEpochDay = firstEpochDay;
+    this.days = days;
+    this.availabilityPeriod = availabilityPeriod;
+  }
+
+  public static DayTypeCalendar of(DayType dayType) {
+    int daysOfWeekMask = daysOfWeekMask(dayType.getDaysOfWeek());
+
+    long firstEpochDay = Long.MAX_VALUE;
+    AvailabilityPeriod availabilityPeriod = null;
+    for (DayTypeAssignment assignment : dayType.getDayTypeAssignments()) {
+      LocalDate from = getFrom(assignment);
+      LocalDate to = getTo(assignment);
+      if (from == null || to == null) {
+        continue;
+      }
+      availabilityPeriod = new AvailabilityPeriod(from, to).union(availabilityPeriod);
+    }
+    for (DayTypeAssignment assignment : dayType.getDayTypeAssignments()) {
+      LocalDate firstOperatingDay = getFirstOperatingDay(assignment);
+      if (firstOperatingDay != null) {
+        firstEpochDay = Math.min(firstEpochDay, firstOperatingDay.toEpochDay());
+      }
+    }
+
+    BitSet days = new BitSet();
+    for (DayTypeAssignment assignment : dayType.getDayTypeAssignments()) {
+      if (!Boolean.TRUE.equals(assignment.getAvailable())) {
+        continue;
+      }
+      if (assignment.getDate() != null) {
+        days.set(toIndex(assignment.getDate().toEpochDay(), firstEpochDay));
+      } else if (assignment.getOperatingPeriod() != null) {
+        setOperatingPeriod(
+          days,
+          firstEpochDay,
+          assignment.getOperatingPeriod(),
+          daysOfWeekMask
+        );
+      }
+    }
+    return new DayTypeCalendar(firstEpochDay, days, availabilityPeriod);
+  }
+
+  /**
+   * The period covered by the day type's assignments, or null if it has none.
+   */
+  public AvailabilityPeriod getAvailabilityPeriod() {
+    return availabilityPeriod;
+  }
+
+  public boolean isEmpty() {
+    return days.isEmpty();
+  }
+
+  public boolean operatesOn(LocalDate date) {
+    long index = date.toEpochDay() - firstEpochDay;
+    return index >= 0 && index <= Integer.MAX_VALUE && days.get((int) index);
+  }
+
+  /**
+   * Add the operating days on or after the first epoch day of the target to the target,
+   * indexed by epoch day relative to it.
+   */
+  public void addOperatingDaysTo(BitSet target, long targetFirstEpochDay) {
+    int start = (int) Math.max(0, targetFirstEpochDay - firstEpochDay);
+    for (int i = days.nextSetBit(start); i >= 0; i = days.nextSetBit(i + 1)) {
+      target.set(toIndex(firstEpochDay + i, targetFirstEpochDay));
+    }
+  }
+
+  /**
+   * The days set in a bitset indexed by epoch day relative to the first epoch day, in order.
+   */
+  public static List<LocalDate> toLocalDates(BitSet days, long firstEpochDay) {
+    List<LocalDate> dates = new ArrayList<>(days.cardinality());
+    for (int i = days.nextSetBit(0); i >= 0; i = days.nextSetBit(i + 1)) {
+      dates.add(LocalDate.ofEpochDay(firstEpochDay + i));
+    }
+    return dates;
+  }
+
+  private static void setOperatingPeriod(
+    BitSet days,
+    long firstEpochDay,
+    OperatingPeriod operatingPeriod,
+    int daysOfWeekMask
+  ) {
+    if (operatingPeriod.getFromDate() == null || operatingPeriod.getToDate() == null) {
+      return;
+    }
+    int fromIndex = toIndex(operatingPeriod.getFromDate().toEpochDay(), firstEpochDay);
+    int toIndex = toIndex(operatingPeriod.getToDate().toEpochDay(), firstEpochDay);
+    if (toIndex < fromIndex) {
+      return;
+    }
+    if (daysOfWeekMask == ALL_DAYS_OF_WEEK) {
+      days.set(fromIndex, toIndex + 1);
+      return;
+    }
+    int fromDayOfWeek = dayOfWeek(firstEpochDay + fromIndex);
+    for (int dayOfWeek = 0; dayOfWeek < 7; dayOfWeek++) {
+      if ((daysOfWeekMask & (1 << dayOfWeek)) == 0) {
+        continue;
+      }
+      for (
+        int i = fromIndex + Math.floorMod(dayOfWeek - fromDayOfWeek, 7);
+        i <= toIndex;
+        i += 7
+      ) {
+        days.set(i);
+      }
+    }
+  }
+
+  private static int daysOfWeekMask(List<DayOfWeek> daysOfWeek) {
+    if (daysOfWeek == null || daysOfWeek.isEmpty()) {
+      return ALL_DAYS_OF_WEEK;
+    }
+    int mask = 0;
+    for (DayOfWeek dayOfWeek : daysOfWeek) {
+      mask |= 1 << dayOfWeek.ordinal();
+    }
+    return mask;
+  }
+
+  private static int dayOfWeek(long epochDay) {
+    return (int) Math.floorMod(epochDay + EPOCH_DAY_OF_WEEK, 7L);
+  }
+
+  private static int toIndex(long epochDay, long firstEpochDay) {
+    return Math.toIntExact(epochDay - firstEpochDay);
+  }
+
+  /**
+   * The first day an available assignment adds, explicit dates taking precedence over
+   * operating periods.
+   */
+  private static LocalDate getFirstOperatingDay(DayTypeAssignment assignment) {
+    if (!Boolean.TRUE.equals(assignment.getAvailable())) {
+      return null;
+    }
+    if (assignment.getDate() != null) {
+      return assignment.getDate();
+    }
+    OperatingPeriod operatingPeriod = assignment.getOperatingPeriod();
+    if (operatingPeriod == null || operatingPeriod.getToDate() == null) {
+      return null;
+    }
+    return operatingPeriod.getFromDate();
+  }
+
+  private static LocalDate getFrom(DayTypeAssignment assignment) {
+    if (assignment.getOperatingPeriod() != null) {
+      return assignment.getOperatingPeriod().getFromDate();
+    }
+    return assignment.getDate();
+  }
+
+  private static LocalDate getTo(DayTypeAssignment assignment) {
+    if (assignment.getOperatingPeriod() != null) {
+      return assignment.getOperatingPeriod().getToDate();
+    }
+    return assignment.getDate();
+  }
+}
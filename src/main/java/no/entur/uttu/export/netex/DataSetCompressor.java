@@ -0,0 +1,320 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compresses the files of a data set concurrently and assembles them into a zip file.
+ *
+ * <p>
+ *   Every file is compressed into a raw deflate stream on its own worker as soon as it is
+ *   complete, and the zip file is then assembled by copying the compressed entries in order,
+ *   so only the assembly is sequential. Compression level 0 stores entries uncompressed.
+ * </p>
+ *
+ * To change the number of files compressed concurrently set property
+ *    export.zip.parallelism=4
+ * Defaults to the number of available processors.
+ * To change the compression level, from 0 (stored) to 9, set property
+ *    export.zip.compressionLevel=6
+ * To change the compression level of dry runs set property
+ *    export.zip.dryRunCompressionLevel=0
+ */
+@Component
+public class DataSetCompressor {
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Without zip64 extensions sizes and offsets are limited to 32 bits, and the number of
+   * entries to 16 bits.
+   */
+  static final long MAX_SIZE = 0xFFFFFFFFL;
+
+  static final int MAX_ENTRIES = 0xFFFF;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final short VERSION = 20;
+  private static final short UTF8_NAMES_FLAG = 0x0800;
+
+  private final int compressionLevel;
+
+  private final int dryRunCompressionLevel;
+
+  private final ExecutorService executor;
+
+  public DataSetCompressor(
+    @Value("${export.zip.parallelism:0}") int parallelism,
+    @Value("${export.zip.compressionLevel:-1}") int compressionLevel,
+    @Value("${export.zip.dryRunCompressionLevel:0}") int dryRunCompressionLevel
+  ) {
+    this.compressionLevel = compressionLevel;
+    this.dryRunCompressionLevel = dryRunCompressionLevel;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(
+      parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+      runnable -> {
+        Thread thread = new Thread(
+          runnable,
+          "dataset-compressor-" + threadCount.incrementAndGet()
+        );
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public int getCompressionLevel(boolean dryRun) {
+    return dryRun ? dryRunCompressionLevel : compressionLevel;
+  }
+
+  public CompletableFuture<CompressedEntry> compressAsync(
+    Path file,
+    Path targetFolder,
+    int compressionLevel
+  ) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return compress(file, targetFolder, compressionLevel);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      },
+      executor
+    );
+  }
+
+  /**
+   * Compress the file into a raw deflate stream in the target folder, or only checksum it if
+   * it is to be stored uncompressed.
+   */
+  static CompressedEntry compress(Path file, Path targetFolder, int compressionLevel)
+    throws IOException {
+    String name = file.getFileName().toString();
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[BUFFER_SIZE];
+
+    if (compressionLevel == 0) {
+      try (InputStream in = Files.newInputStream(file)) {
+        int length;
+        while ((length = in.read(buffer)) >= 0) {
+          crc.update(buffer, 0, length);
+        }
+      }
+      long size = Files.size(file);
+      return new CompressedEntry(name, ZipEntry.STORED, crc.getValue(), size, size, file);
+    }
+
+    Path compressedFile = targetFolder.resolve(name + ".deflate");
+    Deflater deflater = new Deflater(compressionLevel, true);
+    long size = 0;
+    try (
+      InputStream in = Files.newInputStream(file);
+      OutputStream out = new DeflaterOutputStream(
+        Files.newOutputStream(compressedFile),
+        deflater,
+        BUFFER_SIZE
+      )
+    ) {
+      int length;
+      while ((length = in.read(buffer)) >= 0) {
+        crc.update(buffer, 0, length);
+        out.write(buffer, 0, length);
+        size += length;
+      }
+    } finally {
+      deflater.end();
+    }
+    return new CompressedEntry(
+      name,
+      ZipEntry.DEFLATED,
+      crc.getValue(),
+      size,
+      Files.size(compressedFile),
+      compressedFile
+    );
+  }
+
+  /**
+   * Whether the entries fit in a zip file without zip64 extensions.
+   */
+  static boolean fitsWithoutZip64(List<CompressedEntry> entries) {
+    if (entries.size() > MAX_ENTRIES) {
+      return false;
+    }
+    long offset = 0;
+    for (CompressedEntry entry : entries) {
+      if (entry.size() > MAX_SIZE || entry.compressedSize() > MAX_SIZE) {
+        return false;
+      }
+      offset += LOCAL_HEADER_SIZE + entry.encodedName().length + entry.compressedSize();
+    }
+    return offset <= MAX_SIZE;
+  }
+
+  /**
+   * Write the compressed entries to a zip file, in the given order.
+   */
+  static void writeArchive(List<CompressedEntry> entries, Path target)
+    throws IOException {
+    int dosTime = toDosTime(LocalDateTime.now());
+    long[] offsets = new long[entries.size()];
+    long offset = 0;
+
+    try (
+      OutputStream out = new BufferedOutputStream(
+        Files.newOutputStream(target),
+        BUFFER_SIZE
+      )
+    ) {
+      for (int i = 0; i < entries.size(); i++) {
+        CompressedEntry entry = entries.get(i);
+        byte[] name = entry.encodedName();
+        offsets[i] = offset;
+
+        ByteBuffer header = header(LOCAL_HEADER_SIZE + name.length);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort(VERSION);
+        putEntryFields(header, entry, dosTime);
+        header.putShort((short) 0); // extra field length
+        header.put(name);
+        out.write(header.array());
+        offset += header.capacity();
+
+        Files.copy(entry.data(), out);
+        offset += entry.compressedSize();
+      }
+
+      long centralDirectoryOffset = offset;
+      for (int i = 0; i < entries.size(); i++) {
+        CompressedEntry entry = entries.get(i);
+        byte[] name = entry.encodedName();
+
+        ByteBuffer header = header(CENTRAL_HEADER_SIZE + name.length);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort(VERSION); // version made by
+        header.putShort(VERSION);
+        putEntryFields(header, entry, dosTime);
+        header.putShort((short) 0); // extra field length
+        header.putShort((short) 0); // comment length
+        header.putShort((short) 0); // disk number
+        header.putShort((short) 0); // internal attributes
+        header.putInt(0); // external attributes
+        header.putInt((int) offsets[i]);
+        header.put(name);
+        out.write(header.array());
+        offset += header.capacity();
+      }
+
+      ByteBuffer end = header(END_OF_CENTRAL_DIRECTORY_SIZE);
+      end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+      end.putShort((short) 0); // this disk
+      end.putShort((short) 0); // disk with central directory
+      end.putShort((short) entries.size());
+      end.putShort((short) entries.size());
+      end.putInt((int) (offset - centralDirectoryOffset));
+      end.putInt((int) centralDirectoryOffset);
+      end.putShort((short) 0); // comment length
+      out.write(end.array());
+    }
+  }
+
+  /**
+   * Fields shared by the local and central headers, from the flags to the name length.
+   */
+  private static void putEntryFields(
+    ByteBuffer header,
+    CompressedEntry entry,
+    int dosTime
+  ) {
+    header.putShort(UTF8_NAMES_FLAG);
+    header.putShort((short) entry.method());
+    header.putInt(dosTime);
+    header.putInt((int) entry.crc());
+    header.putInt((int) entry.compressedSize());
+    header.putInt((int) entry.size());
+    header.putShort((short) entry.encodedName().length);
+  }
+
+  private static ByteBuffer header(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * MS-DOS time in the low 16 bits and date in the high 16 bits, as used in zip headers.
+   */
+  private static int toDosTime(LocalDateTime time) {
+    int dosTime =
+      (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+    int dosDate =
+      ((time.getYear() - 1980) << 9) | (time.getMonthValue() << 5) | time.getDayOfMonth();
+    return (dosDate << 16) | dosTime;
+  }
+
+  /**
+   * A file compressed for a zip entry.
+   *
+   * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   * @param size the uncompressed size
+   * @param data the compressed data, or the file itself if stored
+   */
+  record CompressedEntry(
+    String name,
+    int method,
+    long crc,
+    long size,
+    long compressedSize,
+    Path data
+  ) {
+    byte[] encodedName() {
+      return name.getBytes(StandardCharsets.UTF_8);
+    }
+  }
+}
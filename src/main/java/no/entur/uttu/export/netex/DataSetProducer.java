@@ -21,33 +21,76 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import no.entur.uttu.export.model.ExportException;
+import no.entur.uttu.export.netex.DataSetCompressor.CompressedEntry;
 import org.apache.commons.io.FileUtils;
 
 /**
  * Build zip file.
+ *
+ * <p>
+ *   Files marked as complete are compressed right away by the data set compressor, while the
+ *   rest of the data set is produced. Files are added to the zip file in order of file name.
+ * </p>
  */
 public class DataSetProducer implements Closeable {
 
   private static final String DATA_SET_CONTENT_FOLDER = "content";
 
+  private static final String COMPRESSED_CONTENT_FOLDER = "compressed";
+
+  private final DataSetCompressor compressor;
+
+  private final int compressionLevel;
+
+  private final Map<String, CompletableFuture<CompressedEntry>> compressedFiles =
+    new ConcurrentHashMap<>();
+
   private Path tmpFolder;
 
   private Path contentFolder;
 
+  private Path compressedFolder;
+
   public DataSetProducer(String workingFolder) {
+    this(workingFolder, null, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * @param compressor compresses completed files concurrently, or null to compress every
+   *                   file when the data set is built
+   * @param compressionLevel deflate compression level, where 0 stores files uncompressed
+   */
+  public DataSetProducer(
+    String workingFolder,
+    DataSetCompressor compressor,
+    int compressionLevel
+  ) {
+    this.compressor = compressor;
+    this.compressionLevel = compressionLevel;
     try {
       tmpFolder = Files.createDirectories(
         Paths.get(workingFolder, String.valueOf(System.currentTimeMillis()))
       );
       contentFolder = Files.createDirectory(tmpFolder.resolve(DATA_SET_CONTENT_FOLDER));
+      compressedFolder = Files.createDirectory(
+        tmpFolder.resolve(COMPRESSED_CONTENT_FOLDER)
+      );
     } catch (IOException ioe) {
       throw new ExportException(
         "Failed to create working folder for producing data set: " + ioe.getMessage(),
@@ -67,48 +110,105 @@ public class DataSetProducer implements Closeable {
     }
   }
 
+  public Path getFile(String fileName) {
+    return contentFolder.resolve(fileName);
+  }
+
+  /**
+   * The files of the data set, in the order they are added to the zip file.
+   */
+  public List<Path> getFiles() {
+    try (Stream<Path> paths = Files.list(contentFolder)) {
+      return paths.filter(Files::isRegularFile).sorted().toList();
+    } catch (IOException ioe) {
+      throw new ExportException(
+        "Failed to list data set files: " + ioe.getMessage(),
+        ioe
+      );
+    }
+  }
+
+  /**
+   * Start compressing the file, which must not be changed afterwards.
+   */
+  public void fileCompleted(String fileName) {
+    if (compressor != null) {
+      compressedFiles.computeIfAbsent(fileName, name ->
+        compressor.compressAsync(getFile(name), compressedFolder, compressionLevel)
+      );
+    }
+  }
+
   public InputStream buildDataSet() {
     try {
-      File datasetFile = File.createTempFile("dataset", ".zip", contentFolder.toFile());
-      zipFilesInFolder(contentFolder, datasetFile);
-      return Files.newInputStream(
-        datasetFile.toPath(),
-        StandardOpenOption.DELETE_ON_CLOSE
-      );
+      Path datasetFile = Files.createTempFile(tmpFolder, "dataset", ".zip");
+      List<CompressedEntry> entries = compressFilesInFolder();
+      if (DataSetCompressor.fitsWithoutZip64(entries)) {
+        DataSetCompressor.writeArchive(entries, datasetFile);
+      } else {
+        zipFilesInFolder(contentFolder, datasetFile.toFile());
+      }
+      return Files.newInputStream(datasetFile, StandardOpenOption.DELETE_ON_CLOSE);
     } catch (IOException ioe) {
       throw new ExportException("Failed to build data set: " + ioe.getMessage(), ioe);
     }
   }
 
-  // Find impl in lib?
+  private List<CompressedEntry> compressFilesInFolder() throws IOException {
+    List<Path> files = getFiles();
+    List<CompressedEntry> entries = new ArrayList<>(files.size());
+    for (Path file : files) {
+      CompletableFuture<CompressedEntry> compressedFile = compressedFiles.get(
+        file.getFileName().toString()
+      );
+      if (compressedFile == null) {
+        entries.add(DataSetCompressor.compress(file, compressedFolder, compressionLevel));
+      } else {
+        entries.add(join(compressedFile));
+      }
+    }
+    return entries;
+  }
+
+  private static CompressedEntry join(CompletableFuture<CompressedEntry> compressedFile)
+    throws IOException {
+    try {
+      return compressedFile.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+        throw uncheckedIOException.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Zip the files sequentially, for data sets too large for the compressed entries to be
+   * assembled without zip64 extensions.
+   */
   private void zipFilesInFolder(Path folder, File targetFile) throws IOException {
     try (
-      Stream<Path> files = Files.walk(folder);
+      Stream<Path> files = Files.list(folder);
       FileOutputStream out = new FileOutputStream(targetFile);
       ZipOutputStream outZip = new ZipOutputStream(out)
     ) {
+      if (compressionLevel == 0) {
+        outZip.setLevel(Deflater.NO_COMPRESSION);
+      } else {
+        outZip.setLevel(compressionLevel);
+      }
       files
         .filter(Files::isRegularFile)
-        .filter(path -> filterExcludeTargetFileFromArchive(path, targetFile))
+        .sorted()
         .forEach(path -> addToZipFile(path, outZip));
     }
   }
 
-  private boolean filterExcludeTargetFileFromArchive(Path path, File targetFile) {
-    return !path.getFileName().toFile().getName().equals(targetFile.getName());
-  }
-
   private void addToZipFile(Path file, ZipOutputStream zos) {
     try (InputStream fis = Files.newInputStream(file);) {
       ZipEntry zipEntry = new ZipEntry(file.getFileName().toString());
       zos.putNextEntry(zipEntry);
-
-      byte[] bytes = new byte[1024];
-      int length;
-      while ((length = fis.read(bytes)) >= 0) {
-        zos.write(bytes, 0, length);
-      }
-
+      fis.transferTo(zos);
       zos.closeEntry();
     } catch (IOException ioe) {
       throw new ExportException("Failed to add file to zip: " + ioe.getMessage(), ioe);
@@ -117,6 +217,10 @@ public class DataSetProducer implements Closeable {
 
   @Override
   public void close() throws IOException {
+    // let compression still running finish before its files are deleted
+    CompletableFuture.allOf(compressedFiles.values().toArray(CompletableFuture[]::new))
+      .handle((result, throwable) -> null)
+      .join();
     FileUtils.deleteDirectory(tmpFolder.toFile());
   }
 }
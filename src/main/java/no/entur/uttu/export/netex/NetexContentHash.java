@@ -0,0 +1,198 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import no.entur.uttu.export.model.ExportException;
+
+/**
+ * Canonical hash of the content of a data set, to recognize data sets identical to a previously
+ * exported one.
+ *
+ * <p>
+ *   Every file is hashed by its elements, attributes and text, ignoring formatting, publication
+ *   timestamps and the numbering of ids generated during the export. Generated ids are replaced
+ *   by the order in which they first occur in the file, so a data set hashes the same even if
+ *   ids are numbered differently, as long as they are used in the same places.
+ * </p>
+ */
+public final class NetexContentHash {
+
+  private static final String PUBLICATION_TIMESTAMP = "PublicationTimestamp";
+
+  private static final String CREATED = "created";
+
+  private static final char ID_SEPARATOR = ':';
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+  private NetexContentHash() {}
+
+  /**
+   * Hash the files, in the given order.
+   *
+   * @param generatedEntityNames the names of the entities with ids generated in the export
+   */
+  public static String compute(List<Path> files, Set<String> generatedEntityNames) {
+    List<String> fileHashes;
+    try {
+      fileHashes = files
+        .parallelStream()
+        .map(file -> hashFile(file, generatedEntityNames))
+        .toList();
+    } catch (UncheckedIOException e) {
+      throw new ExportException(
+        "Failed to hash data set content: " + e.getMessage(),
+        e.getCause()
+      );
+    }
+
+    MessageDigest digest = newDigest();
+    for (int i = 0; i < files.size(); i++) {
+      update(digest, files.get(i).getFileName().toString());
+      update(digest, fileHashes.get(i));
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  static String hashFile(Path file, Set<String> generatedEntityNames) {
+    MessageDigest digest = newDigest();
+    Map<String, String> generatedIds = new HashMap<>();
+
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+      XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+      boolean skipText = false;
+      while (reader.hasNext()) {
+        switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT -> {
+            update(digest, "<" + reader.getName());
+            skipText = PUBLICATION_TIMESTAMP.equals(reader.getLocalName());
+            // attribute order carries no meaning
+            Map<String, String> attributes = new TreeMap<>();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+              String name = reader.getAttributeName(i).toString();
+              if (!CREATED.equals(name)) {
+                attributes.put(
+                  name,
+                  canonical(
+                    reader.getAttributeValue(i),
+                    generatedEntityNames,
+                    generatedIds
+                  )
+                );
+              }
+            }
+            attributes.forEach((name, value) -> update(digest, name + "=" + value));
+          }
+          case XMLStreamConstants.END_ELEMENT -> {
+            update(digest, ">");
+            skipText = false;
+          }
+          case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA -> {
+            String text = reader.getText().strip();
+            if (!skipText && !text.isEmpty()) {
+              update(digest, canonical(text, generatedEntityNames, generatedIds));
+            }
+          }
+          default -> {}
+        }
+      }
+      reader.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (XMLStreamException e) {
+      throw new UncheckedIOException(
+        new IOException("Invalid XML in " + file.getFileName() + ": " + e.getMessage(), e)
+      );
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Replace a generated id, of the form codespace:EntityName:sequence, by its entity name and
+   * the order in which it first occurred.
+   */
+  private static String canonical(
+    String value,
+    Set<String> generatedEntityNames,
+    Map<String, String> generatedIds
+  ) {
+    int first = value.indexOf(ID_SEPARATOR);
+    int last = value.lastIndexOf(ID_SEPARATOR);
+    if (first < 0 || first == last || !isDigits(value, last + 1)) {
+      return value;
+    }
+    String entityName = value.substring(first + 1, last);
+    if (!generatedEntityNames.contains(entityName)) {
+      return value;
+    }
+    return generatedIds.computeIfAbsent(
+      value,
+      id -> entityName + "#" + generatedIds.size()
+    );
+  }
+
+  private static boolean isDigits(String value, int from) {
+    if (from >= value.length()) {
+      return false;
+    }
+    for (int i = from; i < value.length(); i++) {
+      if (!Character.isDigit(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    digest.update(value.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+}
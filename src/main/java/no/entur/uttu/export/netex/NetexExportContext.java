@@ -18,11 +18,14 @@ package no.entur.uttu.export.netex;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import no.entur.uttu.export.ExportPhaseTimer;
 import no.entur.uttu.export.model.AvailabilityPeriod;
+import no.entur.uttu.export.model.DayTypeCalendar;
 import no.entur.uttu.export.model.ServiceLinkExportContext;
 import no.entur.uttu.model.Branding;
 import no.entur.uttu.model.DayType;
@@ -37,6 +40,11 @@ import no.entur.uttu.model.job.Export;
 import no.entur.uttu.model.job.ExportMessage;
 import no.entur.uttu.model.job.SeverityEnumeration;
 
+/**
+ * State collected while producing line files and consumed when producing the common file.
+ *
+ * Safe for concurrent use, as line files may be produced and marshalled by several threads.
+ */
 public class NetexExportContext {
 
   private AvailabilityPeriod availabilityPeriod;
@@ -45,60 +53,95 @@ public class NetexExportContext {
 
   public Instant publicationTimestamp;
 
-  public Set<Network> networks = new HashSet<>();
+  public Set<Network> networks = ConcurrentHashMap.newKeySet();
 
-  public Set<FlexibleStopPlace> flexibleStopPlaces = new HashSet<>();
+  public Set<FlexibleStopPlace> flexibleStopPlaces = ConcurrentHashMap.newKeySet();
 
-  public Set<Ref> scheduledStopPointRefs = new HashSet<>();
-  public Set<String> quayRefs = new HashSet<>();
+  public Set<Ref> scheduledStopPointRefs = ConcurrentHashMap.newKeySet();
+  public Set<String> quayRefs = ConcurrentHashMap.newKeySet();
 
-  public Set<Ref> routePointRefs = new HashSet<>();
+  public Set<Ref> routePointRefs = ConcurrentHashMap.newKeySet();
 
-  public Set<String> operatorRefs = new HashSet<>();
+  public Set<String> operatorRefs = ConcurrentHashMap.newKeySet();
 
-  public Set<Notice> notices = new HashSet<>();
+  public Set<Notice> notices = ConcurrentHashMap.newKeySet();
 
-  public Set<DayType> dayTypes = new HashSet<>();
+  public Set<DayType> dayTypes = ConcurrentHashMap.newKeySet();
 
-  public Set<DestinationDisplay> destinationDisplays = new HashSet<>();
+  public Set<DestinationDisplay> destinationDisplays = ConcurrentHashMap.newKeySet();
 
-  public Set<ServiceLinkExportContext> serviceLinks = new HashSet();
+  public Set<ServiceLinkExportContext> serviceLinks = ConcurrentHashMap.newKeySet();
 
-  public Set<Branding> brandings = new HashSet<>();
+  /**
+   * The service links of each journey pattern in order, so that a whole pattern can be routed
+   * at once.
+   */
+  public Set<List<ServiceLinkExportContext>> serviceLinkSequences =
+    ConcurrentHashMap.newKeySet();
 
-  private Map<String, AtomicLong> idSequences = new HashMap<>();
+  public Set<Branding> brandings = ConcurrentHashMap.newKeySet();
+
+  private final Map<String, AtomicLong> idSequences = new ConcurrentHashMap<>();
 
   private Export export;
 
-  private final Set<LocalDate> operatingDays = new HashSet<>();
+  private final Set<LocalDate> operatingDays = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Keyed by id rather than by entity, so detached day types are not kept in memory.
+   */
+  private final Map<String, DayTypeCalendar> dayTypeCalendars = new ConcurrentHashMap<>();
+
+  private final ExportPhaseTimer phaseTimer;
+
+  private volatile String idPrefix;
 
   public NetexExportContext(Export export) {
+    this(export, new ExportPhaseTimer());
+  }
+
+  public NetexExportContext(Export export, ExportPhaseTimer phaseTimer) {
     this.publicationTimestamp = Instant.now();
     this.export = export;
     this.provider = export.getProvider();
+    this.phaseTimer = phaseTimer;
   }
 
-  public void updateAvailabilityPeriod(AvailabilityPeriod newPeriod) {
+  public synchronized void updateAvailabilityPeriod(AvailabilityPeriod newPeriod) {
     availabilityPeriod = newPeriod.union(availabilityPeriod);
   }
 
-  public AvailabilityPeriod getAvailabilityPeriod() {
+  public synchronized AvailabilityPeriod getAvailabilityPeriod() {
     return availabilityPeriod;
   }
 
-  public long getAndIncrementIdSequence(String entityName) {
-    AtomicLong sequence = idSequences.get(entityName);
-    if (sequence == null) {
-      synchronized (idSequences) {
-        sequence = idSequences.get(entityName);
-
-        if (sequence == null) {
-          sequence = new AtomicLong(1);
-          idSequences.put(entityName, sequence);
-        }
-      }
+  /**
+   * The codespace prefix of the ids in the export, looked up once per export.
+   */
+  public String getIdPrefix() {
+    String prefix = idPrefix;
+    if (prefix == null) {
+      prefix = provider.getCodespace().getXmlns();
+      idPrefix = prefix;
     }
-    return sequence.getAndIncrement();
+    return prefix;
+  }
+
+  public long getAndIncrementIdSequence(String entityName) {
+    return idSequences
+      .computeIfAbsent(entityName, name -> new AtomicLong(1))
+      .getAndIncrement();
+  }
+
+  /**
+   * Snapshot of the next value of every id sequence in use.
+   */
+  public Map<String, Long> getIdSequences() {
+    Map<String, Long> snapshot = new HashMap<>();
+    idSequences.forEach((entityName, sequence) ->
+      snapshot.put(entityName, sequence.get())
+    );
+    return snapshot;
   }
 
   public <I extends IdentifiedEntity> boolean isValid(I entity) {
@@ -110,7 +153,29 @@ public class NetexExportContext {
     String message,
     Object... params
   ) {
-    export.addMessage(new ExportMessage(severity, message, params));
+    addExportMessage(new ExportMessage(severity, message, params));
+  }
+
+  /**
+   * Add a message concerning a single line of the export.
+   */
+  public void addLineExportMessage(
+    String lineRef,
+    SeverityEnumeration severity,
+    String message,
+    Object... params
+  ) {
+    addExportMessage(new ExportMessage(lineRef, severity, message, params));
+  }
+
+  private void addExportMessage(ExportMessage exportMessage) {
+    synchronized (export) {
+      export.addMessage(exportMessage);
+    }
+  }
+
+  public boolean isDryRun() {
+    return export.isDryRun();
   }
 
   public boolean shouldGenerateServiceLinks() {
@@ -130,4 +195,21 @@ public class NetexExportContext {
   public Set<LocalDate> getOperatingDays() {
     return operatingDays;
   }
+
+  /**
+   * The calendar of the day type, expanded once per export as day types are shared by many
+   * service journeys. Day types without an id are expanded every time.
+   */
+  public DayTypeCalendar getDayTypeCalendar(DayType dayType) {
+    if (dayType.getNetexId() == null) {
+      return DayTypeCalendar.of(dayType);
+    }
+    return dayTypeCalendars.computeIfAbsent(dayType.getNetexId(), netexId ->
+      DayTypeCalendar.of(dayType)
+    );
+  }
+
+  public ExportPhaseTimer getPhaseTimer() {
+    return phaseTimer;
+  }
 }
@@ -15,34 +15,57 @@
 
 package no.entur.uttu.export.netex;
 
-import static jakarta.xml.bind.JAXBContext.newInstance;
 import static org.slf4j.LoggerFactory.getLogger;
 
-import jakarta.xml.bind.JAXBContext;
-import jakarta.xml.bind.Marshaller;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import javax.annotation.PostConstruct;
 import no.entur.uttu.error.codederror.CodedError;
+import no.entur.uttu.error.codedexception.CodedIllegalArgumentException;
 import no.entur.uttu.error.codes.ErrorCodeEnumeration;
+import no.entur.uttu.export.ExportPhaseTimer;
 import no.entur.uttu.export.model.ExportException;
 import no.entur.uttu.export.netex.producer.common.NetexCommonFileProducer;
 import no.entur.uttu.export.netex.producer.line.NetexLineFileProducer;
+import no.entur.uttu.export.netex.producer.line.NetexLineUtilities;
 import no.entur.uttu.model.Line;
-import no.entur.uttu.model.ProviderEntity;
 import no.entur.uttu.model.job.Export;
 import no.entur.uttu.model.job.ExportLineAssociation;
+import no.entur.uttu.model.job.ExportPhaseEnumeration;
+import no.entur.uttu.model.job.ExportStatusEnumeration;
+import no.entur.uttu.model.job.SeverityEnumeration;
+import no.entur.uttu.repository.ExportRepository;
 import no.entur.uttu.repository.FixedLineRepository;
 import no.entur.uttu.repository.FlexibleLineRepository;
-import no.entur.uttu.repository.generic.ProviderEntityRepository;
 import no.entur.uttu.util.Preconditions;
-import org.rutebanken.netex.model.PublicationDeliveryStructure;
-import org.rutebanken.netex.validation.NeTExValidator;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -60,51 +83,477 @@ public class NetexExporter {
   @Autowired
   private NetexCommonFileProducer commonFileProducer;
 
-  private JAXBContext jaxbContext;
+  @Autowired
+  private NetexMarshallerPool marshallerPool;
+
+  @Autowired
+  private NetexSchemaValidator schemaValidator;
+
+  @Autowired
+  private ExportRepository exportRepository;
+
+  @Autowired
+  private NetexLineFileCache lineFileCache;
+
+  /**
+   * Only validate line files for lines changed since the last successful export of every line
+   * of the provider. Dry runs and exports of selected lines are not used as the baseline, as
+   * other lines may have changed unvalidated before them.
+   */
+  @Value("${export.validateChangedLinesOnly:false}")
+  private boolean validateChangedLinesOnly;
 
-  private NeTExValidator netexValidator;
+  /**
+   * Load lines one at a time and detach each line from the persistence context once its file is
+   * produced, so memory usage is bounded by the largest line rather than by the whole provider.
+   */
+  @Value("${export.detachExportedLines:false}")
+  private boolean detachExportedLines;
+
+  /**
+   * Write the journeys of lines with at least this many service journeys while marshalling,
+   * one journey at a time, instead of producing them all before the file is marshalled. 0
+   * disables streaming.
+   */
+  @Value("${export.streamJourneys.minServiceJourneys:0}")
+  private int streamJourneysMinServiceJourneys;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  private int marshalParallelism;
+
+  private ExecutorService marshalExecutor;
 
   @PostConstruct
-  public void asyncInit() {
-    new Thread(this::assertInit).start();
+  public void init() {
+    marshalParallelism = marshallerPool.getParallelism();
+    AtomicInteger threadCount = new AtomicInteger();
+    // shared by all exports, with a thread for each pooled marshaller
+    marshalExecutor = Executors.newFixedThreadPool(marshallerPool.getSize(), runnable -> {
+      Thread thread = new Thread(
+        runnable,
+        "netex-marshaller-" + threadCount.incrementAndGet()
+      );
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (marshalExecutor != null) {
+      marshalExecutor.shutdown();
+    }
   }
 
   private static final Logger logger = getLogger(NetexExporter.class);
 
+  /**
+   * @param phaseTimer accumulates the time spent loading, producing, marshalling and validating
+   */
   public void exportDataSet(
     Export export,
     DataSetProducer dataSetProducer,
-    boolean validateAgainstSchema
+    boolean validateAgainstSchema,
+    ExportPhaseTimer phaseTimer
   ) {
-    NetexExportContext exportContext = new NetexExportContext(export);
+    NetexExportContext exportContext = new NetexExportContext(export, phaseTimer);
+
+    Set<String> fingerprints;
+    if (detachExportedLines) {
+      fingerprints = marshalLineFiles(
+        loadLinesOneByOne(export, exportContext),
+        exportContext,
+        dataSetProducer,
+        validateAgainstSchema,
+        lineValidationFilter(export, validateAgainstSchema),
+        entityManager::detach
+      );
+    } else {
+      List<Line> lines = phaseTimer.time(ExportPhaseEnumeration.LOAD_ENTITIES, () ->
+        findLinesFromRepository(export, exportContext)
+      );
+
+      // a stable order gives the same generated ids to unchanged lines, which the cache relies on
+      List<Line> linesToExport = findLinesToExport(
+        export.getExportLineAssociations(),
+        lines
+      )
+        .stream()
+        .sorted(Comparator.comparing(Line::getNetexId))
+        .toList();
 
-    List<no.entur.uttu.model.FlexibleLine> flexibleLines =
-      findAllValidEntitiesFromRepository(flexibleLineRepository, exportContext);
-    List<no.entur.uttu.model.FixedLine> fixedLines = findAllValidEntitiesFromRepository(
-      fixedLineRepository,
-      exportContext
+      fingerprints = marshalLineFiles(
+        linesToExport,
+        exportContext,
+        dataSetProducer,
+        validateAgainstSchema,
+        lineValidationFilter(export, validateAgainstSchema),
+        line -> {}
+      );
+    }
+
+    if (lineFileCache.isEnabled() && !hasLineSelection(export)) {
+      lineFileCache.retainOnly(exportContext.provider.getCode(), fingerprints);
+    }
+
+    // the common file depends on state collected from every line file
+    NetexFile commonFile = phaseTimer.time(
+      ExportPhaseEnumeration.PRODUCE_COMMON_FILE,
+      () -> commonFileProducer.toCommonFile(exportContext)
     );
+    marshalToFile(commonFile, dataSetProducer, phaseTimer);
+    dataSetProducer.fileCompleted(commonFile.getFileName());
+    if (validateAgainstSchema) {
+      schemaValidator.validate(
+        dataSetProducer.getFile(commonFile.getFileName()),
+        exportContext
+      );
+    }
 
-    List<Line> lines = Stream.concat(flexibleLines.stream(), fixedLines.stream()).collect(
-      Collectors.toList()
+    if (!export.isDryRun()) {
+      // generated ids are numbered per export, so they are left out of the content hash
+      export.setContentHash(
+        NetexContentHash.compute(
+          dataSetProducer.getFiles(),
+          exportContext.getIdSequences().keySet()
+        )
+      );
+    }
+  }
+
+  private Predicate<Line> lineValidationFilter(
+    Export export,
+    boolean validateAgainstSchema
+  ) {
+    if (!validateAgainstSchema) {
+      return line -> false;
+    }
+    if (!validateChangedLinesOnly) {
+      return line -> true;
+    }
+
+    Optional<Instant> lastSuccessfulExport = Optional.ofNullable(
+      exportRepository.findFirstByProviderCodeAndDryRunFalseAndExportLineAssociationsIsEmptyAndExportStatusAndCreatedBeforeOrderByCreatedDesc(
+        export.getProvider().getCode(),
+        ExportStatusEnumeration.SUCCESS,
+        export.getCreated()
+      )
+    ).map(Export::getCreated);
+
+    if (lastSuccessfulExport.isEmpty()) {
+      return line -> true;
+    }
+    return line ->
+      NetexLineUtilities.calculateLastChangedForLine(line)
+        .map(changed -> changed.isAfter(lastSuccessfulExport.get()))
+        .orElse(true);
+  }
+
+  /**
+   * Line files are produced one by one on the calling thread, as the entities are bound to its
+   * persistence context, and handed over to the marshal executor. Marshalled files are then
+   * validated by the schema validator while the next files are marshalled. The number of
+   * produced files waiting to be marshalled or validated is bounded to keep memory usage in check.
+   *
+   * Lines are still produced when the line file cache is enabled, as the common file depends on
+   * the state they collect, but a cached file replaces marshalling and validation. Files are
+   * only cached unvalidated when schema validation is disabled, or skipped for the line.
+   *
+   * Lines with streamed journeys are marshalled on the calling thread before they are released,
+   * as their journeys are produced from the entities while the file is written. They are not
+   * cached.
+   *
+   * @param validateAgainstSchema whether schema validation is enabled for the export, which
+   *                              cached files are keyed by
+   * @param releaseLine called with each line once it is no longer needed by the export
+   * @return the line file cache fingerprints of the exported lines
+   */
+  private Set<String> marshalLineFiles(
+    Iterable<Line> linesToExport,
+    NetexExportContext exportContext,
+    DataSetProducer dataSetProducer,
+    boolean validateAgainstSchema,
+    Predicate<Line> shouldValidate,
+    Consumer<Line> releaseLine
+  ) {
+    Semaphore pendingFiles = new Semaphore(marshalParallelism * 2);
+    List<CompletableFuture<Void>> marshalTasks = new ArrayList<>();
+    Set<String> fingerprints = new HashSet<>();
+
+    try {
+      for (Line line : linesToExport) {
+        pendingFiles.acquire();
+        NetexFile netexFile;
+        String fingerprint = null;
+        boolean validate;
+        boolean streamJourneys;
+        try {
+          Map<String, Long> idSequencesBefore = exportContext.getIdSequences();
+          streamJourneys = shouldStreamJourneys(line, exportContext);
+          netexFile = exportContext
+            .getPhaseTimer()
+            .time(ExportPhaseEnumeration.PRODUCE_LINE_FILES, () ->
+              netexLineFileProducer.toNetexFile(line, exportContext, streamJourneys)
+            );
+          if (streamJourneys) {
+            marshalToFile(netexFile, dataSetProducer, exportContext.getPhaseTimer());
+          } else if (lineFileCache.isEnabled()) {
+            fingerprint = lineFileCache.fingerprint(
+              line,
+              netexFile.getFileName(),
+              exportContext,
+              validateAgainstSchema,
+              idSequencesBefore,
+              exportContext.getIdSequences()
+            );
+            fingerprints.add(fingerprint);
+          }
+          validate = shouldValidate.test(line);
+          releaseLine.accept(line);
+        } catch (RuntimeException e) {
+          pendingFiles.release();
+          IllegalArgumentException lineError = findLineError(e);
+          if (exportContext.isDryRun() && lineError != null) {
+            // a dry run reports every invalid line instead of stopping at the first one
+            addLineError(exportContext, line.getNetexId(), lineError);
+            releaseLine.accept(line);
+            continue;
+          }
+          throw e;
+        }
+        marshalTasks.add(
+          writeLineFile(
+            netexFile,
+            line.getNetexId(),
+            fingerprint,
+            streamJourneys,
+            validate,
+            exportContext,
+            dataSetProducer
+          ).whenComplete((result, throwable) -> pendingFiles.release())
+        );
+      }
+      CompletableFuture.allOf(marshalTasks.toArray(CompletableFuture[]::new)).join();
+      return fingerprints;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      marshalTasks.forEach(task -> task.cancel(true));
+      throw new ExportException("Interrupted while marshalling line files", e);
+    } catch (CompletionException e) {
+      marshalTasks.forEach(task -> task.cancel(true));
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new ExportException("Failed to marshal line files: " + e.getMessage(), e);
+    } catch (RuntimeException e) {
+      marshalTasks.forEach(task -> task.cancel(true));
+      throw e;
+    }
+  }
+
+  /**
+   * @param written whether the file is already marshalled, and only needs to be completed and
+   *                validated
+   */
+  private CompletableFuture<Void> writeLineFile(
+    NetexFile netexFile,
+    String lineRef,
+    String fingerprint,
+    boolean written,
+    boolean validate,
+    NetexExportContext exportContext,
+    DataSetProducer dataSetProducer
+  ) {
+    String providerCode = exportContext.provider.getCode();
+    Path file = dataSetProducer.getFile(netexFile.getFileName());
+
+    CompletableFuture<Boolean> marshalTask = CompletableFuture.supplyAsync(
+      () -> {
+        boolean marshalled = written;
+        if (
+          !written &&
+          (fingerprint == null || !copyFromCache(file, fingerprint, providerCode))
+        ) {
+          marshalToFile(netexFile, dataSetProducer, exportContext.getPhaseTimer());
+          marshalled = true;
+        }
+        // validation only reads the file, so it can be compressed in the meantime
+        dataSetProducer.fileCompleted(netexFile.getFileName());
+        return marshalled;
+      },
+      marshalExecutor
     );
 
-    List<Line> linesToExport = findLinesToExport(
-      export.getExportLineAssociations(),
-      lines
+    // cached files were validated before they were stored, unless validation was skipped
+    return marshalTask.thenCompose(marshalled -> {
+      if (!marshalled) {
+        return CompletableFuture.completedFuture(null);
+      }
+      if (!validate) {
+        if (fingerprint != null) {
+          lineFileCache.store(providerCode, fingerprint, file);
+        }
+        return CompletableFuture.completedFuture(null);
+      }
+      return schemaValidator
+        .validateAsync(file, exportContext, lineRef)
+        .thenAccept(valid -> {
+          if (valid && fingerprint != null) {
+            lineFileCache.store(providerCode, fingerprint, file);
+          }
+        });
+    });
+  }
+
+  /**
+   * The invalid data error a line file failed to be produced with, if any, as opposed to
+   * a failure of the export itself.
+   */
+  private static IllegalArgumentException findLineError(Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof IllegalArgumentException illegalArgumentException) {
+        return illegalArgumentException;
+      }
+    }
+    return null;
+  }
+
+  private static void addLineError(
+    NetexExportContext exportContext,
+    String lineRef,
+    IllegalArgumentException lineError
+  ) {
+    String message = lineError.getMessage();
+    if (
+      lineError instanceof CodedIllegalArgumentException coded && coded.getCode() != null
+    ) {
+      message = coded.getCode();
+    }
+    exportContext.addLineExportMessage(
+      lineRef,
+      SeverityEnumeration.ERROR,
+      "Failed to export line {0}: {1}",
+      lineRef,
+      message
     );
+    logger.info("Dry run of line {} failed: {}", lineRef, lineError.getMessage());
+  }
 
-    linesToExport
+  private boolean shouldStreamJourneys(Line line, NetexExportContext exportContext) {
+    if (streamJourneysMinServiceJourneys <= 0) {
+      return false;
+    }
+    long serviceJourneys = line
+      .getJourneyPatterns()
       .stream()
-      .map(line -> netexLineFileProducer.toNetexFile(line, exportContext))
-      .forEach(
-        netexFile -> marshalToFile(netexFile, dataSetProducer, validateAgainstSchema)
+      .flatMap(journeyPattern -> journeyPattern.getServiceJourneys().stream())
+      .filter(exportContext::isValid)
+      .count();
+    return serviceJourneys >= streamJourneysMinServiceJourneys;
+  }
+
+  private boolean copyFromCache(Path file, String fingerprint, String providerCode) {
+    try {
+      return lineFileCache.copyTo(providerCode, fingerprint, file);
+    } catch (IOException e) {
+      logger.warn(
+        "Failed to copy cached line file {}, marshalling it instead: {}",
+        file.getFileName(),
+        e.getMessage()
       );
+      return false;
+    }
+  }
+
+  /**
+   * Load the lines selected for export, or all lines of the provider if none are selected,
+   * without loading lines that are not exported.
+   */
+  private List<Line> findLinesFromRepository(
+    Export export,
+    NetexExportContext exportContext
+  ) {
+    String providerCode = export.getProvider().getCode();
+    Stream<Line> lines;
+    if (hasLineSelection(export)) {
+      Set<String> netexIds = selectedNetexIds(export);
+      lines = Stream.concat(
+        flexibleLineRepository.findForExport(providerCode, netexIds).stream(),
+        fixedLineRepository.findForExport(providerCode, netexIds).stream()
+      );
+    } else {
+      lines = Stream.concat(
+        flexibleLineRepository.findAllForExport(providerCode).stream(),
+        fixedLineRepository.findAllForExport(providerCode).stream()
+      );
+    }
+    return lines.filter(exportContext::isValid).collect(Collectors.toList());
+  }
+
+  /**
+   * Lazily load the lines to export one at a time, in the same order as the lines loaded by
+   * {@link #findLinesFromRepository(Export, NetexExportContext)} are exported.
+   */
+  private Iterable<Line> loadLinesOneByOne(
+    Export export,
+    NetexExportContext exportContext
+  ) {
+    String providerCode = export.getProvider().getCode();
+    Set<String> selectedNetexIds = hasLineSelection(export)
+      ? selectedNetexIds(export)
+      : null;
+    List<String> netexIds = Stream.concat(
+      flexibleLineRepository.findNetexIdsForExport(providerCode).stream(),
+      fixedLineRepository.findNetexIdsForExport(providerCode).stream()
+    )
+      .filter(netexId -> selectedNetexIds == null || selectedNetexIds.contains(netexId))
+      .sorted()
+      .toList();
+
+    Preconditions.checkArgument(
+      !netexIds.isEmpty(),
+      CodedError.fromErrorCode(ErrorCodeEnumeration.NO_VALID_LINES_IN_DATA_SPACE),
+      "No valid lines in data space"
+    );
+
+    return () ->
+      netexIds
+        .stream()
+        .map(netexId ->
+          exportContext
+            .getPhaseTimer()
+            .time(ExportPhaseEnumeration.LOAD_ENTITIES, () ->
+              loadLine(providerCode, netexId)
+            )
+        )
+        .filter(exportContext::isValid)
+        .iterator();
+  }
 
-    marshalToFile(
-      commonFileProducer.toCommonFile(exportContext),
-      dataSetProducer,
-      validateAgainstSchema
+  private Line loadLine(String providerCode, String netexId) {
+    List<String> netexIds = List.of(netexId);
+    return Stream.concat(
+      flexibleLineRepository.findForExport(providerCode, netexIds).stream(),
+      fixedLineRepository.findForExport(providerCode, netexIds).stream()
+    )
+      .findFirst()
+      .orElse(null);
+  }
+
+  private static Set<String> selectedNetexIds(Export export) {
+    return export
+      .getExportLineAssociations()
+      .stream()
+      .map(exportLineAssociation -> exportLineAssociation.getLine().getNetexId())
+      .collect(Collectors.toSet());
+  }
+
+  private static boolean hasLineSelection(Export export) {
+    return (
+      export.getExportLineAssociations() != null &&
+      !export.getExportLineAssociations().isEmpty()
     );
   }
 
@@ -115,11 +564,11 @@ public class NetexExporter {
     List<Line> linesToExport = lines;
 
     if (null != exportLineAssociations && !exportLineAssociations.isEmpty()) {
+      Set<Line> selectedLines = Collections.newSetFromMap(new IdentityHashMap<>());
+      exportLineAssociations.forEach(la -> selectedLines.add(la.getLine()));
       linesToExport = linesToExport
         .stream()
-        .filter(
-          line -> exportLineAssociations.stream().anyMatch(la -> la.getLine() == line)
-        )
+        .filter(selectedLines::contains)
         .collect(Collectors.toList());
     }
 
@@ -132,54 +581,32 @@ public class NetexExporter {
     return linesToExport;
   }
 
-  private <T extends ProviderEntity> List<T> findAllValidEntitiesFromRepository(
-    ProviderEntityRepository<T> repository,
-    NetexExportContext exportContext
-  ) {
-    return repository
-      .findAll()
-      .stream()
-      .filter(exportContext::isValid)
-      .collect(Collectors.toList());
-  }
-
   private void marshalToFile(
     NetexFile file,
     DataSetProducer dataSetProducer,
-    boolean validateAgainstSchema
+    ExportPhaseTimer phaseTimer
   ) {
-    assertInit();
-    try {
-      Marshaller marshaller = jaxbContext.createMarshaller();
-
-      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-
-      if (validateAgainstSchema) {
-        marshaller.setSchema(netexValidator.getSchema());
+    long start = System.nanoTime();
+    try (OutputStream outputStream = dataSetProducer.addFile(file.getFileName())) {
+      if (file.getStreamedTimetable() != null) {
+        marshallerPool.marshalStreaming(
+          file.getPublicationDeliveryStructure(),
+          file.getStreamedTimetable(),
+          outputStream
+        );
+      } else {
+        marshallerPool.marshal(
+          file.getPublicationDeliveryStructure(),
+          outputStream,
+          false
+        );
       }
-      OutputStream outputStream = dataSetProducer.addFile(file.getFileName());
-      marshaller.marshal(file.getPublicationDeliveryStructure(), outputStream);
     } catch (Exception e) {
       var msg = "Failed to marshal NeTEx XML to file: " + e.getMessage();
       logger.error(msg, e);
       throw new ExportException(msg, e);
-    }
-  }
-
-  private void assertInit() {
-    if (jaxbContext == null) {
-      try {
-        jaxbContext = newInstance(PublicationDeliveryStructure.class);
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      }
-    }
-    if (netexValidator == null) {
-      try {
-        netexValidator = new NeTExValidator();
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      }
+    } finally {
+      phaseTimer.recordSince(ExportPhaseEnumeration.MARSHALLING, start);
     }
   }
 }
@@ -24,12 +24,23 @@ public class NetexFile {
 
   private JAXBElement<PublicationDeliveryStructure> publicationDeliveryStructure;
 
+  private StreamedTimetable streamedTimetable;
+
   public NetexFile(
     String fileName,
     JAXBElement<PublicationDeliveryStructure> publicationDeliveryStructure
+  ) {
+    this(fileName, publicationDeliveryStructure, null);
+  }
+
+  public NetexFile(
+    String fileName,
+    JAXBElement<PublicationDeliveryStructure> publicationDeliveryStructure,
+    StreamedTimetable streamedTimetable
   ) {
     this.fileName = fileName;
     this.publicationDeliveryStructure = publicationDeliveryStructure;
+    this.streamedTimetable = streamedTimetable;
   }
 
   public String getFileName() {
@@ -39,4 +50,12 @@ public class NetexFile {
   public JAXBElement<PublicationDeliveryStructure> getPublicationDeliveryStructure() {
     return publicationDeliveryStructure;
   }
+
+  /**
+   * The journeys of the TimetableFrame, when they are produced while the file is
+   * marshalled instead of being part of the publication delivery.
+   */
+  public StreamedTimetable getStreamedTimetable() {
+    return streamedTimetable;
+  }
 }
@@ -0,0 +1,332 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import no.entur.uttu.config.AdditionalCodespacesConfig;
+import no.entur.uttu.export.netex.producer.line.NetexLineUtilities;
+import no.entur.uttu.model.DayType;
+import no.entur.uttu.model.DayTypeAssignment;
+import no.entur.uttu.model.IdentifiedEntity;
+import no.entur.uttu.model.Line;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.info.BuildProperties;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Local disk cache of marshalled line files, schema validated unless validation is disabled.
+ *
+ * <p>
+ *   A cached file is keyed by a fingerprint of everything that goes into the line file: the
+ *   type, id and version of the line and every entity exported with it, the export options,
+ *   whether files are schema validated, the provider, the generated ids consumed while
+ *   producing the line and the dates that decide which day types and dated service journeys
+ *   are still included. A line with an unchanged fingerprint produces the same file, apart
+ *   from the publication timestamps, which are kept from the export that first produced it.
+ * </p>
+ *
+ * <p>
+ *   The fingerprint also covers the configuration that goes into line files, e.g. additional
+ *   codespaces, and the version and time of the application build, so entries are not
+ *   reused after the configuration or the application changes.
+ * </p>
+ *
+ * To enable the cache set property
+ *    export.lineCache.folder=/path/to/cache
+ * The cache is disabled by default.
+ */
+@Component
+public class NetexLineFileCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(NetexLineFileCache.class);
+
+  /**
+   * Bump when the content of produced line files changes, to invalidate existing entries
+   * of applications built without build info.
+   */
+  static final String FORMAT_VERSION = "1";
+
+  /**
+   * Properties changing the content of line files, besides the additional codespaces.
+   */
+  private static final List<String> CONTENT_PROPERTIES = List.of(
+    "netex.export.version",
+    "export.time.zone.default",
+    "no.entur.uttu.organisations.overrides",
+    "no.entur.uttu.organisations.overrides.provider"
+  );
+
+  private static final String FILE_SUFFIX = ".xml";
+
+  private final Path folder;
+
+  private final Clock clock;
+
+  private final String exportConfiguration;
+
+  private final Counter hitCounter;
+
+  private final Counter missCounter;
+
+  @Autowired
+  public NetexLineFileCache(
+    @Value("${export.lineCache.folder:}") String folder,
+    Clock clock,
+    MeterRegistry meterRegistry,
+    Environment environment,
+    AdditionalCodespacesConfig additionalCodespacesConfig,
+    ObjectProvider<BuildProperties> buildProperties
+  ) {
+    this(
+      folder,
+      clock,
+      meterRegistry,
+      exportConfiguration(
+        environment,
+        additionalCodespacesConfig.getAdditional(),
+        buildProperties.getIfAvailable()
+      )
+    );
+  }
+
+  NetexLineFileCache(
+    String folder,
+    Clock clock,
+    MeterRegistry meterRegistry,
+    String exportConfiguration
+  ) {
+    this.folder = folder == null || folder.isBlank() ? null : Path.of(folder);
+    this.clock = clock;
+    this.exportConfiguration = exportConfiguration;
+    this.hitCounter = lookupCounter(meterRegistry, "hit");
+    this.missCounter = lookupCounter(meterRegistry, "miss");
+  }
+
+  public boolean isEnabled() {
+    return folder != null;
+  }
+
+  /**
+   * Fingerprint the produced line file.
+   *
+   * @param validateAgainstSchema whether the export validates files against the schema, so
+   *                              unvalidated files are not reused by validating exports
+   * @param idSequencesBefore the export id sequences before the line was produced
+   * @param idSequencesAfter the export id sequences after the line was produced
+   */
+  public String fingerprint(
+    Line line,
+    String fileName,
+    NetexExportContext context,
+    boolean validateAgainstSchema,
+    Map<String, Long> idSequencesBefore,
+    Map<String, Long> idSequencesAfter
+  ) {
+    MessageDigest digest = newDigest();
+    update(digest, FORMAT_VERSION);
+    update(digest, exportConfiguration);
+    update(digest, fileName);
+    update(digest, context.provider.getName());
+    update(digest, context.provider.getCodespace().getXmlns());
+    update(digest, context.provider.getCodespace().getXmlnsUrl());
+    update(digest, String.valueOf(context.shouldGenerateServiceLinks()));
+    update(digest, String.valueOf(context.shouldIncludeDatedServiceJourneys()));
+    update(digest, String.valueOf(validateAgainstSchema));
+    update(digest, new TreeMap<>(idSequencesBefore).toString());
+    update(digest, new TreeMap<>(idSequencesAfter).toString());
+    update(digest, dateDependency(line, context));
+
+    // keep the traversal order, as reordering journeys or stop points changes the file
+    Set<IdentifiedEntity> entities = NetexLineUtilities.collectExportedEntities(line)
+      .collect(Collectors.toCollection(LinkedHashSet::new));
+    for (IdentifiedEntity entity : entities) {
+      update(
+        digest,
+        entity.getClass().getSimpleName() +
+        ":" +
+        entity.getPk() +
+        ":" +
+        entity.getVersion()
+      );
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Copy the cached file for the fingerprint to the target file.
+   *
+   * @return whether the file was cached and copied
+   */
+  public boolean copyTo(String providerCode, String fingerprint, Path target)
+    throws IOException {
+    Path cachedFile = cachedFile(providerCode, fingerprint);
+    if (!Files.isRegularFile(cachedFile)) {
+      missCounter.increment();
+      return false;
+    }
+    Files.copy(cachedFile, target, StandardCopyOption.REPLACE_EXISTING);
+    hitCounter.increment();
+    return true;
+  }
+
+  /**
+   * Store a copy of the file. Failures are logged and otherwise ignored, as the cache is only
+   * an optimization.
+   */
+  public void store(String providerCode, String fingerprint, Path file) {
+    Path cachedFile = cachedFile(providerCode, fingerprint);
+    try {
+      Files.createDirectories(cachedFile.getParent());
+      Path tmpFile = Files.createTempFile(cachedFile.getParent(), fingerprint, ".tmp");
+      Files.copy(file, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmpFile, cachedFile, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Failed to cache line file {}: {}", file.getFileName(), e.getMessage());
+    }
+  }
+
+  /**
+   * Remove every cached file for the provider except the given ones.
+   */
+  public void retainOnly(String providerCode, Set<String> fingerprints) {
+    Path providerFolder = folder.resolve(providerCode);
+    if (!Files.isDirectory(providerFolder)) {
+      return;
+    }
+    try (Stream<Path> files = Files.list(providerFolder)) {
+      files
+        .filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX))
+        .filter(file -> !fingerprints.contains(toFingerprint(file)))
+        .forEach(file -> {
+          try {
+            Files.deleteIfExists(file);
+          } catch (IOException e) {
+            logger.warn("Failed to remove cached line file {}: {}", file, e.getMessage());
+          }
+        });
+    } catch (IOException e) {
+      logger.warn(
+        "Failed to prune line file cache for {}: {}",
+        providerCode,
+        e.getMessage()
+      );
+    }
+  }
+
+  /**
+   * Which of the line's service journeys, day types and dates are exported depends on the
+   * current date. Dated service journeys change every day, while the other journeys only
+   * change when an operating period of one of their day types ends.
+   */
+  private String dateDependency(Line line, NetexExportContext context) {
+    LocalDate cutoff = LocalDate.now(clock).minusDays(1);
+    if (context.shouldIncludeDatedServiceJourneys()) {
+      return cutoff.toString();
+    }
+    long endedOperatingPeriods = NetexLineUtilities.collectExportedEntities(line)
+      .filter(DayType.class::isInstance)
+      .map(DayType.class::cast)
+      .distinct()
+      .flatMap(dayType -> dayType.getDayTypeAssignments().stream())
+      .map(DayTypeAssignment::getOperatingPeriod)
+      .filter(operatingPeriod -> operatingPeriod != null)
+      .filter(operatingPeriod -> operatingPeriod.getToDate().isBefore(cutoff))
+      .count();
+    return String.valueOf(endedOperatingPeriods);
+  }
+
+  /**
+   * The configuration and build of the application that go into line files, as part of the
+   * fingerprint.
+   *
+   * @param buildProperties the build info, or null if the application was built without it
+   */
+  static String exportConfiguration(
+    Environment environment,
+    Map<String, String> additionalCodespaces,
+    BuildProperties buildProperties
+  ) {
+    StringBuilder configuration = new StringBuilder();
+    for (String property : CONTENT_PROPERTIES) {
+      configuration
+        .append(property)
+        .append('=')
+        .append(environment.getProperty(property))
+        .append('\n');
+    }
+    configuration.append("codespaces=").append(new TreeMap<>(additionalCodespaces));
+    if (buildProperties != null) {
+      configuration
+        .append("\nbuild=")
+        .append(buildProperties.getVersion())
+        .append('@')
+        .append(buildProperties.getTime());
+    }
+    return configuration.toString();
+  }
+
+  private Path cachedFile(String providerCode, String fingerprint) {
+    return folder.resolve(providerCode).resolve(fingerprint + FILE_SUFFIX);
+  }
+
+  private static String toFingerprint(Path file) {
+    String fileName = file.getFileName().toString();
+    return fileName.substring(0, fileName.length() - FILE_SUFFIX.length());
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+    return Counter.builder("uttu.export.linecache.lookup")
+      .description("Line file cache lookups")
+      .tag("result", result)
+      .register(meterRegistry);
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.validation.Schema;
+import no.entur.uttu.export.model.ExportException;
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+import org.rutebanken.netex.validation.NeTExValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pool of NeTEx marshallers sharing a single JAXB context and pre-compiled NeTEx schema.
+ *
+ * <p>
+ *   Marshallers are not thread safe, so each marshal call borrows one from the pool and
+ *   returns it afterwards. The context, schema and marshallers are created in the
+ *   background at startup, and callers block until they are ready.
+ * </p>
+ *
+ * <p>
+ *   The pool holds a marshaller for each file every running export may marshal at a time, so
+ *   concurrent exports do not wait for each other's marshallers.
+ * </p>
+ *
+ * To change the number of files marshalled concurrently by each export set property
+ *    export.marshal.parallelism=4
+ * Defaults to the number of available processors. The pool size is this times the number of
+ * concurrently running exports, set by property
+ *    export.worker.pool.size=2
+ */
+@Component
+public class NetexMarshallerPool {
+
+  private static final Logger logger = LoggerFactory.getLogger(NetexMarshallerPool.class);
+
+  private static final XMLOutputFactory XML_OUTPUT_FACTORY =
+    XMLOutputFactory.newFactory();
+
+  private final int parallelism;
+
+  private final int size;
+
+  private final CompletableFuture<PoolState> state;
+
+  private final Timer validatingMarshalTimer;
+
+  private final Timer nonValidatingMarshalTimer;
+
+  private final Timer waitTimer;
+
+  public NetexMarshallerPool(
+    @Value("${export.worker.pool.size:2}") int exportWorkers,
+    @Value("${export.marshal.parallelism:0}") int parallelism,
+    MeterRegistry meterRegistry
+  ) {
+    this.parallelism = parallelism > 0
+      ? parallelism
+      : Runtime.getRuntime().availableProcessors();
+    this.size = Math.max(1, exportWorkers) * this.parallelism;
+    this.waitTimer = Timer.builder("uttu.export.marshaller.pool.wait")
+      .description("Time spent waiting for a free NeTEx marshaller")
+      .register(meterRegistry);
+    this.validatingMarshalTimer = marshalTimer(meterRegistry, true);
+    this.nonValidatingMarshalTimer = marshalTimer(meterRegistry, false);
+    this.state = CompletableFuture.supplyAsync(this::createPoolState);
+  }
+
+  /**
+   * Number of files each export may marshal concurrently.
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Number of marshallers in the pool, which is also the number of files that can be
+   * marshalled concurrently by all exports.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * The pre-compiled NeTEx schema, shared with schema validation outside marshalling.
+   */
+  public Schema getSchema() {
+    return awaitState().schema();
+  }
+
+  public void marshal(
+    Object jaxbElement,
+    OutputStream outputStream,
+    boolean validateAgainstSchema
+  ) throws JAXBException {
+    PoolState poolState = awaitState();
+    Marshaller marshaller = borrow(poolState);
+    Timer.Sample sample = Timer.start();
+    try {
+      marshaller.setSchema(validateAgainstSchema ? poolState.schema() : null);
+      marshaller.marshal(jaxbElement, outputStream);
+    } finally {
+      sample.stop(
+        validateAgainstSchema ? validatingMarshalTimer : nonValidatingMarshalTimer
+      );
+      poolState.marshallers().offer(marshaller);
+    }
+  }
+
+  /**
+   * Marshal a line file whose journeys are produced while it is written. Journeys are
+   * marshalled one at a time with a marshaller of their own, so only the journey being
+   * written is held in memory. Schema validation while marshalling is not supported, as
+   * the file is not a single JAXB tree.
+   */
+  public void marshalStreaming(
+    Object jaxbElement,
+    StreamedTimetable streamedTimetable,
+    OutputStream outputStream
+  ) throws JAXBException {
+    PoolState poolState = awaitState();
+    // created rather than borrowed, as waiting for a second pooled marshaller while
+    // holding one could deadlock when every marshaller is taken
+    Marshaller journeyMarshaller = poolState.jaxbContext().createMarshaller();
+    Marshaller marshaller = borrow(poolState);
+    Timer.Sample sample = Timer.start();
+    try {
+      XMLStreamWriter xmlStreamWriter = XML_OUTPUT_FACTORY.createXMLStreamWriter(
+        outputStream,
+        StandardCharsets.UTF_8.name()
+      );
+      StreamingTimetableWriter writer = new StreamingTimetableWriter(
+        xmlStreamWriter,
+        journeyMarshaller,
+        streamedTimetable
+      );
+      marshaller.setSchema(null);
+      marshaller.marshal(jaxbElement, writer);
+      writer.flush();
+      writer.close();
+    } catch (XMLStreamException e) {
+      throw new ExportException("Failed to write NeTEx file: " + e.getMessage(), e);
+    } finally {
+      sample.stop(nonValidatingMarshalTimer);
+      poolState.marshallers().offer(marshaller);
+    }
+  }
+
+  private Marshaller borrow(PoolState poolState) {
+    Timer.Sample sample = Timer.start();
+    try {
+      return poolState.marshallers().take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExportException("Interrupted while waiting for NeTEx marshaller", e);
+    } finally {
+      sample.stop(waitTimer);
+    }
+  }
+
+  private PoolState awaitState() {
+    try {
+      return state.join();
+    } catch (CompletionException e) {
+      throw new ExportException(
+        "Failed to initialize NeTEx marshallers: " + e.getCause().getMessage(),
+        e.getCause()
+      );
+    }
+  }
+
+  private PoolState createPoolState() {
+    try {
+      JAXBContext jaxbContext = JAXBContext.newInstance(
+        PublicationDeliveryStructure.class
+      );
+      Schema schema = new NeTExValidator().getSchema();
+
+      BlockingQueue<Marshaller> marshallers = new ArrayBlockingQueue<>(size);
+      for (int i = 0; i < size; i++) {
+        Marshaller marshaller = jaxbContext.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        marshallers.add(marshaller);
+      }
+      logger.info("Initialized pool of {} NeTEx marshallers", size);
+      return new PoolState(jaxbContext, schema, marshallers);
+    } catch (Exception e) {
+      logger.error("Failed to initialize NeTEx marshallers", e);
+      throw new CompletionException(e);
+    }
+  }
+
+  private static Timer marshalTimer(MeterRegistry meterRegistry, boolean validating) {
+    return Timer.builder("uttu.export.marshal")
+      .description("Time spent marshalling a NeTEx file")
+      .tag("validate", String.valueOf(validating))
+      .register(meterRegistry);
+  }
+
+  private record PoolState(
+    JAXBContext jaxbContext,
+    Schema schema,
+    BlockingQueue<Marshaller> marshallers
+  ) {}
+}
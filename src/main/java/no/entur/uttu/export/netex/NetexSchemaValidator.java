@@ -0,0 +1,205 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
+import no.entur.uttu.export.model.ExportException;
+import no.entur.uttu.model.job.ExportPhaseEnumeration;
+import no.entur.uttu.model.job.SeverityEnumeration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Validates marshalled NeTEx files against the NeTEx schema, separately from marshalling.
+ *
+ * <p>
+ *   Validation runs on its own pool so a file can be validated while the next one is being
+ *   marshalled. Schema violations are reported as export messages with file, line and column.
+ * </p>
+ *
+ * To change the number of files validated concurrently set property
+ *    export.validation.parallelism=2
+ * Defaults to the number of available processors.
+ */
+@Component
+public class NetexSchemaValidator {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    NetexSchemaValidator.class
+  );
+
+  /**
+   * Maximum number of schema violations reported for a single file.
+   */
+  static final int MAX_ERRORS_PER_FILE = 20;
+
+  private static final int MAX_ERROR_MESSAGE_LENGTH = 1000;
+
+  private final NetexMarshallerPool marshallerPool;
+
+  private final ExecutorService executor;
+
+  public NetexSchemaValidator(
+    NetexMarshallerPool marshallerPool,
+    @Value("${export.validation.parallelism:0}") int parallelism
+  ) {
+    this.marshallerPool = marshallerPool;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(
+      parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+      runnable -> {
+        Thread thread = new Thread(
+          runnable,
+          "netex-validator-" + threadCount.incrementAndGet()
+        );
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * @param lineRef NeTEx id of the line of a line file, added to its validation errors
+   */
+  public CompletableFuture<Boolean> validateAsync(
+    Path file,
+    NetexExportContext context,
+    String lineRef
+  ) {
+    return CompletableFuture.supplyAsync(
+      () -> validate(file, context, lineRef),
+      executor
+    );
+  }
+
+  /**
+   * Validate the file and add an export error for each schema violation found.
+   *
+   * @return whether the file is valid
+   */
+  public boolean validate(Path file, NetexExportContext context) {
+    return validate(file, context, null);
+  }
+
+  /**
+   * Validate the file and add an export error for each schema violation found, referring to
+   * the line of the file if it is a line file.
+   *
+   * @return whether the file is valid
+   */
+  public boolean validate(Path file, NetexExportContext context, String lineRef) {
+    String fileName = file.getFileName().toString();
+    CollectingErrorHandler errorHandler = new CollectingErrorHandler();
+    long start = System.nanoTime();
+
+    try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file))) {
+      Validator validator = marshallerPool.getSchema().newValidator();
+      validator.setErrorHandler(errorHandler);
+      validator.validate(new StreamSource(inputStream, fileName));
+    } catch (SAXParseException e) {
+      // fatal error, already collected by the error handler
+      logger.debug("Aborted schema validation of {}: {}", fileName, e.getMessage());
+    } catch (Exception e) {
+      throw new ExportException(
+        "Failed to validate NeTEx file " + fileName + ": " + e.getMessage(),
+        e
+      );
+    } finally {
+      context.getPhaseTimer().recordSince(ExportPhaseEnumeration.VALIDATION, start);
+    }
+
+    for (SAXParseException error : errorHandler.errors) {
+      context.addLineExportMessage(
+        lineRef,
+        SeverityEnumeration.ERROR,
+        "Schema validation error in {0} at line {1}, column {2}: {3}",
+        fileName,
+        String.valueOf(error.getLineNumber()),
+        String.valueOf(error.getColumnNumber()),
+        truncate(error.getMessage())
+      );
+    }
+    if (errorHandler.errorCount > errorHandler.errors.size()) {
+      context.addLineExportMessage(
+        lineRef,
+        SeverityEnumeration.ERROR,
+        "Schema validation of {0} found {1} more errors",
+        fileName,
+        String.valueOf(errorHandler.errorCount - errorHandler.errors.size())
+      );
+    }
+    return errorHandler.errorCount == 0;
+  }
+
+  private static String truncate(String message) {
+    if (message == null || message.length() <= MAX_ERROR_MESSAGE_LENGTH) {
+      return message;
+    }
+    return message.substring(0, MAX_ERROR_MESSAGE_LENGTH) + "...";
+  }
+
+  private static class CollectingErrorHandler implements ErrorHandler {
+
+    private final List<SAXParseException> errors = new ArrayList<>();
+
+    private int errorCount;
+
+    @Override
+    public void warning(SAXParseException exception) {
+      // warnings do not make the file invalid
+    }
+
+    @Override
+    public void error(SAXParseException exception) {
+      collect(exception);
+    }
+
+    @Override
+    public void fatalError(SAXParseException exception) throws SAXException {
+      collect(exception);
+      throw exception;
+    }
+
+    private void collect(SAXParseException exception) {
+      errorCount++;
+      if (errors.size() < MAX_ERRORS_PER_FILE) {
+        errors.add(exception);
+      }
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import jakarta.xml.bind.JAXBElement;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The vehicle journeys of the TimetableFrame of a line file, produced while the file is
+ * written rather than before, so a line with many journeys does not need all of them in
+ * memory at once.
+ */
+@FunctionalInterface
+public interface StreamedTimetable {
+  /**
+   * Produce the vehicle journeys of the frame in order, passing each to the writer before
+   * producing the next.
+   *
+   * @return the notice assignments of the journeys, written after the journeys
+   */
+  List<JAXBElement<?>> writeJourneys(Consumer<JAXBElement<?>> journeyWriter);
+}
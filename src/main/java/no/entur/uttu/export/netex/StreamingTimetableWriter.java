@@ -0,0 +1,391 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import no.entur.uttu.export.model.ExportException;
+
+/**
+ * Writes a marshalled line file, marshalling the journeys of a {@link StreamedTimetable}
+ * into the vehicleJourneys of the TimetableFrame one at a time as the element is closed,
+ * followed by their notice assignments.
+ *
+ * <p>
+ *   Elements are indented like formatted JAXB output. The journeys are marshalled as
+ *   fragments, which declare every namespace of the JAXB context on their root element,
+ *   so declarations already in scope with the same binding are left out.
+ * </p>
+ */
+class StreamingTimetableWriter implements XMLStreamWriter {
+
+  private static final String NETEX_NAMESPACE = "http://www.netex.org.uk/netex";
+
+  private static final String TIMETABLE_FRAME = "TimetableFrame";
+
+  private static final String VEHICLE_JOURNEYS = "vehicleJourneys";
+
+  private static final String NOTICE_ASSIGNMENTS = "noticeAssignments";
+
+  private static final String INDENT = "    ";
+
+  private final XMLStreamWriter delegate;
+
+  private final Marshaller fragmentMarshaller;
+
+  private final StreamedTimetable timetable;
+
+  private final Deque<Element> elements = new ArrayDeque<>();
+
+  private boolean journeysWritten;
+
+  /**
+   * Whether the last thing written was text, in which case the next tag is not indented.
+   */
+  private boolean afterText;
+
+  /**
+   * Whether the last thing written was a start tag, in which case an end tag directly
+   * after it is not indented.
+   */
+  private boolean afterStartTag;
+
+  StreamingTimetableWriter(
+    XMLStreamWriter delegate,
+    Marshaller fragmentMarshaller,
+    StreamedTimetable timetable
+  ) throws JAXBException {
+    this.delegate = delegate;
+    this.fragmentMarshaller = fragmentMarshaller;
+    this.timetable = timetable;
+    fragmentMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+  }
+
+  @Override
+  public void writeStartDocument() throws XMLStreamException {
+    delegate.writeStartDocument("UTF-8", "1.0");
+  }
+
+  @Override
+  public void writeStartDocument(String version) throws XMLStreamException {
+    delegate.writeStartDocument("UTF-8", version);
+  }
+
+  @Override
+  public void writeStartDocument(String encoding, String version)
+    throws XMLStreamException {
+    delegate.writeStartDocument(encoding, version);
+  }
+
+  @Override
+  public void writeStartElement(String localName) throws XMLStreamException {
+    indentStartTag();
+    delegate.writeStartElement(localName);
+    startElement(localName);
+  }
+
+  @Override
+  public void writeStartElement(String namespaceURI, String localName)
+    throws XMLStreamException {
+    indentStartTag();
+    delegate.writeStartElement(namespaceURI, localName);
+    startElement(localName);
+  }
+
+  @Override
+  public void writeStartElement(String prefix, String localName, String namespaceURI)
+    throws XMLStreamException {
+    indentStartTag();
+    delegate.writeStartElement(prefix, localName, namespaceURI);
+    startElement(localName);
+  }
+
+  @Override
+  public void writeEmptyElement(String localName) throws XMLStreamException {
+    indentStartTag();
+    delegate.writeEmptyElement(localName);
+    afterStartTag = false;
+  }
+
+  @Override
+  public void writeEmptyElement(String namespaceURI, String localName)
+    throws XMLStreamException {
+    indentStartTag();
+    delegate.writeEmptyElement(namespaceURI, localName);
+    afterStartTag = false;
+  }
+
+  @Override
+  public void writeEmptyElement(String prefix, String localName, String namespaceURI)
+    throws XMLStreamException {
+    indentStartTag();
+    delegate.writeEmptyElement(prefix, localName, namespaceURI);
+    afterStartTag = false;
+  }
+
+  @Override
+  public void writeEndElement() throws XMLStreamException {
+    Element element = elements.peek();
+    if (
+      !journeysWritten && element != null && isVehicleJourneysOfTimetableFrame(element)
+    ) {
+      journeysWritten = true;
+      List<JAXBElement<?>> noticeAssignments = timetable.writeJourneys(this::marshal);
+      endElement();
+      writeNoticeAssignments(noticeAssignments);
+    } else {
+      endElement();
+    }
+  }
+
+  @Override
+  public void writeEndDocument() throws XMLStreamException {
+    delegate.writeEndDocument();
+  }
+
+  @Override
+  public void close() throws XMLStreamException {
+    delegate.close();
+  }
+
+  @Override
+  public void flush() throws XMLStreamException {
+    delegate.flush();
+  }
+
+  @Override
+  public void writeAttribute(String localName, String value) throws XMLStreamException {
+    delegate.writeAttribute(localName, value);
+  }
+
+  @Override
+  public void writeAttribute(
+    String prefix,
+    String namespaceURI,
+    String localName,
+    String value
+  ) throws XMLStreamException {
+    delegate.writeAttribute(prefix, namespaceURI, localName, value);
+  }
+
+  @Override
+  public void writeAttribute(String namespaceURI, String localName, String value)
+    throws XMLStreamException {
+    delegate.writeAttribute(namespaceURI, localName, value);
+  }
+
+  @Override
+  public void writeNamespace(String prefix, String namespaceURI)
+    throws XMLStreamException {
+    if (
+      prefix == null || prefix.isEmpty() || XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)
+    ) {
+      writeDefaultNamespace(namespaceURI);
+    } else if (declare(prefix, namespaceURI)) {
+      delegate.writeNamespace(prefix, namespaceURI);
+    }
+  }
+
+  @Override
+  public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+    if (declare(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI)) {
+      delegate.writeDefaultNamespace(namespaceURI);
+    }
+  }
+
+  @Override
+  public void writeComment(String data) throws XMLStreamException {
+    delegate.writeComment(data);
+  }
+
+  @Override
+  public void writeProcessingInstruction(String target) throws XMLStreamException {
+    delegate.writeProcessingInstruction(target);
+  }
+
+  @Override
+  public void writeProcessingInstruction(String target, String data)
+    throws XMLStreamException {
+    delegate.writeProcessingInstruction(target, data);
+  }
+
+  @Override
+  public void writeCData(String data) throws XMLStreamException {
+    delegate.writeCData(data);
+    afterText = true;
+  }
+
+  @Override
+  public void writeDTD(String dtd) throws XMLStreamException {
+    delegate.writeDTD(dtd);
+  }
+
+  @Override
+  public void writeEntityRef(String name) throws XMLStreamException {
+    delegate.writeEntityRef(name);
+    afterText = true;
+  }
+
+  @Override
+  public void writeCharacters(String text) throws XMLStreamException {
+    delegate.writeCharacters(text);
+    afterText = true;
+  }
+
+  @Override
+  public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+    delegate.writeCharacters(text, start, len);
+    afterText = true;
+  }
+
+  @Override
+  public String getPrefix(String uri) throws XMLStreamException {
+    return delegate.getPrefix(uri);
+  }
+
+  @Override
+  public void setPrefix(String prefix, String uri) throws XMLStreamException {
+    delegate.setPrefix(prefix, uri);
+  }
+
+  @Override
+  public void setDefaultNamespace(String uri) throws XMLStreamException {
+    delegate.setDefaultNamespace(uri);
+  }
+
+  @Override
+  public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+    delegate.setNamespaceContext(context);
+  }
+
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    return delegate.getNamespaceContext();
+  }
+
+  @Override
+  public Object getProperty(String name) {
+    return delegate.getProperty(name);
+  }
+
+  private void marshal(JAXBElement<?> element) {
+    try {
+      fragmentMarshaller.marshal(element, this);
+    } catch (JAXBException e) {
+      throw new ExportException(
+        "Failed to marshal " + element.getName().getLocalPart(),
+        e
+      );
+    }
+  }
+
+  private void writeNoticeAssignments(List<JAXBElement<?>> noticeAssignments)
+    throws XMLStreamException {
+    if (noticeAssignments.isEmpty()) {
+      return;
+    }
+    String prefix = Objects.requireNonNullElse(
+      delegate.getPrefix(NETEX_NAMESPACE),
+      XMLConstants.DEFAULT_NS_PREFIX
+    );
+    writeStartElement(prefix, NOTICE_ASSIGNMENTS, NETEX_NAMESPACE);
+    noticeAssignments.forEach(this::marshal);
+    endElement();
+  }
+
+  private boolean isVehicleJourneysOfTimetableFrame(Element element) {
+    if (!VEHICLE_JOURNEYS.equals(element.localName)) {
+      return false;
+    }
+    Element parent = elements.stream().skip(1).findFirst().orElse(null);
+    return parent != null && TIMETABLE_FRAME.equals(parent.localName);
+  }
+
+  private void indentStartTag() throws XMLStreamException {
+    if (!afterText) {
+      newLine(elements.size());
+    }
+    afterText = false;
+  }
+
+  private void startElement(String localName) {
+    elements.push(new Element(localName));
+    afterStartTag = true;
+  }
+
+  private void endElement() throws XMLStreamException {
+    elements.pop();
+    if (!afterText && !afterStartTag) {
+      newLine(elements.size());
+    }
+    delegate.writeEndElement();
+    afterText = false;
+    afterStartTag = false;
+  }
+
+  private void newLine(int depth) throws XMLStreamException {
+    delegate.writeCharacters("\n" + INDENT.repeat(depth));
+  }
+
+  /**
+   * Record the namespace declaration on the current element.
+   *
+   * @return false if the prefix is already bound to the namespace, so it can be left out
+   */
+  private boolean declare(String prefix, String namespaceURI) {
+    for (Element element : elements) {
+      String boundNamespace = element.namespaces == null
+        ? null
+        : element.namespaces.get(prefix);
+      if (boundNamespace != null) {
+        if (boundNamespace.equals(namespaceURI)) {
+          return false;
+        }
+        break;
+      }
+    }
+    Element current = elements.peek();
+    if (current != null) {
+      if (current.namespaces == null) {
+        current.namespaces = new HashMap<>();
+      }
+      current.namespaces.put(prefix, namespaceURI);
+    }
+    return true;
+  }
+
+  private static class Element {
+
+    private final String localName;
+
+    private Map<String, String> namespaces;
+
+    private Element(String localName) {
+      this.localName = localName;
+    }
+  }
+}
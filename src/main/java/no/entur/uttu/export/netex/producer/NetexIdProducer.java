@@ -15,9 +15,6 @@
 
 package no.entur.uttu.export.netex.producer;
 
-import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
-import com.google.common.collect.Iterables;
 import java.util.Objects;
 import no.entur.uttu.export.netex.NetexExportContext;
 import no.entur.uttu.model.ProviderEntity;
@@ -27,36 +24,44 @@ import org.rutebanken.netex.model.EntityStructure;
 import org.rutebanken.netex.model.VersionOfObjectRefStructure;
 import org.rutebanken.netex.model.VersionedChildStructure;
 
+/**
+ * Produces NeTEx ids of the form prefix:EntityName:suffix.
+ *
+ * Ids are split on the first and the last separator, without regular expressions, so
+ * the prefix is everything before the first separator and the suffix everything after
+ * the last.
+ */
 public class NetexIdProducer {
 
-  private static String SEPARATOR = ":";
+  private static final char SEPARATOR = ':';
+
+  private static final ClassValue<String> ENTITY_NAMES = new ClassValue<>() {
+    @Override
+    protected String computeValue(Class<?> type) {
+      return entityName(type);
+    }
+  };
+
+  private static final ClassValue<String> REFERRED_ENTITY_NAMES = new ClassValue<>() {
+    @Override
+    protected String computeValue(Class<?> type) {
+      return referredEntityName(type);
+    }
+  };
 
   public static Ref replaceEntityName(Ref ref, String newEntityName) {
-    String id = getId(
-      NetexIdProducer.getObjectIdPrefix(ref.id),
-      newEntityName,
-      NetexIdProducer.getObjectIdSuffix(ref.id)
-    );
-    return new Ref(id, ref.version);
+    return new Ref(replaceEntityName(ref.id, newEntityName), ref.version);
   }
 
   public static <N extends EntityInVersionStructure> String getId(N netex, Ref ref) {
-    return getId(
-      NetexIdProducer.getObjectIdPrefix(ref.id),
-      getEntityName(netex),
-      NetexIdProducer.getObjectIdSuffix(ref.id)
-    );
+    return replaceEntityName(ref.id, getEntityName(netex));
   }
 
   public static <N extends VersionOfObjectRefStructure> String getReference(
     N netex,
     Ref ref
   ) {
-    return getId(
-      NetexIdProducer.getObjectIdPrefix(ref.id),
-      getReferredEntityName(netex),
-      NetexIdProducer.getObjectIdSuffix(ref.id)
-    );
+    return replaceEntityName(ref.id, getReferredEntityName(netex));
   }
 
   public static <
@@ -72,7 +77,11 @@ public class NetexIdProducer {
     NetexExportContext context
   ) {
     String entityName = netexEntityClass.getSimpleName();
-    return getId(getIdPrefix(context), entityName, generateIdSuffix(entityName, context));
+    return getId(
+      context.getIdPrefix(),
+      entityName,
+      generateIdSuffix(entityName, context)
+    );
   }
 
   public static <E extends EntityStructure> String getId(
@@ -80,53 +89,85 @@ public class NetexIdProducer {
     String suffix,
     NetexExportContext context
   ) {
-    return Joiner.on(SEPARATOR).join(
-      getIdPrefix(context),
-      netexEntityClass.getSimpleName(),
-      suffix
-    );
+    return getId(context.getIdPrefix(), netexEntityClass.getSimpleName(), suffix);
   }
 
   public static String getId(String prefix, String entityName, String suffix) {
-    return Joiner.on(SEPARATOR).join(prefix, entityName, suffix);
+    return prefix + SEPARATOR + entityName + SEPARATOR + suffix;
   }
 
   private static String generateIdSuffix(String entityName, NetexExportContext context) {
-    return Objects.toString(context.getAndIncrementIdSequence(entityName));
-  }
-
-  private static String getIdPrefix(NetexExportContext context) {
-    return context.provider.getCodespace().getXmlns();
+    return Long.toString(context.getAndIncrementIdSequence(entityName));
   }
 
   public static String updateIdPrefix(String objectId, NetexExportContext context) {
-    return objectId.replaceFirst(getObjectIdPrefix(objectId), getIdPrefix(context));
+    return context.getIdPrefix() + objectId.substring(prefixEnd(objectId));
   }
 
   public static String updateIdSuffix(String objectId, String newSuffix) {
-    return objectId.replaceFirst(getObjectIdSuffix(objectId), newSuffix);
+    return objectId.substring(0, suffixStart(objectId)) + newSuffix;
   }
 
   public static String getObjectIdPrefix(String objectId) {
-    return objectId.split(SEPARATOR)[0];
+    return objectId.substring(0, prefixEnd(objectId));
   }
 
   public static String getObjectIdSuffix(String objectId) {
-    return Iterables.getLast(Splitter.on(SEPARATOR).trimResults().split(objectId));
+    return objectId.substring(suffixStart(objectId)).strip();
   }
 
   /**
    * Returns the name of the Netex entity or the referred entity if Netex class is a refererence type.
    */
   public static <E> String getEntityName(E entity) {
-    String localPart = entity.getClass().getSimpleName();
+    return ENTITY_NAMES.get(entity.getClass());
+  }
+
+  /**
+   * Returns the name of the Netex entity or the referred entity if Netex class is a refererence type.
+   */
+  public static <E> String getReferredEntityName(E entity) {
+    return REFERRED_ENTITY_NAMES.get(entity.getClass());
+  }
 
-    if (entity instanceof VersionOfObjectRefStructure) {
+  /**
+   * The id with the entity name between the prefix and the suffix replaced, parsing the
+   * id once.
+   */
+  private static String replaceEntityName(String objectId, String entityName) {
+    int prefixEnd = prefixEnd(objectId);
+    int suffixStart = suffixStart(objectId);
+    return getId(
+      objectId.substring(0, prefixEnd),
+      entityName,
+      objectId.substring(suffixStart).strip()
+    );
+  }
+
+  /**
+   * Index of the first separator, or the length of the id if there is none.
+   */
+  private static int prefixEnd(String objectId) {
+    int separator = objectId.indexOf(SEPARATOR);
+    return separator < 0 ? objectId.length() : separator;
+  }
+
+  /**
+   * Index after the last separator, or 0 if there is none.
+   */
+  private static int suffixStart(String objectId) {
+    return objectId.lastIndexOf(SEPARATOR) + 1;
+  }
+
+  private static String entityName(Class<?> type) {
+    String localPart = type.getSimpleName();
+
+    if (VersionOfObjectRefStructure.class.isAssignableFrom(type)) {
       // Assuming all VersionOfObjectRefStructure subclasses is named as correct element + suffix ("RefStructure""))
       if (localPart.endsWith("Structure")) {
         localPart = localPart.substring(0, localPart.lastIndexOf("Structure"));
       }
-    } else if (entity instanceof VersionedChildStructure) {
+    } else if (VersionedChildStructure.class.isAssignableFrom(type)) {
       if (localPart.endsWith("VersionedChildStructure")) {
         localPart = localPart.substring(
           0,
@@ -137,13 +178,10 @@ public class NetexIdProducer {
     return localPart;
   }
 
-  /**
-   * Returns the name of the Netex entity or the referred entity if Netex class is a refererence type.
-   */
-  public static <E> String getReferredEntityName(E entity) {
-    String localPart = entity.getClass().getSimpleName();
+  private static String referredEntityName(Class<?> type) {
+    String localPart = type.getSimpleName();
 
-    if (entity instanceof VersionOfObjectRefStructure) {
+    if (VersionOfObjectRefStructure.class.isAssignableFrom(type)) {
       // Assuming all VersionOfObjectRefStructure subclasses is named as correct element + suffix ("RefStructure"))
       if (localPart.endsWith("RefStructure")) {
         localPart = localPart.substring(0, localPart.lastIndexOf("RefStructure"));
@@ -394,7 +394,7 @@ public class NetexObjectFactory {
       .withNoticeAssignments(wrapNoticeAssignments(noticeAssignments));
   }
 
-  private void orderAssignments(
+  public void orderAssignments(
     Collection<? extends Assignment_VersionStructure_> assignments
   ) {
     AtomicInteger cnt = new AtomicInteger(1);
@@ -434,6 +434,19 @@ public class NetexObjectFactory {
       .withVehicleJourneys(journeysInFrameRelStructure);
   }
 
+  /**
+   * A TimetableFrame without journeys or notice assignments, for a line file whose
+   * journeys are written while the file is marshalled.
+   */
+  public TimetableFrame createStreamedTimetableFrame(NetexExportContext context) {
+    String timetableFrameId = NetexIdProducer.generateId(TimetableFrame.class, context);
+    return objectFactory
+      .createTimetableFrame()
+      .withVersion(VERSION_ONE)
+      .withId(timetableFrameId)
+      .withVehicleJourneys(objectFactory.createJourneysInFrame_RelStructure());
+  }
+
   public <T extends ProviderEntity> List<NoticeAssignment> createNoticeAssignments(
     T entity,
     Collection<no.entur.uttu.model.Notice> notices,
@@ -2,15 +2,21 @@ package no.entur.uttu.export.netex.producer.common;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import net.opengis.gml._3.DirectPositionListType;
 import net.opengis.gml._3.LineStringType;
+import no.entur.uttu.export.model.ServiceLinkExportContext;
 import no.entur.uttu.export.netex.NetexExportContext;
 import no.entur.uttu.export.netex.producer.NetexIdProducer;
 import no.entur.uttu.export.netex.producer.NetexObjectFactory;
 import no.entur.uttu.model.Ref;
+import no.entur.uttu.model.job.ExportPhaseEnumeration;
+import no.entur.uttu.routing.QuayRoutingRequest;
 import no.entur.uttu.routing.RouteGeometry;
-import no.entur.uttu.routing.RoutingService;
 import no.entur.uttu.routing.RoutingServiceRequestParams;
 import no.entur.uttu.stopplace.spi.StopPlaceRegistry;
 import org.rutebanken.netex.model.LinkSequenceProjection;
@@ -25,34 +31,38 @@ public class ServiceLinkProducer {
 
   private final NetexObjectFactory objectFactory;
   private final StopPlaceRegistry stopPlaceRegistry;
-  private final RoutingService routingService;
+  private final ServiceLinkRouter serviceLinkRouter;
 
   public ServiceLinkProducer(
     NetexObjectFactory objectFactory,
     StopPlaceRegistry stopPlaceRegistry,
-    RoutingService routingService
+    ServiceLinkRouter serviceLinkRouter
   ) {
     this.objectFactory = objectFactory;
     this.stopPlaceRegistry = stopPlaceRegistry;
-    this.routingService = routingService;
+    this.serviceLinkRouter = serviceLinkRouter;
   }
 
   public List<ServiceLink> produce(NetexExportContext context) {
-    return context.serviceLinks
+    Map<ServiceLinkExportContext, QuayRoutingRequest> requests =
+      new LinkedHashMap<>();
+    context.serviceLinks.forEach(serviceLink ->
+      requests.put(serviceLink, toRoutingRequest(serviceLink))
+    );
+
+    // route all links up front, so slow routing requests do not hold up each other
+    Map<QuayRoutingRequest, RouteGeometry> routes = context
+      .getPhaseTimer()
+      .time(ExportPhaseEnumeration.ROUTING, () ->
+        serviceLinkRouter.routeSequences(toRoutingSequences(context, requests))
+      );
+
+    return requests
+      .entrySet()
       .stream()
-      .map(serviceLink -> {
-        Quay quayFrom = getQuay(serviceLink.quayRefFrom());
-        Quay quayTo = getQuay(serviceLink.quayRefTo());
-
-        var params = new RoutingServiceRequestParams(
-          quayFrom.getCentroid().getLocation().getLongitude(),
-          quayFrom.getCentroid().getLocation().getLatitude(),
-          quayTo.getCentroid().getLocation().getLongitude(),
-          quayTo.getCentroid().getLocation().getLatitude(),
-          serviceLink.transportMode()
-        );
-
-        RouteGeometry routeGeometry = routingService.getRouteGeometry(params);
+      .map(request -> {
+        ServiceLinkExportContext serviceLink = request.getKey();
+        RouteGeometry routeGeometry = routes.get(request.getValue());
         List<Double> posListCoordinates = new ArrayList<>();
         routeGeometry
           .coordinates()
@@ -117,6 +127,56 @@ public class ServiceLinkProducer {
       .toList();
   }
 
+  /**
+   * Split the service links of each journey pattern into runs of consecutive links, as a link
+   * is left out where the pattern visits a flexible stop place. Links not part of any recorded
+   * journey pattern are routed on their own.
+   */
+  private List<List<QuayRoutingRequest>> toRoutingSequences(
+    NetexExportContext context,
+    Map<ServiceLinkExportContext, QuayRoutingRequest> requests
+  ) {
+    List<List<QuayRoutingRequest>> sequences = new ArrayList<>();
+    Set<ServiceLinkExportContext> sequenced = new HashSet<>();
+    for (List<ServiceLinkExportContext> serviceLinks : context.serviceLinkSequences) {
+      List<QuayRoutingRequest> sequence = new ArrayList<>();
+      ServiceLinkExportContext previous = null;
+      for (ServiceLinkExportContext serviceLink : serviceLinks) {
+        if (previous != null && !previous.quayRefTo().equals(serviceLink.quayRefFrom())) {
+          sequences.add(sequence);
+          sequence = new ArrayList<>();
+        }
+        sequence.add(requests.get(serviceLink));
+        sequenced.add(serviceLink);
+        previous = serviceLink;
+      }
+      sequences.add(sequence);
+    }
+    requests.forEach((serviceLink, request) -> {
+      if (!sequenced.contains(serviceLink)) {
+        sequences.add(List.of(request));
+      }
+    });
+    return sequences;
+  }
+
+  private QuayRoutingRequest toRoutingRequest(ServiceLinkExportContext serviceLink) {
+    Quay quayFrom = getQuay(serviceLink.quayRefFrom());
+    Quay quayTo = getQuay(serviceLink.quayRefTo());
+
+    return new QuayRoutingRequest(
+      serviceLink.quayRefFrom(),
+      serviceLink.quayRefTo(),
+      new RoutingServiceRequestParams(
+        quayFrom.getCentroid().getLocation().getLongitude(),
+        quayFrom.getCentroid().getLocation().getLatitude(),
+        quayTo.getCentroid().getLocation().getLongitude(),
+        quayTo.getCentroid().getLocation().getLatitude(),
+        serviceLink.transportMode()
+      )
+    );
+  }
+
   private Quay getQuay(String quayRef) {
     return stopPlaceRegistry.getQuayById(quayRef).orElse(null);
   }
@@ -0,0 +1,225 @@
+package no.entur.uttu.export.netex.producer.common;
+
+import static no.entur.uttu.routing.osrm.OsrmService.createStraightLineRouteGeometry;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.entur.uttu.routing.QuayRoutingRequest;
+import no.entur.uttu.routing.RouteGeometry;
+import no.entur.uttu.routing.RouteGeometryCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Routes the service links of an export concurrently.
+ *
+ * <p>
+ *   The service links of a journey pattern are routed together, with a single request to the
+ *   routing service for the whole pattern. Routes are looked up in the route geometry cache
+ *   first, and only the legs not cached are routed. A journey pattern is not routed again
+ *   when all of its service links are routed for another journey pattern of the export.
+ *   Requests run on a bounded pool shared by all exports, and every export has a deadline
+ *   for routing all of its service links. Links that fail or are not routed before the
+ *   deadline fall back to a straight line. At the deadline, running requests are interrupted
+ *   and queued requests are removed from the pool, so they do not delay the routing of later
+ *   exports.
+ * </p>
+ *
+ * To change the number of concurrent routing requests set property
+ *    export.routing.parallelism=8
+ * To change the time allowed for routing the service links of an export set property
+ *    export.routing.timeout.seconds=300
+ */
+@Component
+public class ServiceLinkRouter {
+
+  private static final Logger logger = LoggerFactory.getLogger(ServiceLinkRouter.class);
+
+  private final RouteGeometryCache routeGeometryCache;
+
+  private final Duration timeout;
+
+  private final ThreadPoolExecutor executor;
+
+  public ServiceLinkRouter(
+    RouteGeometryCache routeGeometryCache,
+    @Value("${export.routing.parallelism:8}") int parallelism,
+    @Value("${export.routing.timeout.seconds:300}") long timeoutSeconds
+  ) {
+    this.routeGeometryCache = routeGeometryCache;
+    this.timeout = Duration.ofSeconds(timeoutSeconds);
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(
+      parallelism,
+      parallelism,
+      0L,
+      TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<>(),
+      runnable -> {
+        Thread thread = new Thread(
+          runnable,
+          "service-link-router-" + threadCount.incrementAndGet()
+        );
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Route every request, falling back to straight lines for requests that fail or are not
+   * routed in time.
+   */
+  public Map<QuayRoutingRequest, RouteGeometry> route(
+    Collection<QuayRoutingRequest> requests
+  ) {
+    return routeSequences(requests.stream().map(List::of).toList());
+  }
+
+  /**
+   * Route every sequence of consecutive requests, e.g. the service links of a journey
+   * pattern, with one routing request per sequence. Sequences whose requests are all part of
+   * earlier sequences are not routed again. Requests that fail or are not routed in time fall
+   * back to straight lines.
+   */
+  public Map<QuayRoutingRequest, RouteGeometry> routeSequences(
+    Collection<List<QuayRoutingRequest>> sequences
+  ) {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+
+    Map<List<QuayRoutingRequest>, Future<List<RouteGeometry>>> pending =
+      new LinkedHashMap<>();
+    Set<QuayRoutingRequest> submitted = new HashSet<>();
+    for (List<QuayRoutingRequest> sequence : sequences) {
+      // sequences whose legs are all routed by other sequences are skipped
+      if (!submitted.containsAll(sequence)) {
+        pending.put(sequence, submit(sequence, latencies, deadline));
+        submitted.addAll(sequence);
+      }
+    }
+
+    Map<QuayRoutingRequest, RouteGeometry> routes = new HashMap<>();
+    for (Map.Entry<List<QuayRoutingRequest>, Future<List<RouteGeometry>>> entry :
+      pending.entrySet()) {
+      List<QuayRoutingRequest> sequence = entry.getKey();
+      List<RouteGeometry> routeGeometries = await(sequence, entry.getValue(), deadline);
+      if (routeGeometries != null) {
+        for (int i = 0; i < sequence.size(); i++) {
+          routes.put(sequence.get(i), routeGeometries.get(i));
+        }
+      }
+    }
+
+    if (pending.values().stream().anyMatch(Future::isCancelled)) {
+      // cancelled requests stay queued until a worker takes them, unless removed
+      executor.purge();
+    }
+
+    int fallbacks = 0;
+    for (List<QuayRoutingRequest> sequence : pending.keySet()) {
+      for (QuayRoutingRequest request : sequence) {
+        if (!routes.containsKey(request)) {
+          routes.put(request, createStraightLineRouteGeometry(request.params()));
+          fallbacks++;
+        }
+      }
+    }
+
+    if (!latencies.isEmpty()) {
+      List<Long> sorted = new ArrayList<>(latencies);
+      sorted.sort(null);
+      logger.info(
+        "Routed {} service links with {} distinct requests, {} fell back to straight lines. Latency ms p50={} p90={} p99={} max={}",
+        routes.size(),
+        pending.size(),
+        fallbacks,
+        percentile(sorted, 50),
+        percentile(sorted, 90),
+        percentile(sorted, 99),
+        sorted.getLast()
+      );
+    }
+    return routes;
+  }
+
+  private Future<List<RouteGeometry>> submit(
+    List<QuayRoutingRequest> sequence,
+    Queue<Long> latencies,
+    long deadline
+  ) {
+    if (
+      sequence
+        .stream()
+        .noneMatch(request -> routeGeometryCache.isEnabled(request.params().mode()))
+    ) {
+      return CompletableFuture.completedFuture(
+        sequence
+          .stream()
+          .map(request -> createStraightLineRouteGeometry(request.params()))
+          .toList()
+      );
+    }
+    // submitted as a task, so cancelling it interrupts the request to the routing service
+    return executor.submit(() -> {
+      long start = System.nanoTime();
+      if (start - deadline >= 0) {
+        throw new TimeoutException("Routing deadline exceeded before routing started");
+      }
+      try {
+        return routeGeometryCache.getRouteGeometries(sequence);
+      } finally {
+        latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    });
+  }
+
+  private List<RouteGeometry> await(
+    List<QuayRoutingRequest> sequence,
+    Future<List<RouteGeometry>> future,
+    long deadline
+  ) {
+    try {
+      return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      logger.debug("Routing deadline exceeded for {}", sequence);
+    } catch (ExecutionException e) {
+      logger.warn("Routing failed for {}: {}", sequence, e.getCause().getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+    }
+    return null;
+  }
+
+  static long percentile(List<Long> sorted, int percentile) {
+    int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+    return sorted.get(Math.max(0, index));
+  }
+}
@@ -2,17 +2,13 @@ package no.entur.uttu.export.netex.producer.line;
 
 import java.time.Clock;
 import java.time.LocalDate;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import no.entur.uttu.export.model.DayTypeCalendar;
 import no.entur.uttu.export.netex.NetexExportContext;
 import no.entur.uttu.export.netex.producer.NetexIdProducer;
 import no.entur.uttu.export.netex.producer.NetexObjectFactory;
-import no.entur.uttu.model.DayType;
-import no.entur.uttu.model.DayTypeAssignment;
-import no.entur.uttu.model.OperatingPeriod;
 import no.entur.uttu.model.ServiceJourney;
 import org.rutebanken.netex.model.DatedServiceJourney;
 import org.rutebanken.netex.model.JourneyRefStructure;
@@ -39,7 +35,7 @@ public class DatedServiceJourneyProducer {
     ServiceJourney local,
     NetexExportContext context
   ) {
-    Set<LocalDate> operatingDates = collectOperatingDates(local, context);
+    List<LocalDate> operatingDates = collectOperatingDates(local, context);
 
     if (operatingDates.isEmpty()) {
       return List.of();
@@ -48,71 +44,28 @@ public class DatedServiceJourneyProducer {
     return createDatedServiceJourneys(local, operatingDates, context);
   }
 
-  private Set<LocalDate> collectOperatingDates(
+  /**
+   * The operating dates of the service journey from the cutoff date, in order. Day types are
+   * shared by many service journeys, so their calendars are expanded once per export.
+   */
+  private List<LocalDate> collectOperatingDates(
     ServiceJourney serviceJourney,
     NetexExportContext context
   ) {
-    return serviceJourney
+    long cutoff = getCutoff().toEpochDay();
+    BitSet operatingDays = new BitSet();
+    serviceJourney
       .getDayTypes()
       .stream()
       .filter(context::isValid)
-      .flatMap(dayType -> expandDayTypeToLocalDates(dayType).stream())
-      .filter(date -> !date.isBefore(getCutoff()))
-      .collect(Collectors.toSet());
-  }
-
-  private Set<LocalDate> expandDayTypeToLocalDates(DayType dayType) {
-    return dayType
-      .getDayTypeAssignments()
-      .stream()
-      .filter(dta -> Boolean.TRUE.equals(dta.getAvailable()))
-      .flatMap(dta -> expandDayTypeAssignmentToLocalDates(dta, dayType))
-      .collect(Collectors.toSet());
-  }
-
-  private Stream<LocalDate> expandDayTypeAssignmentToLocalDates(
-    DayTypeAssignment assignment,
-    DayType dayType
-  ) {
-    // Explicit dates are always included, regardless of daysOfWeek
-    if (assignment.getDate() != null) {
-      return Stream.of(assignment.getDate());
-    }
-
-    // Handle operating period ranges with optional daysOfWeek filtering
-    if (assignment.getOperatingPeriod() != null) {
-      return expandOperatingPeriodToLocalDates(assignment.getOperatingPeriod(), dayType);
-    }
-
-    return Stream.empty();
-  }
-
-  private Stream<LocalDate> expandOperatingPeriodToLocalDates(
-    OperatingPeriod period,
-    DayType dayType
-  ) {
-    LocalDate from = period.getFromDate();
-    LocalDate to = period.getToDate();
-
-    if (from == null || to == null) {
-      return Stream.empty();
-    }
-
-    Stream<LocalDate> allDatesInRange = from.datesUntil(to.plusDays(1));
-
-    // Filter by daysOfWeek if specified
-    if (dayType.getDaysOfWeek() != null && !dayType.getDaysOfWeek().isEmpty()) {
-      return allDatesInRange.filter(
-        date -> dayType.getDaysOfWeek().contains(date.getDayOfWeek())
-      );
-    }
-
-    return allDatesInRange;
+      .map(context::getDayTypeCalendar)
+      .forEach(calendar -> calendar.addOperatingDaysTo(operatingDays, cutoff));
+    return DayTypeCalendar.toLocalDates(operatingDays, cutoff);
   }
 
   private List<DatedServiceJourney> createDatedServiceJourneys(
     ServiceJourney serviceJourney,
-    Set<LocalDate> operatingDates,
+    List<LocalDate> operatingDates,
     NetexExportContext context
   ) {
     String sjSuffix = NetexIdProducer.getObjectIdSuffix(serviceJourney.getNetexId());
@@ -111,6 +111,7 @@ public class JourneyPatternProducer {
       routingService.isEnabled(local.getLine().getTransportMode()) &&
       context.shouldGenerateServiceLinks()
     ) {
+      List<ServiceLinkExportContext> serviceLinks = new ArrayList<>();
       linksInSequence = local
         .getPointsInSequence()
         .stream()
@@ -124,11 +125,15 @@ public class JourneyPatternProducer {
                 ? local.getPointsInSequence().get(spinjp.getOrder())
                 : null,
               context,
-              local.getLine().getTransportMode()
+              local.getLine().getTransportMode(),
+              serviceLinks
             )
         )
         .filter(Objects::nonNull)
         .collect(Collectors.toList());
+      if (!serviceLinks.isEmpty()) {
+        context.serviceLinkSequences.add(serviceLinks);
+      }
     } else {
       linksInSequence = new ArrayList<>();
     }
@@ -279,7 +284,8 @@ public class JourneyPatternProducer {
     StopPointInJourneyPattern from,
     StopPointInJourneyPattern to,
     NetexExportContext context,
-    VehicleModeEnumeration transportMode
+    VehicleModeEnumeration transportMode,
+    List<ServiceLinkExportContext> serviceLinks
   ) {
     if (to == null || from.getQuayRef() == null || to.getQuayRef() == null) {
       return null;
@@ -309,14 +315,14 @@ public class JourneyPatternProducer {
       false
     );
 
-    context.serviceLinks.add(
-      new ServiceLinkExportContext(
-        from.getQuayRef(),
-        to.getQuayRef(),
-        transportMode,
-        new Ref(serviceLinkRefStructure.getRef(), "1")
-      )
+    ServiceLinkExportContext serviceLink = new ServiceLinkExportContext(
+      from.getQuayRef(),
+      to.getQuayRef(),
+      transportMode,
+      new Ref(serviceLinkRefStructure.getRef(), "1")
     );
+    context.serviceLinks.add(serviceLink);
+    serviceLinks.add(serviceLink);
 
     return objectFactory
       .populateId(
@@ -18,9 +18,11 @@ package no.entur.uttu.export.netex.producer.line;
 import jakarta.xml.bind.JAXBElement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import no.entur.uttu.export.model.AvailabilityPeriod;
 import no.entur.uttu.export.netex.NetexExportContext;
 import no.entur.uttu.export.netex.NetexFile;
+import no.entur.uttu.export.netex.StreamedTimetable;
 import no.entur.uttu.export.netex.producer.NetexObjectFactory;
 import no.entur.uttu.model.JourneyPattern;
 import no.entur.uttu.model.Line;
@@ -55,13 +57,33 @@ public class NetexLineFileProducer {
   }
 
   public NetexFile toNetexFile(Line line, NetexExportContext context) {
+    return toNetexFile(line, context, false);
+  }
+
+  /**
+   * Produce the line file. When streaming journeys, the TimetableFrame of the file is
+   * left empty and its journeys are produced while the file is marshalled, see
+   * {@link StreamedTimetable}. The line must then stay attached until it is marshalled.
+   */
+  public NetexFile toNetexFile(
+    Line line,
+    NetexExportContext context,
+    boolean streamJourneys
+  ) {
     String fileName = ExportUtil.createLineFilename(line);
 
     ServiceFrame serviceFrame = createServiceFrame(line, context);
-    TimetableFrame timetableFrame = createTimetableFrame(line, context);
+    TimetableFrame timetableFrame;
+    StreamedTimetable streamedTimetable = null;
+    if (streamJourneys) {
+      timetableFrame = objectFactory.createStreamedTimetableFrame(context);
+      streamedTimetable = journeyWriter -> writeJourneys(line, context, journeyWriter);
+    } else {
+      timetableFrame = createTimetableFrame(line, context);
+    }
 
     AvailabilityPeriod availabilityPeriod =
-      NetexLineUtilities.calculateAvailabilityPeriodForLine(line);
+      NetexLineUtilities.calculateAvailabilityPeriodForLine(line, context);
 
     if (availabilityPeriod != null) {
       context.updateAvailabilityPeriod(availabilityPeriod);
@@ -77,7 +99,7 @@ public class NetexLineFileProducer {
     JAXBElement<PublicationDeliveryStructure> publicationDelivery =
       objectFactory.createPublicationDelivery(context, compositeFrame);
 
-    return new NetexFile(fileName, publicationDelivery);
+    return new NetexFile(fileName, publicationDelivery, streamedTimetable);
   }
 
   private ServiceFrame createServiceFrame(Line line, NetexExportContext context) {
@@ -115,13 +137,8 @@ public class NetexLineFileProducer {
   private TimetableFrame createTimetableFrame(Line line, NetexExportContext context) {
     List<NoticeAssignment> noticeAssignments = new ArrayList<>();
 
-    List<no.entur.uttu.model.ServiceJourney> localServiceJourneys = line
-      .getJourneyPatterns()
-      .stream()
-      .map(JourneyPattern::getServiceJourneys)
-      .flatMap(List::stream)
-      .filter(context::isValid)
-      .toList();
+    List<no.entur.uttu.model.ServiceJourney> localServiceJourneys =
+      getValidServiceJourneys(line, context);
 
     List<org.rutebanken.netex.model.ServiceJourney> netexServiceJourneys =
       localServiceJourneys
@@ -142,4 +159,53 @@ public class NetexLineFileProducer {
 
     return objectFactory.createTimetableFrame(context, journeys, noticeAssignments);
   }
+
+  /**
+   * Produce the journeys in the same order as {@link #createTimetableFrame}, handing each
+   * to the writer as soon as it is produced.
+   */
+  private List<JAXBElement<?>> writeJourneys(
+    Line line,
+    NetexExportContext context,
+    Consumer<JAXBElement<?>> journeyWriter
+  ) {
+    List<NoticeAssignment> noticeAssignments = new ArrayList<>();
+    List<no.entur.uttu.model.ServiceJourney> localServiceJourneys =
+      getValidServiceJourneys(line, context);
+
+    localServiceJourneys.forEach(sj ->
+      journeyWriter.accept(
+        objectFactory.wrapAsJAXBElement(
+          serviceJourneyProducer.produce(sj, noticeAssignments, context)
+        )
+      )
+    );
+
+    if (context.shouldIncludeDatedServiceJourneys()) {
+      localServiceJourneys.forEach(sj ->
+        datedServiceJourneyProducer
+          .produce(sj, context)
+          .forEach(dsj -> journeyWriter.accept(objectFactory.wrapAsJAXBElement(dsj)))
+      );
+    }
+
+    objectFactory.orderAssignments(noticeAssignments);
+    return noticeAssignments
+      .stream()
+      .<JAXBElement<?>>map(objectFactory::wrapAsJAXBElement)
+      .toList();
+  }
+
+  private static List<no.entur.uttu.model.ServiceJourney> getValidServiceJourneys(
+    Line line,
+    NetexExportContext context
+  ) {
+    return line
+      .getJourneyPatterns()
+      .stream()
+      .map(JourneyPattern::getServiceJourneys)
+      .flatMap(List::stream)
+      .filter(context::isValid)
+      .toList();
+  }
 }
@@ -1,14 +1,43 @@
 package no.entur.uttu.export.netex.producer.line;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
 import no.entur.uttu.export.model.AvailabilityPeriod;
+import no.entur.uttu.export.model.DayTypeCalendar;
+import no.entur.uttu.export.netex.NetexExportContext;
 import no.entur.uttu.model.*;
 
 public final class NetexLineUtilities {
 
   public static AvailabilityPeriod calculateAvailabilityPeriodForLine(Line line) {
+    return calculateAvailabilityPeriodForLine(line, DayTypeCalendar::of);
+  }
+
+  /**
+   * Calculate the availability period of the line from the day type calendars of the export.
+   */
+  public static AvailabilityPeriod calculateAvailabilityPeriodForLine(
+    Line line,
+    NetexExportContext context
+  ) {
+    return calculateAvailabilityPeriodForLine(line, context::getDayTypeCalendar);
+  }
+
+  private static AvailabilityPeriod calculateAvailabilityPeriodForLine(
+    Line line,
+    Function<DayType, DayTypeCalendar> dayTypeCalendars
+  ) {
+    Set<DayType> dayTypes = Collections.newSetFromMap(new IdentityHashMap<>());
     return line
       .getJourneyPatterns()
       .stream()
@@ -16,9 +45,9 @@ public final class NetexLineUtilities {
       .flatMap(List::stream)
       .map(ServiceJourney::getDayTypes)
       .flatMap(Set::stream)
-      .map(DayType::getDayTypeAssignments)
-      .flatMap(List::stream)
-      .map(NetexLineUtilities::getAvailabilityPeriodFromDayTypeAssignment)
+      .filter(dayTypes::add)
+      .map(dayTypeCalendars)
+      .map(DayTypeCalendar::getAvailabilityPeriod)
       .filter(Objects::nonNull)
       .reduce(AvailabilityPeriod::union)
       .orElse(null);
@@ -40,4 +69,78 @@ public final class NetexLineUtilities {
     }
     return null;
   }
+
+  /**
+   * Collect the line and every entity reachable from it that ends up in the exported line file,
+   * including shared entities like day types, notices and flexible stop places. Entities shared
+   * within the line may occur more than once.
+   */
+  public static Stream<IdentifiedEntity> collectExportedEntities(Line line) {
+    List<IdentifiedEntity> entities = new ArrayList<>();
+    entities.add(line);
+    entities.add(line.getNetwork());
+    entities.add(line.getBranding());
+    addAll(entities, line.getNotices());
+    if (line instanceof FlexibleLine flexibleLine) {
+      entities.add(flexibleLine.getBookingArrangement());
+    }
+
+    for (JourneyPattern journeyPattern : line.getJourneyPatterns()) {
+      entities.add(journeyPattern);
+      addAll(entities, journeyPattern.getNotices());
+
+      for (StopPointInJourneyPattern stopPoint : journeyPattern.getPointsInSequence()) {
+        entities.add(stopPoint);
+        entities.add(stopPoint.getBookingArrangement());
+        entities.add(stopPoint.getDestinationDisplay());
+        addAll(entities, stopPoint.getNotices());
+
+        FlexibleStopPlace flexibleStopPlace = stopPoint.getFlexibleStopPlace();
+        if (flexibleStopPlace != null) {
+          entities.add(flexibleStopPlace);
+          entities.add(flexibleStopPlace.getHailAndRideArea());
+          addAll(entities, flexibleStopPlace.getFlexibleAreas());
+        }
+      }
+
+      for (ServiceJourney serviceJourney : journeyPattern.getServiceJourneys()) {
+        entities.add(serviceJourney);
+        entities.add(serviceJourney.getBookingArrangement());
+        addAll(entities, serviceJourney.getNotices());
+
+        for (TimetabledPassingTime passingTime : serviceJourney.getPassingTimes()) {
+          entities.add(passingTime);
+          addAll(entities, passingTime.getNotices());
+        }
+
+        for (DayType dayType : serviceJourney.getDayTypes()) {
+          entities.add(dayType);
+          for (DayTypeAssignment dayTypeAssignment : dayType.getDayTypeAssignments()) {
+            entities.add(dayTypeAssignment);
+            entities.add(dayTypeAssignment.getOperatingPeriod());
+          }
+        }
+      }
+    }
+    return entities.stream().filter(Objects::nonNull);
+  }
+
+  /**
+   * Latest change to the line or any entity exported with it.
+   */
+  public static Optional<Instant> calculateLastChangedForLine(Line line) {
+    return collectExportedEntities(line)
+      .map(IdentifiedEntity::getChanged)
+      .filter(Objects::nonNull)
+      .max(Comparator.naturalOrder());
+  }
+
+  private static void addAll(
+    List<IdentifiedEntity> entities,
+    Collection<? extends IdentifiedEntity> toAdd
+  ) {
+    if (toAdd != null) {
+      entities.addAll(toAdd);
+    }
+  }
 }
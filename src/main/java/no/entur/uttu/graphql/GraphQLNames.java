@@ -138,6 +138,10 @@ public class GraphQLNames {
   public static final String FIELD_EXPORT_LINE_ASSOCIATIONS = "lineAssociations";
   public static final String FIELD_INCLUDE_DATED_SERVICE_JOURNEYS =
     "includeDatedServiceJourneys";
+  public static final String FIELD_PHASE_TIMINGS = "phaseTimings";
+  public static final String FIELD_PHASE = "phase";
+  public static final String FIELD_DURATION_MILLIS = "durationMillis";
+  public static final String FIELD_OPERATIONS = "operations";
 
   // Export line association
   public static final String FIELD_LINE = "line";
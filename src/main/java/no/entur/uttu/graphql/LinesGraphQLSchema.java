@@ -69,6 +69,7 @@ import no.entur.uttu.model.PurchaseWhenEnumeration;
 import no.entur.uttu.model.VehicleModeEnumeration;
 import no.entur.uttu.model.VehicleSubmodeEnumeration;
 import no.entur.uttu.model.job.Export;
+import no.entur.uttu.model.job.ExportPhaseEnumeration;
 import no.entur.uttu.model.job.ExportStatusEnumeration;
 import no.entur.uttu.model.job.SeverityEnumeration;
 import no.entur.uttu.profile.Profile;
@@ -191,6 +192,11 @@ public class LinesGraphQLSchema {
     SeverityEnumeration.values(),
     (t -> t.name().toLowerCase())
   );
+  private GraphQLEnumType exportPhaseEnum = TypeUtils.createEnum(
+    "ExportPhaseEnumeration",
+    ExportPhaseEnumeration.values(),
+    (ExportPhaseEnumeration::value)
+  );
 
   private GraphQLEnumType vehicleModeEnum;
   private GraphQLEnumType vehicleSubmodeEnum;
@@ -714,6 +720,22 @@ public class LinesGraphQLSchema {
       .field(
         newFieldDefinition().name(FIELD_MESSAGE).type(new GraphQLNonNull(GraphQLString))
       )
+      .field(newFieldDefinition().name(FIELD_LINE_REF).type(GraphQLString))
+      .build();
+
+    GraphQLObjectType exportPhaseTimingObjectType = newObject()
+      .name("ExportPhaseTiming")
+      .field(
+        newFieldDefinition().name(FIELD_PHASE).type(new GraphQLNonNull(exportPhaseEnum))
+      )
+      .field(
+        newFieldDefinition()
+          .name(FIELD_DURATION_MILLIS)
+          .type(new GraphQLNonNull(GraphQLLong))
+      )
+      .field(
+        newFieldDefinition().name(FIELD_OPERATIONS).type(new GraphQLNonNull(GraphQLLong))
+      )
       .build();
 
     GraphQLObjectType exportLineAssociationObjectType = newObject()
@@ -756,6 +778,11 @@ public class LinesGraphQLSchema {
           .name(FIELD_MESSAGES)
           .type(new GraphQLList(exportMessageObjectType))
       )
+      .field(
+        newFieldDefinition()
+          .name(FIELD_PHASE_TIMINGS)
+          .type(new GraphQLList(exportPhaseTimingObjectType))
+      )
       .field(
         newFieldDefinition()
           .name(FIELD_EXPORT_LINE_ASSOCIATIONS)
@@ -16,7 +16,7 @@
 package no.entur.uttu.graphql.fetchers;
 
 import graphql.schema.DataFetchingEnvironment;
-import no.entur.uttu.export.ExportService;
+import no.entur.uttu.export.ExportJobExecutor;
 import no.entur.uttu.graphql.mappers.AbstractProviderEntityMapper;
 import no.entur.uttu.model.job.Export;
 import no.entur.uttu.repository.generic.ProviderEntityRepository;
@@ -29,7 +29,7 @@ import org.springframework.transaction.annotation.Transactional;
 public class ExportUpdater extends AbstractProviderEntityUpdater<Export> {
 
   @Autowired
-  private ExportService exportService;
+  private ExportJobExecutor exportJobExecutor;
 
   public ExportUpdater(
     AbstractProviderEntityMapper<Export> mapper,
@@ -42,8 +42,8 @@ public class ExportUpdater extends AbstractProviderEntityUpdater<Export> {
   protected Export saveEntity(DataFetchingEnvironment env) {
     Export export = super.saveEntity(env);
 
-    // export dataset to the blob store
-    exportService.exportDataSet(export);
-    return repository.save(export);
+    // export dataset to the blob store in the background, clients poll the export for status
+    exportJobExecutor.submit(export);
+    return export;
   }
 }
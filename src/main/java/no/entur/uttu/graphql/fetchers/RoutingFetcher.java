@@ -4,8 +4,9 @@ import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
 import no.entur.uttu.graphql.model.ServiceLink;
 import no.entur.uttu.model.VehicleModeEnumeration;
+import no.entur.uttu.routing.QuayRoutingRequest;
 import no.entur.uttu.routing.RouteGeometry;
-import no.entur.uttu.routing.RoutingService;
+import no.entur.uttu.routing.RouteGeometryCache;
 import no.entur.uttu.routing.RoutingServiceRequestParams;
 import no.entur.uttu.stopplace.spi.StopPlaceRegistry;
 import org.rutebanken.netex.model.Quay;
@@ -14,14 +15,14 @@ import org.springframework.stereotype.Service;
 @Service("routingFetcher")
 public class RoutingFetcher implements DataFetcher<ServiceLink> {
 
-  private final RoutingService routingService;
+  private final RouteGeometryCache routeGeometryCache;
   private final StopPlaceRegistry stopPlaceRegistry;
 
   public RoutingFetcher(
-    RoutingService routingService,
+    RouteGeometryCache routeGeometryCache,
     StopPlaceRegistry stopPlaceRegistry
   ) {
-    this.routingService = routingService;
+    this.routeGeometryCache = routeGeometryCache;
     this.stopPlaceRegistry = stopPlaceRegistry;
   }
 
@@ -45,7 +46,9 @@ public class RoutingFetcher implements DataFetcher<ServiceLink> {
       mode != null ? mode : VehicleModeEnumeration.BUS
     );
 
-    RouteGeometry routeGeometry = routingService.getRouteGeometry(params);
+    RouteGeometry routeGeometry = routeGeometryCache.getRouteGeometry(
+      new QuayRoutingRequest(quayRefFrom, quayRefTo, params)
+    );
 
     return new ServiceLink(
       quayRefFrom + "_" + quayRefTo,
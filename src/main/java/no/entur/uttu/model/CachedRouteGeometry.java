@@ -0,0 +1,160 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Persisted route geometry between two quays, see {@link no.entur.uttu.routing.RouteGeometryCache}.
+ */
+@Entity
+@Table(name = "route_geometry_cache")
+public class CachedRouteGeometry {
+
+  @Id
+  private String cacheKey;
+
+  @NotNull
+  private String quayRefFrom;
+
+  @NotNull
+  private String quayRefTo;
+
+  @NotNull
+  @Enumerated(EnumType.STRING)
+  private VehicleModeEnumeration mode;
+
+  @NotNull
+  private BigDecimal longitudeFrom;
+
+  @NotNull
+  private BigDecimal latitudeFrom;
+
+  @NotNull
+  private BigDecimal longitudeTo;
+
+  @NotNull
+  private BigDecimal latitudeTo;
+
+  /**
+   * Route coordinates as a GeoJSON style array of longitude, latitude pairs.
+   */
+  @NotNull
+  @Column(columnDefinition = "text")
+  private String coordinates;
+
+  @NotNull
+  private BigDecimal distance;
+
+  @NotNull
+  private Instant created;
+
+  public String getCacheKey() {
+    return cacheKey;
+  }
+
+  public void setCacheKey(String cacheKey) {
+    this.cacheKey = cacheKey;
+  }
+
+  public String getQuayRefFrom() {
+    return quayRefFrom;
+  }
+
+  public void setQuayRefFrom(String quayRefFrom) {
+    this.quayRefFrom = quayRefFrom;
+  }
+
+  public String getQuayRefTo() {
+    return quayRefTo;
+  }
+
+  public void setQuayRefTo(String quayRefTo) {
+    this.quayRefTo = quayRefTo;
+  }
+
+  public VehicleModeEnumeration getMode() {
+    return mode;
+  }
+
+  public void setMode(VehicleModeEnumeration mode) {
+    this.mode = mode;
+  }
+
+  public BigDecimal getLongitudeFrom() {
+    return longitudeFrom;
+  }
+
+  public void setLongitudeFrom(BigDecimal longitudeFrom) {
+    this.longitudeFrom = longitudeFrom;
+  }
+
+  public BigDecimal getLatitudeFrom() {
+    return latitudeFrom;
+  }
+
+  public void setLatitudeFrom(BigDecimal latitudeFrom) {
+    this.latitudeFrom = latitudeFrom;
+  }
+
+  public BigDecimal getLongitudeTo() {
+    return longitudeTo;
+  }
+
+  public void setLongitudeTo(BigDecimal longitudeTo) {
+    this.longitudeTo = longitudeTo;
+  }
+
+  public BigDecimal getLatitudeTo() {
+    return latitudeTo;
+  }
+
+  public void setLatitudeTo(BigDecimal latitudeTo) {
+    this.latitudeTo = latitudeTo;
+  }
+
+  public String getCoordinates() {
+    return coordinates;
+  }
+
+  public void setCoordinates(String coordinates) {
+    this.coordinates = coordinates;
+  }
+
+  public BigDecimal getDistance() {
+    return distance;
+  }
+
+  public void setDistance(BigDecimal distance) {
+    this.distance = distance;
+  }
+
+  public Instant getCreated() {
+    return created;
+  }
+
+  public void setCreated(Instant created) {
+    this.created = created;
+  }
+}
@@ -25,6 +25,7 @@ import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import java.util.List;
 import no.entur.uttu.util.Preconditions;
+import org.hibernate.annotations.BatchSize;
 
 @Entity
 public class StopPointInJourneyPattern extends ProviderEntity {
@@ -51,6 +52,7 @@ public class StopPointInJourneyPattern extends ProviderEntity {
   private DestinationDisplay destinationDisplay;
 
   @ManyToMany(cascade = { CascadeType.PERSIST, CascadeType.MERGE })
+  @BatchSize(size = 100)
   private List<Notice> notices;
 
   private Boolean forAlighting;
@@ -16,6 +16,7 @@
 package no.entur.uttu.model.job;
 
 import jakarta.persistence.CascadeType;
+import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
@@ -56,6 +57,17 @@ public class Export extends ProviderEntity {
 
   private boolean includeDatedServiceJourneys;
 
+  /**
+   * Canonical hash of the exported content, see NetexContentHash.
+   */
+  private String contentHash;
+
+  /**
+   * Time spent in each phase of the export, in phase order.
+   */
+  @ElementCollection
+  private List<ExportPhaseTiming> phaseTimings = new ArrayList<>();
+
   @OneToMany(cascade = CascadeType.ALL, orphanRemoval = true, mappedBy = "export")
   private Collection<ExportLineAssociation> exportLineAssociations;
 
@@ -79,6 +91,15 @@ public class Export extends ProviderEntity {
     }
   }
 
+  /**
+   * Finish the export as failed with an error message, e.g. when it could not be run.
+   */
+  public void markAsFailed(String message) {
+    // the message is a parameter, as it may contain braces and quotes
+    addMessage(new ExportMessage(SeverityEnumeration.ERROR, "{0}", message));
+    markAsFinished();
+  }
+
   public void addMessage(ExportMessage message) {
     this.messages.add(message);
   }
@@ -119,6 +140,29 @@ public class Export extends ProviderEntity {
     this.includeDatedServiceJourneys = includeDatedServiceJourneys;
   }
 
+  public String getContentHash() {
+    return contentHash;
+  }
+
+  public void setContentHash(String contentHash) {
+    this.contentHash = contentHash;
+  }
+
+  public List<ExportPhaseTiming> getPhaseTimings() {
+    return phaseTimings;
+  }
+
+  public void setPhaseTimings(List<ExportPhaseTiming> phaseTimings) {
+    this.phaseTimings.clear();
+    if (phaseTimings != null) {
+      this.phaseTimings.addAll(phaseTimings);
+    }
+  }
+
+  public boolean isInProgress() {
+    return ExportStatusEnumeration.IN_PROGRESS.equals(exportStatus);
+  }
+
   public boolean isSuccess() {
     return ExportStatusEnumeration.SUCCESS.equals(exportStatus);
   }
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.model.job;
+
+import jakarta.persistence.ElementCollection;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.Id;
+import jakarta.validation.constraints.NotNull;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of a scheduled export of several providers, see
+ * {@link no.entur.uttu.export.ExportBatchRunner}.
+ */
+@Entity
+public class ExportBatch {
+
+  @Id
+  @GeneratedValue(generator = "sequence_per_table_generator")
+  protected Long pk;
+
+  @NotNull
+  private Instant started;
+
+  private Instant finished;
+
+  @ElementCollection
+  private List<ExportBatchResult> results = new ArrayList<>();
+
+  public Long getPk() {
+    return pk;
+  }
+
+  public Instant getStarted() {
+    return started;
+  }
+
+  public void setStarted(Instant started) {
+    this.started = started;
+  }
+
+  public Instant getFinished() {
+    return finished;
+  }
+
+  public void setFinished(Instant finished) {
+    this.finished = finished;
+  }
+
+  public List<ExportBatchResult> getResults() {
+    return results;
+  }
+
+  public void addResult(ExportBatchResult result) {
+    results.add(result);
+  }
+
+  public long count(ExportBatchStatusEnumeration status) {
+    return results.stream().filter(result -> status == result.getStatus()).count();
+  }
+
+  @Override
+  public String toString() {
+    return (
+      "ExportBatch{" +
+      "pk=" +
+      pk +
+      ", started=" +
+      started +
+      ", finished=" +
+      finished +
+      ", results=" +
+      results +
+      '}'
+    );
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.model.job;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+/**
+ * Outcome of the export of one provider in a batch export.
+ */
+@Embeddable
+public class ExportBatchResult {
+
+  @NotNull
+  private String providerCode;
+
+  @NotNull
+  @Enumerated(EnumType.STRING)
+  private ExportBatchStatusEnumeration status;
+
+  /**
+   * Id of the last export attempted, if any was created.
+   */
+  private String exportId;
+
+  private int attempts;
+
+  private long durationMillis;
+
+  static final int MAX_MESSAGE_LENGTH = 4000;
+
+  @Column(length = MAX_MESSAGE_LENGTH)
+  @Size(max = MAX_MESSAGE_LENGTH)
+  private String message;
+
+  protected ExportBatchResult() {}
+
+  public ExportBatchResult(
+    String providerCode,
+    ExportBatchStatusEnumeration status,
+    String exportId,
+    int attempts,
+    long durationMillis,
+    String message
+  ) {
+    this.providerCode = providerCode;
+    this.status = status;
+    this.exportId = exportId;
+    this.attempts = attempts;
+    this.durationMillis = durationMillis;
+    this.message = truncate(message);
+  }
+
+  /**
+   * Failure messages end with the message of the exception, which may be of any length.
+   */
+  private static String truncate(String message) {
+    if (message == null || message.length() <= MAX_MESSAGE_LENGTH) {
+      return message;
+    }
+    return message.substring(0, MAX_MESSAGE_LENGTH - 3) + "...";
+  }
+
+  public String getProviderCode() {
+    return providerCode;
+  }
+
+  public ExportBatchStatusEnumeration getStatus() {
+    return status;
+  }
+
+  public String getExportId() {
+    return exportId;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return (
+      providerCode +
+      "=" +
+      status +
+      " (export " +
+      exportId +
+      ", " +
+      attempts +
+      " attempts, " +
+      durationMillis +
+      "ms)"
+    );
+  }
+}
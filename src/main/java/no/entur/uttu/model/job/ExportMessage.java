@@ -24,11 +24,16 @@ import jakarta.persistence.Id;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import java.text.MessageFormat;
+import java.util.Comparator;
 import no.entur.uttu.util.Preconditions;
 
 @Entity
 public class ExportMessage implements Comparable<ExportMessage> {
 
+  private static final Comparator<String> LINE_REF_ORDER = Comparator.nullsFirst(
+    Comparator.naturalOrder()
+  );
+
   @Id
   @GeneratedValue(generator = "sequence_per_table_generator")
   protected Long pk;
@@ -37,18 +42,45 @@ public class ExportMessage implements Comparable<ExportMessage> {
   @Enumerated(EnumType.STRING)
   private SeverityEnumeration severity;
 
+  static final int MAX_MESSAGE_LENGTH = 4000;
+
   @NotNull
-  @Column(length = 4000)
-  @Size(max = 4000)
+  @Column(length = MAX_MESSAGE_LENGTH)
+  @Size(max = MAX_MESSAGE_LENGTH)
   private String message;
 
+  /**
+   * NeTEx id of the line the message concerns, if any.
+   */
+  private String lineRef;
+
   private ExportMessage() {}
 
   public ExportMessage(SeverityEnumeration severity, String message, Object... params) {
+    this(null, severity, message, params);
+  }
+
+  public ExportMessage(
+    String lineRef,
+    SeverityEnumeration severity,
+    String message,
+    Object... params
+  ) {
     Preconditions.checkArgument(severity != null, "Severity must be assigned");
     Preconditions.checkArgument(message != null, "Severity must be assigned");
+    this.lineRef = lineRef;
     this.severity = severity;
-    this.message = MessageFormat.format(message, params);
+    this.message = truncate(MessageFormat.format(message, params));
+  }
+
+  /**
+   * Messages may include messages of exceptions, which are not bounded.
+   */
+  private static String truncate(String message) {
+    if (message.length() <= MAX_MESSAGE_LENGTH) {
+      return message;
+    }
+    return message.substring(0, MAX_MESSAGE_LENGTH - 3) + "...";
   }
 
   public String getMessage() {
@@ -57,7 +89,18 @@ public class ExportMessage implements Comparable<ExportMessage> {
 
   @Override
   public String toString() {
-    return "ExportMessage{" + "message='" + message + '\'' + '}';
+    return (
+      "ExportMessage{" +
+      "message='" +
+      message +
+      '\'' +
+      (lineRef != null ? ", lineRef='" + lineRef + '\'' : "") +
+      '}'
+    );
+  }
+
+  public String getLineRef() {
+    return lineRef;
   }
 
   public Long getPk() {
@@ -74,6 +117,10 @@ public class ExportMessage implements Comparable<ExportMessage> {
     if (severityCmp != 0) {
       return severityCmp;
     }
-    return this.message.compareTo(o.getMessage());
+    int messageCmp = this.message.compareTo(o.getMessage());
+    if (messageCmp != 0) {
+      return messageCmp;
+    }
+    return LINE_REF_ORDER.compare(this.lineRef, o.lineRef);
   }
 }
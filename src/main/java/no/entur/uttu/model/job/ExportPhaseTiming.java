@@ -0,0 +1,69 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.model.job;
+
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Time spent in a phase of an export. Phases running concurrently for several files, such as
+ * marshalling and validation, sum the time spent on every file.
+ */
+@Embeddable
+public class ExportPhaseTiming {
+
+  @NotNull
+  @Enumerated(EnumType.STRING)
+  private ExportPhaseEnumeration phase;
+
+  private long durationMillis;
+
+  /**
+   * Number of timed operations in the phase, e.g. the number of files marshalled.
+   */
+  private long operations;
+
+  protected ExportPhaseTiming() {}
+
+  public ExportPhaseTiming(
+    ExportPhaseEnumeration phase,
+    long durationMillis,
+    long operations
+  ) {
+    this.phase = phase;
+    this.durationMillis = durationMillis;
+    this.operations = operations;
+  }
+
+  public ExportPhaseEnumeration getPhase() {
+    return phase;
+  }
+
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  public long getOperations() {
+    return operations;
+  }
+
+  @Override
+  public String toString() {
+    return phase + "=" + durationMillis + "ms/" + operations;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.repository;
+
+import jakarta.persistence.EntityManager;
+import java.util.Collection;
+import no.entur.uttu.model.CachedRouteGeometry;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public class CachedRouteGeometryRepositoryImpl
+  extends SimpleJpaRepository<CachedRouteGeometry, String>
+  implements CachedRouteGeometryRepository {
+
+  private final EntityManager entityManager;
+
+  public CachedRouteGeometryRepositoryImpl(EntityManager entityManager) {
+    super(CachedRouteGeometry.class, entityManager);
+    this.entityManager = entityManager;
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  public void store(CachedRouteGeometry cachedRouteGeometry) {
+    entityManager.merge(cachedRouteGeometry);
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  public int deleteByQuayRefs(Collection<String> quayRefs) {
+    if (quayRefs.isEmpty()) {
+      return 0;
+    }
+    return entityManager
+      .createQuery(
+        "delete from CachedRouteGeometry where quayRefFrom in :quayRefs or quayRefTo in :quayRefs"
+      )
+      .setParameter("quayRefs", quayRefs)
+      .executeUpdate();
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.repository;
+
+import java.time.Instant;
+import java.util.Optional;
+import no.entur.uttu.model.job.ExportBatch;
+
+public interface ExportBatchRepository {
+  /**
+   * Insert or update the batch, in a transaction of its own.
+   */
+  ExportBatch store(ExportBatch exportBatch);
+
+  /**
+   * Insert a batch started at the given time, unless a batch has been started since
+   * {@code notStartedSince}. Claims are serialized by locking the table, so of several
+   * instances claiming the same run only the first gets the batch.
+   *
+   * @return the inserted batch, or empty if another batch was started
+   */
+  Optional<ExportBatch> claim(Instant started, Instant notStartedSince);
+}
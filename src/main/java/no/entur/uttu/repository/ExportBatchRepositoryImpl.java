@@ -0,0 +1,67 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.repository;
+
+import jakarta.persistence.EntityManager;
+import java.time.Instant;
+import java.util.Optional;
+import no.entur.uttu.model.job.ExportBatch;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public class ExportBatchRepositoryImpl
+  extends SimpleJpaRepository<ExportBatch, Long>
+  implements ExportBatchRepository {
+
+  private final EntityManager entityManager;
+
+  public ExportBatchRepositoryImpl(EntityManager entityManager) {
+    super(ExportBatch.class, entityManager);
+    this.entityManager = entityManager;
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  public ExportBatch store(ExportBatch exportBatch) {
+    return entityManager.merge(exportBatch);
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.REQUIRES_NEW)
+  public Optional<ExportBatch> claim(Instant started, Instant notStartedSince) {
+    // conflicts with itself and with inserts, but not with reads, until the commit
+    entityManager
+      .createNativeQuery("LOCK TABLE export_batch IN SHARE ROW EXCLUSIVE MODE")
+      .executeUpdate();
+    long startedBatches = entityManager
+      .createQuery(
+        "select count(b) from ExportBatch b where b.started >= :since",
+        Long.class
+      )
+      .setParameter("since", notStartedSince)
+      .getSingleResult();
+    if (startedBatches > 0) {
+      return Optional.empty();
+    }
+    ExportBatch exportBatch = new ExportBatch();
+    exportBatch.setStarted(started);
+    entityManager.persist(exportBatch);
+    return Optional.of(exportBatch);
+  }
+}
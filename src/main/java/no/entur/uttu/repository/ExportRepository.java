@@ -18,6 +18,7 @@ package no.entur.uttu.repository;
 import java.time.Instant;
 import java.util.List;
 import no.entur.uttu.model.job.Export;
+import no.entur.uttu.model.job.ExportStatusEnumeration;
 import no.entur.uttu.repository.generic.ProviderEntityRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.transaction.annotation.Propagation;
@@ -29,6 +30,22 @@ public interface ExportRepository extends ProviderEntityRepository<Export> {
 
   Export findFirstByProviderCodeAndDryRunFalseOrderByCreatedDesc(String provider);
 
+  Export findFirstByProviderCodeAndDryRunFalseAndExportStatusAndCreatedBeforeOrderByCreatedDesc(
+    String provider,
+    ExportStatusEnumeration exportStatus,
+    Instant createdBefore
+  );
+
+  /**
+   * The latest export of all lines of the provider, excluding dry runs and exports of
+   * selected lines.
+   */
+  Export findFirstByProviderCodeAndDryRunFalseAndExportLineAssociationsIsEmptyAndExportStatusAndCreatedBeforeOrderByCreatedDesc(
+    String provider,
+    ExportStatusEnumeration exportStatus,
+    Instant createdBefore
+  );
+
   @Query(
     "from Export export0_ where export0_.created in (select max(export1_.created) from Export export1_ where export1_.dryRun=false group by export1_.provider) order by export0_.created desc"
   )
@@ -15,14 +15,45 @@
 
 package no.entur.uttu.repository;
 
+import java.util.Collection;
+import java.util.List;
 import no.entur.uttu.model.Branding;
 import no.entur.uttu.model.FlexibleLine;
 import no.entur.uttu.model.Network;
 import no.entur.uttu.model.Provider;
 import no.entur.uttu.repository.generic.ProviderEntityRepository;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 public interface FlexibleLineRepository extends ProviderEntityRepository<FlexibleLine> {
   int countByNetwork(Network network);
   int countByBranding(Branding branding);
   FlexibleLine findByProviderAndName(Provider provider, String name);
+
+  /**
+   * All lines of the provider, with journey patterns fetched in the same query. The rest of the
+   * line graph is loaded one level at a time through batch fetching.
+   */
+  @EntityGraph(attributePaths = "journeyPatterns")
+  @Query("select l from FlexibleLine l where l.provider.code = :providerCode")
+  List<FlexibleLine> findAllForExport(@Param("providerCode") String providerCode);
+
+  /**
+   * The given lines of the provider, fetched like {@link #findAllForExport(String)}.
+   */
+  @EntityGraph(attributePaths = "journeyPatterns")
+  @Query(
+    "select l from FlexibleLine l where l.provider.code = :providerCode and l.netexId in :netexIds"
+  )
+  List<FlexibleLine> findForExport(
+    @Param("providerCode") String providerCode,
+    @Param("netexIds") Collection<String> netexIds
+  );
+
+  /**
+   * Netex ids of all lines of the provider, for exports loading one line at a time.
+   */
+  @Query("select l.netexId from FlexibleLine l where l.provider.code = :providerCode")
+  List<String> findNetexIdsForExport(@Param("providerCode") String providerCode);
 }
@@ -0,0 +1,13 @@
+package no.entur.uttu.routing;
+
+/**
+ * Request for the route between two quays.
+ * @param quayRefFrom Id of the quay the route starts at
+ * @param quayRefTo Id of the quay the route ends at
+ * @param params The routing parameters, with the current location of the quays
+ */
+public record QuayRoutingRequest(
+  String quayRefFrom,
+  String quayRefTo,
+  RoutingServiceRequestParams params
+) {}
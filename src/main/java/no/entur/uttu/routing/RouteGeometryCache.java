@@ -0,0 +1,301 @@
+package no.entur.uttu.routing;
+
+import static no.entur.uttu.routing.osrm.OsrmService.createStraightLineRouteGeometry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import no.entur.uttu.model.CachedRouteGeometry;
+import no.entur.uttu.model.VehicleModeEnumeration;
+import no.entur.uttu.repository.CachedRouteGeometryRepository;
+import no.entur.uttu.stopplace.spi.QuayLocationChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches route geometries between quays in memory, backed by a database table, so the same
+ * routes are not requested from the routing service over and over by the editor and exports.
+ *
+ * <p>
+ *   Routes are keyed by the quays and the transport mode, and are only reused while the quays
+ *   stay where they were when the route was cached. Routes from or to quays reported as moved
+ *   by the stop place registry are removed. Straight line fallbacks are never cached.
+ * </p>
+ *
+ * To change the number of routes kept in memory set property
+ *    routing.cache.size=10000
+ * To disable the database backing set property
+ *    routing.cache.persistent=false
+ */
+@Component
+public class RouteGeometryCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(RouteGeometryCache.class);
+
+  private static final TypeReference<List<List<BigDecimal>>> COORDINATES_TYPE =
+    new TypeReference<>() {};
+
+  private final RoutingService routingService;
+
+  private final CachedRouteGeometryRepository repository;
+
+  private final boolean persistent;
+
+  private final Cache<RouteKey, CachedRoute> routes;
+
+  private final Counter persistentHitCounter;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  public RouteGeometryCache(
+    RoutingService routingService,
+    CachedRouteGeometryRepository repository,
+    MeterRegistry meterRegistry,
+    @Value("${routing.cache.size:10000}") long size,
+    @Value("${routing.cache.persistent:true}") boolean persistent
+  ) {
+    this.routingService = routingService;
+    this.repository = repository;
+    this.persistent = persistent;
+    this.routes = CacheBuilder.newBuilder().maximumSize(size).recordStats().build();
+    GuavaCacheMetrics.monitor(meterRegistry, routes, "routeGeometry");
+    this.persistentHitCounter = Counter.builder("uttu.routing.cache.persistent.hits")
+      .description("Route geometries found in the database after missing in memory")
+      .register(meterRegistry);
+  }
+
+  public boolean isEnabled(VehicleModeEnumeration mode) {
+    return routingService.isEnabled(mode);
+  }
+
+  /**
+   * Get the route from the cache, or from the routing service if not cached.
+   */
+  public RouteGeometry getRouteGeometry(QuayRoutingRequest request) {
+    RoutingServiceRequestParams params = request.params();
+    if (!routingService.isEnabled(params.mode())) {
+      return createStraightLineRouteGeometry(params);
+    }
+
+    Optional<RouteGeometry> cachedRoute = findCached(request);
+    if (cachedRoute.isPresent()) {
+      return cachedRoute.get();
+    }
+
+    RouteGeometry routeGeometry = routingService.getRouteGeometry(params);
+    put(request, routeGeometry);
+    return routeGeometry;
+  }
+
+  /**
+   * Get the routes of a sequence of legs, e.g. the service links of a journey pattern. Legs
+   * not cached are routed by the routing service, with a single request for each run of
+   * consecutive legs not cached.
+   */
+  public List<RouteGeometry> getRouteGeometries(List<QuayRoutingRequest> legs) {
+    if (legs.size() == 1) {
+      return List.of(getRouteGeometry(legs.getFirst()));
+    }
+    if (!legs.stream().allMatch(leg -> routingService.isEnabled(leg.params().mode()))) {
+      return legs.stream().map(this::getRouteGeometry).toList();
+    }
+
+    List<RouteGeometry> routeGeometries = new ArrayList<>(legs.size());
+    for (QuayRoutingRequest leg : legs) {
+      routeGeometries.add(findCached(leg).orElse(null));
+    }
+
+    int start = 0;
+    while (start < legs.size()) {
+      if (routeGeometries.get(start) != null) {
+        start++;
+        continue;
+      }
+      int end = start + 1;
+      while (end < legs.size() && routeGeometries.get(end) == null) {
+        end++;
+      }
+      List<QuayRoutingRequest> missingLegs = legs.subList(start, end);
+      List<RouteGeometry> routedLegs = route(missingLegs);
+      for (int i = 0; i < missingLegs.size(); i++) {
+        put(missingLegs.get(i), routedLegs.get(i));
+        routeGeometries.set(start + i, routedLegs.get(i));
+      }
+      start = end;
+    }
+    return routeGeometries;
+  }
+
+  private List<RouteGeometry> route(List<QuayRoutingRequest> legs) {
+    if (legs.size() == 1) {
+      return List.of(routingService.getRouteGeometry(legs.getFirst().params()));
+    }
+    return routingService.getRouteGeometries(
+      legs.stream().map(QuayRoutingRequest::params).toList()
+    );
+  }
+
+  private Optional<RouteGeometry> findCached(QuayRoutingRequest request) {
+    RoutingServiceRequestParams params = request.params();
+    RouteKey key = RouteKey.of(request);
+    CachedRoute cachedRoute = routes.getIfPresent(key);
+    if (cachedRoute != null && sameLocations(cachedRoute.params(), params)) {
+      return Optional.of(cachedRoute.routeGeometry());
+    }
+
+    Optional<RouteGeometry> persistedRoute = findPersisted(key, params);
+    if (persistedRoute.isPresent()) {
+      persistentHitCounter.increment();
+      routes.put(key, new CachedRoute(params, persistedRoute.get()));
+    }
+    return persistedRoute;
+  }
+
+  private void put(QuayRoutingRequest request, RouteGeometry routeGeometry) {
+    RoutingServiceRequestParams params = request.params();
+    if (!routeGeometry.equals(createStraightLineRouteGeometry(params))) {
+      RouteKey key = RouteKey.of(request);
+      routes.put(key, new CachedRoute(params, routeGeometry));
+      persist(key, params, routeGeometry);
+    }
+  }
+
+  @EventListener
+  public void onQuayLocationChanged(QuayLocationChangedEvent event) {
+    routes
+      .asMap()
+      .keySet()
+      .removeIf(
+        key ->
+          event.quayRefs().contains(key.quayRefFrom()) ||
+          event.quayRefs().contains(key.quayRefTo())
+      );
+    if (persistent) {
+      try {
+        int removed = repository.deleteByQuayRefs(event.quayRefs());
+        logger.info(
+          "Removed {} cached routes for {} moved quays",
+          removed,
+          event.quayRefs().size()
+        );
+      } catch (RuntimeException e) {
+        logger.warn("Failed to remove cached routes for moved quays", e);
+      }
+    }
+  }
+
+  private Optional<RouteGeometry> findPersisted(
+    RouteKey key,
+    RoutingServiceRequestParams params
+  ) {
+    if (!persistent) {
+      return Optional.empty();
+    }
+    try {
+      return repository
+        .findById(key.toString())
+        .filter(cached -> sameLocations(toParams(cached), params))
+        .map(this::toRouteGeometry);
+    } catch (RuntimeException e) {
+      logger.warn("Failed to read cached route {}: {}", key, e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  private void persist(
+    RouteKey key,
+    RoutingServiceRequestParams params,
+    RouteGeometry routeGeometry
+  ) {
+    if (!persistent) {
+      return;
+    }
+    try {
+      CachedRouteGeometry cached = new CachedRouteGeometry();
+      cached.setCacheKey(key.toString());
+      cached.setQuayRefFrom(key.quayRefFrom());
+      cached.setQuayRefTo(key.quayRefTo());
+      cached.setMode(key.mode());
+      cached.setLongitudeFrom(params.longitudeFrom());
+      cached.setLatitudeFrom(params.latitudeFrom());
+      cached.setLongitudeTo(params.longitudeTo());
+      cached.setLatitudeTo(params.latitudeTo());
+      cached.setCoordinates(objectMapper.writeValueAsString(routeGeometry.coordinates()));
+      cached.setDistance(routeGeometry.distance());
+      cached.setCreated(Instant.now());
+      repository.store(cached);
+    } catch (JsonProcessingException | RuntimeException e) {
+      logger.warn("Failed to store cached route {}: {}", key, e.getMessage());
+    }
+  }
+
+  private RouteGeometry toRouteGeometry(CachedRouteGeometry cached) {
+    try {
+      return new RouteGeometry(
+        objectMapper.readValue(cached.getCoordinates(), COORDINATES_TYPE),
+        cached.getDistance()
+      );
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Invalid cached route coordinates", e);
+    }
+  }
+
+  private static RoutingServiceRequestParams toParams(CachedRouteGeometry cached) {
+    return new RoutingServiceRequestParams(
+      cached.getLongitudeFrom(),
+      cached.getLatitudeFrom(),
+      cached.getLongitudeTo(),
+      cached.getLatitudeTo(),
+      cached.getMode()
+    );
+  }
+
+  private static boolean sameLocations(
+    RoutingServiceRequestParams cached,
+    RoutingServiceRequestParams requested
+  ) {
+    return (
+      cached.longitudeFrom().compareTo(requested.longitudeFrom()) == 0 &&
+      cached.latitudeFrom().compareTo(requested.latitudeFrom()) == 0 &&
+      cached.longitudeTo().compareTo(requested.longitudeTo()) == 0 &&
+      cached.latitudeTo().compareTo(requested.latitudeTo()) == 0
+    );
+  }
+
+  private record RouteKey(
+    String quayRefFrom,
+    String quayRefTo,
+    VehicleModeEnumeration mode
+  ) {
+    private static RouteKey of(QuayRoutingRequest request) {
+      return new RouteKey(
+        request.quayRefFrom(),
+        request.quayRefTo(),
+        request.params().mode()
+      );
+    }
+
+    @Override
+    public String toString() {
+      return quayRefFrom + "|" + quayRefTo + "|" + mode;
+    }
+  }
+
+  private record CachedRoute(
+    RoutingServiceRequestParams params,
+    RouteGeometry routeGeometry
+  ) {}
+}
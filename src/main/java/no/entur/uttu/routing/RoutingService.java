@@ -1,5 +1,6 @@
 package no.entur.uttu.routing;
 
+import java.util.List;
 import no.entur.uttu.model.VehicleModeEnumeration;
 
 /**
@@ -19,4 +20,15 @@ public interface RoutingService {
    * @return An instance of {@link RouteGeometry}
    */
   RouteGeometry getRouteGeometry(RoutingServiceRequestParams request);
+
+  /**
+   * Request route geometries for a sequence of legs, where each leg starts where the previous
+   * one ended, e.g. the service links of a journey pattern. Routing services able to route
+   * via waypoints should override this to route the whole sequence at once.
+   * @param legs The parameters of each leg, in order
+   * @return An instance of {@link RouteGeometry} per leg, in the same order
+   */
+  default List<RouteGeometry> getRouteGeometries(List<RoutingServiceRequestParams> legs) {
+    return legs.stream().map(this::getRouteGeometry).toList();
+  }
 }
@@ -13,18 +13,21 @@ import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import no.entur.uttu.model.VehicleModeEnumeration;
 import no.entur.uttu.routing.RouteGeometry;
+import no.entur.uttu.routing.RoutingService;
 import no.entur.uttu.routing.RoutingServiceRequestParams;
 import org.geotools.referencing.GeodeticCalculator;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class OsrmService implements no.entur.uttu.routing.RoutingService {
+public class OsrmService implements RoutingService {
 
   private static final Logger logger = LoggerFactory.getLogger(OsrmService.class);
 
@@ -71,6 +74,147 @@ public class OsrmService implements no.entur.uttu.routing.RoutingService {
     return getRouteGeometry(requestParams, routingRequest);
   }
 
+  /**
+   * Route all legs in one request via every waypoint, and split the returned geometry at the
+   * waypoints. OSRM returns one leg per pair of consecutive waypoints, and one distance
+   * annotation per segment of the leg, so a leg with n annotations covers n + 1 coordinates,
+   * with the last one shared with the next leg.
+   */
+  @Override
+  public List<RouteGeometry> getRouteGeometries(List<RoutingServiceRequestParams> legs) {
+    if (legs.size() < 2 || !isContinuous(legs)) {
+      return RoutingService.super.getRouteGeometries(legs);
+    }
+    RoutingServiceRequestParams first = legs.getFirst();
+    RoutingServiceRequestParams last = legs.getLast();
+    try {
+      HttpResponse<String> response = httpClient.send(
+        getRoutingRequest(legs),
+        HttpResponse.BodyHandlers.ofString()
+      );
+      JsonNode responseJsonNode = objectMapper.readTree(response.body());
+
+      if (!"Ok".equals(responseJsonNode.get("code").asText())) {
+        // a single unroutable leg fails the whole request, so route the legs one by one
+        logger.warn(
+          "OSRM route {} error for {} legs from [{},{}] to [{},{}] : {}",
+          responseJsonNode.get("code").asText(),
+          legs.size(),
+          first.longitudeFrom(),
+          first.latitudeFrom(),
+          last.longitudeTo(),
+          last.latitudeTo(),
+          responseJsonNode.get("message").asText()
+        );
+        return RoutingService.super.getRouteGeometries(legs);
+      }
+      List<RouteGeometry> routeGeometries = splitAtWaypoints(
+        responseJsonNode.get("routes").get(0),
+        legs.size()
+      );
+      if (routeGeometries == null) {
+        logger.warn(
+          "OSRM route for {} legs from [{},{}] to [{},{}] could not be split at the waypoints",
+          legs.size(),
+          first.longitudeFrom(),
+          first.latitudeFrom(),
+          last.longitudeTo(),
+          last.latitudeTo()
+        );
+        return RoutingService.super.getRouteGeometries(legs);
+      }
+      return routeGeometries;
+    } catch (IOException e) {
+      logger.warn(
+        "I/O error during OSRM API request for {} legs from [{},{}] to [{},{}]",
+        legs.size(),
+        first.longitudeFrom(),
+        first.latitudeFrom(),
+        last.longitudeTo(),
+        last.latitudeTo(),
+        e
+      );
+    } catch (InterruptedException e) {
+      logger.warn(
+        "InterruptedException error during OSRM API request for {} legs from [{},{}] to [{},{}]",
+        legs.size(),
+        first.longitudeFrom(),
+        first.latitudeFrom(),
+        last.longitudeTo(),
+        last.latitudeTo(),
+        e
+      );
+      Thread.currentThread().interrupt();
+    }
+    return legs.stream().map(OsrmService::createStraightLineRouteGeometry).toList();
+  }
+
+  private List<RouteGeometry> splitAtWaypoints(JsonNode route, int legCount)
+    throws IOException {
+    JsonNode legNodes = route.get("legs");
+    if (legNodes == null || legNodes.size() != legCount) {
+      return null;
+    }
+    List<List<BigDecimal>> coordinates = objectMapper.readValue(
+      objectMapper.writeValueAsString(route.get("geometry").get("coordinates")),
+      new TypeReference<>() {}
+    );
+
+    List<RouteGeometry> routeGeometries = new ArrayList<>(legCount);
+    int start = 0;
+    for (JsonNode legNode : legNodes) {
+      JsonNode segments = legNode.path("annotation").path("distance");
+      int end = start + segments.size();
+      if (!segments.isArray() || end >= coordinates.size()) {
+        return null;
+      }
+      routeGeometries.add(
+        new RouteGeometry(
+          List.copyOf(coordinates.subList(start, end + 1)),
+          objectMapper.readValue(
+            objectMapper.writeValueAsString(legNode.get("distance")),
+            BigDecimal.class
+          )
+        )
+      );
+      start = end;
+    }
+    return start == coordinates.size() - 1 ? routeGeometries : null;
+  }
+
+  private static boolean isContinuous(List<RoutingServiceRequestParams> legs) {
+    for (int i = 1; i < legs.size(); i++) {
+      RoutingServiceRequestParams previous = legs.get(i - 1);
+      RoutingServiceRequestParams current = legs.get(i);
+      if (
+        previous.mode() != current.mode() ||
+        previous.longitudeTo().compareTo(current.longitudeFrom()) != 0 ||
+        previous.latitudeTo().compareTo(current.latitudeFrom()) != 0
+      ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private MutableRequest getRoutingRequest(List<RoutingServiceRequestParams> legs) {
+    String waypoints =
+      legs.getFirst().longitudeFrom() +
+      "," +
+      legs.getFirst().latitudeFrom() +
+      ";" +
+      legs
+        .stream()
+        .map(leg -> leg.longitudeTo() + "," + leg.latitudeTo())
+        .collect(Collectors.joining(";"));
+    return MutableRequest.GET(
+      endpointMap.get(legs.getFirst().mode()) +
+      "/route/v1/driving/" +
+      waypoints +
+      "?alternatives=false&steps=false&overview=full&geometries=geojson&annotations=distance"
+    ).header("Content-Type", "application/json");
+  }
+
   private MutableRequest getRoutingRequest(RoutingServiceRequestParams requestParams) {
     return MutableRequest.GET(
       endpointMap.get(requestParams.mode()) +
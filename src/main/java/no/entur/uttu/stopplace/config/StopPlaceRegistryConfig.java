@@ -17,7 +17,9 @@ package no.entur.uttu.stopplace.config;
 
 import no.entur.uttu.stopplace.filter.StopPlacesFilter;
 import no.entur.uttu.stopplace.index.StopPlaceIndexManager;
+import no.entur.uttu.stopplace.index.StopPlaceTextIndex;
 import no.entur.uttu.stopplace.spatial.StopPlaceSpatialService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -33,12 +35,26 @@ public class StopPlaceRegistryConfig {
   }
 
   @Bean
-  public StopPlaceSpatialService stopPlaceSpatialService() {
-    return new StopPlaceSpatialService();
+  public StopPlaceTextIndex stopPlaceTextIndex() {
+    return new StopPlaceTextIndex();
   }
 
   @Bean
-  public StopPlacesFilter stopPlacesFilter() {
-    return new StopPlacesFilter();
+  public StopPlaceSpatialService stopPlaceSpatialService(
+    @Value(
+      "${uttu.stopplace.spatial.compaction-threshold:" +
+      StopPlaceSpatialService.DEFAULT_COMPACTION_THRESHOLD +
+      "}"
+    ) int compactionThreshold
+  ) {
+    return new StopPlaceSpatialService(compactionThreshold);
+  }
+
+  @Bean
+  public StopPlacesFilter stopPlacesFilter(
+    StopPlaceSpatialService spatialService,
+    StopPlaceTextIndex textIndex
+  ) {
+    return new StopPlacesFilter(spatialService, textIndex);
   }
 }
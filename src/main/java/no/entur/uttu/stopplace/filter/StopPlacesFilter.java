@@ -4,9 +4,14 @@ import static no.entur.uttu.error.codes.ErrorCodeEnumeration.INVALID_STOP_PLACE_
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 import no.entur.uttu.error.codederror.CodedError;
 import no.entur.uttu.error.codedexception.CodedIllegalArgumentException;
 import no.entur.uttu.stopplace.filter.params.BoundingBoxFilterParams;
@@ -15,15 +20,132 @@ import no.entur.uttu.stopplace.filter.params.QuayIdFilterParams;
 import no.entur.uttu.stopplace.filter.params.SearchTextStopPlaceFilterParams;
 import no.entur.uttu.stopplace.filter.params.StopPlaceFilterParams;
 import no.entur.uttu.stopplace.filter.params.TransportModeStopPlaceFilterParams;
-import org.rutebanken.netex.model.Quay;
+import no.entur.uttu.stopplace.index.CompactStopPlace;
+import no.entur.uttu.stopplace.index.StopPlaceIndexSnapshot;
+import no.entur.uttu.stopplace.index.StopPlaceTextIndex;
+import no.entur.uttu.stopplace.spatial.StopPlaceSpatialService;
 import org.rutebanken.netex.model.StopPlace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class StopPlacesFilter {
 
+  private static final Logger logger = LoggerFactory.getLogger(StopPlacesFilter.class);
+
+  private final StopPlaceSpatialService spatialService;
+  private final StopPlaceTextIndex textIndex;
+
+  /**
+   * Filter for lists of stop places, without the indexes needed to filter a snapshot
+   */
+  public StopPlacesFilter() {
+    this(null, null);
+  }
+
+  public StopPlacesFilter(
+    StopPlaceSpatialService spatialService,
+    StopPlaceTextIndex textIndex
+  ) {
+    this.spatialService = spatialService;
+    this.textIndex = textIndex;
+  }
+
+  /**
+   * Filter the stop places of a snapshot, using the indexes to avoid iterating through all
+   * stop places;
+   * The stop places are looked up by the most selective of the filters having an index: the
+   * bounding box in the spatial index, the transport mode in the snapshot and the search text
+   * in the text index;
+   * The other indexed filters narrow down these stop places using their indexes, and the
+   * remaining filters are applied to them one-by-one, as for a list of stop places;
+   * Stop places found by search text are ranked by match quality;
+   * The spatial and text indexes are updated after a snapshot is published, so they are
+   * only used while they are at the version of the snapshot, and the stop places of the
+   * snapshot are filtered one by one otherwise;
+   * Only the stop places in the result are built as NeTEx stop places;
+   * @param snapshot
+   * @param filters
+   * @return
+   */
+  public List<StopPlace> filter(
+    StopPlaceIndexSnapshot snapshot,
+    List<StopPlaceFilterParams> filters
+  ) {
+    Optional<StopPlaceFilterParams> quayIdsFilterOpt = findFilterByClass(
+      filters,
+      QuayIdFilterParams.class
+    );
+
+    if (quayIdsFilterOpt.isPresent()) {
+      return CompactStopPlace.toStopPlaces(
+        getStopPlacesByQuayIds(
+          (QuayIdFilterParams) quayIdsFilterOpt.get(),
+          snapshot.stopPlaceByQuayRef()
+        )
+      );
+    }
+
+    List<AccessPath> accessPaths = findAccessPaths(snapshot, filters);
+    Optional<AccessPath> plan = accessPaths
+      .stream()
+      .min(Comparator.comparingInt(AccessPath::estimatedSize));
+
+    List<CompactStopPlace> stopPlaces = plan
+      .map(accessPath -> accessPath.stopPlaces().get())
+      .orElse(snapshot.stopPlaces());
+    logger.debug(
+      "Looked up {} stop places by {}",
+      stopPlaces.size(),
+      plan.map(AccessPath::filter).orElse(null)
+    );
+
+    Set<StopPlaceFilterParams> appliedFilters = new HashSet<>();
+    plan.ifPresent(accessPath -> appliedFilters.add(accessPath.filter()));
+
+    for (AccessPath accessPath : accessPaths) {
+      if (accessPath.filter() instanceof BoundingBoxFilterParams) {
+        if (plan.get() != accessPath) {
+          Set<String> withinBoundingBox = new HashSet<>();
+          accessPath
+            .stopPlaces()
+            .get()
+            .forEach(stopPlace -> withinBoundingBox.add(stopPlace.id()));
+          stopPlaces = stopPlaces
+            .stream()
+            .filter(stopPlace -> withinBoundingBox.contains(stopPlace.id()))
+            .toList();
+        }
+        appliedFilters.add(accessPath.filter());
+      }
+    }
+
+    // ranked last, so no other filter changes the order of the matches
+    boolean ranked = false;
+    for (AccessPath accessPath : accessPaths) {
+      if (accessPath.filter() instanceof SearchTextStopPlaceFilterParams searchText) {
+        if (plan.get() != accessPath) {
+          stopPlaces = textIndex.search(searchText.searchText(), stopPlaces);
+        }
+        appliedFilters.add(accessPath.filter());
+        ranked = true;
+      }
+    }
+
+    return CompactStopPlace.toStopPlaces(
+      applyFilters(
+        stopPlaces,
+        filters.stream().filter(filter -> !appliedFilters.contains(filter)).toList(),
+        ranked
+      )
+    );
+  }
+
   /**
    * Filter the set of all stop places by various criteria;
    * Filtering by quay id-s doesn't take into account any other filters that may be by chance provided along;
    * Filtering by limiting the final number of stop places if applied at the very last step;
+   * Stop places are kept in the order given, so stop places ranked by search text are limited
+   * to the best matches;
    * All the other types of filtering one-by-one, in iteration, narrow down the stop places set;
    * @param allStopPlaces
    * @param stopPlaceByQuayRefIndex
@@ -47,14 +169,49 @@ public class StopPlacesFilter {
       );
     }
 
-    List<StopPlaceFilterParams> filtersToIterateThrough = filters
+    boolean rankedBySearchText = findFilterByClass(
+      filters,
+      SearchTextStopPlaceFilterParams.class
+    ).isPresent();
+
+    // filtered as compact stop places, and mapped back to the given stop places
+    Map<CompactStopPlace, StopPlace> stopPlaceByCompactStopPlace =
+      new IdentityHashMap<>();
+    List<CompactStopPlace> compactStopPlaces = new ArrayList<>(allStopPlaces.size());
+    for (StopPlace stopPlace : allStopPlaces) {
+      CompactStopPlace compactStopPlace = CompactStopPlace.of(stopPlace);
+      stopPlaceByCompactStopPlace.put(compactStopPlace, stopPlace);
+      compactStopPlaces.add(compactStopPlace);
+    }
+
+    return applyFilters(compactStopPlaces, filters, rankedBySearchText)
       .stream()
-      .filter(StopPlaceFilterParams::isFilterAppliedCompositely)
+      .map(stopPlaceByCompactStopPlace::get)
       .toList();
-    List<StopPlace> filteredStopPlaces = allStopPlaces
+  }
+
+  /**
+   * Apply the composite filters to each stop place, and then limit the number of stop places
+   * @param stopPlaces
+   * @param filters
+   * @param ranked whether the stop places are ranked, so that a limit keeps the first ones
+   * @return
+   */
+  private List<CompactStopPlace> applyFilters(
+    List<CompactStopPlace> stopPlaces,
+    List<StopPlaceFilterParams> filters,
+    boolean ranked
+  ) {
+    List<StopPlaceFilterParams> filtersToIterateThrough = filters
       .stream()
-      .filter(s -> includeStopPlace(s, filtersToIterateThrough))
+      .filter(StopPlaceFilterParams::isFilterAppliedCompositely)
       .toList();
+    List<CompactStopPlace> filteredStopPlaces = filtersToIterateThrough.isEmpty()
+      ? stopPlaces
+      : stopPlaces
+        .stream()
+        .filter(s -> includeStopPlace(s, filtersToIterateThrough))
+        .toList();
 
     Optional<StopPlaceFilterParams> limitFilterOpt = findFilterByClass(
       filters,
@@ -66,12 +223,60 @@ public class StopPlacesFilter {
         stopPlaceFilter ->
           limitNumberOfStopPlaces(
             ((LimitStopPlacesQuantityFilterParams) stopPlaceFilter).limit(),
-            filteredStopPlaces
+            filteredStopPlaces,
+            ranked
           )
       )
       .orElse(filteredStopPlaces);
   }
 
+  /**
+   * The filters that can be answered by an index, with the number of stop places they are
+   * estimated to find;
+   * The bounding box is looked up right away, as the spatial index is needed both to estimate
+   * and to apply it;
+   * Transport modes are looked up by mode, except for stop places without a transport mode
+   * @param snapshot
+   * @param filters
+   * @return
+   */
+  private List<AccessPath> findAccessPaths(
+    StopPlaceIndexSnapshot snapshot,
+    List<StopPlaceFilterParams> filters
+  ) {
+    List<AccessPath> accessPaths = new ArrayList<>();
+    for (StopPlaceFilterParams f : filters) {
+      switch (f) {
+        case SearchTextStopPlaceFilterParams searchTextFilterParams -> accessPaths.add(
+          new AccessPath(
+            f,
+            textIndex.estimateMatches(searchTextFilterParams.searchText()),
+            () -> textIndex.search(searchTextFilterParams.searchText(), snapshot)
+          )
+        );
+        case BoundingBoxFilterParams boundingBoxFilterParams -> {
+          List<CompactStopPlace> withinBoundingBox =
+            spatialService.preFilterByBoundingBox(snapshot, boundingBoxFilterParams);
+          accessPaths.add(
+            new AccessPath(f, withinBoundingBox.size(), () -> withinBoundingBox)
+          );
+        }
+        case TransportModeStopPlaceFilterParams transportModeFilterParams -> {
+          if (transportModeFilterParams.transportMode() != null) {
+            List<CompactStopPlace> ofTransportMode = snapshot.stopPlacesOfTransportMode(
+              transportModeFilterParams.transportMode()
+            );
+            accessPaths.add(
+              new AccessPath(f, ofTransportMode.size(), () -> ofTransportMode)
+            );
+          }
+        }
+        default -> {}
+      }
+    }
+    return accessPaths;
+  }
+
   /**
    * Find an instance of a certain kind of filter;
    * There should be only one occurrence of a certain kind of filter in the filters list
@@ -93,20 +298,9 @@ public class StopPlacesFilter {
    * @return
    */
   private boolean includeStopPlace(
-    StopPlace stopPlace,
+    CompactStopPlace stopPlace,
     List<StopPlaceFilterParams> filters
   ) {
-    List<Quay> quays = Optional.ofNullable(stopPlace.getQuays())
-      .map(
-        quaysRelStructure ->
-          quaysRelStructure
-            .getQuayRefOrQuay()
-            .stream()
-            .map(jaxbElement -> (org.rutebanken.netex.model.Quay) jaxbElement.getValue())
-            .toList()
-      )
-      .orElse(Collections.emptyList());
-
     for (StopPlaceFilterParams f : filters) {
       switch (f) {
         case BoundingBoxFilterParams boundingBoxFilterParams -> {
@@ -115,7 +309,7 @@ public class StopPlacesFilter {
         }
         case TransportModeStopPlaceFilterParams transportModeFilterParams -> {
           boolean isOfTransportMode =
-            stopPlace.getTransportMode() == transportModeFilterParams.transportMode();
+            stopPlace.transportMode() == transportModeFilterParams.transportMode();
           if (!isOfTransportMode) {
             return false;
           }
@@ -123,8 +317,7 @@ public class StopPlacesFilter {
         case SearchTextStopPlaceFilterParams searchTextStopPlaceFilterParams -> {
           boolean includesSearchText = foundMatchForSearchText(
             searchTextStopPlaceFilterParams,
-            stopPlace,
-            quays
+            stopPlace
           );
           if (!includesSearchText) {
             return false;
@@ -139,28 +332,29 @@ public class StopPlacesFilter {
     return true;
   }
 
+  /**
+   * Matched the same way as by the text index, so short search texts only match the start
+   * of words whether or not the stop places are filtered through the index
+   */
   private boolean foundMatchForSearchText(
     SearchTextStopPlaceFilterParams searchTextStopPlaceFilterParams,
-    StopPlace stopPlace,
-    List<Quay> quays
+    CompactStopPlace stopPlace
   ) {
-    String searchText = searchTextStopPlaceFilterParams.searchText().toLowerCase();
-    return (
-      stopPlace.getId().toLowerCase().contains(searchText) ||
-      stopPlace.getName().getValue().toLowerCase().contains(searchText) ||
-      quays.stream().anyMatch(quay -> quay.getId().toLowerCase().contains(searchText))
+    return StopPlaceTextIndex.isMatch(
+      stopPlace,
+      searchTextStopPlaceFilterParams.searchText()
     );
   }
 
-  private List<StopPlace> getStopPlacesByQuayIds(
+  private <T> List<T> getStopPlacesByQuayIds(
     QuayIdFilterParams quayIdFilterParams,
-    Map<String, StopPlace> stopPlaceByQuayRefIndex
+    Map<String, T> stopPlaceByQuayRefIndex
   ) {
     List<String> quayIds = quayIdFilterParams.quayIds();
 
-    List<StopPlace> stopPlacesbyQuayIds = new ArrayList<>();
+    List<T> stopPlacesbyQuayIds = new ArrayList<>();
     quayIds.forEach(quayId -> {
-      StopPlace stopPlace = stopPlaceByQuayRefIndex.get(quayId);
+      T stopPlace = stopPlaceByQuayRefIndex.get(quayId);
       if (stopPlace != null) {
         stopPlacesbyQuayIds.add(stopPlace);
       }
@@ -169,12 +363,35 @@ public class StopPlacesFilter {
     return stopPlacesbyQuayIds.stream().distinct().toList();
   }
 
-  private List<StopPlace> limitNumberOfStopPlaces(int limit, List<StopPlace> stopPlaces) {
+  /**
+   * Limit the number of stop places to a random selection, or to the best matches when
+   * the stop places are ranked by search text
+   */
+  private <T> List<T> limitNumberOfStopPlaces(
+    int limit,
+    List<T> stopPlaces,
+    boolean ranked
+  ) {
     if (stopPlaces.size() <= limit) {
       return stopPlaces;
     }
-    List<StopPlace> shuffledStopPlaces = new ArrayList<>(stopPlaces);
+    if (ranked) {
+      return stopPlaces.subList(0, limit);
+    }
+    List<T> shuffledStopPlaces = new ArrayList<>(stopPlaces);
     Collections.shuffle(shuffledStopPlaces);
     return shuffledStopPlaces.subList(0, limit);
   }
+
+  /**
+   * A way of looking up the stop places matching a filter by an index
+   * @param filter
+   * @param estimatedSize number of stop places the lookup is estimated to find
+   * @param stopPlaces
+   */
+  private record AccessPath(
+    StopPlaceFilterParams filter,
+    int estimatedSize,
+    Supplier<List<CompactStopPlace>> stopPlaces
+  ) {}
 }
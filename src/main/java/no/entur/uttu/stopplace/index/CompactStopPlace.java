@@ -0,0 +1,320 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.stopplace.index;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+import jakarta.xml.bind.JAXBElement;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
+import org.rutebanken.netex.model.LocationStructure;
+import org.rutebanken.netex.model.MultilingualString;
+import org.rutebanken.netex.model.ObjectFactory;
+import org.rutebanken.netex.model.Quay;
+import org.rutebanken.netex.model.Quays_RelStructure;
+import org.rutebanken.netex.model.SimplePoint_VersionStructure;
+import org.rutebanken.netex.model.SiteRefStructure;
+import org.rutebanken.netex.model.StopPlace;
+import org.rutebanken.netex.model.Zone_VersionStructure;
+
+/**
+ * The fields of a stop place and its quays that are read from the registry, without the
+ * NeTEx object graph they are loaded from.
+ *
+ * <p>
+ *   Strings are interned, the transport mode is kept as its ordinal and locations as
+ *   primitive doubles, and the quays are kept in arrays indexed by the position of the
+ *   quay in the stop place. The NeTEx objects are built again by {@link #toStopPlace()}
+ *   when a caller needs them, with only these fields set. A compact stop place is
+ *   immutable, so it is shared by the index snapshots, the spatial index and the text
+ *   index.
+ * </p>
+ */
+public final class CompactStopPlace {
+
+  private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+  private static final AllVehicleModesOfTransportEnumeration[] TRANSPORT_MODES =
+    AllVehicleModesOfTransportEnumeration.values();
+
+  private static final ObjectFactory OBJECT_FACTORY = new ObjectFactory();
+
+  private static final String[] NO_STRINGS = new String[0];
+  private static final double[] NO_LOCATIONS = new double[0];
+
+  private final String id;
+  private final String name;
+  private final String nameLang;
+
+  /**
+   * Ordinal of the transport mode plus one, or 0 if the stop place has none.
+   */
+  private final byte transportMode;
+
+  private final double longitude;
+  private final double latitude;
+  private final String parentSiteRef;
+
+  private final String[] quayIds;
+
+  /**
+   * Null when no quay has a value, as is common for names and public codes.
+   */
+  private final String[] quayPublicCodes;
+  private final String[] quayNames;
+  private final String[] quayNameLangs;
+
+  /**
+   * Longitude and latitude of every quay, NaN when a quay has no location.
+   */
+  private final double[] quayLocations;
+
+  private CompactStopPlace(
+    String id,
+    String name,
+    String nameLang,
+    byte transportMode,
+    double longitude,
+    double latitude,
+    String parentSiteRef,
+    String[] quayIds,
+    String[] quayPublicCodes,
+    String[] quayNames,
+    String[] quayNameLangs,
+    double[] quayLocations
+  ) {
+    this.id = id;
+    this.name = name;
+    this.nameLang = nameLang;
+    this.transportMode = transportMode;
+    this.longitude = longitude;
+    this.latitude = latitude;
+    this.parentSiteRef = parentSiteRef;
+    this.quayIds = quayIds;
+    this.quayPublicCodes = quayPublicCodes;
+    this.quayNames = quayNames;
+    this.quayNameLangs = quayNameLangs;
+    this.quayLocations = quayLocations;
+  }
+
+  /**
+   * Copy the fields read from the registry out of a NeTEx stop place. Quay references
+   * without a quay, and quays without an id, are left out.
+   */
+  public static CompactStopPlace of(StopPlace stopPlace) {
+    List<Quay> quays = new ArrayList<>();
+    if (stopPlace.getQuays() != null && stopPlace.getQuays().getQuayRefOrQuay() != null) {
+      stopPlace
+        .getQuays()
+        .getQuayRefOrQuay()
+        .forEach(quayRefOrQuay -> {
+          if (quayRefOrQuay.getValue() instanceof Quay quay && quay.getId() != null) {
+            quays.add(quay);
+          }
+        });
+    }
+
+    int quayCount = quays.size();
+    String[] quayIds = quayCount == 0 ? NO_STRINGS : new String[quayCount];
+    String[] quayPublicCodes = new String[quayCount];
+    String[] quayNames = new String[quayCount];
+    String[] quayNameLangs = new String[quayCount];
+    double[] quayLocations = quayCount == 0 ? NO_LOCATIONS : new double[quayCount * 2];
+    for (int i = 0; i < quayCount; i++) {
+      Quay quay = quays.get(i);
+      quayIds[i] = intern(quay.getId());
+      quayPublicCodes[i] = intern(quay.getPublicCode());
+      if (quay.getName() != null) {
+        quayNames[i] = intern(quay.getName().getValue());
+        quayNameLangs[i] = intern(quay.getName().getLang());
+      }
+      quayLocations[i * 2] = longitude(quay);
+      quayLocations[i * 2 + 1] = latitude(quay);
+    }
+
+    MultilingualString name = stopPlace.getName();
+    AllVehicleModesOfTransportEnumeration transportMode = stopPlace.getTransportMode();
+    SiteRefStructure parentSiteRef = stopPlace.getParentSiteRef();
+    return new CompactStopPlace(
+      intern(stopPlace.getId()),
+      name != null ? intern(name.getValue()) : null,
+      name != null ? intern(name.getLang()) : null,
+      transportMode != null ? (byte) (transportMode.ordinal() + 1) : 0,
+      longitude(stopPlace),
+      latitude(stopPlace),
+      parentSiteRef != null ? intern(parentSiteRef.getRef()) : null,
+      quayIds,
+      nullIfEmpty(quayPublicCodes),
+      nullIfEmpty(quayNames),
+      nullIfEmpty(quayNameLangs),
+      quayLocations
+    );
+  }
+
+  /**
+   * A view of the compact stop places as NeTEx stop places, which are built as they are
+   * read, so they are only held by the heap while the caller uses them.
+   */
+  public static List<StopPlace> toStopPlaces(List<CompactStopPlace> stopPlaces) {
+    return Lists.transform(stopPlaces, CompactStopPlace::toStopPlace);
+  }
+
+  /**
+   * Build a new NeTEx stop place with the fields of this stop place and its quays.
+   */
+  public StopPlace toStopPlace() {
+    StopPlace stopPlace = new StopPlace()
+      .withId(id)
+      .withName(multilingualString(name, nameLang))
+      .withTransportMode(transportMode())
+      .withCentroid(centroid(longitude, latitude));
+    if (parentSiteRef != null) {
+      stopPlace.setParentSiteRef(new SiteRefStructure().withRef(parentSiteRef));
+    }
+
+    List<JAXBElement<?>> quays = new ArrayList<>(quayIds.length);
+    for (int i = 0; i < quayIds.length; i++) {
+      quays.add(OBJECT_FACTORY.createQuay(toQuay(i)));
+    }
+    return stopPlace.withQuays(new Quays_RelStructure().withQuayRefOrQuay(quays));
+  }
+
+  /**
+   * Build a new NeTEx quay with the fields of the quay at the index.
+   */
+  public Quay toQuay(int index) {
+    return new Quay()
+      .withId(quayIds[index])
+      .withPublicCode(valueAt(quayPublicCodes, index))
+      .withName(
+        multilingualString(valueAt(quayNames, index), valueAt(quayNameLangs, index))
+      )
+      .withCentroid(centroid(quayLongitude(index), quayLatitude(index)));
+  }
+
+  public String id() {
+    return id;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  public AllVehicleModesOfTransportEnumeration transportMode() {
+    return transportMode == 0 ? null : TRANSPORT_MODES[transportMode - 1];
+  }
+
+  public String parentSiteRef() {
+    return parentSiteRef;
+  }
+
+  public int quayCount() {
+    return quayIds.length;
+  }
+
+  public String quayId(int index) {
+    return quayIds[index];
+  }
+
+  /**
+   * The index of the quay with the id, or -1 if the stop place has no such quay.
+   */
+  public int indexOfQuay(String quayId) {
+    for (int i = 0; i < quayIds.length; i++) {
+      if (quayIds[i].equals(quayId)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public boolean hasQuayLocation(int index) {
+    return !Double.isNaN(quayLongitude(index)) && !Double.isNaN(quayLatitude(index));
+  }
+
+  public double quayLongitude(int index) {
+    return quayLocations[index * 2];
+  }
+
+  public double quayLatitude(int index) {
+    return quayLocations[index * 2 + 1];
+  }
+
+  @Override
+  public String toString() {
+    return "CompactStopPlace{id=" + id + ", name=" + name + "}";
+  }
+
+  private static String intern(String value) {
+    return value != null ? STRINGS.intern(value) : null;
+  }
+
+  private static String[] nullIfEmpty(String[] values) {
+    for (String value : values) {
+      if (value != null) {
+        return values;
+      }
+    }
+    return null;
+  }
+
+  private static String valueAt(String[] values, int index) {
+    return values != null ? values[index] : null;
+  }
+
+  private static double longitude(Zone_VersionStructure zone) {
+    LocationStructure location = location(zone);
+    return location != null && location.getLongitude() != null
+      ? location.getLongitude().doubleValue()
+      : Double.NaN;
+  }
+
+  private static double latitude(Zone_VersionStructure zone) {
+    LocationStructure location = location(zone);
+    return location != null && location.getLatitude() != null
+      ? location.getLatitude().doubleValue()
+      : Double.NaN;
+  }
+
+  private static LocationStructure location(Zone_VersionStructure zone) {
+    return zone.getCentroid() != null ? zone.getCentroid().getLocation() : null;
+  }
+
+  private static MultilingualString multilingualString(String value, String lang) {
+    if (value == null && lang == null) {
+      return null;
+    }
+    return new MultilingualString().withValue(value).withLang(lang);
+  }
+
+  private static SimplePoint_VersionStructure centroid(
+    double longitude,
+    double latitude
+  ) {
+    if (Double.isNaN(longitude) || Double.isNaN(latitude)) {
+      return null;
+    }
+    return new SimplePoint_VersionStructure()
+      .withLocation(
+        new LocationStructure()
+          .withLongitude(BigDecimal.valueOf(longitude))
+          .withLatitude(BigDecimal.valueOf(latitude))
+      );
+  }
+}
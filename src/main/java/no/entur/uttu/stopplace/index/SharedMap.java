@@ -0,0 +1,214 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.stopplace.index;
+
+import com.google.common.collect.Iterators;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable hash map sharing most of its structure with the map it was changed from,
+ * so a change copies the part of the map it touches rather than the whole map.
+ *
+ * <p>
+ *   Entries are spread over a fixed number of shards by the hash of their key. A
+ *   {@link Builder} copies the array of shards, and a shard the first time one of its
+ *   entries is changed, while the other shards are shared with the map it was built
+ *   from. Keys and values can not be null.
+ * </p>
+ */
+final class SharedMap<K, V> extends AbstractMap<K, V> {
+
+  private static final int SHARD_BITS = 10;
+
+  private static final int SHARD_COUNT = 1 << SHARD_BITS;
+
+  private static final SharedMap<Object, Object> EMPTY = new SharedMap<>(
+    emptyShards(),
+    0
+  );
+
+  private final Map<K, V>[] shards;
+
+  private final int size;
+
+  private SharedMap(Map<K, V>[] shards, int size) {
+    this.shards = shards;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, V> SharedMap<K, V> of() {
+    return (SharedMap<K, V>) EMPTY;
+  }
+
+  /**
+   * A builder starting from the entries of this map, which is left unchanged.
+   */
+  Builder<K, V> toBuilder() {
+    return new Builder<>(shards.clone(), size);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public V get(Object key) {
+    return shards[shardOf(key)].get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return shards[shardOf(key)].containsKey(key);
+  }
+
+  @Override
+  public V remove(Object key) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return Iterators.concat(
+          Iterators.transform(Iterators.forArray(shards), shard ->
+            shard.entrySet().iterator()
+          )
+        );
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * The top bits of the scrambled hash, as the maps of the shards use the bottom bits
+   */
+  private static int shardOf(Object key) {
+    return (key.hashCode() * 0x9E3779B9) >>> (Integer.SIZE - SHARD_BITS);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Map<K, V>[] emptyShards() {
+    Map<K, V>[] shards = new Map[SHARD_COUNT];
+    Arrays.fill(shards, Map.of());
+    return shards;
+  }
+
+  /**
+   * Changes a copy of a shared map. The shards of the map are copied as they are changed.
+   */
+  static final class Builder<K, V> {
+
+    private final Map<K, V>[] shards;
+
+    /**
+     * Whether the shard has been copied by this builder since it last built a map.
+     */
+    private final boolean[] copied = new boolean[SHARD_COUNT];
+
+    private int size;
+
+    private Builder(Map<K, V>[] shards, int size) {
+      this.shards = shards;
+      this.size = size;
+    }
+
+    V get(Object key) {
+      return shards[shardOf(key)].get(key);
+    }
+
+    V getOrDefault(Object key, V defaultValue) {
+      return shards[shardOf(key)].getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * @return the previous value of the key, or null if there was none
+     */
+    V put(K key, V value) {
+      V previous = writableShard(shardOf(key)).put(
+        Objects.requireNonNull(key),
+        Objects.requireNonNull(value)
+      );
+      if (previous == null) {
+        size++;
+      }
+      return previous;
+    }
+
+    /**
+     * @return the removed value of the key, or null if there was none
+     */
+    V remove(Object key) {
+      int shard = shardOf(key);
+      if (!shards[shard].containsKey(key)) {
+        return null;
+      }
+      size--;
+      return writableShard(shard).remove(key);
+    }
+
+    /**
+     * Remove the key only if it has the value.
+     */
+    void remove(Object key, Object value) {
+      int shard = shardOf(key);
+      if (value.equals(shards[shard].get(key))) {
+        writableShard(shard).remove(key);
+        size--;
+      }
+    }
+
+    SharedMap<K, V> build() {
+      Map<K, V>[] builtShards = shards.clone();
+      for (int shard = 0; shard < SHARD_COUNT; shard++) {
+        if (copied[shard]) {
+          builtShards[shard] = Collections.unmodifiableMap(shards[shard]);
+          // the built map shares the shard, so it is copied again if changed
+          copied[shard] = false;
+        }
+      }
+      return new SharedMap<>(builtShards, size);
+    }
+
+    private Map<K, V> writableShard(int shard) {
+      if (!copied[shard]) {
+        shards[shard] = new HashMap<>(shards[shard]);
+        copied[shard] = true;
+      }
+      return shards[shard];
+    }
+  }
+}
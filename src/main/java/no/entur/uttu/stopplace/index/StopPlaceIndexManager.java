@@ -15,12 +15,22 @@
 
 package no.entur.uttu.stopplace.index;
 
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Maps;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.RandomAccess;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
 import org.rutebanken.netex.model.Quay;
 import org.rutebanken.netex.model.StopPlace;
 import org.slf4j.Logger;
@@ -29,6 +39,25 @@ import org.slf4j.LoggerFactory;
 /**
  * Manages all indexes for stop places, providing thread-safe operations
  * for adding, updating, and removing stop places and their associated quays.
+ *
+ * <p>
+ *   The indexes are published as immutable {@link StopPlaceIndexSnapshot}s. Readers get
+ *   the current snapshot without locking or copying, while changes are applied to a copy
+ *   of the indexes that replaces the snapshot atomically. Changes made within
+ *   {@link #applyBatch(Supplier)} are published as a single new snapshot.
+ * </p>
+ *
+ * <p>
+ *   The indexes are {@link SharedMap}s, so a copy shares the parts of the indexes a
+ *   change does not touch, and a change of one stop place costs a small part of the
+ *   indexes rather than all of them. The lists of stop places, in the order they were
+ *   added, are only built when a snapshot's lists are first read.
+ * </p>
+ *
+ * <p>
+ *   Stop places are indexed as {@link CompactStopPlace}s. The NeTEx stop places and quays
+ *   returned by lookups are built from them when they are looked up.
+ * </p>
  */
 public class StopPlaceIndexManager {
 
@@ -36,77 +65,108 @@ public class StopPlaceIndexManager {
     StopPlaceIndexManager.class
   );
 
-  private final CopyOnWriteArrayList<StopPlace> allStopPlaces =
-    new CopyOnWriteArrayList<>();
+  private final Object writeLock = new Object();
 
-  private final Map<String, StopPlace> stopPlaceByQuayRef = new ConcurrentHashMap<>();
-  private final Map<String, Quay> quayById = new ConcurrentHashMap<>();
-  private final Map<String, StopPlace> stopPlaceById = new ConcurrentHashMap<>();
-  private final Map<String, List<String>> childrenByParentId = new ConcurrentHashMap<>();
+  private volatile StopPlaceIndexSnapshot snapshot = StopPlaceIndexSnapshot.EMPTY;
+
+  /**
+   * The indexes of the current snapshot, guarded by the write lock.
+   */
+  private Indexes publishedIndexes = Indexes.EMPTY;
+
+  /**
+   * Changes of the batch being applied, guarded by the write lock.
+   */
+  private IndexBuilder pendingBatch;
+
+  /**
+   * Apply all changes made through this manager by the supplier as one new snapshot.
+   * Lookups by id made by the supplier see its own changes, while other threads keep
+   * reading the previous snapshot until the batch is complete.
+   */
+  public <T> T applyBatch(Supplier<T> changes) {
+    synchronized (writeLock) {
+      if (pendingBatch != null) {
+        return changes.get();
+      }
+      pendingBatch = new IndexBuilder(publishedIndexes);
+      try {
+        T result = changes.get();
+        publish(pendingBatch);
+        return result;
+      } finally {
+        pendingBatch = null;
+      }
+    }
+  }
+
+  /**
+   * Apply the changes as one new snapshot, as {@link #applyBatch(Supplier)} does, and
+   * pass their result and the new snapshot to the listener before the next change is
+   * applied. Indexes kept beside the snapshots are updated by the listener, so they are
+   * updated in the same order as the snapshots are published. Can not be nested in
+   * another batch.
+   */
+  public <T> T applyBatch(
+    Supplier<T> changes,
+    BiConsumer<T, StopPlaceIndexSnapshot> published
+  ) {
+    synchronized (writeLock) {
+      if (pendingBatch != null) {
+        throw new IllegalStateException("Batch of changes already being applied");
+      }
+      T result = applyBatch(changes);
+      published.accept(result, snapshot);
+      return result;
+    }
+  }
+
+  /**
+   * The current version of the indexes.
+   */
+  public StopPlaceIndexSnapshot getSnapshot() {
+    return snapshot;
+  }
 
   /**
    * Add a stop place to all indexes
+   * @return the stop place as indexed
    */
-  public void addStopPlace(StopPlace stopPlace) {
+  public CompactStopPlace addStopPlace(StopPlace stopPlace) {
     if (stopPlace == null || stopPlace.getId() == null) {
       throw new IllegalArgumentException("StopPlace and its ID cannot be null");
     }
 
-    allStopPlaces.add(stopPlace);
-    stopPlaceById.put(stopPlace.getId(), stopPlace);
-
-    indexQuays(stopPlace);
-    trackParentChildRelationship(stopPlace);
+    CompactStopPlace compactStopPlace = CompactStopPlace.of(stopPlace);
+    write(indexes -> {
+      indexes.removeStopPlace(compactStopPlace.id());
+      indexes.addStopPlace(compactStopPlace);
+      return null;
+    });
 
     logger.debug("Added stop place {} to indexes", stopPlace.getId());
+    return compactStopPlace;
   }
 
   /**
    * Update a stop place in all indexes
+   * @return the stop place as indexed
    */
-  public void updateStopPlace(String id, StopPlace newStopPlace) {
+  public CompactStopPlace updateStopPlace(String id, StopPlace newStopPlace) {
     if (id == null || newStopPlace == null) {
       throw new IllegalArgumentException("ID and StopPlace cannot be null");
     }
 
-    removeStopPlace(id);
     newStopPlace.setId(id);
-    addStopPlace(newStopPlace);
+    CompactStopPlace compactStopPlace = CompactStopPlace.of(newStopPlace);
+    write(indexes -> {
+      indexes.removeStopPlace(id);
+      indexes.addStopPlace(compactStopPlace);
+      return null;
+    });
 
     logger.debug("Updated stop place {} in indexes", id);
-  }
-
-  /**
-   * Remove a stop place from all indexes
-   */
-  private void removeStopPlace(String id) {
-    if (id == null) {
-      throw new IllegalArgumentException("ID cannot be null");
-    }
-
-    StopPlace stopPlace = stopPlaceById.remove(id);
-    if (stopPlace != null) {
-      allStopPlaces.remove(stopPlace);
-      removeQuayReferences(stopPlace);
-
-      if (
-        stopPlace.getParentSiteRef() != null &&
-        stopPlace.getParentSiteRef().getRef() != null
-      ) {
-        String parentId = stopPlace.getParentSiteRef().getRef();
-        List<String> siblings = childrenByParentId.get(parentId);
-        if (siblings != null) {
-          siblings.remove(id);
-          if (siblings.isEmpty()) {
-            childrenByParentId.remove(parentId);
-          }
-        }
-      }
-
-      childrenByParentId.remove(id);
-
-      logger.debug("Removed stop place {} from indexes", id);
-    }
+    return compactStopPlace;
   }
 
   /**
@@ -118,27 +178,24 @@ public class StopPlaceIndexManager {
       throw new IllegalArgumentException("ID cannot be null");
     }
 
-    List<String> removedIds = new ArrayList<>();
-
-    StopPlace parentStop = stopPlaceById.remove(parentId);
-    if (parentStop != null) {
-      allStopPlaces.remove(parentStop);
-      removeQuayReferences(parentStop);
-      removedIds.add(parentId);
-    }
+    List<String> removedIds = write(indexes -> {
+      List<String> removed = new ArrayList<>();
+      if (indexes.removeStopPlace(parentId)) {
+        removed.add(parentId);
+      }
 
-    List<String> children = childrenByParentId.remove(parentId);
-    if (children != null) {
-      for (String childId : children) {
-        StopPlace childStop = stopPlaceById.remove(childId);
-        if (childStop != null) {
-          allStopPlaces.remove(childStop);
-          removeQuayReferences(childStop);
-          removedIds.add(childId);
+      List<String> children = indexes.childrenByParentId.remove(parentId);
+      if (children != null) {
+        for (String childId : children) {
+          indexes.parentIdByChildId.remove(childId);
+          if (indexes.removeStopPlace(childId)) {
+            removed.add(childId);
+          }
         }
+        logger.debug("Removed {} child stops for parent {}", children.size(), parentId);
       }
-      logger.debug("Removed {} child stops for parent {}", children.size(), parentId);
-    }
+      return removed;
+    });
 
     logger.info(
       "Removed stop place {} and {} related stops",
@@ -149,94 +206,351 @@ public class StopPlaceIndexManager {
   }
 
   /**
-   * Get all stop places
+   * Get all stop places, as an unmodifiable view of the current snapshot, which builds
+   * every stop place as it is read
    */
   public List<StopPlace> getAllStopPlaces() {
-    return new ArrayList<>(allStopPlaces);
+    return CompactStopPlace.toStopPlaces(snapshot.stopPlaces());
   }
 
   /**
    * Find a stop place by its ID
    */
   public Optional<StopPlace> getStopPlaceById(String id) {
-    return Optional.ofNullable(stopPlaceById.get(id));
+    IndexBuilder batch = currentBatch();
+    return Optional.ofNullable(
+      batch != null ? batch.getStopPlace(id) : snapshot.stopPlaceById().get(id)
+    ).map(CompactStopPlace::toStopPlace);
   }
 
   /**
    * Find a stop place by quay reference
    */
   public Optional<StopPlace> getStopPlaceByQuayRef(String quayRef) {
-    return Optional.ofNullable(stopPlaceByQuayRef.get(quayRef));
+    return findStopPlaceByQuayRef(quayRef).map(CompactStopPlace::toStopPlace);
   }
 
   /**
    * Find a quay by its ID
    */
   public Optional<Quay> getQuayById(String id) {
-    return Optional.ofNullable(quayById.get(id));
+    return findStopPlaceByQuayRef(id).map(stopPlace ->
+      stopPlace.toQuay(stopPlace.indexOfQuay(id))
+    );
   }
 
   /**
-   * Get the quay index for filtering operations
+   * Get the quay index for filtering operations, as an unmodifiable view of the current
+   * snapshot
    */
-  public Map<String, StopPlace> getQuayIndex() {
-    return new ConcurrentHashMap<>(stopPlaceByQuayRef);
+  public Map<String, CompactStopPlace> getQuayIndex() {
+    return snapshot.stopPlaceByQuayRef();
   }
 
   /**
    * Load initial data in bulk
+   * @return the stop places as indexed
    */
-  public void loadBulkData(List<StopPlace> stopPlaces) {
+  public List<CompactStopPlace> loadBulkData(List<StopPlace> stopPlaces) {
     logger.info("Loading {} stop places in bulk", stopPlaces.size());
 
-    clear();
-
+    LinkedHashMap<String, CompactStopPlace> loadedStopPlaces = new LinkedHashMap<>();
     for (StopPlace stopPlace : stopPlaces) {
       if (stopPlace != null && stopPlace.getId() != null) {
-        allStopPlaces.add(stopPlace);
-        stopPlaceById.put(stopPlace.getId(), stopPlace);
-        indexQuays(stopPlace);
+        CompactStopPlace compactStopPlace = CompactStopPlace.of(stopPlace);
+        loadedStopPlaces.put(compactStopPlace.id(), compactStopPlace);
+      }
+    }
+    IndexBuilder loadedIndexes = new IndexBuilder(Indexes.EMPTY);
+    for (CompactStopPlace compactStopPlace : loadedStopPlaces.values()) {
+      loadedIndexes.indexStopPlace(compactStopPlace);
+      loadedIndexes.indexQuays(compactStopPlace);
+    }
+    List<CompactStopPlace> indexedStopPlaces = List.copyOf(loadedStopPlaces.values());
+    synchronized (writeLock) {
+      if (pendingBatch != null) {
+        pendingBatch = loadedIndexes;
+      } else {
+        publish(loadedIndexes);
       }
     }
 
     logger.info("Bulk loading completed");
+    return indexedStopPlaces;
   }
 
   /**
    * Clear all indexes
    */
   public void clear() {
-    allStopPlaces.clear();
-    stopPlaceByQuayRef.clear();
-    quayById.clear();
-    stopPlaceById.clear();
-    childrenByParentId.clear();
+    synchronized (writeLock) {
+      IndexBuilder empty = new IndexBuilder(Indexes.EMPTY);
+      if (pendingBatch != null) {
+        pendingBatch = empty;
+      } else {
+        publish(empty);
+      }
+    }
+  }
+
+  private <T> T write(Function<IndexBuilder, T> change) {
+    synchronized (writeLock) {
+      if (pendingBatch != null) {
+        return change.apply(pendingBatch);
+      }
+      IndexBuilder changedIndexes = new IndexBuilder(publishedIndexes);
+      T result = change.apply(changedIndexes);
+      publish(changedIndexes);
+      return result;
+    }
+  }
+
+  private Optional<CompactStopPlace> findStopPlaceByQuayRef(String quayRef) {
+    IndexBuilder batch = currentBatch();
+    return Optional.ofNullable(
+      batch != null
+        ? batch.stopPlaceByQuayRef.get(quayRef)
+        : snapshot.stopPlaceByQuayRef().get(quayRef)
+    );
   }
 
   /**
-   * Track parent-child relationship for a stop place
-   * Since we only get events for parents, we only need to track children by parent
+   * The batch being applied by the calling thread, if any.
    */
-  private void trackParentChildRelationship(StopPlace stopPlace) {
-    if (
-      stopPlace.getParentSiteRef() != null &&
-      stopPlace.getParentSiteRef().getRef() != null
+  private IndexBuilder currentBatch() {
+    if (!Thread.holdsLock(writeLock)) {
+      return null;
+    }
+    return pendingBatch;
+  }
+
+  /**
+   * Must be called holding the write lock.
+   */
+  private void publish(IndexBuilder changedIndexes) {
+    publishedIndexes = changedIndexes.build();
+    snapshot = publishedIndexes.toSnapshot(snapshot.version() + 1);
+  }
+
+  /**
+   * A stop place with the sequence number it was added with, which orders the stop places
+   * in the order they were added.
+   */
+  private record IndexedStopPlace(CompactStopPlace stopPlace, long sequenceNumber) {}
+
+  /**
+   * The immutable indexes of a snapshot, which the indexes of the next snapshot are
+   * changed from.
+   */
+  private record Indexes(
+    SharedMap<String, IndexedStopPlace> stopPlaceById,
+    Map<
+      AllVehicleModesOfTransportEnumeration,
+      SharedMap<String, IndexedStopPlace>
+    > stopPlacesByTransportMode,
+    SharedMap<String, CompactStopPlace> stopPlaceByQuayRef,
+    SharedMap<String, List<String>> childrenByParentId,
+    SharedMap<String, String> parentIdByChildId,
+    long nextSequenceNumber
+  ) {
+    private static final Indexes EMPTY = new Indexes(
+      SharedMap.of(),
+      Map.of(),
+      SharedMap.of(),
+      SharedMap.of(),
+      SharedMap.of(),
+      0
+    );
+
+    private StopPlaceIndexSnapshot toSnapshot(long version) {
+      Map<AllVehicleModesOfTransportEnumeration, List<CompactStopPlace>> byTransportMode =
+        new EnumMap<>(AllVehicleModesOfTransportEnumeration.class);
+      stopPlacesByTransportMode.forEach((mode, stopPlacesOfMode) ->
+        byTransportMode.put(mode, inOrderAdded(stopPlacesOfMode))
+      );
+      return new StopPlaceIndexSnapshot(
+        version,
+        inOrderAdded(stopPlaceById),
+        Collections.unmodifiableMap(
+          Maps.transformValues(stopPlaceById, IndexedStopPlace::stopPlace)
+        ),
+        Collections.unmodifiableMap(byTransportMode),
+        stopPlaceByQuayRef,
+        childrenByParentId,
+        parentIdByChildId
+      );
+    }
+
+    /**
+     * The stop places in the order they were added, sorted when the list is first read.
+     */
+    private static List<CompactStopPlace> inOrderAdded(
+      SharedMap<String, IndexedStopPlace> stopPlaces
     ) {
-      String parentId = stopPlace.getParentSiteRef().getRef();
-      String childId = stopPlace.getId();
+      return new LazyList<>(
+        stopPlaces.size(),
+        Suppliers.memoize(() ->
+          stopPlaces
+            .values()
+            .stream()
+            .sorted(Comparator.comparingLong(IndexedStopPlace::sequenceNumber))
+            .map(IndexedStopPlace::stopPlace)
+            .toList()
+        )
+      );
+    }
+  }
+
+  /**
+   * An unmodifiable list of known size, built when its elements are first read.
+   */
+  private static final class LazyList<E> extends AbstractList<E> implements RandomAccess {
+
+    private final int size;
+
+    private final Supplier<List<E>> elements;
+
+    private LazyList(int size, Supplier<List<E>> elements) {
+      this.size = size;
+      this.elements = elements;
+    }
+
+    @Override
+    public E get(int index) {
+      return elements.get().get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Changes a copy of the indexes of a snapshot.
+   */
+  private static class IndexBuilder {
+
+    private final SharedMap.Builder<String, IndexedStopPlace> stopPlaceById;
+    private final Map<
+      AllVehicleModesOfTransportEnumeration,
+      SharedMap<String, IndexedStopPlace>
+    > stopPlacesByTransportMode;
+    private final Map<
+      AllVehicleModesOfTransportEnumeration,
+      SharedMap.Builder<String, IndexedStopPlace>
+    > changedTransportModes = new EnumMap<>(AllVehicleModesOfTransportEnumeration.class);
+    private final SharedMap.Builder<String, CompactStopPlace> stopPlaceByQuayRef;
+    private final SharedMap.Builder<String, List<String>> childrenByParentId;
+    private final SharedMap.Builder<String, String> parentIdByChildId;
+    private long nextSequenceNumber;
+
+    private IndexBuilder(Indexes indexes) {
+      stopPlaceById = indexes.stopPlaceById().toBuilder();
+      stopPlacesByTransportMode = indexes.stopPlacesByTransportMode();
+      stopPlaceByQuayRef = indexes.stopPlaceByQuayRef().toBuilder();
+      childrenByParentId = indexes.childrenByParentId().toBuilder();
+      parentIdByChildId = indexes.parentIdByChildId().toBuilder();
+      nextSequenceNumber = indexes.nextSequenceNumber();
+    }
 
-      for (Map.Entry<String, List<String>> entry : childrenByParentId.entrySet()) {
-        if (!entry.getKey().equals(parentId)) {
-          entry.getValue().remove(childId);
+    private Indexes build() {
+      Map<
+        AllVehicleModesOfTransportEnumeration,
+        SharedMap<String, IndexedStopPlace>
+      > byMode = new EnumMap<>(AllVehicleModesOfTransportEnumeration.class);
+      byMode.putAll(stopPlacesByTransportMode);
+      changedTransportModes.forEach((mode, stopPlacesOfMode) -> {
+        SharedMap<String, IndexedStopPlace> built = stopPlacesOfMode.build();
+        if (built.isEmpty()) {
+          byMode.remove(mode);
+        } else {
+          byMode.put(mode, built);
         }
+      });
+      return new Indexes(
+        stopPlaceById.build(),
+        Collections.unmodifiableMap(byMode),
+        stopPlaceByQuayRef.build(),
+        childrenByParentId.build(),
+        parentIdByChildId.build(),
+        nextSequenceNumber
+      );
+    }
+
+    private CompactStopPlace getStopPlace(String id) {
+      IndexedStopPlace indexed = stopPlaceById.get(id);
+      return indexed != null ? indexed.stopPlace() : null;
+    }
+
+    private void addStopPlace(CompactStopPlace stopPlace) {
+      indexStopPlace(stopPlace);
+      indexQuays(stopPlace);
+      trackParentChildRelationship(stopPlace);
+    }
+
+    /**
+     * Index the stop place by id and transport mode, after the stop places added before.
+     */
+    private void indexStopPlace(CompactStopPlace stopPlace) {
+      IndexedStopPlace indexed = new IndexedStopPlace(stopPlace, nextSequenceNumber++);
+      stopPlaceById.put(stopPlace.id(), indexed);
+      if (stopPlace.transportMode() != null) {
+        stopPlacesOfTransportMode(stopPlace.transportMode()).put(stopPlace.id(), indexed);
       }
+    }
 
-      List<String> children = childrenByParentId.computeIfAbsent(
-        parentId,
-        k -> new CopyOnWriteArrayList<>()
+    private SharedMap.Builder<String, IndexedStopPlace> stopPlacesOfTransportMode(
+      AllVehicleModesOfTransportEnumeration transportMode
+    ) {
+      return changedTransportModes.computeIfAbsent(transportMode, mode ->
+        stopPlacesByTransportMode.getOrDefault(mode, SharedMap.of()).toBuilder()
       );
+    }
+
+    /**
+     * @return whether the stop place was indexed
+     */
+    private boolean removeStopPlace(String id) {
+      IndexedStopPlace indexed = stopPlaceById.remove(id);
+      if (indexed == null) {
+        return false;
+      }
+      CompactStopPlace stopPlace = indexed.stopPlace();
+      if (stopPlace.transportMode() != null) {
+        stopPlacesOfTransportMode(stopPlace.transportMode()).remove(id);
+      }
+      removeQuayReferences(stopPlace);
+      String parentId = parentIdByChildId.remove(id);
+      if (parentId != null) {
+        removeChild(parentId, id);
+      }
+      logger.debug("Removed stop place {} from indexes", id);
+      return true;
+    }
+
+    /**
+     * Track parent-child relationship for a stop place
+     * Since we only get events for parents, we only need to track children by parent
+     */
+    private void trackParentChildRelationship(CompactStopPlace stopPlace) {
+      if (stopPlace.parentSiteRef() == null) {
+        return;
+      }
+      String parentId = stopPlace.parentSiteRef();
+      String childId = stopPlace.id();
+
+      String previousParentId = parentIdByChildId.put(childId, parentId);
+      if (previousParentId != null && !previousParentId.equals(parentId)) {
+        removeChild(previousParentId, childId);
+      }
+
+      List<String> children = childrenByParentId.getOrDefault(parentId, List.of());
       if (!children.contains(childId)) {
-        children.add(childId);
+        // lists are shared with published snapshots, so they are replaced, not changed
+        List<String> newChildren = new ArrayList<>(children);
+        newChildren.add(childId);
+        childrenByParentId.put(parentId, List.copyOf(newChildren));
         logger.debug(
           "Tracked parent-child relationship: parent={}, child={}",
           parentId,
@@ -244,33 +558,32 @@ public class StopPlaceIndexManager {
         );
       }
     }
-  }
 
-  private void indexQuays(StopPlace stopPlace) {
-    if (stopPlace.getQuays() != null && stopPlace.getQuays().getQuayRefOrQuay() != null) {
-      stopPlace
-        .getQuays()
-        .getQuayRefOrQuay()
-        .forEach(quayRefOrQuay -> {
-          if (quayRefOrQuay.getValue() instanceof Quay quay) {
-            stopPlaceByQuayRef.put(quay.getId(), stopPlace);
-            quayById.put(quay.getId(), quay);
-          }
-        });
+    private void removeChild(String parentId, String childId) {
+      List<String> siblings = childrenByParentId.get(parentId);
+      if (siblings == null || !siblings.contains(childId)) {
+        return;
+      }
+      List<String> remaining = new ArrayList<>(siblings);
+      remaining.remove(childId);
+      if (remaining.isEmpty()) {
+        childrenByParentId.remove(parentId);
+      } else {
+        childrenByParentId.put(parentId, List.copyOf(remaining));
+      }
     }
-  }
 
-  private void removeQuayReferences(StopPlace stopPlace) {
-    if (stopPlace.getQuays() != null && stopPlace.getQuays().getQuayRefOrQuay() != null) {
-      stopPlace
-        .getQuays()
-        .getQuayRefOrQuay()
-        .forEach(quayRefOrQuay -> {
-          if (quayRefOrQuay.getValue() instanceof Quay quay) {
-            stopPlaceByQuayRef.remove(quay.getId());
-            quayById.remove(quay.getId());
-          }
-        });
+    private void indexQuays(CompactStopPlace stopPlace) {
+      for (int i = 0; i < stopPlace.quayCount(); i++) {
+        stopPlaceByQuayRef.put(stopPlace.quayId(i), stopPlace);
+      }
+    }
+
+    private void removeQuayReferences(CompactStopPlace stopPlace) {
+      for (int i = 0; i < stopPlace.quayCount(); i++) {
+        // the quay may since have been moved to another stop place
+        stopPlaceByQuayRef.remove(stopPlace.quayId(i), stopPlace);
+      }
     }
   }
 }
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.stopplace.index;
+
+import java.util.List;
+import java.util.Map;
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
+
+/**
+ * An immutable version of the stop place indexes. A snapshot is never changed once published,
+ * so it can be read without locking or copying, and every lookup made through the same
+ * snapshot sees the same version of the registry. Stop places are held as
+ * {@link CompactStopPlace}s, and quays are looked up through their stop place.
+ *
+ * @param version increases with every published snapshot, so it can be used as a cache key
+ * @param stopPlaces all stop places, in the order they were added
+ * @param stopPlacesByTransportMode stop places with a transport mode, by transport mode,
+ *                                  in the order they were added
+ */
+public record StopPlaceIndexSnapshot(
+  long version,
+  List<CompactStopPlace> stopPlaces,
+  Map<String, CompactStopPlace> stopPlaceById,
+  Map<
+    AllVehicleModesOfTransportEnumeration,
+    List<CompactStopPlace>
+  > stopPlacesByTransportMode,
+  Map<String, CompactStopPlace> stopPlaceByQuayRef,
+  Map<String, List<String>> childrenByParentId,
+  Map<String, String> parentIdByChildId
+) {
+  /**
+   * Version of no snapshot, for indexes kept beside the snapshots that are not in step
+   * with any of them.
+   */
+  public static final long NO_VERSION = -1;
+
+  static final StopPlaceIndexSnapshot EMPTY = new StopPlaceIndexSnapshot(
+    0,
+    List.of(),
+    Map.of(),
+    Map.of(),
+    Map.of(),
+    Map.of(),
+    Map.of()
+  );
+
+  /**
+   * Stop places of the transport mode, or an empty list if there are none
+   */
+  public List<CompactStopPlace> stopPlacesOfTransportMode(
+    AllVehicleModesOfTransportEnumeration transportMode
+  ) {
+    return stopPlacesByTransportMode.getOrDefault(transportMode, List.of());
+  }
+}
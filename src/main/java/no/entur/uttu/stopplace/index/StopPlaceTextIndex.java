@@ -0,0 +1,535 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.stopplace.index;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inverted n-gram index of the id, the name and the quay ids of stop places, for
+ * searching stop places by text.
+ *
+ * <p>
+ *   Text is normalized before it is indexed or searched, so that search is
+ *   case-insensitive and matches letters with and without diacritics, e.g. "lillestrom"
+ *   matches "Lillestrøm". Every trigram of the normalized text is indexed, and a search
+ *   looks up the least frequent trigram of the search text and verifies the stop places
+ *   indexed by it. Search texts shorter than a trigram match the start of words, using
+ *   the indexed prefixes of every word.
+ * </p>
+ *
+ * <p>
+ *   Matches are ranked by quality: exact matches first, then names starting with the
+ *   search text, names with a word starting with it, names containing it, and last ids
+ *   and quay ids containing it.
+ * </p>
+ */
+public class StopPlaceTextIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(StopPlaceTextIndex.class);
+
+  private static final int GRAM_LENGTH = 3;
+
+  /**
+   * Marks the n-grams of the start of a word, which can not occur in normalized text.
+   */
+  private static final char WORD_START = '\0';
+
+  private static final Comparator<Match> MATCH_ORDER = Comparator.comparingInt(
+    Match::rank
+  )
+    .thenComparingInt(match -> match.entry().name().length())
+    .thenComparing(match -> match.entry().name())
+    .thenComparing(match -> match.entry().id());
+
+  private final ReadWriteLock textIndexLock = new ReentrantReadWriteLock();
+
+  /**
+   * Indexed stop places by slot, null when removed. Slots are never reused, so postings
+   * stay sorted when stop places are added.
+   */
+  private final List<Entry> entries = new ArrayList<>();
+  private final Map<String, Entry> entriesById = new HashMap<>();
+  private final Map<String, Postings> postingsByGram = new HashMap<>();
+
+  /**
+   * Version of the snapshot the text index is in step with.
+   */
+  private long version = StopPlaceIndexSnapshot.NO_VERSION;
+
+  /**
+   * Normalize text for indexing and search: lower case, with the Norwegian letters and
+   * other letters with diacritics replaced by their base letters.
+   */
+  public static String normalize(String text) {
+    String lowerCase = text.toLowerCase(Locale.ROOT);
+    StringBuilder replaced = new StringBuilder(lowerCase.length());
+    boolean ascii = true;
+    for (int i = 0; i < lowerCase.length(); i++) {
+      char c = lowerCase.charAt(i);
+      switch (c) {
+        case 'æ' -> replaced.append("ae");
+        case 'ø' -> replaced.append('o');
+        case 'å' -> replaced.append('a');
+        default -> {
+          ascii &= c < 128;
+          replaced.append(c);
+        }
+      }
+    }
+    if (ascii) {
+      return replaced.toString();
+    }
+
+    String decomposed = Normalizer.normalize(replaced, Normalizer.Form.NFD);
+    StringBuilder normalized = new StringBuilder(decomposed.length());
+    for (int i = 0; i < decomposed.length(); i++) {
+      char c = decomposed.charAt(i);
+      if (Character.getType(c) != Character.NON_SPACING_MARK) {
+        normalized.append(c);
+      }
+    }
+    return normalized.toString();
+  }
+
+  /**
+   * Build or rebuild the index with the provided stop places
+   */
+  public void buildIndex(List<CompactStopPlace> stopPlaces) {
+    buildIndex(stopPlaces, StopPlaceIndexSnapshot.NO_VERSION);
+  }
+
+  /**
+   * Build or rebuild the index with the stop places of a version of the stop place
+   * indexes
+   */
+  public void buildIndex(List<CompactStopPlace> stopPlaces, long version) {
+    logger.debug("Building text index with {} stop places", stopPlaces.size());
+
+    textIndexLock.writeLock().lock();
+    try {
+      entries.clear();
+      entriesById.clear();
+      postingsByGram.clear();
+      stopPlaces.forEach(this::add);
+      this.version = version;
+      logger.debug("Text index built with {} n-grams", postingsByGram.size());
+    } finally {
+      textIndexLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add created stop places to the index, and replace updated ones.
+   */
+  public void updateStopPlaces(Collection<CompactStopPlace> stopPlaces) {
+    updateStopPlaces(stopPlaces, StopPlaceIndexSnapshot.NO_VERSION);
+  }
+
+  /**
+   * Add created stop places to the index, and replace updated ones, as changed in a
+   * version of the stop place indexes.
+   */
+  public void updateStopPlaces(Collection<CompactStopPlace> stopPlaces, long version) {
+    textIndexLock.writeLock().lock();
+    try {
+      stopPlaces.forEach(this::add);
+      this.version = version;
+    } finally {
+      textIndexLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove stop places from the index.
+   */
+  public void removeStopPlaces(Collection<String> ids) {
+    removeStopPlaces(ids, StopPlaceIndexSnapshot.NO_VERSION);
+  }
+
+  /**
+   * Remove stop places from the index, as removed in a version of the stop place indexes.
+   */
+  public void removeStopPlaces(Collection<String> ids, long version) {
+    textIndexLock.writeLock().lock();
+    try {
+      for (String id : ids) {
+        Entry entry = entriesById.remove(id);
+        if (entry != null) {
+          removePostings(entry);
+          entries.set(entry.slot(), null);
+        }
+      }
+      this.version = version;
+    } finally {
+      textIndexLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Find the stop places whose id, name or quay ids contain the search text, or for
+   * search texts shorter than a trigram, have a word starting with it. Ordered by match
+   * quality.
+   */
+  public List<CompactStopPlace> search(String searchText) {
+    String query = normalize(searchText);
+
+    textIndexLock.readLock().lock();
+    try {
+      if (query.isEmpty()) {
+        return entries.stream().filter(Objects::nonNull).map(Entry::stopPlace).toList();
+      }
+
+      Postings candidates = candidates(query);
+      if (candidates == null) {
+        return List.of();
+      }
+
+      List<Match> matches = new ArrayList<>();
+      for (int i = 0; i < candidates.size; i++) {
+        Entry entry = entries.get(candidates.slots[i]);
+        int rank = rank(entry, query);
+        if (rank >= 0) {
+          matches.add(new Match(entry, rank));
+        }
+      }
+      matches.sort(MATCH_ORDER);
+      return matches.stream().map(match -> match.entry().stopPlace()).toList();
+    } finally {
+      textIndexLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the stop places of the snapshot that match the search text, the same way as
+   * {@link #search(String)} does. The index is only used when it is at the version of the
+   * snapshot, as it is updated after the snapshot is published; otherwise the stop places
+   * of the snapshot are searched one by one. Ordered by match quality.
+   */
+  public List<CompactStopPlace> search(
+    String searchText,
+    StopPlaceIndexSnapshot snapshot
+  ) {
+    textIndexLock.readLock().lock();
+    try {
+      if (version == snapshot.version()) {
+        return search(searchText);
+      }
+    } finally {
+      textIndexLock.readLock().unlock();
+    }
+    logger.debug(
+      "Text index is not at version {} of the stop places, searching them one by one",
+      snapshot.version()
+    );
+    return search(searchText, snapshot.stopPlaces());
+  }
+
+  /**
+   * Find the stop places among the candidates that match the search text, the same way as
+   * {@link #search(String)} does. Ordered by match quality.
+   */
+  public List<CompactStopPlace> search(
+    String searchText,
+    Collection<CompactStopPlace> candidates
+  ) {
+    String query = normalize(searchText);
+
+    textIndexLock.readLock().lock();
+    try {
+      if (query.isEmpty()) {
+        return List.copyOf(candidates);
+      }
+
+      List<Match> matches = new ArrayList<>();
+      for (CompactStopPlace stopPlace : candidates) {
+        Entry entry = entriesById.get(stopPlace.id());
+        if (entry == null || entry.stopPlace() != stopPlace) {
+          entry = createEntry(-1, stopPlace);
+        }
+        int rank = rank(entry, query);
+        if (rank >= 0) {
+          matches.add(new Match(entry, rank));
+        }
+      }
+      matches.sort(MATCH_ORDER);
+      return matches.stream().map(match -> match.entry().stopPlace()).toList();
+    } finally {
+      textIndexLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Whether the stop place matches the search text, the same way as
+   * {@link #search(String)} matches the stop places of the index. Used to filter stop
+   * places that are not indexed.
+   */
+  public static boolean isMatch(CompactStopPlace stopPlace, String searchText) {
+    return rank(createEntry(-1, stopPlace), normalize(searchText)) >= 0;
+  }
+
+  /**
+   * An upper bound of the number of stop places matching the search text, without
+   * verifying the matches. Used to plan queries combining search text with other filters.
+   */
+  public int estimateMatches(String searchText) {
+    String query = normalize(searchText);
+
+    textIndexLock.readLock().lock();
+    try {
+      if (query.isEmpty()) {
+        return entriesById.size();
+      }
+      Postings candidates = candidates(query);
+      return candidates == null ? 0 : candidates.size;
+    } finally {
+      textIndexLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The postings of the stop places that may match the query, or null if none can.
+   */
+  private Postings candidates(String query) {
+    return query.length() < GRAM_LENGTH
+      ? postingsByGram.get(WORD_START + query)
+      : leastFrequentGram(query);
+  }
+
+  /**
+   * The postings of the least frequent trigram of the query, or null if a trigram is not
+   * indexed, in which case nothing matches.
+   */
+  private Postings leastFrequentGram(String query) {
+    Postings leastFrequent = null;
+    for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+      Postings postings = postingsByGram.get(query.substring(i, i + GRAM_LENGTH));
+      if (postings == null) {
+        return null;
+      }
+      if (leastFrequent == null || postings.size < leastFrequent.size) {
+        leastFrequent = postings;
+      }
+    }
+    return leastFrequent;
+  }
+
+  /**
+   * Must be called holding the write lock.
+   */
+  private void add(CompactStopPlace stopPlace) {
+    if (stopPlace == null || stopPlace.id() == null) {
+      return;
+    }
+
+    Entry existing = entriesById.get(stopPlace.id());
+    int slot;
+    if (existing != null) {
+      removePostings(existing);
+      slot = existing.slot();
+    } else {
+      slot = entries.size();
+      entries.add(null);
+    }
+
+    Entry entry = createEntry(slot, stopPlace);
+    entries.set(slot, entry);
+    entriesById.put(stopPlace.id(), entry);
+    for (String gram : grams(entry)) {
+      postingsByGram.computeIfAbsent(gram, key -> new Postings()).add(slot);
+    }
+  }
+
+  /**
+   * Must be called holding the write lock.
+   */
+  private void removePostings(Entry entry) {
+    for (String gram : grams(entry)) {
+      Postings postings = postingsByGram.get(gram);
+      if (postings != null && postings.remove(entry.slot()) && postings.size == 0) {
+        postingsByGram.remove(gram);
+      }
+    }
+  }
+
+  private static Entry createEntry(int slot, CompactStopPlace stopPlace) {
+    return new Entry(
+      slot,
+      stopPlace,
+      normalize(stopPlace.id()),
+      stopPlace.name() != null ? normalize(stopPlace.name()) : "",
+      quayIds(stopPlace)
+    );
+  }
+
+  private static List<String> quayIds(CompactStopPlace stopPlace) {
+    List<String> quayIds = new ArrayList<>(stopPlace.quayCount());
+    for (int i = 0; i < stopPlace.quayCount(); i++) {
+      quayIds.add(normalize(stopPlace.quayId(i)));
+    }
+    return quayIds;
+  }
+
+  /**
+   * All trigrams of the texts of the entry, and the prefixes of their words that are
+   * shorter than a trigram.
+   */
+  private static Set<String> grams(Entry entry) {
+    Set<String> grams = new HashSet<>();
+    addGrams(entry.id(), grams);
+    addGrams(entry.name(), grams);
+    entry.quayIds().forEach(quayId -> addGrams(quayId, grams));
+    return grams;
+  }
+
+  private static void addGrams(String text, Set<String> grams) {
+    for (int i = 0; i < text.length(); i++) {
+      if (i + GRAM_LENGTH <= text.length()) {
+        grams.add(text.substring(i, i + GRAM_LENGTH));
+      }
+      if (isWordStart(text, i)) {
+        int maxLength = Math.min(GRAM_LENGTH - 1, text.length() - i);
+        for (int length = 1; length <= maxLength; length++) {
+          grams.add(WORD_START + text.substring(i, i + length));
+        }
+      }
+    }
+  }
+
+  private static boolean isWordStart(String text, int index) {
+    return (
+      Character.isLetterOrDigit(text.charAt(index)) &&
+      (index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1)))
+    );
+  }
+
+  /**
+   * The quality of the match of the query in the entry, lower is better, or -1 if the
+   * entry does not match.
+   */
+  private static int rank(Entry entry, String query) {
+    if (
+      entry.name().equals(query) ||
+      entry.id().equals(query) ||
+      entry.quayIds().contains(query)
+    ) {
+      return 0;
+    }
+    if (entry.name().startsWith(query)) {
+      return 1;
+    }
+    if (hasWordStartingWith(entry.name(), query)) {
+      return 2;
+    }
+    boolean wordPrefixOnly = query.length() < GRAM_LENGTH;
+    if (!wordPrefixOnly && entry.name().contains(query)) {
+      return 3;
+    }
+    if (matches(entry.id(), query, wordPrefixOnly)) {
+      return 4;
+    }
+    for (String quayId : entry.quayIds()) {
+      if (matches(quayId, query, wordPrefixOnly)) {
+        return 4;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean matches(String text, String query, boolean wordPrefixOnly) {
+    return wordPrefixOnly ? hasWordStartingWith(text, query) : text.contains(query);
+  }
+
+  private static boolean hasWordStartingWith(String text, String query) {
+    for (
+      int index = text.indexOf(query);
+      index >= 0;
+      index = text.indexOf(query, index + 1)
+    ) {
+      if (isWordStart(text, index)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A stop place with its normalized id, name and quay ids.
+   */
+  private record Entry(
+    int slot,
+    CompactStopPlace stopPlace,
+    String id,
+    String name,
+    List<String> quayIds
+  ) {}
+
+  private record Match(Entry entry, int rank) {}
+
+  /**
+   * Sorted slots of the stop places indexed by an n-gram.
+   */
+  private static class Postings {
+
+    private int[] slots = new int[4];
+    private int size;
+
+    private void add(int slot) {
+      if (size > 0 && slots[size - 1] >= slot) {
+        int index = Arrays.binarySearch(slots, 0, size, slot);
+        if (index >= 0) {
+          return;
+        }
+        insert(-index - 1, slot);
+      } else {
+        insert(size, slot);
+      }
+    }
+
+    private void insert(int index, int slot) {
+      if (size == slots.length) {
+        slots = Arrays.copyOf(slots, size * 2);
+      }
+      System.arraycopy(slots, index, slots, index + 1, size - index);
+      slots[index] = slot;
+      size++;
+    }
+
+    private boolean remove(int slot) {
+      int index = Arrays.binarySearch(slots, 0, size, slot);
+      if (index < 0) {
+        return false;
+      }
+      System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+      size--;
+      return true;
+    }
+  }
+}
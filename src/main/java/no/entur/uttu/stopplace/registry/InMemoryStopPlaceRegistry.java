@@ -15,25 +15,36 @@
 
 package no.entur.uttu.stopplace.registry;
 
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.PostConstruct;
 import no.entur.uttu.stopplace.filter.StopPlacesFilter;
-import no.entur.uttu.stopplace.filter.params.BoundingBoxFilterParams;
 import no.entur.uttu.stopplace.filter.params.StopPlaceFilterParams;
+import no.entur.uttu.stopplace.index.CompactStopPlace;
 import no.entur.uttu.stopplace.index.StopPlaceIndexManager;
+import no.entur.uttu.stopplace.index.StopPlaceIndexSnapshot;
+import no.entur.uttu.stopplace.index.StopPlaceTextIndex;
 import no.entur.uttu.stopplace.spatial.StopPlaceSpatialService;
 import no.entur.uttu.stopplace.spi.MutableStopPlaceRegistry;
+import no.entur.uttu.stopplace.spi.QuayLocationChangedEvent;
 import no.entur.uttu.stopplace.spi.StopPlaceDataLoader;
 import org.locationtech.jts.geom.Polygon;
+import org.rutebanken.netex.model.LocationStructure;
 import org.rutebanken.netex.model.Quay;
 import org.rutebanken.netex.model.StopPlace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
 /**
@@ -53,8 +64,10 @@ public class InMemoryStopPlaceRegistry implements MutableStopPlaceRegistry {
 
   private final StopPlaceIndexManager indexManager;
   private final StopPlaceSpatialService spatialService;
+  private final StopPlaceTextIndex textIndex;
   private final StopPlacesFilter stopPlacesFilter;
   private final Optional<StopPlaceDataLoader> dataLoader;
+  private final ApplicationEventPublisher eventPublisher;
 
   private final AtomicReference<Instant> publicationTime = new AtomicReference<>();
 
@@ -62,13 +75,17 @@ public class InMemoryStopPlaceRegistry implements MutableStopPlaceRegistry {
   public InMemoryStopPlaceRegistry(
     StopPlaceIndexManager indexManager,
     StopPlaceSpatialService spatialService,
+    StopPlaceTextIndex textIndex,
     StopPlacesFilter stopPlacesFilter,
-    Optional<StopPlaceDataLoader> dataLoader
+    Optional<StopPlaceDataLoader> dataLoader,
+    ApplicationEventPublisher eventPublisher
   ) {
     this.indexManager = indexManager;
     this.spatialService = spatialService;
+    this.textIndex = textIndex;
     this.stopPlacesFilter = stopPlacesFilter;
     this.dataLoader = dataLoader;
+    this.eventPublisher = eventPublisher;
   }
 
   @PostConstruct
@@ -78,8 +95,14 @@ public class InMemoryStopPlaceRegistry implements MutableStopPlaceRegistry {
       try {
         StopPlaceDataLoader.LoadResult result = dataLoader.get().loadStopPlaces();
 
-        indexManager.loadBulkData(result.stopPlaces());
-        spatialService.buildSpatialIndex(result.stopPlaces());
+        // the indexes share the stop places as indexed, not the loaded ones
+        indexManager.applyBatch(
+          () -> indexManager.loadBulkData(result.stopPlaces()),
+          (stopPlaces, snapshot) -> {
+            spatialService.buildSpatialIndex(stopPlaces, snapshot.version());
+            textIndex.buildIndex(stopPlaces, snapshot.version());
+          }
+        );
         publicationTime.set(result.publicationTime());
 
         logger.info("Successfully loaded {} stop places", result.stopPlaces().size());
@@ -98,28 +121,14 @@ public class InMemoryStopPlaceRegistry implements MutableStopPlaceRegistry {
 
   @Override
   public List<StopPlace> getStopPlaces(List<StopPlaceFilterParams> filters) {
-    List<StopPlace> stopPlaces = indexManager.getAllStopPlaces();
+    // stop places and quay index are read from the same snapshot, so they are consistent
+    StopPlaceIndexSnapshot snapshot = indexManager.getSnapshot();
 
     if (filters.isEmpty()) {
-      return stopPlaces;
+      return CompactStopPlace.toStopPlaces(snapshot.stopPlaces());
     }
 
-    // Check for bounding box filter for optimization
-    Optional<BoundingBoxFilterParams> boundingBoxFilter = filters
-      .stream()
-      .filter(BoundingBoxFilterParams.class::isInstance)
-      .map(BoundingBoxFilterParams.class::cast)
-      .findFirst();
-
-    if (boundingBoxFilter.isPresent()) {
-      stopPlaces = spatialService.preFilterByBoundingBox(
-        stopPlaces,
-        boundingBoxFilter.get()
-      );
-    }
-
-    // Apply remaining filters
-    return stopPlacesFilter.filter(stopPlaces, indexManager.getQuayIndex(), filters);
+    return stopPlacesFilter.filter(snapshot, filters);
   }
 
   @Override
@@ -138,8 +147,13 @@ public class InMemoryStopPlaceRegistry implements MutableStopPlaceRegistry {
       throw new IllegalArgumentException("ID cannot be null");
     }
 
-    List<String> removedIds = indexManager.removeStopPlaceAndRelated(id);
-    rebuildSpatialIndex();
+    List<String> removedIds = indexManager.applyBatch(
+      () -> indexManager.removeStopPlaceAndRelated(id),
+      (removed, snapshot) -> {
+        spatialService.removeStopPlaces(removed, snapshot.version());
+        textIndex.removeStopPlaces(removed, snapshot.version());
+      }
+    );
 
     logger.info("Deleted stop place {} and {} related stops", id, removedIds.size() - 1);
   }
@@ -162,32 +176,108 @@ public class InMemoryStopPlaceRegistry implements MutableStopPlaceRegistry {
 
     logger.info("Processing {} stop places in create-or-update batch", stopPlaces.size());
 
+    // the spatial and text indexes are updated in the order the snapshots are published
+    BatchResult result = indexManager.applyBatch(
+      () -> applyCreateOrUpdate(stopPlaces),
+      (batch, snapshot) -> {
+        spatialService.updateStopPlaces(batch.changedStopPlaces(), snapshot.version());
+        textIndex.updateStopPlaces(batch.changedStopPlaces(), snapshot.version());
+      }
+    );
+
+    if (!result.movedQuayRefs().isEmpty()) {
+      eventPublisher.publishEvent(new QuayLocationChangedEvent(result.movedQuayRefs()));
+    }
+
+    logger.info(
+      "Create-or-update batch completed: {} created, {} updated, {} quays moved",
+      result.created(),
+      result.updated(),
+      result.movedQuayRefs().size()
+    );
+  }
+
+  /**
+   * Apply the stop places to the indexes. Called within a batch of the index manager, so
+   * lookups see the stop places already applied and the batch is published at once.
+   */
+  private BatchResult applyCreateOrUpdate(List<StopPlace> stopPlaces) {
     int created = 0;
     int updated = 0;
+    Set<String> movedQuayRefs = new HashSet<>();
+    List<CompactStopPlace> changedStopPlaces = new ArrayList<>(stopPlaces.size());
 
     for (StopPlace stopPlace : stopPlaces) {
       if (stopPlace != null && stopPlace.getId() != null) {
-        if (indexManager.getStopPlaceById(stopPlace.getId()).isPresent()) {
-          indexManager.updateStopPlace(stopPlace.getId(), stopPlace);
+        Optional<StopPlace> existing = indexManager.getStopPlaceById(stopPlace.getId());
+        if (existing.isPresent()) {
+          movedQuayRefs.addAll(findMovedQuays(existing.get(), stopPlace));
+          changedStopPlaces.add(
+            indexManager.updateStopPlace(stopPlace.getId(), stopPlace)
+          );
           updated++;
         } else {
-          indexManager.addStopPlace(stopPlace);
+          changedStopPlaces.add(indexManager.addStopPlace(stopPlace));
           created++;
         }
       }
     }
 
-    rebuildSpatialIndex();
+    return new BatchResult(created, updated, movedQuayRefs, changedStopPlaces);
+  }
+
+  private record BatchResult(
+    int created,
+    int updated,
+    Set<String> movedQuayRefs,
+    List<CompactStopPlace> changedStopPlaces
+  ) {}
 
-    logger.info(
-      "Create-or-update batch completed: {} created, {} updated",
-      created,
-      updated
+  /**
+   * Find quays of the existing stop place that are at a different location in the new version.
+   */
+  private static Set<String> findMovedQuays(StopPlace existing, StopPlace updated) {
+    Map<String, LocationStructure> newLocations = quayLocations(updated);
+    Set<String> moved = new HashSet<>();
+    quayLocations(existing).forEach((quayRef, location) -> {
+      LocationStructure newLocation = newLocations.get(quayRef);
+      if (newLocation != null && !sameLocation(location, newLocation)) {
+        moved.add(quayRef);
+      }
+    });
+    return moved;
+  }
+
+  private static Map<String, LocationStructure> quayLocations(StopPlace stopPlace) {
+    Map<String, LocationStructure> locations = new HashMap<>();
+    if (stopPlace.getQuays() != null && stopPlace.getQuays().getQuayRefOrQuay() != null) {
+      stopPlace
+        .getQuays()
+        .getQuayRefOrQuay()
+        .forEach(quayRefOrQuay -> {
+          if (
+            quayRefOrQuay.getValue() instanceof Quay quay &&
+            quay.getCentroid() != null &&
+            quay.getCentroid().getLocation() != null
+          ) {
+            locations.put(quay.getId(), quay.getCentroid().getLocation());
+          }
+        });
+    }
+    return locations;
+  }
+
+  /**
+   * Compared as doubles, as the indexed locations are rebuilt from doubles.
+   */
+  private static boolean sameLocation(LocationStructure a, LocationStructure b) {
+    return (
+      sameCoordinate(a.getLongitude(), b.getLongitude()) &&
+      sameCoordinate(a.getLatitude(), b.getLatitude())
     );
   }
 
-  private void rebuildSpatialIndex() {
-    List<StopPlace> allStopPlaces = indexManager.getAllStopPlaces();
-    spatialService.buildSpatialIndex(allStopPlaces);
+  private static boolean sameCoordinate(BigDecimal a, BigDecimal b) {
+    return a == null || b == null ? a == b : a.doubleValue() == b.doubleValue();
   }
 }
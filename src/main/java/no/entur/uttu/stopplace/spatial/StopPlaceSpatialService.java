@@ -15,19 +15,32 @@
 
 package no.entur.uttu.stopplace.spatial;
 
+import jakarta.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import no.entur.uttu.stopplace.filter.params.BoundingBoxFilterParams;
+import no.entur.uttu.stopplace.index.CompactStopPlace;
+import no.entur.uttu.stopplace.index.StopPlaceIndexSnapshot;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.quadtree.Quadtree;
 import org.locationtech.jts.index.strtree.STRtree;
-import org.rutebanken.netex.model.Quay;
 import org.rutebanken.netex.model.StopPlace;
-import org.rutebanken.netex.model.Zone_VersionStructure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -35,6 +48,15 @@ import org.springframework.stereotype.Service;
 /**
  * Service for spatial operations on stop places.
  * Manages spatial indexing and provides efficient spatial queries.
+ *
+ * <p>
+ *   Stop places are indexed by the location of their quays in a base STRtree, built from
+ *   all stop places, and a small delta quadtree holding the stop places changed since.
+ *   Removed and replaced stop places are hidden from the base index, so the cost of an
+ *   update depends on the number of changed quays rather than on the size of the registry.
+ *   Once the delta holds more than the compaction threshold of changes, the base index is
+ *   rebuilt in the background, without blocking queries or further updates.
+ * </p>
  */
 @Service
 public class StopPlaceSpatialService {
@@ -43,57 +65,181 @@ public class StopPlaceSpatialService {
     StopPlaceSpatialService.class
   );
 
+  public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
   private final GeometryFactory geometryFactory = new GeometryFactory();
   private final ReadWriteLock spatialIndexLock = new ReentrantReadWriteLock();
+  private final int compactionThreshold;
+  private final Executor compactionExecutor;
 
+  /**
+   * Stop places of the base index, which is never modified once built.
+   */
+  private List<CompactStopPlace> baseStopPlaces = List.of();
+  private Set<String> baseStopPlaceIds = new HashSet<>();
   private STRtree spatialIndex = new STRtree();
+
+  /**
+   * Ids of stop places in the base index that have since been removed or replaced.
+   */
+  private Set<String> staleBaseStopPlaceIds = new HashSet<>();
+
+  /**
+   * Stop places created or updated since the base index was built, by id and by quay.
+   */
+  private Map<String, CompactStopPlace> deltaStopPlaces = new HashMap<>();
+  private Quadtree deltaIndex = new Quadtree();
+
+  /**
+   * Ids of stop places changed while the base index is compacted, or null when it is not.
+   */
+  private Set<String> changedWhileCompacting;
+
+  /**
+   * Incremented by every full build, so a compaction started before it is discarded.
+   */
+  private long generation;
+
   private boolean indexBuilt = false;
 
+  /**
+   * Version of the snapshot the spatial index is in step with.
+   */
+  private long version = StopPlaceIndexSnapshot.NO_VERSION;
+
+  public StopPlaceSpatialService() {
+    this(DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * @param compactionThreshold number of changed stop places that triggers a rebuild of
+   *                            the base index
+   */
+  public StopPlaceSpatialService(int compactionThreshold) {
+    this(
+      compactionThreshold,
+      Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stop-place-spatial-index-compaction");
+        thread.setDaemon(true);
+        return thread;
+      })
+    );
+  }
+
+  StopPlaceSpatialService(int compactionThreshold, Executor compactionExecutor) {
+    this.compactionThreshold = compactionThreshold;
+    this.compactionExecutor = compactionExecutor;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (compactionExecutor instanceof ExecutorService executorService) {
+      executorService.shutdownNow();
+    }
+  }
+
   /**
    * Build or rebuild the spatial index with the provided stop places
    */
-  public void buildSpatialIndex(List<StopPlace> stopPlaces) {
+  public void buildSpatialIndex(List<CompactStopPlace> stopPlaces) {
+    buildSpatialIndex(stopPlaces, StopPlaceIndexSnapshot.NO_VERSION);
+  }
+
+  /**
+   * Build or rebuild the spatial index with the stop places of a version of the stop
+   * place indexes
+   */
+  public void buildSpatialIndex(List<CompactStopPlace> stopPlaces, long version) {
+    logger.debug("Building spatial index with {} stop places", stopPlaces.size());
+
+    List<CompactStopPlace> indexedStopPlaces = List.copyOf(stopPlaces);
+    STRtree index = createBaseIndex(indexedStopPlaces);
+    Set<String> ids = stopPlaceIds(indexedStopPlaces);
+
     spatialIndexLock.writeLock().lock();
     try {
-      logger.debug("Building spatial index with {} stop places", stopPlaces.size());
-
-      spatialIndex = new STRtree();
-      indexBuilt = false;
-
-      int indexed = 0;
-      for (StopPlace stopPlace : stopPlaces) {
-        if (
-          stopPlace.getQuays() != null &&
-          !stopPlace.getQuays().getQuayRefOrQuay().isEmpty()
-        ) {
-          indexed++;
-          stopPlace
-            .getQuays()
-            .getQuayRefOrQuay()
-            .forEach(quayRefOrQuay -> {
-              Point quayPoint = createPointFromEntityWithCentroid(
-                (Quay) quayRefOrQuay.getValue()
-              );
-              if (quayPoint != null) {
-                spatialIndex.insert(quayPoint.getEnvelopeInternal(), stopPlace);
-              }
-            });
+      generation++;
+      replaceBaseIndex(indexedStopPlaces, ids, index);
+      staleBaseStopPlaceIds = new HashSet<>();
+      deltaStopPlaces = new HashMap<>();
+      deltaIndex = new Quadtree();
+      changedWhileCompacting = null;
+      indexBuilt = true;
+      this.version = version;
+    } finally {
+      spatialIndexLock.writeLock().unlock();
+    }
+
+    logger.debug(
+      "Spatial index built successfully with {} stop places",
+      indexedStopPlaces.size()
+    );
+  }
+
+  /**
+   * Add created stop places to the index, and replace updated ones.
+   */
+  public void updateStopPlaces(Collection<CompactStopPlace> stopPlaces) {
+    updateStopPlaces(stopPlaces, StopPlaceIndexSnapshot.NO_VERSION);
+  }
+
+  /**
+   * Add created stop places to the index, and replace updated ones, as changed in a
+   * version of the stop place indexes.
+   */
+  public void updateStopPlaces(Collection<CompactStopPlace> stopPlaces, long version) {
+    spatialIndexLock.writeLock().lock();
+    try {
+      for (CompactStopPlace stopPlace : stopPlaces) {
+        if (stopPlace != null && stopPlace.id() != null) {
+          remove(stopPlace.id());
+          deltaStopPlaces.put(stopPlace.id(), stopPlace);
+          forEachQuayPoint(stopPlace, quayPoint ->
+            deltaIndex.insert(quayPoint.getEnvelopeInternal(), stopPlace)
+          );
         }
       }
-
-      spatialIndex.build();
       indexBuilt = true;
+      this.version = version;
+      compactIfNeeded();
+    } finally {
+      spatialIndexLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove stop places from the index.
+   */
+  public void removeStopPlaces(Collection<String> ids) {
+    removeStopPlaces(ids, StopPlaceIndexSnapshot.NO_VERSION);
+  }
 
-      logger.debug("Spatial index built successfully with {} stop places", indexed);
+  /**
+   * Remove stop places from the index, as removed in a version of the stop place indexes.
+   */
+  public void removeStopPlaces(Collection<String> ids, long version) {
+    spatialIndexLock.writeLock().lock();
+    try {
+      ids.forEach(this::remove);
+      this.version = version;
+      compactIfNeeded();
     } finally {
       spatialIndexLock.writeLock().unlock();
     }
   }
 
   /**
-   * Find stop places within a polygon
+   * Find stop places within a polygon, as a view which builds every stop place as it is
+   * read
    */
   public List<StopPlace> getStopPlacesWithinPolygon(Polygon polygon) {
+    return CompactStopPlace.toStopPlaces(findStopPlacesWithinPolygon(polygon));
+  }
+
+  /**
+   * Find stop places with a quay within a polygon
+   */
+  public List<CompactStopPlace> findStopPlacesWithinPolygon(Polygon polygon) {
     if (polygon == null) {
       return new ArrayList<>();
     }
@@ -105,50 +251,45 @@ public class StopPlaceSpatialService {
         return new ArrayList<>();
       }
 
-      @SuppressWarnings("unchecked")
-      List<StopPlace> candidates = spatialIndex.query(polygon.getEnvelopeInternal());
-
-      return candidates
-        .stream()
-        .distinct() // Remove duplicates since same StopPlace can be indexed multiple times (once per quay)
-        .filter(stopPlace -> {
-          if (stopPlace.getQuays() != null) {
-            return stopPlace
-              .getQuays()
-              .getQuayRefOrQuay()
-              .stream()
-              .anyMatch(quayRefOrQuay -> {
-                Point quayPoint = createPointFromEntityWithCentroid(
-                  (Quay) quayRefOrQuay.getValue()
-                );
-                return quayPoint != null && polygon.contains(quayPoint);
-              });
-          }
-          return false;
-        })
-        .toList();
+      return query(polygon);
     } finally {
       spatialIndexLock.readLock().unlock();
     }
   }
 
   /**
-   * Pre-filter stop places by bounding box for optimization
+   * Pre-filter the stop places of a snapshot by bounding box for optimization;
+   * The spatial index is only used when it is at the version of the snapshot, as it is
+   * updated after the snapshot is published; otherwise the stop places of the snapshot
+   * are filtered one by one
    */
-  public List<StopPlace> preFilterByBoundingBox(
-    List<StopPlace> stopPlaces,
+  public List<CompactStopPlace> preFilterByBoundingBox(
+    StopPlaceIndexSnapshot snapshot,
     BoundingBoxFilterParams boundingBox
   ) {
     if (boundingBox == null) {
-      return stopPlaces;
+      return snapshot.stopPlaces();
     }
 
     Polygon polygon = createPolygonFromBoundingBox(boundingBox);
-    List<StopPlace> filtered = getStopPlacesWithinPolygon(polygon);
+    List<CompactStopPlace> filtered = findStopPlacesWithinPolygon(
+      polygon,
+      snapshot.version()
+    ).orElseGet(() -> {
+      logger.debug(
+        "Spatial index is not at version {} of the stop places, filtering them",
+        snapshot.version()
+      );
+      return snapshot
+        .stopPlaces()
+        .stream()
+        .filter(stopPlace -> hasQuayWithin(stopPlace, polygon))
+        .toList();
+    });
 
     logger.debug(
       "Spatial pre-filtering reduced stop places from {} to {}",
-      stopPlaces.size(),
+      snapshot.stopPlaces().size(),
       filtered.size()
     );
 
@@ -180,27 +321,203 @@ public class StopPlaceSpatialService {
   }
 
   /**
-   * Create a JTS Point from a StopPlace's centroid
+   * Find stop places with a quay within a polygon, or empty if the index is not at the
+   * version of the stop place indexes
    */
-  private Point createPointFromEntityWithCentroid(
-    Zone_VersionStructure entityWithCentroid
+  private Optional<List<CompactStopPlace>> findStopPlacesWithinPolygon(
+    Polygon polygon,
+    long version
   ) {
+    spatialIndexLock.readLock().lock();
+    try {
+      return this.version == version ? Optional.of(query(polygon)) : Optional.empty();
+    } finally {
+      spatialIndexLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Must be called holding the read or the write lock.
+   */
+  private List<CompactStopPlace> query(Polygon polygon) {
+    Envelope envelope = polygon.getEnvelopeInternal();
+    List<CompactStopPlace> candidates = new ArrayList<>();
+    for (Object candidate : spatialIndex.query(envelope)) {
+      CompactStopPlace stopPlace = (CompactStopPlace) candidate;
+      if (!staleBaseStopPlaceIds.contains(stopPlace.id())) {
+        candidates.add(stopPlace);
+      }
+    }
+    for (Object candidate : deltaIndex.query(envelope)) {
+      candidates.add((CompactStopPlace) candidate);
+    }
+
+    return candidates
+      .stream()
+      .distinct() // Remove duplicates since same StopPlace can be indexed multiple times (once per quay)
+      .filter(stopPlace -> hasQuayWithin(stopPlace, polygon))
+      .toList();
+  }
+
+  /**
+   * Remove the stop place from the delta index and hide it in the base index. Must be
+   * called holding the write lock.
+   */
+  private void remove(String id) {
+    CompactStopPlace deltaStopPlace = deltaStopPlaces.remove(id);
+    if (deltaStopPlace != null) {
+      forEachQuayPoint(deltaStopPlace, quayPoint ->
+        deltaIndex.remove(quayPoint.getEnvelopeInternal(), deltaStopPlace)
+      );
+    }
+    if (baseStopPlaceIds.contains(id)) {
+      staleBaseStopPlaceIds.add(id);
+    }
+    if (changedWhileCompacting != null) {
+      changedWhileCompacting.add(id);
+    }
+  }
+
+  /**
+   * Start rebuilding the base index in the background when the delta has grown past the
+   * compaction threshold. Must be called holding the write lock.
+   */
+  private void compactIfNeeded() {
     if (
-      entityWithCentroid == null ||
-      entityWithCentroid.getCentroid() == null ||
-      entityWithCentroid.getCentroid().getLocation() == null
+      changedWhileCompacting != null ||
+      deltaStopPlaces.size() + staleBaseStopPlaceIds.size() < compactionThreshold
     ) {
-      return null;
+      return;
     }
+    List<CompactStopPlace> base = baseStopPlaces;
+    Set<String> stale = new HashSet<>(staleBaseStopPlaceIds);
+    List<CompactStopPlace> delta = List.copyOf(deltaStopPlaces.values());
+    long compactedGeneration = generation;
+    changedWhileCompacting = new HashSet<>();
+    compactionExecutor.execute(() -> compact(base, stale, delta, compactedGeneration));
+  }
 
-    var location = entityWithCentroid.getCentroid().getLocation();
-    if (location.getLongitude() == null || location.getLatitude() == null) {
-      return null;
+  private void compact(
+    List<CompactStopPlace> base,
+    Set<String> stale,
+    List<CompactStopPlace> delta,
+    long compactedGeneration
+  ) {
+    try {
+      List<CompactStopPlace> stopPlaces = new ArrayList<>(base.size() + delta.size());
+      base
+        .stream()
+        .filter(stopPlace -> !stale.contains(stopPlace.id()))
+        .forEach(stopPlaces::add);
+      stopPlaces.addAll(delta);
+      STRtree index = createBaseIndex(stopPlaces);
+      Set<String> ids = stopPlaceIds(stopPlaces);
+      int changedWhileCompactingCount;
+
+      spatialIndexLock.writeLock().lock();
+      try {
+        if (compactedGeneration != generation) {
+          return;
+        }
+        Set<String> changed = changedWhileCompacting;
+        Map<String, CompactStopPlace> remainingDelta = new HashMap<>();
+        changed.forEach(id -> {
+          CompactStopPlace stopPlace = deltaStopPlaces.get(id);
+          if (stopPlace != null) {
+            remainingDelta.put(id, stopPlace);
+          }
+        });
+
+        replaceBaseIndex(stopPlaces, ids, index);
+        staleBaseStopPlaceIds = new HashSet<>(changed);
+        staleBaseStopPlaceIds.retainAll(ids);
+        deltaStopPlaces = remainingDelta;
+        deltaIndex = new Quadtree();
+        remainingDelta
+          .values()
+          .forEach(stopPlace ->
+            forEachQuayPoint(stopPlace, quayPoint ->
+              deltaIndex.insert(quayPoint.getEnvelopeInternal(), stopPlace)
+            )
+          );
+        changedWhileCompacting = null;
+        changedWhileCompactingCount = changed.size();
+      } finally {
+        spatialIndexLock.writeLock().unlock();
+      }
+      logger.debug(
+        "Compacted spatial index with {} stop places, {} changed while compacting",
+        stopPlaces.size(),
+        changedWhileCompactingCount
+      );
+    } catch (RuntimeException e) {
+      logger.warn("Failed to compact spatial index: {}", e.getMessage(), e);
+      spatialIndexLock.writeLock().lock();
+      try {
+        if (compactedGeneration == generation) {
+          changedWhileCompacting = null;
+        }
+      } finally {
+        spatialIndexLock.writeLock().unlock();
+      }
     }
+  }
 
-    double longitude = location.getLongitude().doubleValue();
-    double latitude = location.getLatitude().doubleValue();
+  /**
+   * Must be called holding the write lock.
+   */
+  private void replaceBaseIndex(
+    List<CompactStopPlace> stopPlaces,
+    Set<String> ids,
+    STRtree index
+  ) {
+    baseStopPlaces = stopPlaces;
+    baseStopPlaceIds = ids;
+    spatialIndex = index;
+  }
+
+  private STRtree createBaseIndex(Collection<CompactStopPlace> stopPlaces) {
+    STRtree index = new STRtree();
+    for (CompactStopPlace stopPlace : stopPlaces) {
+      forEachQuayPoint(stopPlace, quayPoint ->
+        index.insert(quayPoint.getEnvelopeInternal(), stopPlace)
+      );
+    }
+    index.build();
+    return index;
+  }
+
+  private static Set<String> stopPlaceIds(Collection<CompactStopPlace> stopPlaces) {
+    Set<String> ids = new HashSet<>(stopPlaces.size() * 2);
+    stopPlaces.forEach(stopPlace -> ids.add(stopPlace.id()));
+    return ids;
+  }
+
+  private void forEachQuayPoint(CompactStopPlace stopPlace, Consumer<Point> action) {
+    for (int i = 0; i < stopPlace.quayCount(); i++) {
+      if (stopPlace.hasQuayLocation(i)) {
+        action.accept(createQuayPoint(stopPlace, i));
+      }
+    }
+  }
+
+  private boolean hasQuayWithin(CompactStopPlace stopPlace, Polygon polygon) {
+    for (int i = 0; i < stopPlace.quayCount(); i++) {
+      if (
+        stopPlace.hasQuayLocation(i) && polygon.contains(createQuayPoint(stopPlace, i))
+      ) {
+        return true;
+      }
+    }
+    return false;
+  }
 
+  /**
+   * Create a JTS Point from the location of a quay
+   */
+  private Point createQuayPoint(CompactStopPlace stopPlace, int quayIndex) {
+    double longitude = stopPlace.quayLongitude(quayIndex);
+    double latitude = stopPlace.quayLatitude(quayIndex);
     return geometryFactory.createPoint(new Coordinate(longitude, latitude));
   }
 }
@@ -0,0 +1,22 @@
+CREATE TABLE route_geometry_cache (
+    cache_key character varying(255) NOT NULL,
+    quay_ref_from character varying(255) NOT NULL,
+    quay_ref_to character varying(255) NOT NULL,
+    mode character varying(255) NOT NULL,
+    longitude_from numeric NOT NULL,
+    latitude_from numeric NOT NULL,
+    longitude_to numeric NOT NULL,
+    latitude_to numeric NOT NULL,
+    coordinates text NOT NULL,
+    distance numeric NOT NULL,
+    created timestamp without time zone NOT NULL
+);
+
+ALTER TABLE route_geometry_cache OWNER TO uttu;
+
+ALTER TABLE ONLY route_geometry_cache
+    ADD CONSTRAINT route_geometry_cache_pkey PRIMARY KEY (cache_key);
+
+CREATE INDEX route_geometry_cache_quay_ref_from_index ON route_geometry_cache USING btree (quay_ref_from);
+
+CREATE INDEX route_geometry_cache_quay_ref_to_index ON route_geometry_cache USING btree (quay_ref_to);
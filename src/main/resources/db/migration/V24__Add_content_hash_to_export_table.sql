@@ -0,0 +1,2 @@
+ALTER TABLE ONLY EXPORT
+    ADD COLUMN content_hash varchar(64);
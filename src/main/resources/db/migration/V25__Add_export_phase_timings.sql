@@ -0,0 +1,13 @@
+CREATE TABLE export_phase_timings (
+    export_pk bigint NOT NULL,
+    phase character varying(255) NOT NULL,
+    duration_millis bigint NOT NULL,
+    operations bigint NOT NULL
+);
+
+ALTER TABLE export_phase_timings OWNER TO uttu;
+
+ALTER TABLE ONLY export_phase_timings
+    ADD CONSTRAINT export_phase_timings_export_fkey FOREIGN KEY (export_pk) REFERENCES export(pk) ON DELETE CASCADE;
+
+CREATE INDEX export_phase_timings_export_pk_index ON export_phase_timings USING btree (export_pk);
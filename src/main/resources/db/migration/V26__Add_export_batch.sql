@@ -0,0 +1,36 @@
+CREATE TABLE export_batch (
+    pk bigint NOT NULL,
+    started timestamp without time zone NOT NULL,
+    finished timestamp without time zone
+);
+
+ALTER TABLE export_batch OWNER TO uttu;
+
+ALTER TABLE ONLY export_batch
+    ADD CONSTRAINT export_batch_pkey PRIMARY KEY (pk);
+
+CREATE SEQUENCE export_batch_seq
+    START WITH 1
+    INCREMENT BY 10
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+ALTER TABLE export_batch_seq OWNER TO uttu;
+
+CREATE TABLE export_batch_results (
+    export_batch_pk bigint NOT NULL,
+    provider_code character varying(255) NOT NULL,
+    status character varying(255) NOT NULL,
+    export_id character varying(255),
+    attempts integer NOT NULL,
+    duration_millis bigint NOT NULL,
+    message character varying(4000)
+);
+
+ALTER TABLE export_batch_results OWNER TO uttu;
+
+ALTER TABLE ONLY export_batch_results
+    ADD CONSTRAINT export_batch_results_export_batch_fkey FOREIGN KEY (export_batch_pk) REFERENCES export_batch(pk) ON DELETE CASCADE;
+
+CREATE INDEX export_batch_results_export_batch_pk_index ON export_batch_results USING btree (export_batch_pk);
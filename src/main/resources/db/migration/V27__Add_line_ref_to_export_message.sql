@@ -0,0 +1,2 @@
+ALTER TABLE ONLY export_message
+    ADD COLUMN line_ref varchar(255);
@@ -0,0 +1,268 @@
+package no.entur.uttu.export;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.job.Export;
+import no.entur.uttu.model.job.ExportBatch;
+import no.entur.uttu.model.job.ExportBatchResult;
+import no.entur.uttu.model.job.ExportBatchStatusEnumeration;
+import no.entur.uttu.model.job.ExportMessage;
+import no.entur.uttu.model.job.SeverityEnumeration;
+import no.entur.uttu.repository.ExportBatchRepository;
+import no.entur.uttu.repository.ProviderRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class ExportBatchRunnerTest {
+
+  private final ExportJobExecutor exportJobExecutor = mock(ExportJobExecutor.class);
+
+  private final ProviderRepository providerRepository = mock(ProviderRepository.class);
+
+  private final ExportBatchRepository exportBatchRepository = mock(
+    ExportBatchRepository.class
+  );
+
+  private ExportBatchRunner runner;
+
+  @BeforeEach
+  void setUp() {
+    when(providerRepository.findAll())
+      .thenReturn(List.of(provider("tst"), provider("rut"), provider("atb")));
+    when(exportBatchRepository.store(any())).thenAnswer(invocation ->
+      invocation.getArgument(0)
+    );
+  }
+
+  @AfterEach
+  void tearDown() {
+    runner.shutdown();
+  }
+
+  @Test
+  void testOnlyConfiguredProvidersAreExported() {
+    runner = runner("rut, atb, unknown", 3);
+    when(runExport("rut")).thenReturn(export("rut", true));
+    when(runExport("atb")).thenReturn(export("atb", false));
+
+    ExportBatch batch = runner.run();
+
+    assertEquals(2, batch.getResults().size());
+    assertResult(
+      batch.getResults().get(0),
+      "atb",
+      ExportBatchStatusEnumeration.FAILED,
+      1
+    );
+    assertResult(
+      batch.getResults().get(1),
+      "rut",
+      ExportBatchStatusEnumeration.SUCCESS,
+      1
+    );
+    assertNotNull(batch.getFinished());
+    verify(exportJobExecutor, never()).runExport(eq("tst"), any(), any());
+    verify(exportBatchRepository).store(batch);
+  }
+
+  @Test
+  void testScheduledRunIsSkippedWhenClaimedByAnotherInstance() {
+    runner = runner("rut", 1);
+    ReflectionTestUtils.setField(runner, "cron", "0 0 1 * * *");
+    when(exportBatchRepository.claim(any(), any())).thenReturn(Optional.empty());
+
+    runner.scheduledRun();
+
+    verify(exportJobExecutor, never()).runExport(any(), any(), any());
+    verify(exportBatchRepository, never()).store(any());
+  }
+
+  @Test
+  void testScheduledRunExportsClaimedBatch() {
+    runner = runner("rut", 1);
+    ReflectionTestUtils.setField(runner, "cron", "0 0 1 * * *");
+    ExportBatch claimedBatch = new ExportBatch();
+    when(exportBatchRepository.claim(any(), any())).thenAnswer(invocation -> {
+      Instant started = invocation.getArgument(0);
+      Instant notStartedSince = invocation.getArgument(1);
+      // half of the time to the next run, at most half a day
+      assertTrue(Duration.between(notStartedSince, started).toHours() <= 12);
+      claimedBatch.setStarted(started);
+      return Optional.of(claimedBatch);
+    });
+    when(runExport("rut")).thenReturn(export("rut", true));
+
+    runner.scheduledRun();
+
+    assertEquals(1, claimedBatch.count(ExportBatchStatusEnumeration.SUCCESS));
+    verify(exportBatchRepository).store(claimedBatch);
+  }
+
+  @Test
+  void testAttemptThatThrowsIsRetried() {
+    runner = runner("rut", 3);
+    when(runExport("rut"))
+      .thenThrow(new IllegalStateException("database unavailable"))
+      .thenReturn(export("rut", true));
+
+    ExportBatchResult result = runner.exportProvider("rut");
+
+    assertResult(result, "rut", ExportBatchStatusEnumeration.SUCCESS, 2);
+  }
+
+  @Test
+  void testAttemptsAreLimited() {
+    runner = runner("rut", 2);
+    when(runExport("rut")).thenThrow(new IllegalStateException("database unavailable"));
+
+    ExportBatchResult result = runner.exportProvider("rut");
+
+    assertResult(result, "rut", ExportBatchStatusEnumeration.FAILED, 2);
+    assertTrue(result.getMessage().contains("database unavailable"));
+  }
+
+  @Test
+  void testLongFailureMessageIsTruncated() {
+    runner = runner("rut", 1);
+    when(runExport("rut")).thenThrow(new IllegalStateException("x".repeat(10_000)));
+
+    ExportBatchResult result = runner.exportProvider("rut");
+
+    assertResult(result, "rut", ExportBatchStatusEnumeration.FAILED, 1);
+    assertEquals(4000, result.getMessage().length());
+  }
+
+  @Test
+  void testFailedExportIsNotRetried() {
+    runner = runner("rut", 3);
+    when(runExport("rut")).thenReturn(export("rut", false));
+
+    ExportBatchResult result = runner.exportProvider("rut");
+
+    assertResult(result, "rut", ExportBatchStatusEnumeration.FAILED, 1);
+    verify(exportJobExecutor, times(1)).runExport(eq("rut"), any(), any());
+  }
+
+  @Test
+  void testSlowExportTimesOut() {
+    runner = new ExportBatchRunner(
+      exportJobExecutor,
+      providerRepository,
+      exportBatchRepository,
+      "rut",
+      1,
+      1,
+      3,
+      0
+    );
+    AtomicBoolean stopped = new AtomicBoolean();
+    when(runExport("rut")).thenAnswer(invocation -> {
+      try {
+        Thread.sleep(60_000);
+        return export("rut", true);
+      } finally {
+        Thread.sleep(200);
+        stopped.set(true);
+      }
+    });
+
+    ExportBatchResult result = runner.exportProvider("rut");
+
+    assertResult(result, "rut", ExportBatchStatusEnumeration.TIMED_OUT, 1);
+    assertTrue(stopped.get(), "the timed out attempt should have stopped");
+  }
+
+  @Test
+  void testExportsDoNotExceedParallelismAfterTimeouts() {
+    runner = new ExportBatchRunner(
+      exportJobExecutor,
+      providerRepository,
+      exportBatchRepository,
+      "",
+      1,
+      1,
+      1,
+      0
+    );
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    when(exportJobExecutor.runExport(any(), any(), any())).thenAnswer(invocation -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(60_000);
+        return export("rut", true);
+      } catch (InterruptedException e) {
+        // ignores the interrupt for a while, as a blocking call may do
+        Thread.sleep(200);
+        throw e;
+      } finally {
+        running.decrementAndGet();
+      }
+    });
+
+    ExportBatch batch = runner.run();
+
+    assertEquals(3, batch.count(ExportBatchStatusEnumeration.TIMED_OUT));
+    assertEquals(1, maxRunning.get());
+  }
+
+  private ExportBatchRunner runner(String providerCodes, int maxAttempts) {
+    return new ExportBatchRunner(
+      exportJobExecutor,
+      providerRepository,
+      exportBatchRepository,
+      providerCodes,
+      2,
+      60,
+      maxAttempts,
+      0
+    );
+  }
+
+  private Export runExport(String providerCode) {
+    return exportJobExecutor.runExport(
+      eq(providerCode),
+      eq(ExportBatchRunner.BATCH_USER_NAME),
+      any()
+    );
+  }
+
+  private static void assertResult(
+    ExportBatchResult result,
+    String providerCode,
+    ExportBatchStatusEnumeration status,
+    int attempts
+  ) {
+    assertEquals(providerCode, result.getProviderCode());
+    assertEquals(status, result.getStatus());
+    assertEquals(attempts, result.getAttempts());
+  }
+
+  private static Provider provider(String code) {
+    Provider provider = new Provider();
+    provider.setCode(code);
+    return provider;
+  }
+
+  private static Export export(String providerCode, boolean success) {
+    Export export = new Export();
+    export.setNetexId(providerCode.toUpperCase() + ":Export:1");
+    if (!success) {
+      export.addMessage(new ExportMessage(SeverityEnumeration.ERROR, "Invalid line"));
+    }
+    export.markAsFinished();
+    return export;
+  }
+}
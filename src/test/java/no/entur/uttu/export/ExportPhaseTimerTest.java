@@ -0,0 +1,59 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import no.entur.uttu.model.job.ExportPhaseEnumeration;
+import no.entur.uttu.model.job.ExportPhaseTiming;
+import org.junit.Test;
+
+public class ExportPhaseTimerTest {
+
+  @Test
+  public void sumsDurationsAndCountsOperationsPerPhase() {
+    ExportPhaseTimer timer = new ExportPhaseTimer();
+    timer.record(ExportPhaseEnumeration.MARSHALLING, 2_000_000);
+    timer.record(ExportPhaseEnumeration.MARSHALLING, 3_000_000);
+    timer.record(ExportPhaseEnumeration.LOAD_ENTITIES, 1_000_000);
+
+    List<ExportPhaseTiming> timings = timer.getPhaseTimings();
+
+    assertThat(timings)
+      .extracting(ExportPhaseTiming::getPhase)
+      .containsExactly(
+        ExportPhaseEnumeration.LOAD_ENTITIES,
+        ExportPhaseEnumeration.MARSHALLING
+      );
+    assertThat(timings.get(1).getDurationMillis()).isEqualTo(5);
+    assertThat(timings.get(1).getOperations()).isEqualTo(2);
+  }
+
+  @Test
+  public void recordsFailedOperations() {
+    ExportPhaseTimer timer = new ExportPhaseTimer();
+
+    assertThatThrownBy(() ->
+      timer.time(ExportPhaseEnumeration.ROUTING, () -> {
+        throw new IllegalStateException("routing failed");
+      })
+    ).isInstanceOf(IllegalStateException.class);
+
+    assertThat(timer.getOperations(ExportPhaseEnumeration.ROUTING)).isEqualTo(1);
+  }
+}
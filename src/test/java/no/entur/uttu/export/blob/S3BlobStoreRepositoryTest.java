@@ -6,6 +6,7 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import no.entur.uttu.UttuIntegrationTest;
@@ -194,6 +195,23 @@ public class S3BlobStoreRepositoryTest extends UttuIntegrationTest {
     assertBlobExists(TEST_BUCKET, "things/a", true, metadata);
   }
 
+  @Test
+  public void uploadsLargeStreamInParts() throws Exception {
+    byte[] content = new byte[S3BlobStoreRepository.MULTIPART_PART_SIZE * 2 + 1234];
+    new Random(42).nextBytes(content);
+    Map<String, String> metadata = Map.of("metadata.test", "multipart");
+    blobStore.uploadBlob(
+      new BlobDescriptor(
+        "largeblob",
+        new ByteArrayInputStream(content),
+        Optional.empty(),
+        Optional.of(metadata)
+      )
+    );
+    assertBlobExists(TEST_BUCKET, "largeblob", true, metadata);
+    Assert.assertArrayEquals(content, blobStore.getBlob("largeblob").readAllBytes());
+  }
+
   private static @NotNull ByteArrayInputStream asStream(String source) {
     return new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
   }
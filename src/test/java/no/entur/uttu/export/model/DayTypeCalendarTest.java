@@ -0,0 +1,137 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.List;
+import no.entur.uttu.model.DayType;
+import no.entur.uttu.model.DayTypeAssignment;
+import no.entur.uttu.model.OperatingPeriod;
+import org.junit.jupiter.api.Test;
+
+class DayTypeCalendarTest {
+
+  // Jan 1, 2024 is a Monday
+  private static final LocalDate MONDAY = LocalDate.of(2024, 1, 1);
+
+  @Test
+  void operatingPeriodIsRestrictedToDaysOfWeek() {
+    DayType dayType = new DayType();
+    dayType.setDaysOfWeek(List.of(DayOfWeek.MONDAY, DayOfWeek.SUNDAY));
+    dayType.setDayTypeAssignments(
+      List.of(periodAssignment(MONDAY.plusDays(2), MONDAY.plusDays(14), true))
+    );
+
+    DayTypeCalendar calendar = DayTypeCalendar.of(dayType);
+
+    assertThat(operatingDays(calendar, MONDAY)).containsExactly(
+      MONDAY.plusDays(6),
+      MONDAY.plusDays(7),
+      MONDAY.plusDays(13),
+      MONDAY.plusDays(14)
+    );
+    assertThat(calendar.operatesOn(MONDAY.plusDays(7))).isTrue();
+    assertThat(calendar.operatesOn(MONDAY.plusDays(8))).isFalse();
+  }
+
+  @Test
+  void explicitDatesAreIncludedRegardlessOfDaysOfWeek() {
+    DayType dayType = new DayType();
+    dayType.setDaysOfWeek(List.of(DayOfWeek.MONDAY));
+    dayType.setDayTypeAssignments(
+      List.of(
+        dateAssignment(MONDAY.plusDays(3), true),
+        periodAssignment(MONDAY, MONDAY.plusDays(6), true)
+      )
+    );
+
+    assertThat(operatingDays(DayTypeCalendar.of(dayType), MONDAY)).containsExactly(
+      MONDAY,
+      MONDAY.plusDays(3)
+    );
+  }
+
+  @Test
+  void unavailableAssignmentsOnlyExtendTheAvailabilityPeriod() {
+    DayType dayType = new DayType();
+    dayType.setDayTypeAssignments(
+      List.of(
+        dateAssignment(MONDAY, true),
+        periodAssignment(MONDAY.minusDays(10), MONDAY.minusDays(5), false)
+      )
+    );
+
+    DayTypeCalendar calendar = DayTypeCalendar.of(dayType);
+
+    assertThat(operatingDays(calendar, MONDAY.minusDays(20))).containsExactly(MONDAY);
+    assertThat(calendar.getAvailabilityPeriod().getFrom()).isEqualTo(
+      MONDAY.minusDays(10)
+    );
+    assertThat(calendar.getAvailabilityPeriod().getTo()).isEqualTo(MONDAY);
+  }
+
+  @Test
+  void daysBeforeTargetStartAreSkipped() {
+    DayType dayType = new DayType();
+    dayType.setDayTypeAssignments(
+      List.of(periodAssignment(MONDAY, MONDAY.plusDays(3), true))
+    );
+
+    assertThat(
+      operatingDays(DayTypeCalendar.of(dayType), MONDAY.plusDays(2))
+    ).containsExactly(MONDAY.plusDays(2), MONDAY.plusDays(3));
+  }
+
+  @Test
+  void dayTypeWithoutAssignmentsIsEmpty() {
+    DayTypeCalendar calendar = DayTypeCalendar.of(new DayType());
+
+    assertThat(calendar.isEmpty()).isTrue();
+    assertThat(calendar.getAvailabilityPeriod()).isNull();
+    assertThat(operatingDays(calendar, MONDAY)).isEmpty();
+  }
+
+  private static List<LocalDate> operatingDays(DayTypeCalendar calendar, LocalDate from) {
+    BitSet days = new BitSet();
+    calendar.addOperatingDaysTo(days, from.toEpochDay());
+    return DayTypeCalendar.toLocalDates(days, from.toEpochDay());
+  }
+
+  private static DayTypeAssignment periodAssignment(
+    LocalDate from,
+    LocalDate to,
+    boolean available
+  ) {
+    OperatingPeriod operatingPeriod = new OperatingPeriod();
+    operatingPeriod.setFromDate(from);
+    operatingPeriod.setToDate(to);
+    DayTypeAssignment assignment = new DayTypeAssignment();
+    assignment.setOperatingPeriod(operatingPeriod);
+    assignment.setAvailable(available);
+    return assignment;
+  }
+
+  private static DayTypeAssignment dateAssignment(LocalDate date, boolean available) {
+    DayTypeAssignment assignment = new DayTypeAssignment();
+    assignment.setDate(date);
+    assignment.setAvailable(available);
+    return assignment;
+  }
+}
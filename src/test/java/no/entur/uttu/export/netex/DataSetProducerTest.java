@@ -0,0 +1,110 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.junit.Test;
+
+public class DataSetProducerTest {
+
+  private final DataSetCompressor compressor = new DataSetCompressor(2, -1, 0);
+
+  @Test
+  public void compressedEntriesAreAssembledInOrder() throws IOException {
+    Path dataSet = buildDataSet(new DataSetProducer(workingFolder(), compressor, 6));
+
+    assertThat(readEntries(dataSet)).containsExactly(
+      Map.entry("_common.xml", "<common/>"),
+      Map.entry("line-1.xml", "<line>1</line>".repeat(1000)),
+      Map.entry("line-2.xml", "<line>2</line>")
+    );
+    try (ZipFile zipFile = new ZipFile(dataSet.toFile())) {
+      assertThat(zipFile.getEntry("line-1.xml").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+      assertThat(zipFile.getEntry("line-1.xml").getCompressedSize()).isLessThan(14000);
+    }
+  }
+
+  @Test
+  public void compressionLevelZeroStoresEntries() throws IOException {
+    Path dataSet = buildDataSet(new DataSetProducer(workingFolder(), compressor, 0));
+
+    assertThat(readEntries(dataSet)).containsEntry("line-2.xml", "<line>2</line>");
+    try (ZipFile zipFile = new ZipFile(dataSet.toFile())) {
+      assertThat(zipFile.getEntry("line-2.xml").getMethod()).isEqualTo(ZipEntry.STORED);
+    }
+  }
+
+  @Test
+  public void filesAreCompressedWhenBuildingWithoutCompressor() throws IOException {
+    Path dataSet = buildDataSet(new DataSetProducer(workingFolder()));
+
+    assertThat(readEntries(dataSet)).hasSize(3);
+  }
+
+  private Path buildDataSet(DataSetProducer producer) throws IOException {
+    Path dataSet = Files.createTempFile("dataset", ".zip");
+    try (producer) {
+      addFile(producer, "line-2.xml", "<line>2</line>");
+      producer.fileCompleted("line-2.xml");
+      addFile(producer, "line-1.xml", "<line>1</line>".repeat(1000));
+      producer.fileCompleted("line-1.xml");
+      // the common file is left to be compressed when the data set is built
+      addFile(producer, "_common.xml", "<common/>");
+      try (InputStream in = producer.buildDataSet()) {
+        Files.copy(in, dataSet, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    return dataSet;
+  }
+
+  private static void addFile(DataSetProducer producer, String fileName, String content)
+    throws IOException {
+    try (OutputStream out = producer.addFile(fileName)) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static Map<String, String> readEntries(Path dataSet) throws IOException {
+    Map<String, String> entries = new LinkedHashMap<>();
+    try (ZipInputStream in = new ZipInputStream(Files.newInputStream(dataSet))) {
+      ZipEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        entries.put(
+          entry.getName(),
+          new String(in.readAllBytes(), StandardCharsets.UTF_8)
+        );
+      }
+    }
+    return entries;
+  }
+
+  private static String workingFolder() throws IOException {
+    return Files.createTempDirectory("dataset-producer").toString();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class NetexContentHashTest {
+
+  private static final Set<String> GENERATED = Set.of(
+    "CompositeFrame",
+    "DayTypeAssignment"
+  );
+
+  @Test
+  public void ignoresPublicationTimestampsAndGeneratedIdNumbering() throws IOException {
+    String first = hash(
+      file("2024-01-01T10:00:00", "TST:CompositeFrame:1", "TST:DayTypeAssignment:7")
+    );
+    String second = hash(
+      file("2024-01-02T10:00:00", "TST:CompositeFrame:3", "TST:DayTypeAssignment:12")
+    );
+
+    assertThat(second).isEqualTo(first);
+  }
+
+  @Test
+  public void changesWhenGeneratedIdsAreUsedInOtherPlaces() throws IOException {
+    String first = hash(
+      file(
+        "2024-01-01T10:00:00",
+        "TST:CompositeFrame:1",
+        "TST:DayTypeAssignment:7",
+        "TST:DayTypeAssignment:7"
+      )
+    );
+    String second = hash(
+      file(
+        "2024-01-01T10:00:00",
+        "TST:CompositeFrame:1",
+        "TST:DayTypeAssignment:7",
+        "TST:DayTypeAssignment:8"
+      )
+    );
+
+    assertThat(second).isNotEqualTo(first);
+  }
+
+  @Test
+  public void changesWithIdsNotGeneratedInExport() throws IOException {
+    String first = hash(
+      file("2024-01-01T10:00:00", "TST:CompositeFrame:1", "TST:DayType:7")
+    );
+    String second = hash(
+      file("2024-01-01T10:00:00", "TST:CompositeFrame:1", "TST:DayType:8")
+    );
+
+    assertThat(second).isNotEqualTo(first);
+  }
+
+  private static String hash(Path file) {
+    return NetexContentHash.compute(List.of(file), GENERATED);
+  }
+
+  private static Path file(String timestamp, String frameId, String ref)
+    throws IOException {
+    return file(timestamp, frameId, ref, ref);
+  }
+
+  private static Path file(
+    String timestamp,
+    String frameId,
+    String firstRef,
+    String secondRef
+  ) throws IOException {
+    Path folder = Files.createTempDirectory("content-hash");
+    Path file = folder.resolve("line.xml");
+    Files.writeString(
+      file,
+      """
+      <PublicationDelivery xmlns="http://www.netex.org.uk/netex">
+        <PublicationTimestamp>%s</PublicationTimestamp>
+        <CompositeFrame id="%s" created="%s" version="1">
+          <DayTypeRef ref="%s"/>
+          <DayTypeRef ref="%s"/>
+          <Name>Test</Name>
+        </CompositeFrame>
+      </PublicationDelivery>
+      """.formatted(timestamp, frameId, timestamp, firstRef, secondRef)
+    );
+    return file;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import no.entur.uttu.model.DayType;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.job.Export;
+import no.entur.uttu.model.job.SeverityEnumeration;
+import org.junit.Test;
+
+public class NetexExportContextTest {
+
+  @Test
+  public void idSequenceIsUniqueUnderConcurrentUse() {
+    NetexExportContext context = createTestContext();
+    Set<Long> ids = ConcurrentHashMap.newKeySet();
+
+    IntStream.range(0, 10_000)
+      .parallel()
+      .forEach(i -> ids.add(context.getAndIncrementIdSequence("PolygonType")));
+
+    assertThat(ids).hasSize(10_000);
+    assertThat(context.getAndIncrementIdSequence("PolygonType")).isEqualTo(10_001);
+    assertThat(context.getAndIncrementIdSequence("Other")).isEqualTo(1);
+  }
+
+  @Test
+  public void collectsStateFromConcurrentProducers() {
+    Export export = new Export();
+    export.setProvider(new Provider());
+    NetexExportContext context = new NetexExportContext(export);
+
+    IntStream.range(0, 1_000)
+      .parallel()
+      .forEach(i -> {
+        context.quayRefs.add("NSR:Quay:" + (i % 100));
+        context.addExportMessage(SeverityEnumeration.WARN, "Message {0}", i);
+      });
+
+    assertThat(context.quayRefs).hasSize(100);
+    assertThat(export.getMessages()).hasSize(1_000);
+  }
+
+  @Test
+  public void dayTypeCalendarIsSharedByDayTypesWithSameId() {
+    NetexExportContext context = createTestContext();
+    DayType dayType = new DayType();
+    dayType.setNetexId("TST:DayType:1");
+    // as loaded again after the first day type was detached
+    DayType reloadedDayType = new DayType();
+    reloadedDayType.setNetexId("TST:DayType:1");
+
+    assertThat(context.getDayTypeCalendar(reloadedDayType)).isSameAs(
+      context.getDayTypeCalendar(dayType)
+    );
+    assertThat(context.getDayTypeCalendar(new DayType())).isNotSameAs(
+      context.getDayTypeCalendar(new DayType())
+    );
+  }
+
+  private NetexExportContext createTestContext() {
+    Export export = new Export();
+    Provider provider = new Provider();
+    provider.setName("TestProvider");
+    export.setProvider(provider);
+    return new NetexExportContext(export);
+  }
+}
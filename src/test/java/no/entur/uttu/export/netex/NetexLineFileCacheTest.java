@@ -0,0 +1,205 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import no.entur.uttu.model.Codespace;
+import no.entur.uttu.model.FixedLine;
+import no.entur.uttu.model.JourneyPattern;
+import no.entur.uttu.model.Line;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.ServiceJourney;
+import no.entur.uttu.model.job.Export;
+import org.junit.Test;
+import org.springframework.boot.info.BuildProperties;
+import org.springframework.mock.env.MockEnvironment;
+
+public class NetexLineFileCacheTest {
+
+  @Test
+  public void fingerprintChangesWithVersionOfReachableEntity() throws Exception {
+    NetexLineFileCache cache = createCache(Files.createTempDirectory("line-cache"));
+    NetexExportContext context = createContext();
+    ServiceJourney serviceJourney = new ServiceJourney();
+    serviceJourney.setVersion(1L);
+    Line line = createLine(serviceJourney);
+
+    String fingerprint = fingerprint(
+      cache,
+      line,
+      context,
+      Map.of("NoticeAssignment", 1L)
+    );
+
+    assertThat(
+      fingerprint(cache, line, context, Map.of("NoticeAssignment", 1L))
+    ).isEqualTo(fingerprint);
+
+    serviceJourney.setVersion(2L);
+    assertThat(
+      fingerprint(cache, line, context, Map.of("NoticeAssignment", 1L))
+    ).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void fingerprintChangesWithGeneratedIds() throws Exception {
+    NetexLineFileCache cache = createCache(Files.createTempDirectory("line-cache"));
+    NetexExportContext context = createContext();
+    Line line = createLine(new ServiceJourney());
+
+    assertThat(
+      fingerprint(cache, line, context, Map.of("NoticeAssignment", 1L))
+    ).isNotEqualTo(fingerprint(cache, line, context, Map.of("NoticeAssignment", 5L)));
+  }
+
+  @Test
+  public void fingerprintChangesWithSchemaValidation() throws Exception {
+    NetexLineFileCache cache = createCache(Files.createTempDirectory("line-cache"));
+    NetexExportContext context = createContext();
+    Line line = createLine(new ServiceJourney());
+
+    String validatedFingerprint = cache.fingerprint(
+      line,
+      "line.xml",
+      context,
+      true,
+      Map.of(),
+      Map.of()
+    );
+
+    assertThat(
+      cache.fingerprint(line, "line.xml", context, false, Map.of(), Map.of())
+    ).isNotEqualTo(validatedFingerprint);
+  }
+
+  @Test
+  public void fingerprintChangesWithExportConfiguration() throws Exception {
+    Path folder = Files.createTempDirectory("line-cache");
+    NetexExportContext context = createContext();
+    Line line = createLine(new ServiceJourney());
+    MockEnvironment environment = new MockEnvironment();
+    String configuration = NetexLineFileCache.exportConfiguration(
+      environment,
+      Map.of(),
+      null
+    );
+
+    assertThat(
+      NetexLineFileCache.exportConfiguration(
+        environment,
+        Map.of("NSR", "http://www.rutebanken.org/ns/nsr"),
+        null
+      )
+    ).isNotEqualTo(configuration);
+    assertThat(
+      NetexLineFileCache.exportConfiguration(
+        new MockEnvironment().withProperty("export.time.zone.default", "UTC"),
+        Map.of(),
+        null
+      )
+    ).isNotEqualTo(configuration);
+    assertThat(
+      fingerprint(createCache(folder, "a"), line, context, Map.of())
+    ).isNotEqualTo(fingerprint(createCache(folder, "b"), line, context, Map.of()));
+  }
+
+  @Test
+  public void exportConfigurationIncludesBuild() {
+    Properties build = new Properties();
+    build.setProperty("version", "1.0-SNAPSHOT");
+    build.setProperty("time", "2026-10-18T10:00:00Z");
+
+    assertThat(
+      NetexLineFileCache.exportConfiguration(
+        new MockEnvironment(),
+        Map.of(),
+        new BuildProperties(build)
+      )
+    ).contains("build=1.0-SNAPSHOT@");
+  }
+
+  @Test
+  public void storesCopiesAndPrunesFiles() throws Exception {
+    Path folder = Files.createTempDirectory("line-cache");
+    NetexLineFileCache cache = createCache(folder);
+    Path file = Files.createTempFile("line", ".xml");
+    Files.writeString(file, "<PublicationDelivery/>");
+    Path target = Files.createTempFile("copy", ".xml");
+
+    assertThat(cache.copyTo("tst", "abc", target)).isFalse();
+
+    cache.store("tst", "abc", file);
+    cache.store("tst", "def", file);
+    assertThat(cache.copyTo("tst", "abc", target)).isTrue();
+    assertThat(Files.readString(target)).isEqualTo("<PublicationDelivery/>");
+
+    cache.retainOnly("tst", Set.of("def"));
+    assertThat(cache.copyTo("tst", "abc", target)).isFalse();
+    assertThat(cache.copyTo("tst", "def", target)).isTrue();
+  }
+
+  private String fingerprint(
+    NetexLineFileCache cache,
+    Line line,
+    NetexExportContext context,
+    Map<String, Long> idSequencesAfter
+  ) {
+    return cache.fingerprint(line, "line.xml", context, true, Map.of(), idSequencesAfter);
+  }
+
+  private NetexLineFileCache createCache(Path folder) {
+    return createCache(folder, "");
+  }
+
+  private NetexLineFileCache createCache(Path folder, String exportConfiguration) {
+    return new NetexLineFileCache(
+      folder.toString(),
+      Clock.systemDefaultZone(),
+      new SimpleMeterRegistry(),
+      exportConfiguration
+    );
+  }
+
+  private Line createLine(ServiceJourney serviceJourney) {
+    JourneyPattern journeyPattern = new JourneyPattern();
+    journeyPattern.setServiceJourneys(List.of(serviceJourney));
+    Line line = new FixedLine();
+    line.setJourneyPatterns(List.of(journeyPattern));
+    return line;
+  }
+
+  private NetexExportContext createContext() {
+    Codespace codespace = new Codespace();
+    codespace.setXmlns("TST");
+    codespace.setXmlnsUrl("http://www.rutebanken.org/ns/tst");
+    Provider provider = new Provider();
+    provider.setCode("tst");
+    provider.setName("Test");
+    provider.setCodespace(codespace);
+    Export export = new Export();
+    export.setProvider(provider);
+    return new NetexExportContext(export);
+  }
+}
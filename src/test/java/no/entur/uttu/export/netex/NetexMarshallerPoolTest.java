@@ -0,0 +1,140 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.Unmarshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import org.rutebanken.netex.model.Journey_VersionStructure;
+import org.rutebanken.netex.model.JourneysInFrame_RelStructure;
+import org.rutebanken.netex.model.NoticeAssignment;
+import org.rutebanken.netex.model.ObjectFactory;
+import org.rutebanken.netex.model.PublicationDeliveryStructure;
+import org.rutebanken.netex.model.ServiceJourney;
+import org.rutebanken.netex.model.TimetableFrame;
+
+public class NetexMarshallerPoolTest {
+
+  @Test
+  public void marshalsConcurrentlyWithFewerMarshallersThanCallers() {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    NetexMarshallerPool pool = new NetexMarshallerPool(2, 1, meterRegistry);
+    ObjectFactory objectFactory = new ObjectFactory();
+
+    IntStream.range(0, 20)
+      .parallel()
+      .forEach(i -> {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+          pool.marshal(
+            objectFactory.createPublicationDelivery(
+              new PublicationDeliveryStructure().withVersion("v" + i)
+            ),
+            outputStream,
+            false
+          );
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+        assertThat(outputStream.toString(StandardCharsets.UTF_8)).contains(
+          "version=\"v" + i + "\""
+        );
+      });
+
+    assertThat(pool.getParallelism()).isEqualTo(1);
+    assertThat(pool.getSize()).isEqualTo(2);
+    assertThat(
+      meterRegistry.get("uttu.export.marshal").tag("validate", "false").timer().count()
+    ).isEqualTo(20);
+    assertThat(
+      meterRegistry.get("uttu.export.marshaller.pool.wait").timer().count()
+    ).isEqualTo(20);
+  }
+
+  @Test
+  public void writesStreamedJourneysIntoTimetableFrame() throws Exception {
+    NetexMarshallerPool pool = new NetexMarshallerPool(1, 1, new SimpleMeterRegistry());
+    ObjectFactory objectFactory = new ObjectFactory();
+    TimetableFrame timetableFrame = new TimetableFrame()
+      .withId("TST:TimetableFrame:1")
+      .withVersion("1")
+      .withVehicleJourneys(new JourneysInFrame_RelStructure());
+    PublicationDeliveryStructure publicationDelivery = new PublicationDeliveryStructure()
+      .withVersion("1.15:NO-NeTEx-networktimetable:1.5")
+      .withDataObjects(
+        new PublicationDeliveryStructure.DataObjects()
+          .withCompositeFrameOrCommonFrame(
+            objectFactory.createTimetableFrame(timetableFrame)
+          )
+      );
+    List<String> produced = new ArrayList<>();
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    pool.marshalStreaming(
+      objectFactory.createPublicationDelivery(publicationDelivery),
+      journeyWriter -> {
+        for (int i = 1; i <= 3; i++) {
+          String id = "TST:ServiceJourney:" + i;
+          produced.add(id);
+          journeyWriter.accept(
+            objectFactory.createServiceJourney(
+              new ServiceJourney().withId(id).withVersion("1")
+            )
+          );
+        }
+        return List.of(
+          objectFactory.createNoticeAssignment(
+            new NoticeAssignment().withId("TST:NoticeAssignment:1").withVersion("1")
+          )
+        );
+      },
+      outputStream
+    );
+
+    assertThat(produced).hasSize(3);
+    Unmarshaller unmarshaller = JAXBContext.newInstance(
+      PublicationDeliveryStructure.class
+    ).createUnmarshaller();
+    JAXBElement<?> unmarshalled = (JAXBElement<?>) unmarshaller.unmarshal(
+      new ByteArrayInputStream(outputStream.toByteArray())
+    );
+    PublicationDeliveryStructure writtenDelivery =
+      (PublicationDeliveryStructure) unmarshalled.getValue();
+    TimetableFrame written = (TimetableFrame) writtenDelivery
+      .getDataObjects()
+      .getCompositeFrameOrCommonFrame()
+      .get(0)
+      .getValue();
+    assertThat(
+      written
+        .getVehicleJourneys()
+        .getVehicleJourneyOrDatedVehicleJourneyOrNormalDatedVehicleJourney()
+    )
+      .extracting(Journey_VersionStructure::getId)
+      .containsExactlyElementsOf(produced);
+    assertThat(written.getNoticeAssignments().getNoticeAssignment_()).hasSize(1);
+  }
+}
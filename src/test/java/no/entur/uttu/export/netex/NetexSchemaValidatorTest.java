@@ -0,0 +1,76 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.export.netex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.job.Export;
+import no.entur.uttu.model.job.ExportMessage;
+import no.entur.uttu.model.job.SeverityEnumeration;
+import org.junit.Test;
+
+public class NetexSchemaValidatorTest {
+
+  private final NetexSchemaValidator validator = new NetexSchemaValidator(
+    new NetexMarshallerPool(1, 1, new SimpleMeterRegistry()),
+    1
+  );
+
+  @Test
+  public void reportsSchemaViolationsWithFileAndLine() throws Exception {
+    Path file = Files.createTempFile("invalid", ".xml");
+    Files.writeString(
+      file,
+      """
+      <?xml version="1.0" encoding="UTF-8"?>
+      <PublicationDelivery xmlns="http://www.netex.org.uk/netex" version="1.15">
+        <NotANetexElement/>
+      </PublicationDelivery>
+      """,
+      StandardCharsets.UTF_8
+    );
+    Export export = new Export();
+    export.setProvider(new Provider());
+    NetexExportContext context = new NetexExportContext(export);
+
+    try {
+      boolean valid = validator.validate(file, context, "TST:Line:1");
+
+      assertThat(valid).isFalse();
+      assertThat(export.getMessages()).isNotEmpty();
+      assertThat(export.getMessages())
+        .extracting(ExportMessage::getSeverity)
+        .containsOnly(SeverityEnumeration.ERROR);
+      assertThat(export.getMessages())
+        .extracting(ExportMessage::getMessage)
+        .anyMatch(message ->
+          message.startsWith(
+            "Schema validation error in " + file.getFileName() + " at line 3"
+          )
+        );
+      assertThat(export.getMessages())
+        .extracting(ExportMessage::getLineRef)
+        .containsOnly("TST:Line:1");
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
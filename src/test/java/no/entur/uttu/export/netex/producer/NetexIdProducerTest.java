@@ -0,0 +1,101 @@
+package no.entur.uttu.export.netex.producer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import no.entur.uttu.export.netex.NetexExportContext;
+import no.entur.uttu.model.Codespace;
+import no.entur.uttu.model.Provider;
+import no.entur.uttu.model.Ref;
+import no.entur.uttu.model.job.Export;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.JourneyPattern;
+import org.rutebanken.netex.model.JourneyPatternRefStructure;
+import org.rutebanken.netex.model.Line;
+import org.rutebanken.netex.model.ServiceLinkInJourneyPattern_VersionedChildStructure;
+import org.rutebanken.netex.model.StopPointInJourneyPattern;
+
+class NetexIdProducerTest {
+
+  @Test
+  void testIdIsSplitOnFirstAndLastSeparator() {
+    assertEquals("TST", NetexIdProducer.getObjectIdPrefix("TST:Line:1"));
+    assertEquals("1", NetexIdProducer.getObjectIdSuffix("TST:Line:1"));
+    assertEquals("TST", NetexIdProducer.getObjectIdPrefix("TST:Line:a:b"));
+    assertEquals("b", NetexIdProducer.getObjectIdSuffix("TST:Line:a:b"));
+    assertEquals("TST", NetexIdProducer.getObjectIdPrefix("TST"));
+    assertEquals("TST", NetexIdProducer.getObjectIdSuffix("TST"));
+  }
+
+  @Test
+  void testUpdateIdPrefixReplacesOnlyThePrefix() {
+    NetexExportContext context = context("ENT");
+
+    assertEquals("ENT:Line:1", NetexIdProducer.updateIdPrefix("TST:Line:1", context));
+    assertEquals("ENT:Line:1", NetexIdProducer.updateIdPrefix("T+T:Line:1", context));
+    assertEquals("ENT:Line:TST", NetexIdProducer.updateIdPrefix("TST:Line:TST", context));
+  }
+
+  @Test
+  void testUpdateIdSuffixReplacesOnlyTheSuffix() {
+    assertEquals("TST1:Line:2", NetexIdProducer.updateIdSuffix("TST1:Line:1", "2"));
+    assertEquals("TST:Line:2", NetexIdProducer.updateIdSuffix("TST:Line:1.*", "2"));
+    assertEquals("TST:Line:$1", NetexIdProducer.updateIdSuffix("TST:Line:1", "$1"));
+  }
+
+  @Test
+  void testEntityNameIsReplaced() {
+    Ref ref = new Ref("TST:FlexibleLine:1", "2");
+
+    assertEquals("TST:Line:1", NetexIdProducer.getId(new Line(), ref));
+    assertEquals(
+      "TST:JourneyPattern:1",
+      NetexIdProducer.getReference(new JourneyPatternRefStructure(), ref)
+    );
+    Ref replaced = NetexIdProducer.replaceEntityName(ref, "StopPointInJourneyPattern");
+    assertEquals("TST:StopPointInJourneyPattern:1", replaced.id);
+    assertEquals("2", replaced.version);
+  }
+
+  @Test
+  void testEntityNames() {
+    assertEquals("JourneyPattern", NetexIdProducer.getEntityName(new JourneyPattern()));
+    assertEquals(
+      "JourneyPatternRef",
+      NetexIdProducer.getEntityName(new JourneyPatternRefStructure())
+    );
+    assertEquals(
+      "JourneyPattern",
+      NetexIdProducer.getReferredEntityName(new JourneyPatternRefStructure())
+    );
+    assertEquals(
+      "ServiceLinkInJourneyPattern",
+      NetexIdProducer.getEntityName(
+        new ServiceLinkInJourneyPattern_VersionedChildStructure()
+      )
+    );
+    assertEquals(
+      "StopPointInJourneyPattern",
+      NetexIdProducer.getEntityName(new StopPointInJourneyPattern())
+    );
+  }
+
+  @Test
+  void testGeneratedIdsUseTheCodespaceOfTheExport() {
+    NetexExportContext context = context("ENT");
+
+    assertEquals("ENT:Line:1", NetexIdProducer.generateId(Line.class, context));
+    assertEquals("ENT:Line:2", NetexIdProducer.generateId(Line.class, context));
+    assertEquals("ENT:Line:x", NetexIdProducer.getId(Line.class, "x", context));
+  }
+
+  private static NetexExportContext context(String xmlns) {
+    Codespace codespace = new Codespace();
+    codespace.setXmlns(xmlns);
+    Provider provider = new Provider();
+    provider.setCode(xmlns.toLowerCase());
+    provider.setCodespace(codespace);
+    Export export = new Export();
+    export.setProvider(provider);
+    return new NetexExportContext(export);
+  }
+}
@@ -2,6 +2,7 @@ package no.entur.uttu.export.netex.producer.common;
 
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
@@ -16,7 +17,9 @@ import no.entur.uttu.model.Provider;
 import no.entur.uttu.model.Ref;
 import no.entur.uttu.model.VehicleModeEnumeration;
 import no.entur.uttu.model.job.Export;
+import no.entur.uttu.repository.CachedRouteGeometryRepository;
 import no.entur.uttu.routing.RouteGeometry;
+import no.entur.uttu.routing.RouteGeometryCache;
 import no.entur.uttu.routing.RoutingService;
 import no.entur.uttu.routing.RoutingServiceRequestParams;
 import no.entur.uttu.stopplace.spi.StopPlaceRegistry;
@@ -48,7 +51,17 @@ class ServiceLinkProducerTest {
     serviceLinkProducer = new ServiceLinkProducer(
       objectFactory,
       mockStopPlaceRegistry,
-      mockRoutingService
+      new ServiceLinkRouter(
+        new RouteGeometryCache(
+          mockRoutingService,
+          Mockito.mock(CachedRouteGeometryRepository.class),
+          new SimpleMeterRegistry(),
+          100,
+          false
+        ),
+        2,
+        60
+      )
     );
   }
 
@@ -106,6 +119,7 @@ class ServiceLinkProducerTest {
       BigDecimal.valueOf(60.6),
       VehicleModeEnumeration.BUS
     );
+    when(mockRoutingService.isEnabled(VehicleModeEnumeration.BUS)).thenReturn(true);
     when(mockRoutingService.getRouteGeometry(params)).thenReturn(
       new RouteGeometry(
         List.of(
@@ -0,0 +1,171 @@
+package no.entur.uttu.export.netex.producer.common;
+
+import static no.entur.uttu.routing.osrm.OsrmService.createStraightLineRouteGeometry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import no.entur.uttu.model.VehicleModeEnumeration;
+import no.entur.uttu.repository.CachedRouteGeometryRepository;
+import no.entur.uttu.routing.QuayRoutingRequest;
+import no.entur.uttu.routing.RouteGeometry;
+import no.entur.uttu.routing.RouteGeometryCache;
+import no.entur.uttu.routing.RoutingService;
+import no.entur.uttu.routing.RoutingServiceRequestParams;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class ServiceLinkRouterTest {
+
+  RoutingService mockRoutingService = Mockito.mock(RoutingService.class);
+
+  ServiceLinkRouter serviceLinkRouter = new ServiceLinkRouter(
+    new RouteGeometryCache(
+      mockRoutingService,
+      Mockito.mock(CachedRouteGeometryRepository.class),
+      new SimpleMeterRegistry(),
+      100,
+      false
+    ),
+    2,
+    60
+  );
+
+  RoutingServiceRequestParams params = new RoutingServiceRequestParams(
+    BigDecimal.valueOf(10.1),
+    BigDecimal.valueOf(60.2),
+    BigDecimal.valueOf(10.5),
+    BigDecimal.valueOf(60.6),
+    VehicleModeEnumeration.BUS
+  );
+
+  QuayRoutingRequest request = new QuayRoutingRequest("TST:Quay:1", "TST:Quay:2", params);
+
+  @Test
+  void testDuplicateRequestsAreRoutedOnce() {
+    RouteGeometry routeGeometry = new RouteGeometry(
+      List.of(
+        List.of(BigDecimal.valueOf(10.1), BigDecimal.valueOf(60.2)),
+        List.of(BigDecimal.valueOf(10.3), BigDecimal.valueOf(60.4)),
+        List.of(BigDecimal.valueOf(10.5), BigDecimal.valueOf(60.6))
+      ),
+      BigDecimal.valueOf(100)
+    );
+    when(mockRoutingService.isEnabled(VehicleModeEnumeration.BUS)).thenReturn(true);
+    when(mockRoutingService.getRouteGeometry(params)).thenReturn(routeGeometry);
+
+    Map<QuayRoutingRequest, RouteGeometry> routes = serviceLinkRouter.route(
+      List.of(request, request, request)
+    );
+
+    Assertions.assertEquals(routeGeometry, routes.get(request));
+    verify(mockRoutingService, times(1)).getRouteGeometry(any());
+  }
+
+  @Test
+  void testSequenceOfLinksAlreadyRoutedIsSkipped() {
+    RoutingServiceRequestParams nextParams = new RoutingServiceRequestParams(
+      BigDecimal.valueOf(10.5),
+      BigDecimal.valueOf(60.6),
+      BigDecimal.valueOf(10.7),
+      BigDecimal.valueOf(60.8),
+      VehicleModeEnumeration.BUS
+    );
+    QuayRoutingRequest nextRequest = new QuayRoutingRequest(
+      "TST:Quay:2",
+      "TST:Quay:3",
+      nextParams
+    );
+    RouteGeometry routeGeometry = createStraightLineRouteGeometry(params);
+    RouteGeometry nextRouteGeometry = createStraightLineRouteGeometry(nextParams);
+    when(mockRoutingService.isEnabled(VehicleModeEnumeration.BUS)).thenReturn(true);
+    when(mockRoutingService.getRouteGeometries(List.of(params, nextParams))).thenReturn(
+      List.of(routeGeometry, nextRouteGeometry)
+    );
+
+    Map<QuayRoutingRequest, RouteGeometry> routes = serviceLinkRouter.routeSequences(
+      List.of(List.of(request, nextRequest), List.of(nextRequest))
+    );
+
+    Assertions.assertEquals(nextRouteGeometry, routes.get(nextRequest));
+    verify(mockRoutingService, times(1)).getRouteGeometries(any());
+    verify(mockRoutingService, never()).getRouteGeometry(any());
+  }
+
+  @Test
+  void testFailedRequestFallsBackToStraightLine() {
+    when(mockRoutingService.isEnabled(VehicleModeEnumeration.BUS)).thenReturn(true);
+    when(mockRoutingService.getRouteGeometry(params)).thenThrow(
+      new IllegalStateException("Routing failed")
+    );
+
+    RouteGeometry routeGeometry = serviceLinkRouter.route(List.of(request)).get(request);
+
+    Assertions.assertEquals(2, routeGeometry.coordinates().size());
+  }
+
+  @Test
+  void testRoutingStopsAtTheDeadline() throws Exception {
+    ServiceLinkRouter router = new ServiceLinkRouter(
+      new RouteGeometryCache(
+        mockRoutingService,
+        Mockito.mock(CachedRouteGeometryRepository.class),
+        new SimpleMeterRegistry(),
+        100,
+        false
+      ),
+      1,
+      1
+    );
+    RoutingServiceRequestParams queuedParams = new RoutingServiceRequestParams(
+      BigDecimal.valueOf(11.1),
+      BigDecimal.valueOf(61.2),
+      BigDecimal.valueOf(11.5),
+      BigDecimal.valueOf(61.6),
+      VehicleModeEnumeration.BUS
+    );
+    QuayRoutingRequest queuedRequest = new QuayRoutingRequest(
+      "TST:Quay:3",
+      "TST:Quay:4",
+      queuedParams
+    );
+    CountDownLatch interrupted = new CountDownLatch(1);
+    when(mockRoutingService.isEnabled(VehicleModeEnumeration.BUS)).thenReturn(true);
+    when(mockRoutingService.getRouteGeometry(params)).thenAnswer(invocation -> {
+      try {
+        Thread.sleep(60_000);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+      throw new IllegalStateException("Routing interrupted");
+    });
+
+    Map<QuayRoutingRequest, RouteGeometry> routes = router.route(
+      List.of(request, queuedRequest)
+    );
+
+    Assertions.assertEquals(2, routes.get(request).coordinates().size());
+    Assertions.assertEquals(2, routes.get(queuedRequest).coordinates().size());
+    Assertions.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    verify(mockRoutingService, never()).getRouteGeometry(queuedParams);
+    router.shutdown();
+  }
+
+  @Test
+  void testPercentile() {
+    List<Long> sorted = List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+
+    Assertions.assertEquals(5, ServiceLinkRouter.percentile(sorted, 50));
+    Assertions.assertEquals(9, ServiceLinkRouter.percentile(sorted, 90));
+    Assertions.assertEquals(10, ServiceLinkRouter.percentile(sorted, 99));
+  }
+}
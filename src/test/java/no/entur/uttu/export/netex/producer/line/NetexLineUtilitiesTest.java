@@ -2,6 +2,7 @@ package no.entur.uttu.export.netex.producer.line;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -76,6 +77,32 @@ public class NetexLineUtilitiesTest {
     assertNull(availabilityPeriod);
   }
 
+  @Test
+  public void lastChangedIncludesEntitiesReachableFromLine() {
+    Line line = new FlexibleLine();
+    line.setChanged(Instant.parse("2024-01-01T00:00:00Z"));
+    OperatingPeriod operatingPeriod = new OperatingPeriod();
+    operatingPeriod.setChanged(Instant.parse("2024-02-01T00:00:00Z"));
+    line.setJourneyPatterns(
+      List.of(createJourneyPatternForGivenOperatingPeriods(operatingPeriod))
+    );
+
+    assertEquals(
+      Instant.parse("2024-02-01T00:00:00Z"),
+      NetexLineUtilities.calculateLastChangedForLine(line).orElseThrow()
+    );
+  }
+
+  @Test
+  public void lastChangedIsEmptyForUnsavedLine() {
+    Line line = new FlexibleLine();
+    line.setJourneyPatterns(
+      List.of(createJourneyPatternForGivenDates(LocalDate.of(2022, 3, 1)))
+    );
+
+    assertTrue(NetexLineUtilities.calculateLastChangedForLine(line).isEmpty());
+  }
+
   private JourneyPattern createJourneyPatternForGivenOperatingPeriods(
     OperatingPeriod... operatingPeriods
   ) {
@@ -4,10 +4,12 @@ import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.WebTarget;
 import no.entur.uttu.UttuIntegrationTest;
+import no.entur.uttu.model.job.ExportStatusEnumeration;
 import no.entur.uttu.stubs.UserContextServiceStub;
 import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
 import org.junit.Before;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.graphql.test.tester.GraphQlTester;
 import org.springframework.graphql.test.tester.HttpGraphQlTester;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
@@ -42,4 +44,26 @@ public abstract class AbstractGraphQLIntegrationTest extends UttuIntegrationTest
       .headers(headers -> headers.setBasicAuth("admin", "topsecret"))
       .build();
   }
+
+  /**
+   * Exports run in the background, poll the export until it is no longer in progress.
+   */
+  protected GraphQlTester.Response awaitExportFinished(String exportId)
+    throws InterruptedException {
+    for (int attempt = 0; attempt < 300; attempt++) {
+      var exportResponse = graphQlTester
+        .documentName("exportById")
+        .variable("id", exportId)
+        .execute();
+      String status = exportResponse
+        .path("export.exportStatus")
+        .entity(String.class)
+        .get();
+      if (!ExportStatusEnumeration.IN_PROGRESS.value().equals(status)) {
+        return exportResponse;
+      }
+      Thread.sleep(100);
+    }
+    throw new AssertionError("Export " + exportId + " did not finish in time");
+  }
 }
@@ -40,6 +40,11 @@ public class ExportFixedLineGraphQLIntegrationTest
     assertThat(exportResponse.path("export.name").entity(String.class).get()).isEqualTo(
       FIXED_LINE_NAME
     );
+    assertThat(
+      exportResponse.path("export.exportStatus").entity(String.class).get()
+    ).isEqualTo(ExportStatusEnumeration.IN_PROGRESS.value());
+
+    exportResponse = awaitExportFinished(exportId);
     assertThat(
       exportResponse.path("export.exportStatus").entity(String.class).get()
     ).isEqualTo(ExportStatusEnumeration.SUCCESS.value());
@@ -2,16 +2,23 @@ package no.entur.uttu.integration;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import no.entur.uttu.model.job.Export;
 import no.entur.uttu.model.job.ExportStatusEnumeration;
+import no.entur.uttu.repository.ExportRepository;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.graphql.test.tester.GraphQlTester;
 
 public class ExportGraphQLIntegrationTest extends AbstractGraphQLIntegrationTest {
 
   private static final String EXPORT_NAME = "ExportTest";
 
+  @Autowired
+  private ExportRepository exportRepository;
+
   @Test
   public void testCreateExport() throws Exception {
     // Create flexible line
@@ -39,6 +46,11 @@ public class ExportGraphQLIntegrationTest extends AbstractGraphQLIntegrationTest
     assertThat(exportResponse.path("export.name").entity(String.class).get()).isEqualTo(
       EXPORT_NAME
     );
+    assertThat(
+      exportResponse.path("export.exportStatus").entity(String.class).get()
+    ).isEqualTo(ExportStatusEnumeration.IN_PROGRESS.value());
+
+    exportResponse = awaitExportFinished(exportId);
     assertThat(
       exportResponse.path("export.exportStatus").entity(String.class).get()
     ).isEqualTo(ExportStatusEnumeration.SUCCESS.value());
@@ -94,6 +106,11 @@ public class ExportGraphQLIntegrationTest extends AbstractGraphQLIntegrationTest
     assertThat(exportResponse.path("export.name").entity(String.class).get()).isEqualTo(
       EXPORT_NAME + "_DatedServiceJourneys"
     );
+    assertThat(
+      exportResponse.path("export.exportStatus").entity(String.class).get()
+    ).isEqualTo(ExportStatusEnumeration.IN_PROGRESS.value());
+
+    exportResponse = awaitExportFinished(exportId);
     assertThat(
       exportResponse.path("export.exportStatus").entity(String.class).get()
     ).isEqualTo(ExportStatusEnumeration.SUCCESS.value());
@@ -108,6 +125,62 @@ public class ExportGraphQLIntegrationTest extends AbstractGraphQLIntegrationTest
     // that was failing with "dayTypes content not complete" schema validation error
   }
 
+  @Test
+  public void testExportsOfSelectedLinesAndDryRunsAreNotValidationBaseline()
+    throws Exception {
+    String lineRef = createFlexibleLine(EXPORT_NAME + "_ValidationBaseline")
+      .path("mutateFlexibleLine.id")
+      .entity(String.class)
+      .get();
+    String selectedLinesExportId = exportAndAwaitSuccess(
+      Map.of(
+        "name",
+        EXPORT_NAME + "_SelectedLines",
+        "lineAssociations",
+        List.of(Map.of("lineRef", lineRef))
+      )
+    );
+    String dryRunExportId = exportAndAwaitSuccess(
+      Map.of(
+        "name",
+        EXPORT_NAME + "_DryRun",
+        "dryRun",
+        true,
+        "lineAssociations",
+        List.of(Map.of("lineRef", lineRef))
+      )
+    );
+
+    Export baseline =
+      exportRepository.findFirstByProviderCodeAndDryRunFalseAndExportLineAssociationsIsEmptyAndExportStatusAndCreatedBeforeOrderByCreatedDesc(
+        "tst",
+        ExportStatusEnumeration.SUCCESS,
+        Instant.now()
+      );
+
+    // lines outside of the selection may have changed unvalidated before these exports
+    if (baseline != null) {
+      assertThat(baseline.getNetexId()).isNotIn(selectedLinesExportId, dryRunExportId);
+    }
+  }
+
+  private String exportAndAwaitSuccess(Map<String, Object> exportInput)
+    throws InterruptedException {
+    String exportId = graphQlTester
+      .documentName("export")
+      .variable("export", exportInput)
+      .execute()
+      .path("export.id")
+      .entity(String.class)
+      .get();
+
+    var exportResponse = awaitExportFinished(exportId);
+    assertThat(
+      exportResponse.path("export.exportStatus").entity(String.class).get()
+    ).isEqualTo(ExportStatusEnumeration.SUCCESS.value());
+    return exportId;
+  }
+
   private GraphQlTester.Response createFlexibleLine(String name) {
     var networkId = createNetworkWithName(name + "_network")
       .path("mutateNetwork.id")
@@ -0,0 +1,103 @@
+package no.entur.uttu.integration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import no.entur.uttu.model.job.ExportStatusEnumeration;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.graphql.test.tester.GraphQlTester;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = { "export.validateAgainstSchema=false" })
+public class ExportLineFileCacheGraphQLIntegrationTest
+  extends AbstractGraphQLIntegrationTest {
+
+  private static final String FIXED_LINE_NAME = "Bufret linje";
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @DynamicPropertySource
+  static void lineCacheProperties(DynamicPropertyRegistry registry) throws IOException {
+    String folder = Files.createTempDirectory("line-cache").toString();
+    registry.add("export.lineCache.folder", () -> folder);
+  }
+
+  @Test
+  public void testUnvalidatedLineFileIsReused() throws Exception {
+    String lineRef = createFixedLine(FIXED_LINE_NAME)
+      .path("mutateFixedLine.id")
+      .entity(String.class)
+      .get();
+    Map<String, Object> exportInput = Map.of(
+      "name",
+      FIXED_LINE_NAME,
+      "lineAssociations",
+      List.of(Map.of("lineRef", lineRef))
+    );
+
+    exportAndAwaitSuccess(exportInput);
+    double hitsAfterFirstExport = cacheHits();
+
+    exportAndAwaitSuccess(exportInput);
+
+    assertThat(cacheHits()).isEqualTo(hitsAfterFirstExport + 1);
+  }
+
+  private void exportAndAwaitSuccess(Map<String, Object> exportInput)
+    throws InterruptedException {
+    String exportId = graphQlTester
+      .documentName("export")
+      .variable("export", exportInput)
+      .execute()
+      .path("export.id")
+      .entity(String.class)
+      .get();
+
+    var exportResponse = awaitExportFinished(exportId);
+    assertThat(
+      exportResponse.path("export.exportStatus").entity(String.class).get()
+    ).isEqualTo(ExportStatusEnumeration.SUCCESS.value());
+  }
+
+  private double cacheHits() {
+    return meterRegistry.counter("uttu.export.linecache.lookup", "result", "hit").count();
+  }
+
+  private GraphQlTester.Response createFixedLine(String name) {
+    String networkId = createNetworkWithName(name)
+      .path("mutateNetwork.id")
+      .entity(String.class)
+      .get();
+
+    String dayTypeRef = createDayType()
+      .path("mutateDayType.id")
+      .entity(String.class)
+      .get();
+
+    var input = InputGenerators.generateFixedLineInput(name, networkId, dayTypeRef);
+    return graphQlTester
+      .documentName("mutateFixedLine")
+      .variable("input", input)
+      .execute();
+  }
+
+  private GraphQlTester.Response createDayType() {
+    var input = InputGenerators.generateDayTypeInput();
+    return graphQlTester.documentName("mutateDayType").variable("input", input).execute();
+  }
+
+  private GraphQlTester.Response createNetworkWithName(String name) {
+    return graphQlTester
+      .documentName("mutateNetwork")
+      .variable("network", InputGenerators.generateNetworkInput(name, "NOG:Authority:1"))
+      .execute();
+  }
+}
@@ -47,4 +47,20 @@ public class ExportTest {
     Assert.assertEquals(warnMsg2, messages.next());
     Assert.assertEquals(infoMsg, messages.next());
   }
+
+  @Test
+  public void failedExportHasErrorMessage() {
+    Export export = new Export();
+    String message = "Export failed unexpectedly: can't parse {" + "x".repeat(5000);
+
+    export.markAsFailed(message);
+
+    Assert.assertFalse(export.isInProgress());
+    Assert.assertFalse(export.isSuccess());
+    String storedMessage = export.getMessages().first().getMessage();
+    Assert.assertEquals(4000, storedMessage.length());
+    Assert.assertTrue(
+      storedMessage.startsWith("Export failed unexpectedly: can't parse {")
+    );
+  }
 }
@@ -0,0 +1,175 @@
+package no.entur.uttu.routing;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+import no.entur.uttu.model.VehicleModeEnumeration;
+import no.entur.uttu.repository.CachedRouteGeometryRepository;
+import no.entur.uttu.routing.osrm.OsrmService;
+import no.entur.uttu.stopplace.spi.QuayLocationChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RouteGeometryCacheTest {
+
+  private final RoutingService routingService = mock(RoutingService.class);
+
+  private final CachedRouteGeometryRepository repository = mock(
+    CachedRouteGeometryRepository.class
+  );
+
+  private RouteGeometryCache cache;
+
+  private final RoutingServiceRequestParams params = params(10.1, 60.2, 10.5, 60.6);
+
+  private final RouteGeometry routeGeometry = new RouteGeometry(
+    List.of(
+      List.of(BigDecimal.valueOf(10.1), BigDecimal.valueOf(60.2)),
+      List.of(BigDecimal.valueOf(10.3), BigDecimal.valueOf(60.4)),
+      List.of(BigDecimal.valueOf(10.5), BigDecimal.valueOf(60.6))
+    ),
+    BigDecimal.valueOf(100)
+  );
+
+  @BeforeEach
+  void setUp() {
+    cache = new RouteGeometryCache(
+      routingService,
+      repository,
+      new SimpleMeterRegistry(),
+      100,
+      true
+    );
+    when(routingService.isEnabled(VehicleModeEnumeration.BUS)).thenReturn(true);
+  }
+
+  @Test
+  void testRouteIsOnlyRequestedOnce() {
+    when(routingService.getRouteGeometry(params)).thenReturn(routeGeometry);
+
+    assertEquals(routeGeometry, cache.getRouteGeometry(request(params)));
+    assertEquals(routeGeometry, cache.getRouteGeometry(request(params)));
+
+    verify(routingService, times(1)).getRouteGeometry(any());
+    verify(repository, times(1)).store(any());
+  }
+
+  @Test
+  void testRouteIsRequestedAgainWhenQuayHasMoved() {
+    RoutingServiceRequestParams movedParams = params(10.1, 60.2, 10.6, 60.6);
+    when(routingService.getRouteGeometry(any())).thenReturn(routeGeometry);
+
+    cache.getRouteGeometry(request(params));
+    cache.getRouteGeometry(request(movedParams));
+
+    verify(routingService).getRouteGeometry(params);
+    verify(routingService).getRouteGeometry(movedParams);
+  }
+
+  @Test
+  void testRouteIsRemovedWhenQuayLocationChanges() {
+    when(routingService.getRouteGeometry(params)).thenReturn(routeGeometry);
+
+    cache.getRouteGeometry(request(params));
+    cache.onQuayLocationChanged(new QuayLocationChangedEvent(Set.of("TST:Quay:2")));
+    cache.getRouteGeometry(request(params));
+
+    verify(routingService, times(2)).getRouteGeometry(params);
+    verify(repository).deleteByQuayRefs(Set.of("TST:Quay:2"));
+  }
+
+  @Test
+  void testStraightLineFallbackIsNotCached() {
+    when(routingService.getRouteGeometry(params)).thenAnswer(invocation ->
+      OsrmService.createStraightLineRouteGeometry(params)
+    );
+
+    cache.getRouteGeometry(request(params));
+    cache.getRouteGeometry(request(params));
+
+    verify(routingService, times(2)).getRouteGeometry(params);
+    verify(repository, never()).store(any());
+  }
+
+  @Test
+  void testSequenceIsRoutedInOneRequestAndCachedPerLeg() {
+    RoutingServiceRequestParams nextParams = params(10.5, 60.6, 10.7, 60.8);
+    QuayRoutingRequest nextRequest = new QuayRoutingRequest(
+      "TST:Quay:2",
+      "TST:Quay:3",
+      nextParams
+    );
+    RouteGeometry nextRouteGeometry = new RouteGeometry(
+      List.of(
+        List.of(BigDecimal.valueOf(10.5), BigDecimal.valueOf(60.6)),
+        List.of(BigDecimal.valueOf(10.7), BigDecimal.valueOf(60.8))
+      ),
+      BigDecimal.valueOf(50)
+    );
+    when(routingService.getRouteGeometries(List.of(params, nextParams))).thenReturn(
+      List.of(routeGeometry, nextRouteGeometry)
+    );
+
+    List<QuayRoutingRequest> legs = List.of(request(params), nextRequest);
+    assertEquals(
+      List.of(routeGeometry, nextRouteGeometry),
+      cache.getRouteGeometries(legs)
+    );
+    assertEquals(
+      List.of(routeGeometry, nextRouteGeometry),
+      cache.getRouteGeometries(legs)
+    );
+    assertEquals(routeGeometry, cache.getRouteGeometry(request(params)));
+
+    verify(routingService, times(1)).getRouteGeometries(any());
+    verify(routingService, never()).getRouteGeometry(any());
+  }
+
+  @Test
+  void testOnlyLegsNotCachedAreRouted() {
+    RoutingServiceRequestParams secondParams = params(10.5, 60.6, 10.7, 60.8);
+    RoutingServiceRequestParams thirdParams = params(10.7, 60.8, 10.9, 61.0);
+    List<QuayRoutingRequest> legs = List.of(
+      request(params),
+      new QuayRoutingRequest("TST:Quay:2", "TST:Quay:3", secondParams),
+      new QuayRoutingRequest("TST:Quay:3", "TST:Quay:4", thirdParams)
+    );
+    when(routingService.getRouteGeometry(params)).thenReturn(routeGeometry);
+    when(
+      routingService.getRouteGeometries(List.of(secondParams, thirdParams))
+    ).thenReturn(List.of(routeGeometry, routeGeometry));
+
+    cache.getRouteGeometry(request(params));
+    assertEquals(
+      List.of(routeGeometry, routeGeometry, routeGeometry),
+      cache.getRouteGeometries(legs)
+    );
+
+    verify(routingService, times(1)).getRouteGeometry(any());
+    verify(routingService).getRouteGeometries(List.of(secondParams, thirdParams));
+  }
+
+  private static QuayRoutingRequest request(RoutingServiceRequestParams params) {
+    return new QuayRoutingRequest("TST:Quay:1", "TST:Quay:2", params);
+  }
+
+  private static RoutingServiceRequestParams params(
+    double longitudeFrom,
+    double latitudeFrom,
+    double longitudeTo,
+    double latitudeTo
+  ) {
+    return new RoutingServiceRequestParams(
+      BigDecimal.valueOf(longitudeFrom),
+      BigDecimal.valueOf(latitudeFrom),
+      BigDecimal.valueOf(longitudeTo),
+      BigDecimal.valueOf(latitudeTo),
+      VehicleModeEnumeration.BUS
+    );
+  }
+}
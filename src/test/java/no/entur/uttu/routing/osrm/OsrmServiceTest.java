@@ -184,4 +184,101 @@ class OsrmServiceTest {
       "Thread should be marked as interrupted"
     );
   }
+
+  @Test
+  void getRouteGeometries_shouldSplitRouteAtWaypoints()
+    throws IOException, InterruptedException {
+    // Given
+    List<RoutingServiceRequestParams> legs = List.of(
+      new RoutingServiceRequestParams(
+        BigDecimal.valueOf(10.39),
+        BigDecimal.valueOf(63.43),
+        BigDecimal.valueOf(10.40),
+        BigDecimal.valueOf(63.44),
+        VehicleModeEnumeration.BUS
+      ),
+      new RoutingServiceRequestParams(
+        BigDecimal.valueOf(10.40),
+        BigDecimal.valueOf(63.44),
+        BigDecimal.valueOf(10.42),
+        BigDecimal.valueOf(63.45),
+        VehicleModeEnumeration.BUS
+      )
+    );
+
+    String mockResponse =
+      """
+      {
+          "code": "Ok",
+          "routes": [{
+              "geometry": {
+                  "coordinates": [[10.39, 63.43], [10.395, 63.435], [10.40, 63.44], [10.41, 63.445], [10.415, 63.447], [10.42, 63.45]]
+              },
+              "distance": 3000.5,
+              "legs": [
+                  { "distance": 1000.25, "annotation": { "distance": [500.1, 500.15] } },
+                  { "distance": 2000.25, "annotation": { "distance": [1000, 500.25, 500] } }
+              ]
+          }]
+      }
+      """;
+    when(httpClient.send(any(MutableRequest.class), any(BodyHandler.class))).thenReturn(
+      httpResponse
+    );
+    when(httpResponse.body()).thenReturn(mockResponse);
+
+    // When
+    List<RouteGeometry> geometries = osrmService.getRouteGeometries(legs);
+
+    // Then
+    assertEquals(2, geometries.size());
+    assertEquals(3, geometries.get(0).coordinates().size());
+    assertEquals(BigDecimal.valueOf(1000.25), geometries.get(0).distance());
+    assertEquals(4, geometries.get(1).coordinates().size());
+    assertEquals(BigDecimal.valueOf(2000.25), geometries.get(1).distance());
+    assertEquals(
+      geometries.get(0).coordinates().getLast(),
+      geometries.get(1).coordinates().getFirst()
+    );
+    verify(httpClient, times(1)).send(any(MutableRequest.class), any(BodyHandler.class));
+  }
+
+  @Test
+  void getRouteGeometries_shouldRouteLegsSeparatelyWhenNotContinuous()
+    throws IOException, InterruptedException {
+    // Given
+    RoutingServiceRequestParams params = new RoutingServiceRequestParams(
+      BigDecimal.valueOf(10.39),
+      BigDecimal.valueOf(63.43),
+      BigDecimal.valueOf(10.40),
+      BigDecimal.valueOf(63.44),
+      VehicleModeEnumeration.BUS
+    );
+
+    String mockResponse =
+      """
+      {
+          "code": "Ok",
+          "routes": [{
+              "geometry": {
+                  "coordinates": [[10.39, 63.43], [10.395, 63.435], [10.40, 63.44]]
+              },
+              "distance": 1234.56
+          }]
+      }
+      """;
+    when(httpClient.send(any(MutableRequest.class), any(BodyHandler.class))).thenReturn(
+      httpResponse
+    );
+    when(httpResponse.body()).thenReturn(mockResponse);
+
+    // When
+    List<RouteGeometry> geometries = osrmService.getRouteGeometries(
+      List.of(params, params)
+    );
+
+    // Then
+    assertEquals(2, geometries.size());
+    verify(httpClient, times(2)).send(any(MutableRequest.class), any(BodyHandler.class));
+  }
 }
@@ -16,6 +16,10 @@ import no.entur.uttu.stopplace.filter.params.QuayIdFilterParams;
 import no.entur.uttu.stopplace.filter.params.SearchTextStopPlaceFilterParams;
 import no.entur.uttu.stopplace.filter.params.StopPlaceFilterParams;
 import no.entur.uttu.stopplace.filter.params.TransportModeStopPlaceFilterParams;
+import no.entur.uttu.stopplace.index.CompactStopPlace;
+import no.entur.uttu.stopplace.index.StopPlaceIndexManager;
+import no.entur.uttu.stopplace.index.StopPlaceTextIndex;
+import no.entur.uttu.stopplace.spatial.StopPlaceSpatialService;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -36,6 +40,7 @@ public class StopPlaceFilterTest {
   private final List<StopPlace> allStopPlacesIndex = new ArrayList<>();
   private final Map<String, StopPlace> stopPlaceByQuayRefIndex =
     new ConcurrentHashMap<>();
+  private final StopPlaceIndexManager indexManager = new StopPlaceIndexManager();
   private StopPlacesFilter stopPlacesFilter;
 
   @Before
@@ -80,6 +85,94 @@ public class StopPlaceFilterTest {
     Assert.assertEquals(6, allStopPlacesIndex.size());
   }
 
+  @Test
+  public void testSnapshotFilterBySearchTextAndTransportMode() {
+    StopPlaceFilterParams busFilter = new TransportModeStopPlaceFilterParams(
+      AllVehicleModesOfTransportEnumeration.BUS
+    );
+    StopPlaceFilterParams stopNameFilter = new SearchTextStopPlaceFilterParams("meri");
+    List<StopPlace> filteredStopPlaces = createIndexedStopPlacesFilter()
+      .filter(indexManager.getSnapshot(), List.of(busFilter, stopNameFilter));
+    // ranked by match quality, and then by name
+    Assert.assertEquals(
+      List.of("Meri-Toppila E", "Meri-Toppila P"),
+      filteredStopPlaces.stream().map(s -> s.getName().getValue()).toList()
+    );
+  }
+
+  @Test
+  public void testSnapshotFilterByTransportModeAndBoundingBox() {
+    StopPlacesFilter indexedStopPlacesFilter = createIndexedStopPlacesFilter();
+    StopPlaceFilterParams busFilter = new TransportModeStopPlaceFilterParams(
+      AllVehicleModesOfTransportEnumeration.BUS
+    );
+    StopPlaceFilterParams railFilter = new TransportModeStopPlaceFilterParams(
+      AllVehicleModesOfTransportEnumeration.RAIL
+    );
+    StopPlaceFilterParams meriToppilaAreaFilter = new BoundingBoxFilterParams(
+      BigDecimal.valueOf(66),
+      BigDecimal.valueOf(25.44),
+      BigDecimal.valueOf(65.044),
+      BigDecimal.valueOf(24)
+    );
+    List<StopPlace> filteredStopPlaces = indexedStopPlacesFilter.filter(
+      indexManager.getSnapshot(),
+      List.of(busFilter, meriToppilaAreaFilter)
+    );
+    Assert.assertEquals(2, filteredStopPlaces.size());
+
+    filteredStopPlaces = indexedStopPlacesFilter.filter(
+      indexManager.getSnapshot(),
+      List.of(railFilter, meriToppilaAreaFilter)
+    );
+    Assert.assertEquals(0, filteredStopPlaces.size());
+  }
+
+  @Test
+  public void testSnapshotFilterWithIndexesBehindSnapshot() {
+    StopPlacesFilter indexedStopPlacesFilter = createIndexedStopPlacesFilter();
+    // removed in a snapshot the spatial and text indexes have not been updated with yet
+    indexManager.removeStopPlaceAndRelated("FSR:StopPlace:330127");
+
+    StopPlaceFilterParams busFilter = new TransportModeStopPlaceFilterParams(
+      AllVehicleModesOfTransportEnumeration.BUS
+    );
+    StopPlaceFilterParams meriToppilaAreaFilter = new BoundingBoxFilterParams(
+      BigDecimal.valueOf(66),
+      BigDecimal.valueOf(25.44),
+      BigDecimal.valueOf(65.044),
+      BigDecimal.valueOf(24)
+    );
+    List<StopPlace> filteredStopPlaces = indexedStopPlacesFilter.filter(
+      indexManager.getSnapshot(),
+      List.of(busFilter, meriToppilaAreaFilter)
+    );
+    Assert.assertEquals(
+      List.of("FSR:StopPlace:330128"),
+      filteredStopPlaces.stream().map(StopPlace::getId).toList()
+    );
+
+    filteredStopPlaces = indexedStopPlacesFilter.filter(
+      indexManager.getSnapshot(),
+      List.of(new SearchTextStopPlaceFilterParams("meri"))
+    );
+    Assert.assertEquals(
+      List.of("FSR:StopPlace:330128"),
+      filteredStopPlaces.stream().map(StopPlace::getId).toList()
+    );
+  }
+
+  @Test
+  public void testSnapshotFilterByTransportMode() {
+    StopPlaceFilterParams railFilter = new TransportModeStopPlaceFilterParams(
+      AllVehicleModesOfTransportEnumeration.RAIL
+    );
+    List<StopPlace> filteredStopPlaces = createIndexedStopPlacesFilter()
+      .filter(indexManager.getSnapshot(), List.of(railFilter));
+    Assert.assertEquals(1, filteredStopPlaces.size());
+    Assert.assertEquals("FIN:StopPlace:HKI", filteredStopPlaces.get(0).getId());
+  }
+
   @Test
   public void testLimitStopsQuantityFilter() {
     StopPlaceFilterParams limitFilter = new LimitStopPlacesQuantityFilterParams(1);
@@ -131,6 +224,46 @@ public class StopPlaceFilterTest {
     );
   }
 
+  @Test
+  public void testShortSearchTextMatchesStartOfWordsWithAndWithoutIndex() {
+    // "to" is within "Stopplace" of every id, but only starts the words of "Meri-Toppila"
+    StopPlaceFilterParams shortTextFilter = new SearchTextStopPlaceFilterParams("to");
+    List<String> expected = List.of("FSR:StopPlace:330127", "FSR:StopPlace:330128");
+
+    List<StopPlace> filteredStopPlaces = stopPlacesFilter.filter(
+      allStopPlacesIndex,
+      stopPlaceByQuayRefIndex,
+      List.of(shortTextFilter)
+    );
+    Assert.assertEquals(
+      expected,
+      filteredStopPlaces.stream().map(StopPlace::getId).sorted().toList()
+    );
+
+    filteredStopPlaces = createIndexedStopPlacesFilter()
+      .filter(indexManager.getSnapshot(), List.of(shortTextFilter));
+    Assert.assertEquals(
+      expected,
+      filteredStopPlaces.stream().map(StopPlace::getId).sorted().toList()
+    );
+  }
+
+  @Test
+  public void testSearchTextFilterWithLimitKeepsBestMatches() {
+    StopPlaceFilterParams stopNameFilter = new SearchTextStopPlaceFilterParams("Meri");
+    List<StopPlace> rankedStopPlaces = stopPlacesFilter.filter(
+      allStopPlacesIndex,
+      stopPlaceByQuayRefIndex,
+      List.of(stopNameFilter)
+    );
+    List<StopPlace> limitedStopPlaces = stopPlacesFilter.filter(
+      rankedStopPlaces,
+      stopPlaceByQuayRefIndex,
+      List.of(stopNameFilter, new LimitStopPlacesQuantityFilterParams(1))
+    );
+    Assert.assertEquals(List.of(rankedStopPlaces.get(0)), limitedStopPlaces);
+  }
+
   @Test
   public void testTransportModeFilter() {
     StopPlaceFilterParams railFilter = new TransportModeStopPlaceFilterParams(
@@ -239,4 +372,14 @@ public class StopPlaceFilterTest {
     // Only transport mode filtering is applied, so we should get all bus stops (5)
     Assert.assertEquals(5, filteredStopPlaces.size());
   }
+
+  private StopPlacesFilter createIndexedStopPlacesFilter() {
+    List<CompactStopPlace> stopPlaces = indexManager.loadBulkData(allStopPlacesIndex);
+    long version = indexManager.getSnapshot().version();
+    StopPlaceSpatialService spatialService = new StopPlaceSpatialService();
+    spatialService.buildSpatialIndex(stopPlaces, version);
+    StopPlaceTextIndex textIndex = new StopPlaceTextIndex();
+    textIndex.buildIndex(stopPlaces, version);
+    return new StopPlacesFilter(spatialService, textIndex);
+  }
 }
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.stopplace.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
+import org.rutebanken.netex.model.LocationStructure;
+import org.rutebanken.netex.model.MultilingualString;
+import org.rutebanken.netex.model.ObjectFactory;
+import org.rutebanken.netex.model.Quay;
+import org.rutebanken.netex.model.Quays_RelStructure;
+import org.rutebanken.netex.model.SimplePoint_VersionStructure;
+import org.rutebanken.netex.model.SiteRefStructure;
+import org.rutebanken.netex.model.StopPlace;
+
+class CompactStopPlaceTest {
+
+  @Test
+  void testToStopPlace_keepsFieldsReadFromRegistry() {
+    StopPlace stopPlace = new StopPlace()
+      .withId("NSR:StopPlace:1")
+      .withVersion("3")
+      .withName(new MultilingualString().withValue("Oslo S").withLang("nor"))
+      .withTransportMode(AllVehicleModesOfTransportEnumeration.RAIL)
+      .withCentroid(centroid("10.752200", "59.910900"))
+      .withParentSiteRef(new SiteRefStructure().withRef("NSR:StopPlace:2"))
+      .withQuays(
+        new Quays_RelStructure()
+          .withQuayRefOrQuay(
+            new ObjectFactory()
+              .createQuay(
+                new Quay()
+                  .withId("NSR:Quay:1")
+                  .withPublicCode("19")
+                  .withName(new MultilingualString().withValue("Spor 19"))
+                  .withCentroid(centroid("10.7531", "59.9112"))
+              ),
+            new ObjectFactory().createQuay(new Quay().withId("NSR:Quay:2"))
+          )
+      );
+
+    StopPlace result = CompactStopPlace.of(stopPlace).toStopPlace();
+
+    assertEquals("NSR:StopPlace:1", result.getId());
+    assertNull(result.getVersion());
+    assertEquals("Oslo S", result.getName().getValue());
+    assertEquals("nor", result.getName().getLang());
+    assertEquals(AllVehicleModesOfTransportEnumeration.RAIL, result.getTransportMode());
+    assertEquals(0, new BigDecimal("10.7522").compareTo(longitude(result.getCentroid())));
+    assertEquals(0, new BigDecimal("59.9109").compareTo(latitude(result.getCentroid())));
+    assertEquals("NSR:StopPlace:2", result.getParentSiteRef().getRef());
+
+    assertEquals(2, result.getQuays().getQuayRefOrQuay().size());
+    Quay quay = (Quay) result.getQuays().getQuayRefOrQuay().get(0).getValue();
+    assertEquals("NSR:Quay:1", quay.getId());
+    assertEquals("19", quay.getPublicCode());
+    assertEquals("Spor 19", quay.getName().getValue());
+    assertEquals(new BigDecimal("10.7531"), longitude(quay.getCentroid()));
+    assertEquals(new BigDecimal("59.9112"), latitude(quay.getCentroid()));
+
+    Quay bareQuay = (Quay) result.getQuays().getQuayRefOrQuay().get(1).getValue();
+    assertEquals("NSR:Quay:2", bareQuay.getId());
+    assertNull(bareQuay.getPublicCode());
+    assertNull(bareQuay.getName());
+    assertNull(bareQuay.getCentroid());
+  }
+
+  @Test
+  void testToStopPlace_withoutOptionalFields_buildsEmptyQuays() {
+    StopPlace result = CompactStopPlace.of(
+      new StopPlace().withId("NSR:StopPlace:1")
+    ).toStopPlace();
+
+    assertEquals("NSR:StopPlace:1", result.getId());
+    assertNull(result.getName());
+    assertNull(result.getTransportMode());
+    assertNull(result.getCentroid());
+    assertNull(result.getParentSiteRef());
+    assertTrue(result.getQuays().getQuayRefOrQuay().isEmpty());
+  }
+
+  @Test
+  void testOf_sharesEqualStrings() {
+    CompactStopPlace first = CompactStopPlace.of(
+      new StopPlace()
+        .withId("NSR:StopPlace:1")
+        .withName(new MultilingualString().withValue(new String("Sentrum")))
+    );
+    CompactStopPlace second = CompactStopPlace.of(
+      new StopPlace()
+        .withId("NSR:StopPlace:2")
+        .withName(new MultilingualString().withValue(new String("Sentrum")))
+    );
+
+    assertSame(first.name(), second.name());
+  }
+
+  @Test
+  void testToQuay_byIndexOfQuay() {
+    CompactStopPlace stopPlace = CompactStopPlace.of(
+      new StopPlace()
+        .withId("NSR:StopPlace:1")
+        .withQuays(
+          new Quays_RelStructure()
+            .withQuayRefOrQuay(
+              new ObjectFactory().createQuay(new Quay().withId("NSR:Quay:1")),
+              new ObjectFactory().createQuay(new Quay().withId("NSR:Quay:2"))
+            )
+        )
+    );
+
+    assertEquals(1, stopPlace.indexOfQuay("NSR:Quay:2"));
+    assertEquals(-1, stopPlace.indexOfQuay("NSR:Quay:3"));
+    assertEquals("NSR:Quay:2", stopPlace.toQuay(1).getId());
+  }
+
+  private SimplePoint_VersionStructure centroid(String longitude, String latitude) {
+    return new SimplePoint_VersionStructure()
+      .withLocation(
+        new LocationStructure()
+          .withLongitude(new BigDecimal(longitude))
+          .withLatitude(new BigDecimal(latitude))
+      );
+  }
+
+  private BigDecimal longitude(SimplePoint_VersionStructure centroid) {
+    return centroid.getLocation().getLongitude();
+  }
+
+  private BigDecimal latitude(SimplePoint_VersionStructure centroid) {
+    return centroid.getLocation().getLatitude();
+  }
+}
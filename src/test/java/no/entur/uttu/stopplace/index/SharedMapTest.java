@@ -0,0 +1,106 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.stopplace.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class SharedMapTest {
+
+  @Test
+  void testBuilder_leavesMapItStartedFromUnchanged() {
+    SharedMap<String, Integer> map = mapOfSize(10_000);
+
+    SharedMap.Builder<String, Integer> builder = map.toBuilder();
+    builder.put("key0", -1);
+    builder.remove("key1");
+    builder.put("new", 1);
+    SharedMap<String, Integer> changed = builder.build();
+
+    assertEquals(10_000, map.size());
+    assertEquals(0, map.get("key0"));
+    assertEquals(1, map.get("key1"));
+    assertFalse(map.containsKey("new"));
+
+    assertEquals(10_000, changed.size());
+    assertEquals(-1, changed.get("key0"));
+    assertFalse(changed.containsKey("key1"));
+    assertEquals(1, changed.get("new"));
+  }
+
+  @Test
+  void testBuilder_changedAfterBuild_leavesBuiltMapUnchanged() {
+    SharedMap.Builder<String, Integer> builder = mapOfSize(0).toBuilder();
+    builder.put("key", 1);
+    SharedMap<String, Integer> first = builder.build();
+
+    builder.put("key", 2);
+    builder.put("other", 3);
+    SharedMap<String, Integer> second = builder.build();
+
+    assertEquals(Map.of("key", 1), first);
+    assertEquals(Map.of("key", 2, "other", 3), second);
+    assertTrue(SharedMap.of().isEmpty());
+  }
+
+  @Test
+  void testRemoveWithValue_onlyRemovesKeyWithValue() {
+    SharedMap.Builder<String, Integer> builder = mapOfSize(2).toBuilder();
+
+    builder.remove("key0", 1);
+    builder.remove("key1", 1);
+
+    assertEquals(Map.of("key0", 0), builder.build());
+  }
+
+  @Test
+  void testEntrySet_containsEveryEntry() {
+    Map<String, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 5_000; i++) {
+      expected.put("key" + i, i);
+    }
+
+    SharedMap<String, Integer> map = mapOfSize(5_000);
+
+    assertEquals(expected, map);
+    assertEquals(expected.entrySet(), map.entrySet());
+  }
+
+  @Test
+  void testMap_isUnmodifiable() {
+    SharedMap<String, Integer> map = mapOfSize(1);
+
+    assertThrows(UnsupportedOperationException.class, () -> map.put("key0", 1));
+    assertThrows(UnsupportedOperationException.class, () -> map.remove("key0"));
+    assertThrows(UnsupportedOperationException.class, map::clear);
+    Iterator<Map.Entry<String, Integer>> entries = map.entrySet().iterator();
+    entries.next();
+    assertThrows(UnsupportedOperationException.class, entries::remove);
+  }
+
+  private static SharedMap<String, Integer> mapOfSize(int size) {
+    SharedMap<String, Integer> empty = SharedMap.of();
+    SharedMap.Builder<String, Integer> builder = empty.toBuilder();
+    for (int i = 0; i < size; i++) {
+      builder.put("key" + i, i);
+    }
+    return builder.build();
+  }
+}
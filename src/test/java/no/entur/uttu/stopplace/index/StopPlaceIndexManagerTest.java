@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
 import org.rutebanken.netex.model.MultilingualString;
 import org.rutebanken.netex.model.Quay;
 import org.rutebanken.netex.model.Quays_RelStructure;
@@ -266,7 +267,7 @@ class StopPlaceIndexManagerTest {
   }
 
   @Test
-  void testGetQuayIndex_returnsDefensiveCopy() {
+  void testGetQuayIndex_returnsUnmodifiableSnapshot() {
     StopPlace stopPlace = createStopPlace("NSR:StopPlace:1", "Oslo S");
     Quay quay = new Quay();
     quay.setId("NSR:Quay:1");
@@ -279,11 +280,132 @@ class StopPlaceIndexManagerTest {
     var quayIndex1 = indexManager.getQuayIndex();
     var quayIndex2 = indexManager.getQuayIndex();
 
-    assertNotSame(quayIndex1, quayIndex2, "Should return different instances");
-    assertEquals(quayIndex1, quayIndex2, "Should have same content");
+    assertSame(quayIndex1, quayIndex2, "Should not copy the index of the same version");
+    assertThrows(UnsupportedOperationException.class, () ->
+      quayIndex1.remove("NSR:Quay:1")
+    );
+
+    indexManager.removeStopPlaceAndRelated("NSR:StopPlace:1");
+
+    assertEquals(
+      "NSR:StopPlace:1",
+      quayIndex1.get("NSR:Quay:1").id(),
+      "Should not change snapshot"
+    );
+    assertTrue(indexManager.getQuayIndex().isEmpty());
+  }
+
+  @Test
+  void testSnapshot_versionIncreasesWithEveryChange() {
+    long initialVersion = indexManager.getSnapshot().version();
+
+    indexManager.addStopPlace(createStopPlace("NSR:StopPlace:1", "Oslo S"));
+    indexManager.updateStopPlace("NSR:StopPlace:1", createStopPlace("X", "Oslo S"));
+
+    assertEquals(initialVersion + 2, indexManager.getSnapshot().version());
+  }
+
+  @Test
+  void testApplyBatch_publishesOneSnapshot() {
+    indexManager.addStopPlace(createStopPlace("NSR:StopPlace:1", "Oslo S"));
+    StopPlaceIndexSnapshot before = indexManager.getSnapshot();
+
+    boolean seenWithinBatch = indexManager.applyBatch(() -> {
+      indexManager.addStopPlace(createStopPlace("NSR:StopPlace:2", "Nationaltheatret"));
+      indexManager.updateStopPlace("NSR:StopPlace:1", createStopPlace("X", "Oslo"));
+      assertSame(before, indexManager.getSnapshot(), "Should not publish within batch");
+      return indexManager.getStopPlaceById("NSR:StopPlace:2").isPresent();
+    });
+
+    StopPlaceIndexSnapshot after = indexManager.getSnapshot();
+    assertTrue(seenWithinBatch);
+    assertEquals(before.version() + 1, after.version());
+    assertEquals(1, before.stopPlaces().size());
+    assertEquals(2, after.stopPlaces().size());
+    assertEquals("Oslo", after.stopPlaceById().get("NSR:StopPlace:1").name());
+  }
+
+  @Test
+  void testApplyBatch_withListener_passesSnapshotBeforeNextChange() throws Exception {
+    Thread concurrentChange = new Thread(() ->
+      indexManager.addStopPlace(createStopPlace("NSR:StopPlace:2", "Nationaltheatret"))
+    );
+
+    String addedId = indexManager.applyBatch(
+      () -> indexManager.addStopPlace(createStopPlace("NSR:StopPlace:1", "Oslo S")).id(),
+      (id, snapshot) -> {
+        assertSame(indexManager.getSnapshot(), snapshot);
+        assertTrue(snapshot.stopPlaceById().containsKey(id));
+
+        concurrentChange.start();
+        while (concurrentChange.getState() != Thread.State.BLOCKED) {
+          Thread.onSpinWait();
+        }
+        assertSame(snapshot, indexManager.getSnapshot(), "Should wait for the listener");
+      }
+    );
+    concurrentChange.join();
+
+    assertEquals("NSR:StopPlace:1", addedId);
+    assertEquals(2, indexManager.getSnapshot().stopPlaces().size());
+  }
+
+  @Test
+  void testSnapshot_listsStopPlacesInOrderAdded() {
+    indexManager.addStopPlace(createStopPlace("NSR:StopPlace:1", "Oslo S"));
+    indexManager.addStopPlace(createStopPlace("NSR:StopPlace:2", "Nationaltheatret"));
+    StopPlaceIndexSnapshot before = indexManager.getSnapshot();
+
+    indexManager.updateStopPlace("NSR:StopPlace:1", createStopPlace("X", "Oslo"));
+
+    assertEquals(List.of("NSR:StopPlace:1", "NSR:StopPlace:2"), ids(before.stopPlaces()));
+    assertEquals(
+      List.of("NSR:StopPlace:2", "NSR:StopPlace:1"),
+      ids(indexManager.getSnapshot().stopPlaces())
+    );
+  }
+
+  @Test
+  void testSnapshot_indexesStopPlacesByTransportMode() {
+    StopPlace busStation = createStopPlace("NSR:StopPlace:1", "Oslo bussterminal");
+    busStation.setTransportMode(AllVehicleModesOfTransportEnumeration.BUS);
+    indexManager.addStopPlace(busStation);
+    StopPlaceIndexSnapshot before = indexManager.getSnapshot();
+
+    StopPlace railStation = createStopPlace("NSR:StopPlace:1", "Oslo S");
+    railStation.setTransportMode(AllVehicleModesOfTransportEnumeration.RAIL);
+    indexManager.updateStopPlace("NSR:StopPlace:1", railStation);
+    StopPlaceIndexSnapshot after = indexManager.getSnapshot();
+
+    assertEquals(
+      List.of("NSR:StopPlace:1"),
+      ids(before.stopPlacesOfTransportMode(AllVehicleModesOfTransportEnumeration.BUS))
+    );
+    assertTrue(
+      after.stopPlacesOfTransportMode(AllVehicleModesOfTransportEnumeration.BUS).isEmpty()
+    );
+    assertEquals(
+      List.of("NSR:StopPlace:1"),
+      ids(after.stopPlacesOfTransportMode(AllVehicleModesOfTransportEnumeration.RAIL))
+    );
+  }
+
+  @Test
+  void testApplyBatch_withListenerWithinBatch_throwsException() {
+    assertThrows(
+      IllegalStateException.class,
+      () ->
+        indexManager.applyBatch(() ->
+          indexManager.applyBatch(() -> null, (result, snapshot) -> {})
+        )
+    );
   }
 
   // Helper methods
+  private List<String> ids(List<CompactStopPlace> stopPlaces) {
+    return stopPlaces.stream().map(CompactStopPlace::id).toList();
+  }
+
   private StopPlace createStopPlace(String id, String name) {
     StopPlace stopPlace = new StopPlace();
     stopPlace.setId(id);
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.entur.uttu.stopplace.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.MultilingualString;
+import org.rutebanken.netex.model.ObjectFactory;
+import org.rutebanken.netex.model.Quay;
+import org.rutebanken.netex.model.Quays_RelStructure;
+import org.rutebanken.netex.model.StopPlace;
+
+class StopPlaceTextIndexTest {
+
+  private StopPlaceTextIndex textIndex;
+
+  @BeforeEach
+  void setUp() {
+    textIndex = new StopPlaceTextIndex();
+    textIndex.buildIndex(
+      List.of(
+        createStopPlace("NSR:StopPlace:1", "Lillestrøm stasjon", "NSR:Quay:11"),
+        createStopPlace("NSR:StopPlace:2", "Strømmen", "NSR:Quay:21"),
+        createStopPlace("NSR:StopPlace:3", "Oslo S"),
+        createStopPlace("NSR:StopPlace:4", "Nedre Strøm"),
+        createStopPlace("NSR:StopPlace:5", "Ås")
+      )
+    );
+  }
+
+  @Test
+  void testNormalize_replacesNorwegianLettersAndDiacritics() {
+    assertEquals("aerfugl ovre asen", StopPlaceTextIndex.normalize("Ærfugl Øvre Åsen"));
+    assertEquals("hameenlinna cafe", StopPlaceTextIndex.normalize("Hämeenlinna Café"));
+  }
+
+  @Test
+  void testSearch_withAndWithoutDiacritics_findsSameStops() {
+    assertEquals(ids(textIndex.search("Strøm")), ids(textIndex.search("strom")));
+    assertEquals(List.of("NSR:StopPlace:5"), ids(textIndex.search("as")));
+  }
+
+  @Test
+  void testSearch_ranksByMatchQuality() {
+    // name prefix, then word prefix, then substring of a name
+    assertEquals(
+      List.of("NSR:StopPlace:2", "NSR:StopPlace:4", "NSR:StopPlace:1"),
+      ids(textIndex.search("strom"))
+    );
+  }
+
+  @Test
+  void testSearch_byStopPlaceIdAndQuayId() {
+    assertEquals(List.of("NSR:StopPlace:3"), ids(textIndex.search("NSR:StopPlace:3")));
+    assertEquals(List.of("NSR:StopPlace:2"), ids(textIndex.search("quay:21")));
+  }
+
+  @Test
+  void testSearch_withShortSearchText_matchesStartOfWords() {
+    assertEquals(List.of("NSR:StopPlace:3"), ids(textIndex.search("o")));
+    assertTrue(textIndex.search("lo").isEmpty());
+  }
+
+  @Test
+  void testSearch_withUnknownText_returnsEmptyList() {
+    assertTrue(textIndex.search("bergen").isEmpty());
+  }
+
+  @Test
+  void testUpdateAndRemoveStopPlaces_updatesIndex() {
+    textIndex.updateStopPlaces(
+      List.of(createStopPlace("NSR:StopPlace:3", "Oslo sentralstasjon"))
+    );
+    textIndex.removeStopPlaces(List.of("NSR:StopPlace:1"));
+
+    assertEquals(List.of("NSR:StopPlace:3"), ids(textIndex.search("stasjon")));
+    assertEquals(List.of("NSR:StopPlace:3"), ids(textIndex.search("oslo s")));
+    assertTrue(textIndex.search("lillestrom").isEmpty());
+  }
+
+  @Test
+  void testSearch_withSnapshot_usesIndexOnlyAtVersionOfSnapshot() {
+    StopPlaceIndexManager indexManager = new StopPlaceIndexManager();
+    List<CompactStopPlace> stopPlaces = indexManager.loadBulkData(
+      List.of(createStopPlace("NSR:StopPlace:1", "Lillestrøm stasjon").toStopPlace())
+    );
+    textIndex.buildIndex(stopPlaces, indexManager.getSnapshot().version());
+    assertEquals(
+      List.of("NSR:StopPlace:1"),
+      ids(textIndex.search("lillestrom", indexManager.getSnapshot()))
+    );
+
+    // renamed in a snapshot the text index has not been updated with yet
+    indexManager.updateStopPlace(
+      "NSR:StopPlace:1",
+      createStopPlace("NSR:StopPlace:1", "Strømmen").toStopPlace()
+    );
+    StopPlaceIndexSnapshot snapshot = indexManager.getSnapshot();
+
+    assertTrue(textIndex.search("lillestrom", snapshot).isEmpty());
+    assertEquals(List.of("NSR:StopPlace:1"), ids(textIndex.search("strommen", snapshot)));
+  }
+
+  private List<String> ids(List<CompactStopPlace> stopPlaces) {
+    return stopPlaces.stream().map(CompactStopPlace::id).toList();
+  }
+
+  private CompactStopPlace createStopPlace(String id, String name, String... quayIds) {
+    StopPlace stopPlace = new StopPlace();
+    stopPlace.setId(id);
+    stopPlace.setName(new MultilingualString().withValue(name));
+    Quays_RelStructure quays = new Quays_RelStructure();
+    for (String quayId : quayIds) {
+      quays
+        .getQuayRefOrQuay()
+        .add(new ObjectFactory().createQuay(new Quay().withId(quayId)));
+    }
+    stopPlace.setQuays(quays);
+    return CompactStopPlace.of(stopPlace);
+  }
+}
@@ -18,21 +18,39 @@ package no.entur.uttu.stopplace.registry;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import jakarta.xml.bind.JAXBElement;
+import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import no.entur.uttu.stopplace.filter.StopPlacesFilter;
+import no.entur.uttu.stopplace.filter.params.SearchTextStopPlaceFilterParams;
+import no.entur.uttu.stopplace.filter.params.StopPlaceFilterParams;
+import no.entur.uttu.stopplace.index.CompactStopPlace;
 import no.entur.uttu.stopplace.index.StopPlaceIndexManager;
+import no.entur.uttu.stopplace.index.StopPlaceIndexSnapshot;
+import no.entur.uttu.stopplace.index.StopPlaceTextIndex;
 import no.entur.uttu.stopplace.spatial.StopPlaceSpatialService;
+import no.entur.uttu.stopplace.spi.QuayLocationChangedEvent;
 import no.entur.uttu.stopplace.spi.StopPlaceDataLoader;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.rutebanken.netex.model.LocationStructure;
 import org.rutebanken.netex.model.MultilingualString;
+import org.rutebanken.netex.model.ObjectFactory;
+import org.rutebanken.netex.model.Quay;
+import org.rutebanken.netex.model.Quays_RelStructure;
+import org.rutebanken.netex.model.SimplePoint_VersionStructure;
 import org.rutebanken.netex.model.SiteRefStructure;
 import org.rutebanken.netex.model.StopPlace;
+import org.springframework.context.ApplicationEventPublisher;
 
 @ExtendWith(MockitoExtension.class)
 class InMemoryStopPlaceRegistryTest {
@@ -43,21 +61,41 @@ class InMemoryStopPlaceRegistryTest {
   @Mock
   private StopPlaceSpatialService spatialService;
 
+  @Mock
+  private StopPlaceTextIndex textIndex;
+
   @Mock
   private StopPlacesFilter stopPlacesFilter;
 
   @Mock
   private StopPlaceDataLoader dataLoader;
 
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
   private InMemoryStopPlaceRegistry registry;
 
   @BeforeEach
   void setUp() {
+    lenient()
+      .when(indexManager.applyBatch(any()))
+      .thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(0).get());
+    lenient()
+      .when(indexManager.applyBatch(any(), any()))
+      .thenAnswer(invocation -> {
+        Object result = invocation.<Supplier<?>>getArgument(0).get();
+        invocation
+          .<BiConsumer<Object, StopPlaceIndexSnapshot>>getArgument(1)
+          .accept(result, snapshotOf(List.of()));
+        return result;
+      });
     registry = new InMemoryStopPlaceRegistry(
       indexManager,
       spatialService,
+      textIndex,
       stopPlacesFilter,
-      Optional.empty()
+      Optional.empty(),
+      eventPublisher
     );
   }
 
@@ -78,8 +116,9 @@ class InMemoryStopPlaceRegistryTest {
     verify(indexManager, times(3)).addStopPlace(any(StopPlace.class));
     verify(indexManager, never()).updateStopPlace(anyString(), any(StopPlace.class));
 
-    // Verify spatial index was rebuilt once
-    verify(spatialService, times(1)).buildSpatialIndex(anyList());
+    // Verify spatial index was updated once, without a rebuild
+    verify(spatialService, times(1)).updateStopPlaces(anyList(), eq(1L));
+    verify(spatialService, never()).buildSpatialIndex(anyList(), anyLong());
   }
 
   @Test
@@ -100,8 +139,9 @@ class InMemoryStopPlaceRegistryTest {
     verify(indexManager, never()).addStopPlace(any(StopPlace.class));
     verify(indexManager, times(2)).updateStopPlace(anyString(), any(StopPlace.class));
 
-    // Verify spatial index was rebuilt once
-    verify(spatialService, times(1)).buildSpatialIndex(anyList());
+    // Verify spatial index was updated once, without a rebuild
+    verify(spatialService, times(1)).updateStopPlaces(anyList(), eq(1L));
+    verify(spatialService, never()).buildSpatialIndex(anyList(), anyLong());
   }
 
   @Test
@@ -143,8 +183,9 @@ class InMemoryStopPlaceRegistryTest {
       argThat(sp -> "Child 2".equals(sp.getName().getValue()))
     );
 
-    // Verify spatial index was rebuilt once
-    verify(spatialService, times(1)).buildSpatialIndex(anyList());
+    // Verify spatial index was updated once, without a rebuild
+    verify(spatialService, times(1)).updateStopPlaces(anyList(), eq(1L));
+    verify(spatialService, never()).buildSpatialIndex(anyList(), anyLong());
   }
 
   @Test
@@ -153,7 +194,7 @@ class InMemoryStopPlaceRegistryTest {
 
     verify(indexManager, never()).addStopPlace(any());
     verify(indexManager, never()).updateStopPlace(anyString(), any());
-    verify(spatialService, never()).buildSpatialIndex(anyList());
+    verify(spatialService, never()).updateStopPlaces(anyList(), eq(1L));
   }
 
   @Test
@@ -162,7 +203,7 @@ class InMemoryStopPlaceRegistryTest {
 
     verify(indexManager, never()).addStopPlace(any());
     verify(indexManager, never()).updateStopPlace(anyString(), any());
-    verify(spatialService, never()).buildSpatialIndex(anyList());
+    verify(spatialService, never()).updateStopPlaces(anyList(), eq(1L));
   }
 
   @Test
@@ -177,26 +218,37 @@ class InMemoryStopPlaceRegistryTest {
 
     List<StopPlace> mixedList = List.of(stopPlaces.get(0), stopWithoutId);
 
+    CompactStopPlace indexedStopPlace = CompactStopPlace.of(stopPlaces.get(0));
     when(indexManager.getStopPlaceById("NSR:StopPlace:1")).thenReturn(Optional.empty());
+    when(indexManager.addStopPlace(stopPlaces.get(0))).thenReturn(indexedStopPlace);
 
     registry.createOrUpdateStopPlaces(mixedList);
 
-    // Only the valid stop should be processed
+    // Only the valid stop should be processed, and indexed as added to the index manager
     verify(indexManager, times(1)).addStopPlace(any());
-    verify(spatialService, times(1)).buildSpatialIndex(anyList());
+    verify(spatialService, times(1)).updateStopPlaces(List.of(indexedStopPlace), 1L);
+    verify(textIndex, times(1)).updateStopPlaces(List.of(indexedStopPlace), 1L);
   }
 
   @Test
   void testDeleteStopPlaceAndRelated_callsIndexManager() {
     when(indexManager.removeStopPlaceAndRelated("NSR:StopPlace:1")).thenReturn(
-      List.of("NSR:StopPlace:1", "NSR:StopPlace:2", "NSR:StopPlace:3")
+      List.of("NSR:StopPlace:1", "NSR:StopPlace:2", "NSR:StopPlace:3"),
+      1L
     );
-    when(indexManager.getAllStopPlaces()).thenReturn(List.of());
 
     registry.deleteStopPlaceAndRelated("NSR:StopPlace:1");
 
     verify(indexManager).removeStopPlaceAndRelated("NSR:StopPlace:1");
-    verify(spatialService).buildSpatialIndex(anyList());
+    verify(spatialService).removeStopPlaces(
+      List.of("NSR:StopPlace:1", "NSR:StopPlace:2", "NSR:StopPlace:3"),
+      1L
+    );
+    verify(textIndex).removeStopPlaces(
+      List.of("NSR:StopPlace:1", "NSR:StopPlace:2", "NSR:StopPlace:3"),
+      1L
+    );
+    verify(spatialService, never()).buildSpatialIndex(anyList(), anyLong());
   }
 
   @Test
@@ -217,20 +269,31 @@ class InMemoryStopPlaceRegistryTest {
       Instant.now()
     );
 
+    List<CompactStopPlace> indexedStopPlaces = loadResult
+      .stopPlaces()
+      .stream()
+      .map(CompactStopPlace::of)
+      .toList();
     when(dataLoader.loadStopPlaces()).thenReturn(loadResult);
+    when(indexManager.loadBulkData(loadResult.stopPlaces())).thenReturn(
+      indexedStopPlaces
+    );
 
     InMemoryStopPlaceRegistry registryWithLoader = new InMemoryStopPlaceRegistry(
       indexManager,
       spatialService,
+      textIndex,
       stopPlacesFilter,
-      Optional.of(dataLoader)
+      Optional.of(dataLoader),
+      eventPublisher
     );
 
     registryWithLoader.init();
 
     verify(dataLoader).loadStopPlaces();
     verify(indexManager).loadBulkData(loadResult.stopPlaces());
-    verify(spatialService).buildSpatialIndex(loadResult.stopPlaces());
+    verify(spatialService).buildSpatialIndex(indexedStopPlaces, 1L);
+    verify(textIndex).buildIndex(indexedStopPlaces, 1L);
     assertEquals(loadResult.publicationTime(), registryWithLoader.getPublicationTime());
   }
 
@@ -241,8 +304,10 @@ class InMemoryStopPlaceRegistryTest {
     InMemoryStopPlaceRegistry registryWithLoader = new InMemoryStopPlaceRegistry(
       indexManager,
       spatialService,
+      textIndex,
       stopPlacesFilter,
-      Optional.of(dataLoader)
+      Optional.of(dataLoader),
+      eventPublisher
     );
 
     // Should not throw, just log
@@ -250,7 +315,7 @@ class InMemoryStopPlaceRegistryTest {
 
     verify(dataLoader).loadStopPlaces();
     verify(indexManager, never()).loadBulkData(any());
-    verify(spatialService, never()).buildSpatialIndex(any());
+    verify(spatialService, never()).buildSpatialIndex(any(), anyLong());
   }
 
   @Test
@@ -311,11 +376,114 @@ class InMemoryStopPlaceRegistryTest {
     verify(indexManager, times(50)).addStopPlace(any());
     verify(indexManager, times(50)).updateStopPlace(anyString(), any());
 
-    // Verify spatial index was only rebuilt once (not 100 times!)
-    verify(spatialService, times(1)).buildSpatialIndex(anyList());
+    // Verify spatial index was only updated once (not 100 times!)
+    verify(spatialService, times(1)).updateStopPlaces(
+      argThat(stopPlaces -> stopPlaces.size() == 100)
+    );
+  }
+
+  @Test
+  void testCreateOrUpdateStopPlaces_withMovedQuay_publishesEvent() {
+    StopPlace existing = createStopPlace("NSR:StopPlace:1", "Stop 1");
+    existing.setQuays(
+      new Quays_RelStructure()
+        .withQuayRefOrQuay(
+          createQuay("NSR:Quay:1", 10.1, 60.1),
+          createQuay("NSR:Quay:2", 10.2, 60.2)
+        )
+    );
+    StopPlace updated = createStopPlace("NSR:StopPlace:1", "Stop 1");
+    updated.setQuays(
+      new Quays_RelStructure()
+        .withQuayRefOrQuay(
+          createQuay("NSR:Quay:1", 10.1, 60.1),
+          createQuay("NSR:Quay:2", 10.3, 60.2)
+        )
+    );
+    when(indexManager.getStopPlaceById("NSR:StopPlace:1")).thenReturn(
+      Optional.of(existing)
+    );
+
+    registry.createOrUpdateStopPlaces(List.of(updated));
+
+    verify(eventPublisher).publishEvent(
+      new QuayLocationChangedEvent(Set.of("NSR:Quay:2"))
+    );
+  }
+
+  @Test
+  void testCreateOrUpdateStopPlaces_withUnmovedQuays_publishesNoEvent() {
+    StopPlace existing = createStopPlace("NSR:StopPlace:1", "Stop 1");
+    existing.setQuays(
+      new Quays_RelStructure().withQuayRefOrQuay(createQuay("NSR:Quay:1", 10.1, 60.1))
+    );
+    StopPlace updated = createStopPlace("NSR:StopPlace:1", "Stop 1 renamed");
+    updated.setQuays(
+      new Quays_RelStructure().withQuayRefOrQuay(createQuay("NSR:Quay:1", 10.1, 60.1))
+    );
+    when(indexManager.getStopPlaceById("NSR:StopPlace:1")).thenReturn(
+      Optional.of(existing)
+    );
+
+    registry.createOrUpdateStopPlaces(List.of(updated));
+
+    verify(eventPublisher, never()).publishEvent(any(Object.class));
+  }
+
+  @Test
+  void testGetStopPlaces_withFilters_delegatesToFilterWithSnapshot() {
+    StopPlace stop1 = createStopPlace("NSR:StopPlace:1", "Lillestrøm");
+    StopPlace stop2 = createStopPlace("NSR:StopPlace:2", "Strømmen");
+    StopPlaceIndexSnapshot snapshot = snapshotOf(List.of(stop1, stop2));
+    List<StopPlaceFilterParams> filters = List.of(
+      new SearchTextStopPlaceFilterParams("strom")
+    );
+    when(indexManager.getSnapshot()).thenReturn(snapshot);
+    when(stopPlacesFilter.filter(snapshot, filters)).thenReturn(List.of(stop2, stop1));
+
+    assertEquals(List.of(stop2, stop1), registry.getStopPlaces(filters));
+  }
+
+  @Test
+  void testGetStopPlaces_withoutFilters_returnsAllStopPlaces() {
+    StopPlace stop1 = createStopPlace("NSR:StopPlace:1", "Lillestrøm");
+    when(indexManager.getSnapshot()).thenReturn(snapshotOf(List.of(stop1)));
+
+    List<StopPlace> result = registry.getStopPlaces(List.of());
+
+    assertEquals(1, result.size());
+    assertEquals("NSR:StopPlace:1", result.get(0).getId());
+    assertEquals("Lillestrøm", result.get(0).getName().getValue());
+    verifyNoInteractions(stopPlacesFilter);
   }
 
   // Helper methods
+  private StopPlaceIndexSnapshot snapshotOf(List<StopPlace> stopPlaces) {
+    return new StopPlaceIndexSnapshot(
+      1,
+      stopPlaces.stream().map(CompactStopPlace::of).toList(),
+      Map.of(),
+      Map.of(),
+      Map.of(),
+      Map.of(),
+      Map.of()
+    );
+  }
+
+  private JAXBElement<Quay> createQuay(String id, double longitude, double latitude) {
+    Quay quay = new Quay();
+    quay.setId(id);
+    quay.setCentroid(
+      new SimplePoint_VersionStructure()
+        .withLocation(
+          new LocationStructure()
+            .withLongitude(BigDecimal.valueOf(longitude))
+            .withLatitude(BigDecimal.valueOf(latitude))
+        )
+    );
+    return new ObjectFactory().createQuay(quay);
+  }
+
   private StopPlace createStopPlace(String id, String name) {
     StopPlace stopPlace = new StopPlace();
     stopPlace.setId(id);
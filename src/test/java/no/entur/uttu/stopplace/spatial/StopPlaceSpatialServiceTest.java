@@ -19,12 +19,18 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import jakarta.xml.bind.JAXBElement;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 import javax.xml.namespace.QName;
 import no.entur.uttu.stopplace.filter.params.BoundingBoxFilterParams;
+import no.entur.uttu.stopplace.index.CompactStopPlace;
+import no.entur.uttu.stopplace.index.StopPlaceIndexManager;
+import no.entur.uttu.stopplace.index.StopPlaceIndexSnapshot;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.locationtech.jts.geom.Coordinate;
@@ -56,7 +62,7 @@ class StopPlaceSpatialServiceTest {
       createStopPlaceWithLocation("NSR:StopPlace:3", "Trondheim", 63.436188, 10.398583)
     );
 
-    spatialService.buildSpatialIndex(stopPlaces);
+    spatialService.buildSpatialIndex(compact(stopPlaces));
 
     // Test that index was built by querying it
     Polygon largePolygon = createPolygonAroundNorway();
@@ -85,7 +91,7 @@ class StopPlaceSpatialServiceTest {
       createStopPlaceWithLocation("NSR:StopPlace:2", "Oslo S", 59.911491, 10.750375)
     );
 
-    spatialService.buildSpatialIndex(stopPlaces);
+    spatialService.buildSpatialIndex(compact(stopPlaces));
 
     Polygon largePolygon = createPolygonAroundNorway();
     List<StopPlace> result = spatialService.getStopPlacesWithinPolygon(largePolygon);
@@ -98,7 +104,7 @@ class StopPlaceSpatialServiceTest {
   @Test
   void testGetStopPlacesWithinPolygon_withNullPolygon_returnsEmptyList() {
     spatialService.buildSpatialIndex(
-      List.of(
+      compact(
         createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
       )
     );
@@ -115,7 +121,7 @@ class StopPlaceSpatialServiceTest {
       createStopPlaceWithLocation("NSR:StopPlace:2", "Bergen", 60.391263, 5.322054)
     );
 
-    spatialService.buildSpatialIndex(stopPlaces);
+    spatialService.buildSpatialIndex(compact(stopPlaces));
 
     Polygon osloPolygon = createSmallPolygonAroundOslo();
     List<StopPlace> result = spatialService.getStopPlacesWithinPolygon(osloPolygon);
@@ -136,7 +142,7 @@ class StopPlaceSpatialServiceTest {
       createStopPlaceWithLocation("NSR:StopPlace:5", "Tromsø", 69.649208, 18.955324)
     );
 
-    spatialService.buildSpatialIndex(stopPlaces);
+    spatialService.buildSpatialIndex(compact(stopPlaces));
 
     Polygon largePolygon = createPolygonAroundNorway();
     List<StopPlace> result = spatialService.getStopPlacesWithinPolygon(largePolygon);
@@ -173,7 +179,7 @@ class StopPlaceSpatialServiceTest {
       createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
     );
 
-    spatialService.buildSpatialIndex(stopPlaces);
+    spatialService.buildSpatialIndex(compact(stopPlaces));
 
     // Create polygon in the middle of the ocean
     Polygon oceanPolygon = geometryFactory.createPolygon(
@@ -202,40 +208,72 @@ class StopPlaceSpatialServiceTest {
 
   @Test
   void testPreFilterByBoundingBox_withValidBoundingBox_filtersCorrectly() {
-    List<StopPlace> allStopPlaces = List.of(
-      createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375),
-      createStopPlaceWithLocation("NSR:StopPlace:2", "Bergen", 60.391263, 5.322054),
-      createStopPlaceWithLocation("NSR:StopPlace:3", "Trondheim", 63.436188, 10.398583)
+    StopPlaceIndexManager indexManager = new StopPlaceIndexManager();
+    List<CompactStopPlace> allStopPlaces = indexManager.loadBulkData(
+      List.of(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375),
+        createStopPlaceWithLocation("NSR:StopPlace:2", "Bergen", 60.391263, 5.322054),
+        createStopPlaceWithLocation("NSR:StopPlace:3", "Trondheim", 63.436188, 10.398583)
+      )
     );
+    StopPlaceIndexSnapshot snapshot = indexManager.getSnapshot();
 
-    spatialService.buildSpatialIndex(allStopPlaces);
+    spatialService.buildSpatialIndex(allStopPlaces, snapshot.version());
 
-    // Create bounding box around Oslo area
-    BoundingBoxFilterParams osloBox = new BoundingBoxFilterParams(
-      BigDecimal.valueOf(59.920), // NE Lat
-      BigDecimal.valueOf(10.760), // NE Lng
-      BigDecimal.valueOf(59.900), // SW Lat
-      BigDecimal.valueOf(10.740) // SW Lng
+    List<CompactStopPlace> result = spatialService.preFilterByBoundingBox(
+      snapshot,
+      createOsloBoundingBox()
     );
 
-    List<StopPlace> result = spatialService.preFilterByBoundingBox(
+    assertEquals(1, result.size());
+    assertEquals("NSR:StopPlace:1", result.get(0).id());
+  }
+
+  @Test
+  void testPreFilterByBoundingBox_withIndexBehindSnapshot_filtersStopPlacesOfSnapshot() {
+    StopPlaceIndexManager indexManager = new StopPlaceIndexManager();
+    List<CompactStopPlace> allStopPlaces = indexManager.loadBulkData(
+      List.of(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375),
+        createStopPlaceWithLocation("NSR:StopPlace:2", "Bergen", 60.391263, 5.322054)
+      )
+    );
+    spatialService.buildSpatialIndex(
       allStopPlaces,
-      osloBox
+      indexManager.getSnapshot().version()
     );
 
-    assertEquals(1, result.size());
-    assertEquals("NSR:StopPlace:1", result.get(0).getId());
+    // moved to Oslo in a snapshot the spatial index has not been updated with yet
+    CompactStopPlace moved = indexManager.updateStopPlace(
+      "NSR:StopPlace:2",
+      createStopPlaceWithLocation("NSR:StopPlace:2", "Moved", 59.911000, 10.750000)
+    );
+
+    List<CompactStopPlace> result = spatialService.preFilterByBoundingBox(
+      indexManager.getSnapshot(),
+      createOsloBoundingBox()
+    );
+
+    assertEquals(
+      Set.of("NSR:StopPlace:1", "NSR:StopPlace:2"),
+      result.stream().map(CompactStopPlace::id).collect(Collectors.toSet())
+    );
+    assertTrue(result.contains(moved));
   }
 
   @Test
   void testPreFilterByBoundingBox_withNullBoundingBox_returnsOriginalList() {
-    List<StopPlace> allStopPlaces = List.of(
-      createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
+    StopPlaceIndexManager indexManager = new StopPlaceIndexManager();
+    indexManager.loadBulkData(
+      List.of(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
+      )
     );
+    StopPlaceIndexSnapshot snapshot = indexManager.getSnapshot();
 
-    List<StopPlace> result = spatialService.preFilterByBoundingBox(allStopPlaces, null);
+    List<CompactStopPlace> result = spatialService.preFilterByBoundingBox(snapshot, null);
 
-    assertEquals(allStopPlaces, result);
+    assertEquals(snapshot.stopPlaces(), result);
   }
 
   @Test
@@ -280,7 +318,7 @@ class StopPlaceSpatialServiceTest {
     try {
       // Start building index
       CompletableFuture<Void> buildFuture = CompletableFuture.runAsync(
-        () -> spatialService.buildSpatialIndex(stopPlaces),
+        () -> spatialService.buildSpatialIndex(compact(stopPlaces)),
         executor
       );
 
@@ -362,7 +400,7 @@ class StopPlaceSpatialServiceTest {
 
     stopWithMultipleQuays.setQuays(quays);
 
-    spatialService.buildSpatialIndex(List.of(stopWithMultipleQuays));
+    spatialService.buildSpatialIndex(compact(stopWithMultipleQuays));
 
     // Query with polygon that includes both quays
     Polygon polygon = createSmallPolygonAroundOslo();
@@ -379,7 +417,7 @@ class StopPlaceSpatialServiceTest {
     List<StopPlace> firstSet = List.of(
       createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
     );
-    spatialService.buildSpatialIndex(firstSet);
+    spatialService.buildSpatialIndex(compact(firstSet));
 
     Polygon osloPolygon = createSmallPolygonAroundOslo();
     List<StopPlace> firstResult = spatialService.getStopPlacesWithinPolygon(osloPolygon);
@@ -390,7 +428,7 @@ class StopPlaceSpatialServiceTest {
       createStopPlaceWithLocation("NSR:StopPlace:2", "Bergen", 60.391263, 5.322054),
       createStopPlaceWithLocation("NSR:StopPlace:3", "Trondheim", 63.436188, 10.398583)
     );
-    spatialService.buildSpatialIndex(secondSet);
+    spatialService.buildSpatialIndex(compact(secondSet));
 
     // Oslo polygon should now return empty (no Oslo stop in new data)
     List<StopPlace> secondResult = spatialService.getStopPlacesWithinPolygon(osloPolygon);
@@ -402,7 +440,143 @@ class StopPlaceSpatialServiceTest {
     assertEquals(2, allResult.size());
   }
 
+  @Test
+  void testUpdateStopPlaces_withMovedStop_replacesIndexedLocation() {
+    spatialService.buildSpatialIndex(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
+      )
+    );
+
+    spatialService.updateStopPlaces(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Moved", 60.391263, 5.322054)
+      )
+    );
+
+    assertTrue(
+      spatialService.getStopPlacesWithinPolygon(createSmallPolygonAroundOslo()).isEmpty()
+    );
+    List<StopPlace> result = spatialService.getStopPlacesWithinPolygon(
+      createPolygonAroundNorway()
+    );
+    assertEquals(1, result.size());
+    assertEquals("Moved", result.get(0).getName().getValue());
+  }
+
+  @Test
+  void testRemoveStopPlaces_removesStopsFromBaseAndDelta() {
+    spatialService.buildSpatialIndex(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375),
+        createStopPlaceWithLocation("NSR:StopPlace:2", "Bergen", 60.391263, 5.322054)
+      )
+    );
+    spatialService.updateStopPlaces(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:3", "Trondheim", 63.436188, 10.398583)
+      )
+    );
+
+    spatialService.removeStopPlaces(List.of("NSR:StopPlace:1", "NSR:StopPlace:3"));
+
+    List<StopPlace> result = spatialService.getStopPlacesWithinPolygon(
+      createPolygonAroundNorway()
+    );
+    assertEquals(1, result.size());
+    assertEquals("NSR:StopPlace:2", result.get(0).getId());
+  }
+
+  @Test
+  void testUpdateStopPlaces_beforeIndexBuilt_indexesUpdatedStops() {
+    spatialService.updateStopPlaces(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
+      )
+    );
+
+    assertEquals(
+      1,
+      spatialService.getStopPlacesWithinPolygon(createSmallPolygonAroundOslo()).size()
+    );
+  }
+
+  @Test
+  void testUpdateStopPlaces_pastCompactionThreshold_compactsIndex() {
+    spatialService = new StopPlaceSpatialService(2, Runnable::run);
+    spatialService.buildSpatialIndex(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
+      )
+    );
+
+    spatialService.updateStopPlaces(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Moved", 60.391263, 5.322054),
+        createStopPlaceWithLocation("NSR:StopPlace:2", "Trondheim", 63.436188, 10.398583)
+      )
+    );
+    spatialService.removeStopPlaces(List.of("NSR:StopPlace:2"));
+
+    assertTrue(
+      spatialService.getStopPlacesWithinPolygon(createSmallPolygonAroundOslo()).isEmpty()
+    );
+    List<StopPlace> result = spatialService.getStopPlacesWithinPolygon(
+      createPolygonAroundNorway()
+    );
+    assertEquals(1, result.size());
+    assertEquals("Moved", result.get(0).getName().getValue());
+  }
+
+  @Test
+  void testUpdateStopPlaces_whileCompacting_keepsChangesMadeDuringCompaction() {
+    List<Runnable> compactions = new ArrayList<>();
+    spatialService = new StopPlaceSpatialService(1, compactions::add);
+    spatialService.buildSpatialIndex(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:1", "Oslo S", 59.911491, 10.750375)
+      )
+    );
+
+    spatialService.updateStopPlaces(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:2", "Bergen", 60.391263, 5.322054)
+      )
+    );
+    assertEquals(1, compactions.size());
+
+    // changed after the compaction started
+    spatialService.removeStopPlaces(List.of("NSR:StopPlace:1"));
+    spatialService.updateStopPlaces(
+      compact(
+        createStopPlaceWithLocation("NSR:StopPlace:3", "Trondheim", 63.436188, 10.398583)
+      )
+    );
+    assertEquals(1, compactions.size());
+
+    compactions.get(0).run();
+
+    List<StopPlace> result = spatialService.getStopPlacesWithinPolygon(
+      createPolygonAroundNorway()
+    );
+    assertEquals(
+      Set.of("NSR:StopPlace:2", "NSR:StopPlace:3"),
+      result.stream().map(StopPlace::getId).collect(Collectors.toSet())
+    );
+    assertTrue(
+      spatialService.getStopPlacesWithinPolygon(createSmallPolygonAroundOslo()).isEmpty()
+    );
+  }
+
   // Helper methods
+  private List<CompactStopPlace> compact(List<StopPlace> stopPlaces) {
+    return stopPlaces.stream().map(CompactStopPlace::of).toList();
+  }
+
+  private List<CompactStopPlace> compact(StopPlace... stopPlaces) {
+    return compact(List.of(stopPlaces));
+  }
+
   private StopPlace createStopPlace(String id, String name) {
     StopPlace stopPlace = new StopPlace();
     stopPlace.setId(id);
@@ -444,6 +618,15 @@ class StopPlaceSpatialServiceTest {
     return stopPlace;
   }
 
+  private BoundingBoxFilterParams createOsloBoundingBox() {
+    return new BoundingBoxFilterParams(
+      BigDecimal.valueOf(59.920), // NE Lat
+      BigDecimal.valueOf(10.760), // NE Lng
+      BigDecimal.valueOf(59.900), // SW Lat
+      BigDecimal.valueOf(10.740) // SW Lng
+    );
+  }
+
   private Polygon createSmallPolygonAroundOslo() {
     // Small polygon around Oslo S coordinates (59.911491, 10.750375)
     return geometryFactory.createPolygon(